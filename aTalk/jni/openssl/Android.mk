@@ -24,7 +24,8 @@ LOCAL_STATIC_LIBRARIES := libcrypto libssl
 LOCAL_SRC_FILES := \
  Hmac.c \
  OpenSslWrapperLoader.c \
- SrtpCipherCtrOpenSsl.c
+ SrtpCipherCtrOpenSsl.c \
+ SrtpCipherGcmOpenSsl.c
 LOCAL_C_INCLUDES := $(LOCAL_PATH)/android/$(TARGET_ARCH_ABI)/include
 LOCAL_CFLAGS = -DFIXED_POINT -DUSE_KISS_FFT -DEXPORT="" -UHAVE_CONFIG_H -Wdeprecated-declarations
 
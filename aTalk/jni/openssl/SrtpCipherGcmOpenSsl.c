@@ -0,0 +1,164 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "SrtpCipherGcmOpenSsl.h"
+
+#include <openssl/evp.h>
+#include <stdint.h>
+#include <stdlib.h>
+
+#define AESGCM_IV_LENGTH 12
+#define AESGCM_TAG_LENGTH 16
+
+/*
+ * The AAD of an SRTP packet is its RTP header; anything larger is copied to the heap.
+ */
+#define AESGCM_AAD_STACK_LENGTH 256
+
+/*
+ * Class:     org_atalk_impl_neomedia_transform_srtp_crypto_SrtpCipherGcmOpenSsl
+ * Method:    AESGCM_CTX_create
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL
+Java_org_atalk_impl_neomedia_transform_srtp_crypto_SrtpCipherGcmOpenSsl_AESGCM_1CTX_1create
+  (JNIEnv *env, jclass clazz)
+{
+    EVP_CIPHER_CTX *ctx = EVP_CIPHER_CTX_new();
+    return (jlong) (intptr_t) ctx;
+}
+
+/*
+ * Class:     org_atalk_impl_neomedia_transform_srtp_crypto_SrtpCipherGcmOpenSsl
+ * Method:    AESGCM_CTX_destroy
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL
+Java_org_atalk_impl_neomedia_transform_srtp_crypto_SrtpCipherGcmOpenSsl_AESGCM_1CTX_1destroy
+  (JNIEnv *env, jclass clazz, jlong ctx)
+{
+    if (ctx) {
+        EVP_CIPHER_CTX *ctx_ = (EVP_CIPHER_CTX *) (intptr_t) ctx;
+        EVP_CIPHER_CTX_free(ctx_);
+    }
+}
+
+/*
+ * Class:     org_atalk_impl_neomedia_transform_srtp_crypto_SrtpCipherGcmOpenSsl
+ * Method:    AESGCM_CTX_init
+ * Signature: (J[BI)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_atalk_impl_neomedia_transform_srtp_crypto_SrtpCipherGcmOpenSsl_AESGCM_1CTX_1init
+  (JNIEnv *env, jclass clazz, jlong ctx, jbyteArray key, jint keyLen)
+{
+    EVP_CIPHER_CTX *ctx_ = (EVP_CIPHER_CTX *) (intptr_t) ctx;
+    const EVP_CIPHER *cipher;
+    unsigned char key_[32];
+
+    if (keyLen == 16)
+        cipher = EVP_aes_128_gcm();
+    else if (keyLen == 32)
+        cipher = EVP_aes_256_gcm();
+    else
+        return JNI_FALSE;
+
+    (*env)->GetByteArrayRegion(env, key, 0, keyLen, (signed char*) key_);
+    if (!EVP_CipherInit_ex(ctx_, cipher, NULL, NULL, NULL, 1))
+        return JNI_FALSE;
+    if (!EVP_CIPHER_CTX_ctrl(ctx_, EVP_CTRL_GCM_SET_IVLEN, AESGCM_IV_LENGTH, NULL))
+        return JNI_FALSE;
+    return EVP_CipherInit_ex(ctx_, NULL, NULL, key_, NULL, 1);
+}
+
+/*
+ * Class:     org_atalk_impl_neomedia_transform_srtp_crypto_SrtpCipherGcmOpenSsl
+ * Method:    AESGCM_CTX_process
+ * Signature: (JZ[B[BII[BII)Z
+ *
+ * Encrypts len bytes in place and writes the tag after the ciphertext; or authenticates and
+ * decrypts len bytes in place where the last AESGCM_TAG_LENGTH bytes are the tag.
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_atalk_impl_neomedia_transform_srtp_crypto_SrtpCipherGcmOpenSsl_AESGCM_1CTX_1process
+  (JNIEnv *env, jclass clazz, jlong ctx, jboolean encrypt, jbyteArray iv,
+   jbyteArray inOut, jint offset, jint len, jbyteArray aad, jint aadOffset, jint aadLen)
+{
+    EVP_CIPHER_CTX *ctx_ = (EVP_CIPHER_CTX *) (intptr_t) ctx;
+    int ok = 0;
+    int outl;
+    unsigned char iv_[AESGCM_IV_LENGTH];
+    unsigned char aadStack[AESGCM_AAD_STACK_LENGTH];
+    unsigned char *aad_ = NULL;
+    unsigned char *aadHeap = NULL;
+    jboolean aadInOut;
+    jbyte *inOut_;
+
+    (*env)->GetByteArrayRegion(env, iv, 0, AESGCM_IV_LENGTH, (signed char*) iv_);
+
+    /* No JNI calls are allowed within the critical region; so fetch the AAD first. */
+    aadInOut = (*env)->IsSameObject(env, aad, inOut);
+    if (!aadInOut && aadLen > 0) {
+        if (aadLen > AESGCM_AAD_STACK_LENGTH) {
+            aadHeap = malloc(aadLen);
+            if (!aadHeap)
+                return JNI_FALSE;
+            aad_ = aadHeap;
+        }
+        else {
+            aad_ = aadStack;
+        }
+        (*env)->GetByteArrayRegion(env, aad, aadOffset, aadLen, (signed char*) aad_);
+    }
+
+    inOut_ = (*env)->GetPrimitiveArrayCritical(env, inOut, NULL);
+    if (!inOut_)
+        goto exit;
+    if (aadInOut)
+        aad_ = (unsigned char *) (inOut_ + aadOffset);
+
+    unsigned char *data = (unsigned char *) (inOut_ + offset);
+    int dataLen = encrypt ? len : len - AESGCM_TAG_LENGTH;
+
+    ok = EVP_CipherInit_ex(ctx_, NULL, NULL, NULL, iv_, encrypt ? 1 : 0);
+    if (ok && aadLen > 0)
+        ok = EVP_CipherUpdate(ctx_, NULL, &outl, aad_, aadLen);
+    if (ok)
+        ok = EVP_CipherUpdate(ctx_, data, &outl, data, dataLen);
+    if (!ok)
+        goto exit;
+
+    if (encrypt) {
+        ok = EVP_CipherFinal_ex(ctx_, data + dataLen, &outl);
+        if (ok)
+            ok = EVP_CIPHER_CTX_ctrl(ctx_, EVP_CTRL_GCM_GET_TAG, AESGCM_TAG_LENGTH, data + dataLen);
+    }
+    else {
+        ok = EVP_CIPHER_CTX_ctrl(ctx_, EVP_CTRL_GCM_SET_TAG, AESGCM_TAG_LENGTH, data + dataLen);
+        /* Final verifies the tag; GCM produces no further output. */
+        if (ok)
+            ok = EVP_CipherFinal_ex(ctx_, data + dataLen, &outl) > 0;
+    }
+
+exit:
+    if (inOut_)
+        (*env)->ReleasePrimitiveArrayCritical(env, inOut, inOut_, 0);
+    if (aadHeap)
+        free(aadHeap);
+
+    return ok ? JNI_TRUE : JNI_FALSE;
+}
@@ -53,6 +53,10 @@ public class ConfigurationActivator implements BundleActivator
     public void stop(BundleContext bundleContext)
             throws Exception
     {
+        // write out any pending (write-behind) property changes
+        ConfigurationService configurationService = LibJitsi.getConfigurationService();
+        if (configurationService != null)
+            configurationService.storeConfiguration();
     }
 
     /**
@@ -24,6 +24,7 @@ import org.atalk.service.osgi.OSGiService;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import timber.log.Timber;
 
@@ -79,6 +80,10 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore
         Cursor cursor = null;
         Object value = properties.get(name);
         if (value == null) {
+            // pending removal not yet written to the database
+            if (getDirtyValue(name) == REMOVED)
+                return System.getProperty(name);
+
             String[] columns = {COLUMN_VALUE};
             synchronized (openHelper) {
                 mDB = openHelper.getReadableDatabase();
@@ -128,6 +133,9 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore
         List<String> propertyNames = new ArrayList<>();
         String tableName;
 
+        // the pending changes must be in the database for the names enumeration
+        flush();
+
         synchronized (openHelper) {
             mDB = openHelper.getReadableDatabase();
             if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
@@ -147,6 +155,40 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore
         return propertyNames.toArray(new String[0]);
     }
 
+    /**
+     * Overrides {@link HashtableConfigurationStore#getPropertyNamesByPrefix(String)}. Gets the
+     * names of the properties which start with the specified prefix, with a range query on the
+     * table TABLE_NAME primary key index; instead of reading and filtering all the property names.
+     * The account properties table is looked up as per {@link #getPropertyNames(String)}.
+     *
+     * @param prefix the prefix of the property names to get
+     * @return an array of <tt>String</tt>s which specify the names of the properties starting
+     * with <tt>prefix</tt>; an empty array if none
+     * @see ConfigurationStore#getPropertyNamesByPrefix(String)
+     */
+    @Override
+    public String[] getPropertyNamesByPrefix(String prefix)
+    {
+        if (prefix.startsWith(AccountID.ACCOUNT_UUID_PREFIX))
+            return getPropertyNames(prefix);
+
+        List<String> propertyNames = new ArrayList<>();
+        flush();
+
+        // All names starting with prefix sort within [prefix, prefix + U+FFFF)
+        String[] args = {prefix, prefix + Character.MAX_VALUE};
+        synchronized (openHelper) {
+            mDB = openHelper.getReadableDatabase();
+            try (Cursor cursor = mDB.query(TABLE_NAME, new String[]{COLUMN_NAME},
+                    COLUMN_NAME + ">=? AND " + COLUMN_NAME + "<?", args, null, null, COLUMN_NAME + " ASC")) {
+                while (cursor.moveToNext()) {
+                    propertyNames.add(cursor.getString(0));
+                }
+            }
+        }
+        return propertyNames.toArray(new String[0]);
+    }
+
     /**
      * Removes all property name-value associations currently present in this
      * <tt>ConfigurationStore</tt> instance and de-serializes new property name-value
@@ -174,26 +216,7 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore
     public void removeProperty(String name)
     {
         super.removeProperty(name);
-        synchronized (openHelper) {
-            mDB = openHelper.getWritableDatabase();
-            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
-                int idx = name.indexOf(".");
-                // remove user account if only accountUuid is specified
-                if (idx == -1) {
-                    String[] args = {name};
-                    mDB.delete(AccountID.TABLE_NAME, AccountID.ACCOUNT_UUID + "=?", args);
-                }
-                // Otherwise, remove the accountProperty from the AccountID.TBL_PROPERTIES
-                else {
-                    String[] args = {name.substring(0, idx), name.substring(idx + 1)};
-                    mDB.delete(AccountID.TBL_PROPERTIES,
-                            AccountID.ACCOUNT_UUID + "=? AND " + COLUMN_NAME + "=?", args);
-                }
-            }
-            else {
-                mDB.delete(TABLE_NAME, COLUMN_NAME + "=?", new String[]{name});
-            }
-        }
+        markDirty(name, REMOVED);
         Timber.log(TimberLog.FINER, "### Remove property from table: %s", name);
     }
 
@@ -208,32 +231,102 @@ public class SQLiteConfigurationStore extends DatabaseConfigurationStore
      */
     @Override
     public void setNonSystemProperty(String name, Object value)
+    {
+        // To take care of cached properties and accountProperties
+        super.setNonSystemProperty(name, value);
+        markDirty(name, value);
+    }
+
+    /**
+     * Implements {@link DatabaseConfigurationStore#writeProperties(Map)}. Writes all the property
+     * changes in a single database transaction, so that either all or none of them are committed.
+     * If property name starts with "acc", the change is applied to table AccountID.TBL_PROPERTIES
+     * for the specified accountUuid, otherwise to table TABLE_NAME.
+     *
+     * @param changes the property name to its new value, or {@link #REMOVED} for removal
+     * @throws IOException if the transaction failed; none of the changes is committed
+     */
+    @Override
+    protected void writeProperties(Map<String, Object> changes)
+            throws IOException
     {
         synchronized (openHelper) {
             SQLiteDatabase mDB = openHelper.getWritableDatabase();
-            String tableName = TABLE_NAME;
-
-            ContentValues contentValues = new ContentValues();
-            contentValues.put(COLUMN_VALUE, value.toString());
+            mDB.beginTransaction();
+            try {
+                for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                    String name = entry.getKey();
+                    Object value = entry.getValue();
+                    if (value == REMOVED)
+                        deleteProperty(mDB, name);
+                    else
+                        replaceProperty(mDB, name, value);
+                }
+                mDB.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                throw new IOException("Failed to write configuration properties", e);
+            } finally {
+                mDB.endTransaction();
+            }
+        }
+    }
 
-            if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
-                int idx = name.indexOf(".");
-                contentValues.put(AccountID.ACCOUNT_UUID, name.substring(0, idx));
-                contentValues.put(COLUMN_NAME, name.substring(idx + 1));
-                tableName = AccountID.TBL_PROPERTIES;
+    /**
+     * Deletes the property with the specified name from the database.
+     *
+     * @param mDB the writable database
+     * @param name the property name
+     */
+    private void deleteProperty(SQLiteDatabase mDB, String name)
+    {
+        if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+            int idx = name.indexOf(".");
+            // remove user account if only accountUuid is specified
+            if (idx == -1) {
+                String[] args = {name};
+                mDB.delete(AccountID.TABLE_NAME, AccountID.ACCOUNT_UUID + "=?", args);
             }
+            // Otherwise, remove the accountProperty from the AccountID.TBL_PROPERTIES
             else {
-                contentValues.put(COLUMN_NAME, name);
+                String[] args = {name.substring(0, idx), name.substring(idx + 1)};
+                mDB.delete(AccountID.TBL_PROPERTIES,
+                        AccountID.ACCOUNT_UUID + "=? AND " + COLUMN_NAME + "=?", args);
             }
+        }
+        else {
+            mDB.delete(TABLE_NAME, COLUMN_NAME + "=?", new String[]{name});
+        }
+    }
 
-            // Insert the properties in DB, replace if exist
-            long rowId = mDB.replace(tableName, null, contentValues);
-            if (rowId == -1)
-                Timber.e("Failed to set non-system property: %s: %s <= %s", tableName, name, value);
+    /**
+     * Inserts or replaces the property with the specified name in the database.
+     *
+     * @param mDB the writable database
+     * @param name the property name
+     * @param value the property value
+     */
+    private void replaceProperty(SQLiteDatabase mDB, String name, Object value)
+    {
+        String tableName = TABLE_NAME;
+
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(COLUMN_VALUE, value.toString());
 
-            Timber.log(TimberLog.FINER, "### Set non-system property: %s: %s <= %s", tableName, name, value);
+        if (name.startsWith(AccountID.ACCOUNT_UUID_PREFIX)) {
+            int idx = name.indexOf(".");
+            contentValues.put(AccountID.ACCOUNT_UUID, name.substring(0, idx));
+            contentValues.put(COLUMN_NAME, name.substring(idx + 1));
+            tableName = AccountID.TBL_PROPERTIES;
         }
-        // To take care of cached properties and accountProperties
-        super.setNonSystemProperty(name, value);
+        else {
+            contentValues.put(COLUMN_NAME, name);
+        }
+
+        // Insert the properties in DB, replace if exist
+        long rowId = mDB.replace(tableName, null, contentValues);
+        if (rowId == -1)
+            Timber.e("Failed to set non-system property: %s: %s <= %s", tableName, name, value);
+
+        Timber.log(TimberLog.FINER, "### Set non-system property: %s: %s <= %s", tableName, name, value);
     }
 }
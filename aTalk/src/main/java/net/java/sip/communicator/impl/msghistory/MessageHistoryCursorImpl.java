@@ -0,0 +1,298 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import net.java.sip.communicator.service.msghistory.MessageHistoryCursor;
+
+import org.atalk.android.gui.chat.ChatMessage;
+import org.atalk.util.concurrent.ExecutorUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import timber.log.Timber;
+
+/**
+ * Keyset paginated implementation of the {@link MessageHistoryCursor}. Each page query continues
+ * strictly before the (timeStamp, rowid) of the last row of the previous page, and is served by
+ * the messages (chatSessionUuid, timeStamp) index without any growing OFFSET. The rowid breaks
+ * the ties between the rows of the same timeStamp; unlike the uuid, it is never null.
+ *
+ * @author Eng Chong Meng
+ */
+class MessageHistoryCursorImpl implements MessageHistoryCursor
+{
+    /**
+     * Converts the current row of a ChatMessage table cursor to its history event.
+     */
+    interface RowConverter
+    {
+        EventObject convert(Cursor cursor);
+    }
+
+    /**
+     * The shared background executor for the page prefetch of all the history cursors.
+     */
+    private static final ExecutorService prefetchExecutor
+            = ExecutorUtils.newCachedThreadPool(true, "MessageHistoryCursor");
+
+    /**
+     * The time to wait for a pending prefetch on close, before leaving its cursor to be closed by
+     * the prefetch thread.
+     */
+    private static final long CLOSE_TIMEOUT = 500;
+
+    /**
+     * The alias of the rowid column in the page queries.
+     */
+    private static final String KEY_ROW_ID = "keyRowId";
+
+    private static final String[] COLUMNS = {"*", "rowid AS " + KEY_ROW_ID};
+
+    private static final String ORDER_KEYSET_DESC = ChatMessage.TIME_STAMP + " DESC, rowid DESC";
+
+    private final SQLiteDatabase mDB;
+
+    /**
+     * The chat session uuids to include; with the converter for the rows of each session.
+     */
+    private final Map<String, RowConverter> sessionConverters;
+
+    private final int pageSize;
+
+    /**
+     * The keyset of the last row fetched; the next page starts strictly before it.
+     * keyRowId is -1 if only the timeStamp bound applies i.e. the first page.
+     */
+    private long keyTimeStamp;
+    private long keyRowId = -1;
+
+    /**
+     * The database cursor of the page currently being consumed.
+     */
+    private Cursor pageCursor = null;
+
+    /**
+     * The pending prefetch of the next page.
+     */
+    private Future<Cursor> prefetchFuture = null;
+
+    /**
+     * Set when the last page fetched was not a full page; i.e. the start of the history is reached.
+     */
+    private boolean lastPageFetched = false;
+
+    private boolean closed = false;
+
+    /**
+     * Creates a history cursor for the given sessions, starting before the endDate.
+     *
+     * @param db SQLite database
+     * @param sessionConverters the chat session uuids with the converter for each session rows
+     * @param endDate the cursor returns messages strictly before this date
+     * @param pageSize number of messages per page
+     */
+    MessageHistoryCursorImpl(SQLiteDatabase db, Map<String, RowConverter> sessionConverters, Date endDate,
+            int pageSize)
+    {
+        this.mDB = db;
+        this.sessionConverters = sessionConverters;
+        this.keyTimeStamp = endDate.getTime();
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Query the page after the current keyset, and advance the keyset to the last row of that page.
+     * The cursor window is filled before return, so the prefetch thread does the database work.
+     *
+     * @return the page cursor, positioned before its first row
+     */
+    private synchronized Cursor queryNextPage()
+    {
+        if (lastPageFetched || closed || sessionConverters.isEmpty())
+            return null;
+
+        List<String> args = new ArrayList<>();
+        StringBuilder where = new StringBuilder(ChatMessage.SESSION_UUID + " IN (");
+        for (String sessionUuid : sessionConverters.keySet()) {
+            where.append(args.isEmpty() ? "?" : ", ?");
+            args.add(sessionUuid);
+        }
+        where.append(") AND ");
+
+        String timeStamp = String.valueOf(keyTimeStamp);
+        if (keyRowId < 0) {
+            where.append(ChatMessage.TIME_STAMP + "<?");
+            args.add(timeStamp);
+        }
+        else {
+            where.append("(" + ChatMessage.TIME_STAMP + "<? OR (" + ChatMessage.TIME_STAMP + "=? AND rowid<?))");
+            args.add(timeStamp);
+            args.add(timeStamp);
+            args.add(String.valueOf(keyRowId));
+        }
+
+        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, COLUMNS, where.toString(), args.toArray(new String[0]),
+                null, null, ORDER_KEYSET_DESC, String.valueOf(pageSize));
+
+        int count = cursor.getCount();
+        if (count < pageSize)
+            lastPageFetched = true;
+
+        if (cursor.moveToLast()) {
+            keyTimeStamp = cursor.getLong(cursor.getColumnIndex(ChatMessage.TIME_STAMP));
+            keyRowId = cursor.getLong(cursor.getColumnIndex(KEY_ROW_ID));
+        }
+        cursor.moveToPosition(-1);
+        return cursor;
+    }
+
+    /**
+     * Take the prefetched page if available, else query it now.
+     *
+     * @return the next page cursor or null if none
+     */
+    private Cursor takeNextPage()
+    {
+        Future<Cursor> future;
+        synchronized (this) {
+            future = prefetchFuture;
+            prefetchFuture = null;
+        }
+        if (future != null) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Timber.w("History page prefetch failed: %s", e.getCause());
+            }
+        }
+        return queryNextPage();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while ((pageCursor == null) || pageCursor.isLast() || pageCursor.isAfterLast()
+                || (pageCursor.getCount() == 0)) {
+            if (pageCursor != null) {
+                pageCursor.close();
+                pageCursor = null;
+            }
+            pageCursor = takeNextPage();
+            if (pageCursor == null)
+                return false;
+            if (pageCursor.getCount() != 0)
+                return true;
+        }
+        return true;
+    }
+
+    @Override
+    public EventObject next()
+    {
+        if (!hasNext() || !pageCursor.moveToNext())
+            throw new NoSuchElementException();
+
+        String sessionUuid = pageCursor.getString(pageCursor.getColumnIndex(ChatMessage.SESSION_UUID));
+        RowConverter converter = sessionConverters.get(sessionUuid);
+        return (converter == null) ? null : converter.convert(pageCursor);
+    }
+
+    @Override
+    public List<EventObject> nextPage()
+    {
+        LinkedList<EventObject> page = new LinkedList<>();
+        while ((page.size() < pageSize) && hasNext()) {
+            EventObject evt = next();
+            if (evt != null)
+                page.addFirst(evt);
+        }
+        return page;
+    }
+
+    @Override
+    public synchronized void prefetch()
+    {
+        if ((prefetchFuture == null) && !lastPageFetched && !closed) {
+            prefetchFuture = prefetchExecutor.submit(new Callable<Cursor>()
+            {
+                @Override
+                public Cursor call()
+                {
+                    return queryNextPage();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        Future<Cursor> future;
+        synchronized (this) {
+            closed = true;
+            future = prefetchFuture;
+            prefetchFuture = null;
+        }
+        if (future != null) {
+            try {
+                closeCursor(future.get(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                closeWhenDone(future);
+            } catch (TimeoutException e) {
+                closeWhenDone(future);
+            } catch (ExecutionException ignore) {
+            }
+        }
+        if (pageCursor != null) {
+            pageCursor.close();
+            pageCursor = null;
+        }
+    }
+
+    /**
+     * Close the cursor of a prefetch still running, once it completes.
+     *
+     * @param future the pending prefetch
+     */
+    private static void closeWhenDone(final Future<Cursor> future)
+    {
+        prefetchExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    closeCursor(future.get());
+                } catch (InterruptedException | ExecutionException ignore) {
+                }
+            }
+        });
+    }
+
+    private static void closeCursor(Cursor cursor)
+    {
+        if (cursor != null)
+            cursor.close();
+    }
+}
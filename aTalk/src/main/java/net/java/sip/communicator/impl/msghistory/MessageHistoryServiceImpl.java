@@ -31,6 +31,7 @@ import net.java.sip.communicator.service.history.HistoryService;
 import net.java.sip.communicator.service.history.event.HistorySearchProgressListener;
 import net.java.sip.communicator.service.history.event.ProgressEvent;
 import net.java.sip.communicator.service.msghistory.MessageHistoryAdvancedService;
+import net.java.sip.communicator.service.msghistory.MessageHistoryCursor;
 import net.java.sip.communicator.service.msghistory.MessageHistoryService;
 import net.java.sip.communicator.service.msghistory.event.MessageHistorySearchProgressListener;
 import net.java.sip.communicator.service.muc.ChatRoomWrapper;
@@ -125,6 +126,9 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         this.bundleContext = bc;
         mDB = DatabaseBackend.getWritableDB();
 
+        // Resume indexing of any messages not yet in the search index e.g. after database upgrade
+        MessageSearchIndex.startBackfill(mDB);
+
         ServiceReference refConfig = bundleContext.getServiceReference(ConfigurationService.class.getName());
         configService = (ConfigurationService) bundleContext.getService(refConfig);
 
@@ -541,6 +545,34 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         return result;
     }
 
+    /**
+     * Returns a keyset paged streaming cursor over the messages exchanged with the given descriptor
+     * before the given date, walking backward in time.
+     *
+     * @param descriptor MetaContact or ChatRoom
+     * @param endDate the cursor returns messages strictly before this date
+     * @param pageSize number of messages per page
+     * @return MessageHistoryCursor of MessageReceivedEvents or MessageDeliveredEvents
+     */
+    public MessageHistoryCursor getHistoryCursor(Object descriptor, Date endDate, int pageSize)
+    {
+        Map<String, MessageHistoryCursorImpl.RowConverter> sessionConverters = new HashMap<>();
+        if (descriptor instanceof MetaContact) {
+            Iterator<Contact> contacts = ((MetaContact) descriptor).getContacts();
+            while (contacts.hasNext()) {
+                final Contact contact = contacts.next();
+                sessionConverters.put(getSessionUuidByJid(contact),
+                        cursor -> convertHistoryRecordToMessageEvent(cursor, contact));
+            }
+        }
+        else if (descriptor instanceof ChatRoom) {
+            final ChatRoom room = (ChatRoom) descriptor;
+            sessionConverters.put(getSessionUuidByJid(room),
+                    cursor -> convertHistoryRecordToMessageEvent(cursor, room));
+        }
+        return new MessageHistoryCursorImpl(mDB, sessionConverters, endDate, pageSize);
+    }
+
     // ============== ChatSessionFragment utilities ======================
 
     /**
@@ -1674,21 +1706,18 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         HashSet<EventObject> result = new HashSet<>();
         String startTimeStamp = String.valueOf(startDate.getTime());
         String endTimeStamp = String.valueOf(endDate.getTime());
-        String filterLike = "( ";
-        for (String word : keywords) {
-            filterLike += ChatMessage.MSG_BODY + " LIKE '%" + word + "%' OR ";
-        }
-        filterLike = filterLike.substring(0, filterLike.length() - 4) + " )";
 
         Iterator<Contact> contacts = metaContact.getContacts();
         while (contacts.hasNext()) {
             Contact contact = contacts.next();
             String sessionUuid = getSessionUuidByJid(contact);
-            String[] args = {sessionUuid, startTimeStamp, endTimeStamp};
+            List<String> argList = new ArrayList<>(Arrays.asList(sessionUuid, startTimeStamp, endTimeStamp));
+            String filterMatch = MessageSearchIndex.getKeywordsFilter(mDB, keywords, argList);
+            String[] args = argList.toArray(new String[0]);
 
             Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
                     ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=? AND "
-                            + ChatMessage.TIME_STAMP + "<? AND " + filterLike, args, null, null, ORDER_ASC);
+                            + ChatMessage.TIME_STAMP + "<? AND " + filterMatch, args, null, null, ORDER_ASC);
 
             while (cursor.moveToNext()) {
                 result.add(convertHistoryRecordToMessageEvent(cursor, contact));
@@ -1709,23 +1738,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
     public Collection<EventObject> findByKeyword(MetaContact metaContact, String keyword,
             boolean caseSensitive)
     {
-        HashSet<EventObject> result = new HashSet<>();
-        String filterLike = "( " + ChatMessage.MSG_BODY + " LIKE '%" + keyword + "%' )";
-
-        Iterator<Contact> contacts = metaContact.getContacts();
-        while (contacts.hasNext()) {
-            Contact contact = contacts.next();
-            String sessionUuid = getSessionUuidByJid(contact);
-            String[] args = {sessionUuid};
-
-            Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
-                    ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
-
-            while (cursor.moveToNext()) {
-                result.add(convertHistoryRecordToMessageEvent(cursor, contact));
-            }
-        }
-        return result;
+        return findByKeywords(metaContact, new String[]{keyword}, caseSensitive);
     }
 
     /**
@@ -1741,20 +1754,17 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
             String[] keywords, boolean caseSensitive)
     {
         HashSet<EventObject> result = new HashSet<>();
-        String filterLike = "( ";
-        for (String word : keywords) {
-            filterLike += ChatMessage.MSG_BODY + " LIKE '%" + word + "%' OR ";
-        }
-        filterLike = filterLike.substring(0, filterLike.length() - 4) + " )";
 
         Iterator<Contact> contacts = metaContact.getContacts();
         while (contacts.hasNext()) {
             Contact contact = contacts.next();
             String sessionUuid = getSessionUuidByJid(contact);
-            String[] args = {sessionUuid};
+            List<String> argList = new ArrayList<>(Collections.singletonList(sessionUuid));
+            String filterMatch = MessageSearchIndex.getKeywordsFilter(mDB, keywords, argList);
+            String[] args = argList.toArray(new String[0]);
 
             Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
-                    ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
+                    ChatMessage.SESSION_UUID + "=? AND " + filterMatch, args, null, null, ORDER_ASC);
 
             while (cursor.moveToNext()) {
                 result.add(convertHistoryRecordToMessageEvent(cursor, contact));
@@ -1763,6 +1773,62 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         return result;
     }
 
+    /**
+     * Returns a page of the messages exchanged by all the contacts in the supplied metaContact
+     * having any of the given keywords, ranked by relevance then by recency.
+     *
+     * @param metaContact MetaContact
+     * @param keywords array of keywords
+     * @param offset number of ranked messages to skip
+     * @param count maximum number of messages to return
+     * @return List of MessageReceivedEvents or MessageDeliveredEvents in rank order
+     */
+    public List<EventObject> findByKeywords(MetaContact metaContact, String[] keywords, int offset, int count)
+    {
+        Map<String, Contact> sessionContacts = new HashMap<>();
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext()) {
+            Contact contact = contacts.next();
+            sessionContacts.put(getSessionUuidByJid(contact), contact);
+        }
+
+        List<Long> rowIds = MessageSearchIndex.search(mDB, sessionContacts.keySet(), null, null,
+                keywords, offset, count);
+        List<EventObject> result = new ArrayList<>(rowIds.size());
+        Cursor cursor = queryByRowIds(rowIds);
+        int sessionIdx = cursor.getColumnIndex(ChatMessage.SESSION_UUID);
+        while (cursor.moveToNext()) {
+            Contact contact = sessionContacts.get(cursor.getString(sessionIdx));
+            if (contact != null)
+                result.add(convertHistoryRecordToMessageEvent(cursor, contact));
+        }
+        cursor.close();
+        return result;
+    }
+
+    /**
+     * Query the ChatMessage rows for the given rowids, returning the cursor rows in the same order.
+     *
+     * @param rowIds the ChatMessage rowids
+     * @return Cursor of the ChatMessage rows
+     */
+    private Cursor queryByRowIds(List<Long> rowIds)
+    {
+        StringBuilder rowIdList = new StringBuilder();
+        StringBuilder orderBy = new StringBuilder("CASE rowid");
+        for (int i = 0; i < rowIds.size(); i++) {
+            if (i > 0)
+                rowIdList.append(", ");
+            rowIdList.append(rowIds.get(i));
+            orderBy.append(" WHEN ").append(rowIds.get(i)).append(" THEN ").append(i);
+        }
+        orderBy.append(" END");
+
+        // rowIds are numeric values from the search index, safe to inline
+        return mDB.query(ChatMessage.TABLE_NAME, null, "rowid IN (" + rowIdList + ")", null,
+                null, null, rowIds.isEmpty() ? null : orderBy.toString());
+    }
+
     /**
      * Returns all the messages exchanged in the supplied chat room on and after the given date
      *
@@ -1871,16 +1937,13 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         String startTimeStamp = String.valueOf(startDate.getTime());
         String endTimeStamp = String.valueOf(endDate.getTime());
         String sessionUuid = getSessionUuidByJid(room);
-        String[] args = {sessionUuid, startTimeStamp, endTimeStamp};
-        String filterLike = "( ";
-        for (String word : keywords) {
-            filterLike += ChatMessage.MSG_BODY + " LIKE '%" + word + "%' OR ";
-        }
-        filterLike = filterLike.substring(0, filterLike.length() - 4) + " )";
+        List<String> argList = new ArrayList<>(Arrays.asList(sessionUuid, startTimeStamp, endTimeStamp));
+        String filterMatch = MessageSearchIndex.getKeywordsFilter(mDB, keywords, argList);
+        String[] args = argList.toArray(new String[0]);
 
         Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
                 ChatMessage.SESSION_UUID + "=? AND " + ChatMessage.TIME_STAMP + ">=? AND "
-                        + ChatMessage.TIME_STAMP + "<? AND " + filterLike, args, null, null, ORDER_ASC);
+                        + ChatMessage.TIME_STAMP + "<? AND " + filterMatch, args, null, null, ORDER_ASC);
 
         while (cursor.moveToNext()) {
             result.add(convertHistoryRecordToMessageEvent(cursor, room));
@@ -1912,18 +1975,7 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
     public Collection<EventObject> findByKeyword(ChatRoom room, String keyword,
             boolean caseSensitive)
     {
-        HashSet<EventObject> result = new HashSet<>();
-        String sessionUuid = getSessionUuidByJid(room);
-        String[] args = {sessionUuid};
-        String filterLike = "( " + ChatMessage.MSG_BODY + " LIKE '%" + keyword + "%' )";
-
-        Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
-                ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
-
-        while (cursor.moveToNext()) {
-            result.add(convertHistoryRecordToMessageEvent(cursor, room));
-        }
-        return result;
+        return findByKeywords(room, new String[]{keyword}, caseSensitive);
     }
 
     /**
@@ -1953,15 +2005,12 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
     {
         HashSet<EventObject> result = new HashSet<>();
         String sessionUuid = getSessionUuidByJid(room);
-        String[] args = {sessionUuid};
-        String filterLike = "( ";
-        for (String word : keywords) {
-            filterLike += ChatMessage.MSG_BODY + " LIKE '%" + word + "%' OR ";
-        }
-        filterLike = filterLike.substring(0, filterLike.length() - 4) + " )";
+        List<String> argList = new ArrayList<>(Collections.singletonList(sessionUuid));
+        String filterMatch = MessageSearchIndex.getKeywordsFilter(mDB, keywords, argList);
+        String[] args = argList.toArray(new String[0]);
 
         Cursor cursor = mDB.query(ChatMessage.TABLE_NAME, null,
-                ChatMessage.SESSION_UUID + "=? AND " + filterLike, args, null, null, ORDER_ASC);
+                ChatMessage.SESSION_UUID + "=? AND " + filterMatch, args, null, null, ORDER_ASC);
 
         while (cursor.moveToNext()) {
             result.add(convertHistoryRecordToMessageEvent(cursor, room));
@@ -1969,6 +2018,31 @@ public class MessageHistoryServiceImpl implements MessageHistoryService,
         return result;
     }
 
+    /**
+     * Returns a page of the messages exchanged in the supplied chat room having any of the given
+     * keywords, ranked by relevance then by recency.
+     *
+     * @param room The chat room
+     * @param keywords array of keywords
+     * @param offset number of ranked messages to skip
+     * @param count maximum number of messages to return
+     * @return List of MessageReceivedEvents or MessageDeliveredEvents in rank order
+     */
+    public List<EventObject> findByKeywords(ChatRoom room, String[] keywords, int offset, int count)
+    {
+        String sessionUuid = getSessionUuidByJid(room);
+        List<Long> rowIds = MessageSearchIndex.search(mDB, Collections.singletonList(sessionUuid), null, null,
+                keywords, offset, count);
+
+        List<EventObject> result = new ArrayList<>(rowIds.size());
+        Cursor cursor = queryByRowIds(rowIds);
+        while (cursor.moveToNext()) {
+            result.add(convertHistoryRecordToMessageEvent(cursor, room));
+        }
+        cursor.close();
+        return result;
+    }
+
     /**
      * Returns the supplied number of recent messages exchanged in the supplied chat room
      *
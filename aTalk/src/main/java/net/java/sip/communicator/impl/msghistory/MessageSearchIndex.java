@@ -0,0 +1,421 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.msghistory;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.atalk.android.gui.chat.ChatMessage;
+
+import java.util.*;
+
+import timber.log.Timber;
+
+/**
+ * Full-text search index for the ChatMessage msgBody column, backed by an SQLite FTS4 virtual table.
+ * The index rows use the ChatMessage rowid as their docid, and are kept in sync incrementally by
+ * database triggers on every insert, delete and msgBody update of the ChatMessage table.
+ *
+ * Databases upgraded from an older version are back-filled in the background, newest messages
+ * first; all the rows with rowid below {@link #backfillWatermark} are not yet indexed, and the
+ * search falls back to the LIKE filter for those rows until back-filling has completed.
+ *
+ * @author Eng Chong Meng
+ */
+public class MessageSearchIndex
+{
+    /* DB database table and column fields for the message search index */
+    public static final String TABLE_NAME = "messagesFts";
+    public static final String DOC_ID = "docid";
+    private static final String ROW_ID = "rowid";
+
+    /**
+     * Create the FTS4 index table; unicode61 tokenizer folds case for non-ASCII text too.
+     */
+    public static final String CREATE_FTS_STATEMENT = "CREATE VIRTUAL TABLE " + TABLE_NAME
+            + " USING fts4(" + ChatMessage.MSG_BODY + ", tokenize=unicode61);";
+
+    /**
+     * Triggers to keep the index in sync with the ChatMessage table. The ChatMessage UUID
+     * "ON CONFLICT REPLACE" does not fire the delete triggers, so the stale index entry of the
+     * replaced row is removed before the insertion.
+     */
+    public static final String[] CREATE_TRIGGER_STATEMENTS = {
+            "CREATE TRIGGER IF NOT EXISTS messagesFts_bi BEFORE INSERT ON " + ChatMessage.TABLE_NAME
+                    + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + DOC_ID + " IN (SELECT " + ROW_ID
+                    + " FROM " + ChatMessage.TABLE_NAME + " WHERE " + ChatMessage.UUID + "=new." + ChatMessage.UUID
+                    + "); END;",
+
+            "CREATE TRIGGER IF NOT EXISTS messagesFts_ai AFTER INSERT ON " + ChatMessage.TABLE_NAME
+                    + " BEGIN INSERT INTO " + TABLE_NAME + "(" + DOC_ID + ", " + ChatMessage.MSG_BODY
+                    + ") VALUES (new." + ROW_ID + ", new." + ChatMessage.MSG_BODY + "); END;",
+
+            "CREATE TRIGGER IF NOT EXISTS messagesFts_bd BEFORE DELETE ON " + ChatMessage.TABLE_NAME
+                    + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + DOC_ID + "=old." + ROW_ID + "; END;",
+
+            "CREATE TRIGGER IF NOT EXISTS messagesFts_bu BEFORE UPDATE OF " + ChatMessage.MSG_BODY + " ON "
+                    + ChatMessage.TABLE_NAME
+                    + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + DOC_ID + "=old." + ROW_ID + "; END;",
+
+            "CREATE TRIGGER IF NOT EXISTS messagesFts_au AFTER UPDATE OF " + ChatMessage.MSG_BODY + " ON "
+                    + ChatMessage.TABLE_NAME
+                    + " BEGIN INSERT INTO " + TABLE_NAME + "(" + DOC_ID + ", " + ChatMessage.MSG_BODY
+                    + ") VALUES (new." + ROW_ID + ", new." + ChatMessage.MSG_BODY + "); END;"
+    };
+
+    /**
+     * Number of ChatMessage rows indexed per back-fill transaction; keep it small so that the
+     * back-fill does not hold the database write lock for long.
+     */
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
+    /**
+     * All ChatMessage rows with rowid below the watermark are not yet indexed; 0 when the index is complete,
+     * and -1 if it has not been determined.
+     */
+    private static volatile long backfillWatermark = -1;
+
+    /**
+     * The back-fill thread if one is running.
+     */
+    private static Thread backfillThread = null;
+
+    /**
+     * Create the search index table and its triggers.
+     *
+     * @param db SQLite database
+     */
+    public static void createIndex(SQLiteDatabase db)
+    {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+        db.execSQL(CREATE_FTS_STATEMENT);
+        for (String trigger : CREATE_TRIGGER_STATEMENTS) {
+            db.execSQL(trigger);
+        }
+    }
+
+    /**
+     * Start back-filling the index in the background if there are ChatMessage rows not yet indexed.
+     * Back-filling resumes from the current watermark, so it is safe to call on every start up.
+     *
+     * @param db SQLite database
+     */
+    public static synchronized void startBackfill(final SQLiteDatabase db)
+    {
+        if ((backfillThread != null) && backfillThread.isAlive())
+            return;
+
+        backfillThread = new Thread("MessageSearchIndex backfill")
+        {
+            @Override
+            public void run()
+            {
+                backfill(db);
+            }
+        };
+        backfillThread.setPriority(Thread.MIN_PRIORITY);
+        backfillThread.setDaemon(true);
+        backfillThread.start();
+    }
+
+    /**
+     * Index all the ChatMessage rows below the watermark in batches, newest first.
+     *
+     * @param db SQLite database
+     */
+    private static void backfill(SQLiteDatabase db)
+    {
+        long indexed = 0;
+        try {
+            long watermark = updateWatermark(db);
+            while (watermark > 0) {
+                String hi = String.valueOf(watermark);
+                db.beginTransaction();
+                try {
+                    db.execSQL("INSERT INTO " + TABLE_NAME + "(" + DOC_ID + ", " + ChatMessage.MSG_BODY
+                                    + ") SELECT " + ROW_ID + ", " + ChatMessage.MSG_BODY + " FROM " + ChatMessage.TABLE_NAME
+                                    + " WHERE " + ROW_ID + "<? AND " + ROW_ID + " NOT IN (SELECT " + DOC_ID + " FROM "
+                                    + TABLE_NAME + " WHERE " + DOC_ID + "<?) ORDER BY " + ROW_ID + " DESC LIMIT "
+                                    + BACKFILL_BATCH_SIZE,
+                            new Object[]{hi, hi});
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                indexed += BACKFILL_BATCH_SIZE;
+                watermark = updateWatermark(db);
+            }
+            Timber.i("Message search index back-fill completed (~%s messages)", indexed);
+        } catch (Exception e) {
+            // Leave the watermark as is; the LIKE fallback still covers the rows not yet indexed
+            Timber.w("Message search index back-fill aborted: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Recompute the back-fill watermark from the database content: i.e. the lowest indexed docid,
+     * or one above the highest ChatMessage rowid when the index is still empty.
+     *
+     * @param db SQLite database
+     * @return the new watermark, 0 if all rows are indexed
+     */
+    private static long updateWatermark(SQLiteDatabase db)
+    {
+        long watermark = Long.MAX_VALUE;
+        Cursor cursor = db.rawQuery("SELECT " + DOC_ID + " FROM " + TABLE_NAME + " ORDER BY "
+                + DOC_ID + " ASC LIMIT 1", null);
+        if (cursor.moveToNext())
+            watermark = cursor.getLong(0);
+        cursor.close();
+
+        String[] args = {String.valueOf(watermark)};
+        cursor = db.rawQuery("SELECT " + ROW_ID + " FROM " + ChatMessage.TABLE_NAME + " WHERE "
+                + ROW_ID + "<? ORDER BY " + ROW_ID + " DESC LIMIT 1", args);
+        if (cursor.moveToNext())
+            watermark = (watermark == Long.MAX_VALUE) ? cursor.getLong(0) + 1 : watermark;
+        else
+            watermark = 0;
+        cursor.close();
+
+        backfillWatermark = watermark;
+        return watermark;
+    }
+
+    /**
+     * Get the watermark below which ChatMessage rows are not yet indexed.
+     *
+     * @param db SQLite database
+     * @return the watermark, 0 if all rows are indexed
+     */
+    private static long getWatermark(SQLiteDatabase db)
+    {
+        long watermark = backfillWatermark;
+        return (watermark < 0) ? updateWatermark(db) : watermark;
+    }
+
+    /**
+     * Build the FTS4 MATCH expression for the given keywords; any of the keywords matches and each
+     * keyword is matched as a quoted token prefix.
+     *
+     * @param keywords array of keywords
+     * @return the MATCH expression, or null if there are no usable keywords
+     */
+    static String toMatchExpression(String[] keywords)
+    {
+        StringBuilder match = new StringBuilder();
+        for (String keyword : keywords) {
+            if (keyword == null)
+                continue;
+
+            // Split into the same tokens as the unicode61 tokenizer would, then match them as a phrase prefix
+            String phrase = keyword.replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+            if (phrase.isEmpty())
+                continue;
+
+            if (match.length() > 0)
+                match.append(" OR ");
+            match.append('"').append(phrase).append("*\"");
+        }
+        return (match.length() == 0) ? null : match.toString();
+    }
+
+    /**
+     * Build the keywords where clause fragment for a ChatMessage table query, and append its
+     * arguments to args. The rows not yet back-filled into the index are matched using LIKE.
+     *
+     * @param db SQLite database
+     * @param keywords array of keywords
+     * @param args the query arguments list to be appended
+     * @return the where clause fragment
+     */
+    public static String getKeywordsFilter(SQLiteDatabase db, String[] keywords, List<String> args)
+    {
+        String match = toMatchExpression(keywords);
+        // Nothing searchable i.e. only punctuations: there is no match
+        if (match == null)
+            return "( 0 )";
+
+        StringBuilder filter = new StringBuilder("( " + ROW_ID + " IN (SELECT " + DOC_ID + " FROM "
+                + TABLE_NAME + " WHERE " + ChatMessage.MSG_BODY + " MATCH ?)");
+        args.add(match);
+
+        long watermark = getWatermark(db);
+        if (watermark > 0) {
+            filter.append(" OR (" + ROW_ID + "<? AND (");
+            args.add(String.valueOf(watermark));
+            for (int i = 0; i < keywords.length; i++) {
+                if (i > 0)
+                    filter.append(" OR ");
+                filter.append(ChatMessage.MSG_BODY + " LIKE ?");
+                args.add("%" + keywords[i] + "%");
+            }
+            filter.append("))");
+        }
+        return filter.append(" )").toString();
+    }
+
+    /**
+     * Search the index for messages in any of the given sessions and within the given period,
+     * ranked by relevance and then by recency. The rows not yet back-filled into the index are
+     * matched using LIKE. Ranking and paging are done by the database, so that only the requested
+     * page of results is returned.
+     *
+     * The relevance is a bm25-like score: the idf weights of the keywords found in the message,
+     * scaled by the saturated count of the matched tokens (from the FTS4 offsets); LIKE matched
+     * rows count as a single token hit.
+     *
+     * @param db SQLite database
+     * @param sessionUuids the chatSession Uuids to search in
+     * @param startDate the start date of the conversations; may be null
+     * @param endDate the end date of the conversations; may be null
+     * @param keywords array of keywords
+     * @param offset number of ranked results to skip
+     * @param count maximum number of results to return
+     * @return the ChatMessage rowids of the requested results page, in rank order
+     */
+    public static List<Long> search(SQLiteDatabase db, Collection<String> sessionUuids, Date startDate,
+            Date endDate, String[] keywords, int offset, int count)
+    {
+        String match = toMatchExpression(keywords);
+        if ((match == null) || sessionUuids.isEmpty() || (count <= 0))
+            return Collections.emptyList();
+
+        // The keywords having searchable tokens, with their match phrase and idf weight
+        List<String> likeKeywords = new ArrayList<>();
+        List<String> phrases = new ArrayList<>();
+        for (String keyword : keywords) {
+            String phrase = (keyword == null) ? null : toMatchExpression(new String[]{keyword});
+            if (phrase != null) {
+                likeKeywords.add("%" + keyword + "%");
+                phrases.add(phrase);
+            }
+        }
+        double[] idf = getIdf(db, phrases);
+
+        List<String> args = new ArrayList<>();
+        String msgTable = ChatMessage.TABLE_NAME;
+
+        // Indexed rows: one presence test per keyword phrase, and the number of token hits
+        StringBuilder weight = new StringBuilder();
+        for (int i = 0; i < phrases.size(); i++) {
+            weight.append((i == 0) ? "(" : " + ").append("CASE WHEN " + msgTable + "." + ROW_ID + " IN (SELECT "
+                    + DOC_ID + " FROM " + TABLE_NAME + " WHERE " + ChatMessage.MSG_BODY + " MATCH ?) THEN ")
+                    .append(idf[i]).append(" ELSE 0 END");
+            args.add(phrases.get(i));
+        }
+        weight.append(")");
+
+        String offsets = "offsets(" + TABLE_NAME + ")";
+        StringBuilder query = new StringBuilder("SELECT id FROM (SELECT id, ts, w * tf / (tf + 1.2) AS score FROM ("
+                + "SELECT " + msgTable + "." + ROW_ID + " AS id, " + msgTable + "." + ChatMessage.TIME_STAMP
+                + " AS ts, " + weight + " AS w, (length(" + offsets + ") - length(replace(" + offsets
+                + ", ' ', '')) + 1) / 4.0 AS tf FROM " + TABLE_NAME + " JOIN " + msgTable + " ON "
+                + msgTable + "." + ROW_ID + "=" + TABLE_NAME + "." + DOC_ID + " WHERE " + TABLE_NAME + "."
+                + ChatMessage.MSG_BODY + " MATCH ? AND ");
+        args.add(match);
+        appendFilter(query, sessionUuids, startDate, endDate, args);
+        query.append(")");
+
+        // Rows not yet indexed: one LIKE test per keyword
+        long watermark = getWatermark(db);
+        if (watermark > 0) {
+            query.append(" UNION ALL SELECT " + msgTable + "." + ROW_ID + ", " + msgTable + "."
+                    + ChatMessage.TIME_STAMP + ", (");
+            for (int i = 0; i < likeKeywords.size(); i++) {
+                query.append((i == 0) ? "" : " + ").append("CASE WHEN " + msgTable + "." + ChatMessage.MSG_BODY
+                        + " LIKE ? THEN ").append(idf[i]).append(" ELSE 0 END");
+                args.add(likeKeywords.get(i));
+            }
+            // The backfill may have indexed rows past a watermark it has not yet saved
+            query.append(") / 2.2 FROM " + msgTable + " WHERE " + msgTable + "." + ROW_ID + "<? AND "
+                    + msgTable + "." + ROW_ID + " NOT IN (SELECT " + DOC_ID + " FROM " + TABLE_NAME + ") AND ");
+            args.add(String.valueOf(watermark));
+            appendFilter(query, sessionUuids, startDate, endDate, args);
+        }
+
+        // offset and count are int values, safe to inline
+        query.append(") WHERE score > 0 ORDER BY score DESC, ts DESC LIMIT ").append(count)
+                .append(" OFFSET ").append(Math.max(offset, 0));
+
+        List<Long> result = new ArrayList<>();
+        Cursor cursor = db.rawQuery(query.toString(), args.toArray(new String[0]));
+        while (cursor.moveToNext()) {
+            result.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return result;
+    }
+
+    /**
+     * Append the sessions and period where clause fragment of a ChatMessage table query, and its
+     * arguments to args.
+     *
+     * @param where the where clause to be appended
+     * @param sessionUuids the chatSession Uuids to search in
+     * @param startDate the start date of the conversations; may be null
+     * @param endDate the end date of the conversations; may be null
+     * @param args the query arguments list to be appended
+     */
+    private static void appendFilter(StringBuilder where, Collection<String> sessionUuids, Date startDate,
+            Date endDate, List<String> args)
+    {
+        where.append(ChatMessage.TABLE_NAME + "." + ChatMessage.SESSION_UUID + " IN (");
+        boolean first = true;
+        for (String sessionUuid : sessionUuids) {
+            where.append(first ? "?" : ", ?");
+            args.add(sessionUuid);
+            first = false;
+        }
+        where.append(")");
+        if (startDate != null) {
+            where.append(" AND " + ChatMessage.TABLE_NAME + "." + ChatMessage.TIME_STAMP + ">=?");
+            args.add(String.valueOf(startDate.getTime()));
+        }
+        if (endDate != null) {
+            where.append(" AND " + ChatMessage.TABLE_NAME + "." + ChatMessage.TIME_STAMP + "<?");
+            args.add(String.valueOf(endDate.getTime()));
+        }
+    }
+
+    /**
+     * Compute the idf weight of each match phrase from the number of indexed rows it matches.
+     *
+     * @param db SQLite database
+     * @param phrases the match phrases
+     * @return the idf weights, in the order of phrases
+     */
+    private static double[] getIdf(SQLiteDatabase db, List<String> phrases)
+    {
+        long rows = 0;
+        Cursor cursor = db.rawQuery("SELECT count(*) FROM " + ChatMessage.TABLE_NAME, null);
+        if (cursor.moveToNext())
+            rows = cursor.getLong(0);
+        cursor.close();
+
+        double[] idf = new double[phrases.size()];
+        for (int i = 0; i < idf.length; i++) {
+            long df = 0;
+            cursor = db.rawQuery("SELECT count(*) FROM " + TABLE_NAME + " WHERE " + ChatMessage.MSG_BODY
+                    + " MATCH ?", new String[]{phrases.get(i)});
+            if (cursor.moveToNext())
+                df = cursor.getLong(0);
+            cursor.close();
+            idf[i] = Math.log(1.0 + (double) (rows + 1) / (df + 1));
+        }
+        return idf;
+    }
+}
@@ -17,6 +17,7 @@ import org.atalk.android.aTalkApp;
 import org.atalk.android.gui.call.VideoCallActivity;
 import org.atalk.android.gui.dialogs.DialogActivity;
 import org.atalk.impl.neomedia.format.MediaFormatImpl;
+import org.atalk.impl.neomedia.stats.NeomediaMetrics;
 import org.atalk.service.libjitsi.LibJitsi;
 import org.atalk.service.neomedia.*;
 import org.atalk.service.neomedia.device.MediaDevice;
@@ -943,8 +944,12 @@ public class CallPeerMediaHandlerJabberImpl extends CallPeerMediaHandler<CallPee
             throws OperationFailedException
     {
         MediaStream stream = super.initStream(connector, device, format, target, direction, rtpExtensions, masterStream);
-        if (stream != null)
+        if (stream != null) {
             stream.setName(streamName);
+            CallJabberImpl call = mPeer.getCall();
+            if (call != null)
+                stream.setProperty(NeomediaMetrics.CALL_ID_PROPERTY, call.getCallId());
+        }
         return stream;
     }
 
@@ -0,0 +1,52 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.msghistory;
+
+import java.util.EventObject;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A streaming cursor over the message history of a MetaContact or ChatRoom, walking backward
+ * in time from the newest message. The history is read in keyset pages (by timeStamp + rowid) so
+ * each page costs the same regardless of how far back the user has scrolled; and the database
+ * rows are only converted to MessageDeliveredEvent/MessageReceivedEvent (or the ChatRoom and
+ * FileRecord equivalents) when they are being consumed.
+ *
+ * @author Eng Chong Meng
+ */
+public interface MessageHistoryCursor extends Iterator<EventObject>
+{
+    /**
+     * Returns the next page of older messages, sorted by ascending timeStamp i.e. ready to be
+     * prepended to the chat view.
+     *
+     * @return the next page of messages; empty when the start of the history has been reached
+     */
+    List<EventObject> nextPage();
+
+    /**
+     * Starts loading the next page in the background, so that a following {@link #nextPage()}
+     * returns without waiting for the database.
+     */
+    void prefetch();
+
+    /**
+     * Release the database resources held by this cursor.
+     */
+    void close();
+}
@@ -131,6 +131,18 @@ public interface MessageHistoryService
      */
     Collection<EventObject> findByKeywords(MetaContact contact, String[] keywords, boolean caseSensitive);
 
+    /**
+     * Returns a page of the messages exchanged by all the contacts in the supplied metaContact having any of
+     * the given keywords, ranked by relevance then by recency
+     *
+     * @param contact MetaContact
+     * @param keywords keyword
+     * @param offset number of ranked messages to skip
+     * @param count maximum number of messages to return
+     * @return List of MessageReceivedEvents or MessageDeliveredEvents in rank order
+     */
+    List<EventObject> findByKeywords(MetaContact contact, String[] keywords, int offset, int count);
+
     /**
      * Returns the supplied number of recent messages exchanged by all the contacts in the supplied metaContact
      *
@@ -290,6 +302,29 @@ public interface MessageHistoryService
      */
     Collection<EventObject> findByKeywords(ChatRoom room, String[] keywords, boolean caseSensitive);
 
+    /**
+     * Returns a page of the messages exchanged in the supplied chat room having any of the given keywords,
+     * ranked by relevance then by recency
+     *
+     * @param room The chat room
+     * @param keywords keyword
+     * @param offset number of ranked messages to skip
+     * @param count maximum number of messages to return
+     * @return List of MessageReceivedEvents or MessageDeliveredEvents in rank order
+     */
+    List<EventObject> findByKeywords(ChatRoom room, String[] keywords, int offset, int count);
+
+    /**
+     * Returns a keyset paged streaming cursor over the messages exchanged with the given descriptor
+     * before the given date, walking backward in time
+     *
+     * @param descriptor MetaContact or ChatRoom
+     * @param endDate the cursor returns messages strictly before this date
+     * @param pageSize number of messages per page
+     * @return MessageHistoryCursor of MessageReceivedEvents or MessageDeliveredEvents
+     */
+    MessageHistoryCursor getHistoryCursor(Object descriptor, Date endDate, int pageSize);
+
     /**
      * Returns the supplied number of recent messages exchanged in the supplied chat room
      *
@@ -15,6 +15,7 @@ import org.atalk.service.neomedia.*;
 import org.atalk.util.MediaType;
 import org.ice4j.ice.*;
 
+import java.io.IOException;
 import java.net.*;
 
 import timber.log.Timber;
@@ -268,11 +269,14 @@ public abstract class TransportManager<U extends MediaAwareCallPeer<?, ?, ?>>
             throws OperationFailedException
     {
         NetworkAddressManagerService nam = ProtocolMediaActivator.getNetworkAddressManagerService();
+        boolean useChannels = ProtocolMediaActivator.getConfigurationService()
+                .getBoolean(DatagramChannelStreamConnector.ENABLED_PNAME, false);
 
         //create the socket.
         DatagramSocket socket;
         try {
-            socket = nam.createDatagramSocket(localHostForPeer, portTracker.getPort(),
+            socket = useChannels ? createDatagramChannelSocket(localHostForPeer, portTracker)
+                    : nam.createDatagramSocket(localHostForPeer, portTracker.getPort(),
                     portTracker.getMinPort(), portTracker.getMaxPort());
         } catch (Exception exc) {
             throw new OperationFailedException("Failed to allocate the network ports necessary for the call.",
@@ -283,6 +287,39 @@ public abstract class TransportManager<U extends MediaAwareCallPeer<?, ?, ?>>
         return socket;
     }
 
+    /**
+     * Creates a <tt>DatagramSocket</tt> backed by a non-blocking <tt>DatagramChannel</tt> bound to
+     * <tt>localHostForPeer</tt>, on the first free port of <tt>portTracker</tt> starting from its
+     * next port.
+     *
+     * @param localHostForPeer the address to bind to.
+     * @param portTracker the port tracker.
+     * @return the socket adaptor of the newly bound datagram channel.
+     * @throws IOException if no port of the range can be bound.
+     */
+    private static DatagramSocket createDatagramChannelSocket(InetAddress localHostForPeer,
+            PortTracker portTracker)
+            throws IOException
+    {
+        int minPort = portTracker.getMinPort();
+        int maxPort = portTracker.getMaxPort();
+        int port = portTracker.getPort();
+        IOException exception = null;
+
+        for (int i = minPort; i <= maxPort; i++) {
+            if ((port < minPort) || (port > maxPort))
+                port = minPort;
+            try {
+                return DatagramChannelStreamConnector.bindDatagramChannel(localHostForPeer, port);
+            } catch (IOException ioe) {
+                exception = ioe;
+            }
+            port++;
+        }
+        throw (exception != null) ? exception
+                : new BindException("No port in range " + minPort + "-" + maxPort);
+    }
+
     /**
      * Tries to set the ranges of the <tt>PortTracker</tt>s (e.g. default, audio, video, data
      * channel) to the values specified in the <tt>ConfigurationService</tt>.
@@ -17,6 +17,8 @@ import net.java.sip.communicator.service.filehistory.FileRecord;
 import net.java.sip.communicator.service.gui.Chat;
 import net.java.sip.communicator.service.gui.ChatLinkClickedListener;
 import net.java.sip.communicator.service.metahistory.MetaHistoryService;
+import net.java.sip.communicator.service.msghistory.MessageHistoryCursor;
+import net.java.sip.communicator.service.msghistory.MessageHistoryService;
 import net.java.sip.communicator.service.muc.ChatRoomWrapper;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -111,6 +113,12 @@ public class ChatPanel implements Chat, MessageListener
      */
     private boolean historyLoaded = false;
 
+    /**
+     * Keyset paged cursor for the history scroll-back; null until the first history page is loaded
+     * via the MessageHistoryService.
+     */
+    private MessageHistoryCursor historyCursor = null;
+
     /**
      * Blocked caching of the next new message if it is sent via sendMessage().
      * Else there will have duplicated display messages
@@ -301,6 +309,18 @@ public class ChatPanel implements Chat, MessageListener
         mCurrentChatTransport.removeInstantMessageListener(this);
         mCurrentChatTransport.removeSmsMessageListener(this);
         mChatSession.dispose();
+        closeHistoryCursor();
+    }
+
+    /**
+     * Close the history cursor and release its database resources.
+     */
+    private synchronized void closeHistoryCursor()
+    {
+        if (historyCursor != null) {
+            historyCursor.close();
+            historyCursor = null;
+        }
     }
 
     /**
@@ -425,8 +445,25 @@ public class ChatPanel implements Chat, MessageListener
             descriptor = ((ChatRoomWrapper) descriptor).getChatRoom();
 
         Collection<Object> history;
+        final MessageHistoryService mhs = AndroidGUIActivator.getMessageHistoryService();
+        if (mhs != null) {
+            // stream the history backward in keyset pages; and prefetch the next page for the scroll-back
+            synchronized (this) {
+                if (msgCache.isEmpty() || (historyCursor == null)) {
+                    closeHistoryCursor();
+                    Date endDate;
+                    synchronized (cacheLock) {
+                        endDate = msgCache.isEmpty() ? new Date(Long.MAX_VALUE) : msgCache.get(0).getDate();
+                    }
+                    historyCursor = mhs.getHistoryCursor(descriptor, endDate, HISTORY_CHUNK_SIZE);
+                }
+                history = new ArrayList<>(historyCursor.nextPage());
+                historyCursor.prefetch();
+            }
+            historyLoaded = true;
+        }
         // first time fetch, so read in last HISTORY_CHUNK_SIZE of history messages
-        if (msgCache.isEmpty()) {
+        else if (msgCache.isEmpty()) {
             history = metaHistory.findLast(chatHistoryFilter, descriptor, HISTORY_CHUNK_SIZE);
             historyLoaded = true;
         }
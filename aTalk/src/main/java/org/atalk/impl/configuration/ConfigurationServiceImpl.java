@@ -81,17 +81,20 @@ public class ConfigurationServiceImpl implements ConfigurationService
      * A set of immutable properties deployed with the application during install time. The
      * properties in this file will be impossible to override and attempts to do so will simply be ignored.
      *
+     * Kept sorted by property name for the prefix lookups.
+     *
      * @see #defaultProperties
      */
-    private Map<String, String> immutableDefaultProperties = new HashMap<>();
+    private NavigableMap<String, String> immutableDefaultProperties = new TreeMap<>();
 
     /**
      * A set of properties deployed with the application during install time. Contrary to the
      * properties in {@link #immutableDefaultProperties} the ones in this map can be overridden
      * with call to the <tt>setProperty()</tt> methods. Still, re-setting one of these properties
-     * to <tt>null</tt> would cause for its initial value to be restored.
+     * to <tt>null</tt> would cause for its initial value to be restored. Kept sorted by property
+     * name for the prefix lookups.
      */
-    private Map<String, String> defaultProperties = new HashMap<>();
+    private NavigableMap<String, String> defaultProperties = new TreeMap<>();
 
     /**
      * Our event dispatcher.
@@ -182,7 +185,7 @@ public class ConfigurationServiceImpl implements ConfigurationService
         // cmeng - define the location where to store the change properties - can be removed??? file system not use
         doSetProperty(propertyName, property, isSystem);
         try {
-            storeConfiguration();
+            storeConfigurationAfterChange();
         } catch (IOException ex) {
             Timber.e("Failed to store configuration after a property change");
         }
@@ -218,7 +221,7 @@ public class ConfigurationServiceImpl implements ConfigurationService
             doSetProperty(property.getKey(), property.getValue(), false);
 
         try {
-            storeConfiguration();
+            storeConfigurationAfterChange();
         } catch (IOException ex) {
             Timber.e("Failed to store configuration after property changes");
         }
@@ -292,7 +295,7 @@ public class ConfigurationServiceImpl implements ConfigurationService
         removePropertyInternal(propertyName);
 
         try {
-            storeConfiguration();
+            storeConfigurationAfterChange();
         } catch (IOException ex) {
             Timber.e("Failed to store configuration after a property change");
         }
@@ -398,27 +401,37 @@ public class ConfigurationServiceImpl implements ConfigurationService
         HashSet<String> resultKeySet = new HashSet<>();
 
         // first fill in the names from the immutable default property set
-        Set<String> propertyNameSet;
-        String[] namesArray;
-
         if (immutableDefaultProperties.size() > 0) {
-            propertyNameSet = immutableDefaultProperties.keySet();
-            namesArray = propertyNameSet.toArray(new String[0]);
-            getPropertyNamesByPrefix(prefix, exactPrefixMatch, namesArray, resultKeySet);
+            getPropertyNamesByPrefix(prefix, exactPrefixMatch,
+                    subMapByPrefix(immutableDefaultProperties, prefix).keySet(), resultKeySet);
         }
 
         // now get property names from the current store.
-        getPropertyNamesByPrefix(prefix, exactPrefixMatch, store.getPropertyNames(prefix), resultKeySet);
+        getPropertyNamesByPrefix(prefix, exactPrefixMatch,
+                Arrays.asList(store.getPropertyNamesByPrefix(prefix)), resultKeySet);
 
         // finally, get property names from mutable default property set.
         if (defaultProperties.size() > 0) {
-            propertyNameSet = defaultProperties.keySet();
-            namesArray = propertyNameSet.toArray(new String[0]);
-            getPropertyNamesByPrefix(prefix, exactPrefixMatch, namesArray, resultKeySet);
+            getPropertyNamesByPrefix(prefix, exactPrefixMatch,
+                    subMapByPrefix(defaultProperties, prefix).keySet(), resultKeySet);
         }
         return new ArrayList<>(resultKeySet);
     }
 
+    /**
+     * Returns the view of the sorted property map with only the property names that start with
+     * the specified prefix; i.e. the names in the range [prefix, prefix + U+FFFF).
+     *
+     * @param properties the property map sorted by property name
+     * @param prefix the property name prefix
+     * @return the view of the properties with names starting with <tt>prefix</tt>
+     */
+    private static SortedMap<String, String> subMapByPrefix(NavigableMap<String, String> properties,
+            String prefix)
+    {
+        return properties.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
     /**
      * Updates the specified <tt>String</tt> <tt>resultSet</tt> to contain all property names in
      * the <tt>names</tt> array that partially or completely match the specified prefix.
@@ -435,7 +448,7 @@ public class ConfigurationServiceImpl implements ConfigurationService
      * @return a reference to the updated result set.
      */
     private Set<String> getPropertyNamesByPrefix(String prefix, boolean exactPrefixMatch,
-            String[] names, Set<String> resultSet)
+            Collection<String> names, Set<String> resultSet)
     {
         for (String key : names) {
             // cmeng - A valid Property item must have a "." with suffix propertyName string
@@ -621,6 +634,21 @@ public class ConfigurationServiceImpl implements ConfigurationService
         storeConfiguration(getConfigurationFile());
     }
 
+    /**
+     * Stores the configuration after property changes; unless the store writes its changes
+     * behind by itself, in which case they are written in a coalesced batch shortly after.
+     *
+     * @throws IOException if there was a problem writing the configuration.
+     */
+    private void storeConfigurationAfterChange()
+            throws IOException
+    {
+        if ((store instanceof DatabaseConfigurationStore)
+                && ((DatabaseConfigurationStore) store).isWriteBehind())
+            return;
+        storeConfiguration();
+    }
+
     /**
      * Stores local properties in the specified configuration file.
      *
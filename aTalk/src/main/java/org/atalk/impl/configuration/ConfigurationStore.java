@@ -41,6 +41,17 @@ public interface ConfigurationStore
 	 */
 	public String[] getPropertyNames(String name);
 
+	/**
+	 * Gets the names of the properties which have values associated in this
+	 * <tt>ConfigurationStore</tt> and which start with a specific prefix.
+	 *
+	 * @param prefix
+	 * 		the prefix of the property names to get
+	 * @return an array of <tt>String</tt>s which specify the names of the properties starting
+	 * with <tt>prefix</tt>; an empty array if none
+	 */
+	public String[] getPropertyNamesByPrefix(String prefix);
+
 	/**
 	 * Determines whether a specific name stands for a system property.
 	 *
@@ -5,17 +5,74 @@
  */
 package org.atalk.impl.configuration;
 
+import org.atalk.util.concurrent.ExecutorUtils;
 import org.atalk.util.xml.XMLException;
 
 import java.io.*;
-import java.util.Hashtable;
+import java.util.*;
+import java.util.concurrent.*;
+
+import timber.log.Timber;
 
 /**
+ * A <tt>ConfigurationStore</tt> backed by a database. In the write-behind mode (default), property
+ * changes are recorded in a dirty set and are written to the database in a single transaction
+ * by a coalesced flush; which is triggered after {@link #FLUSH_DELAY} ms or when the dirty set
+ * reaches {@link #FLUSH_MAX_DIRTY} entries, whichever comes first. The dirty set entries are
+ * only cleared after the transaction has been committed; a failed flush is retried.
+ *
  * @author Lyubomir Marinov
+ * @author Eng Chong Meng
  */
 @SuppressWarnings("rawtypes")
 public abstract class DatabaseConfigurationStore extends HashtableConfigurationStore<Hashtable>
 {
+	/**
+	 * The name of the System property which disables the write-behind mode if set to false.
+	 */
+	public static final String PNAME_WRITE_BEHIND = "org.atalk.impl.configuration.WRITE_BEHIND";
+
+	/**
+	 * The maximum time in ms that a property change stays in the dirty set before it is flushed.
+	 */
+	private static final long FLUSH_DELAY = 500;
+
+	/**
+	 * The number of dirty properties at which a flush is started immediately.
+	 */
+	private static final int FLUSH_MAX_DIRTY = 64;
+
+	/**
+	 * The value in the dirty set for a property pending removal.
+	 */
+	protected static final Object REMOVED = new Object();
+
+	/**
+	 * The executor shared by all the database configuration stores for their flush.
+	 */
+	private static ScheduledExecutorService flushExecutor = null;
+
+	/**
+	 * The changed properties not yet written to the database; property name to value or REMOVED.
+	 */
+	private final Map<String, Object> dirtyProperties = new LinkedHashMap<>();
+
+	/**
+	 * Serializes the flush of the dirty properties to the database.
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * The pending scheduled flush, null if none.
+	 */
+	private ScheduledFuture<?> flushFuture = null;
+
+	/**
+	 * <tt>true</tt> if property changes are written behind i.e. in coalesced batches.
+	 */
+	private final boolean writeBehind
+			= Boolean.parseBoolean(System.getProperty(PNAME_WRITE_BEHIND, "true"));
+
 	/**
 	 * Initializes a new <tt>DatabaseConfigurationStore</tt> instance.
 	 */
@@ -80,6 +137,141 @@ public abstract class DatabaseConfigurationStore extends HashtableConfigurationS
 	protected void storeConfiguration()
 			throws IOException
 	{
+		flush();
+	}
+
+	/**
+	 * Returns <tt>true</tt> if property changes are written behind; then there is no need to call
+	 * {@link #storeConfiguration()} after each change.
+	 *
+	 * @return <tt>true</tt> if this store is in the write-behind mode
+	 */
+	public boolean isWriteBehind()
+	{
+		return writeBehind;
+	}
+
+	/**
+	 * Writes the specified property changes to the underlying database in a single transaction.
+	 *
+	 * @param changes the property name to its new value, or {@link #REMOVED} for removal
+	 * @throws IOException if the changes could not be written; none of them is then committed
+	 */
+	protected abstract void writeProperties(Map<String, Object> changes)
+			throws IOException;
+
+	/**
+	 * Records a property change to be written to the database. The change is written right away
+	 * when not in the write-behind mode.
+	 *
+	 * @param name the property name
+	 * @param value the new property value, or {@link #REMOVED}
+	 */
+	protected void markDirty(String name, Object value)
+	{
+		if (!writeBehind) {
+			try {
+				writeProperties(Collections.singletonMap(name, value));
+			} catch (IOException e) {
+				Timber.e(e, "Failed to write property: %s", name);
+			}
+			return;
+		}
+
+		synchronized (dirtyProperties) {
+			// keep the insertion order of the latest change
+			dirtyProperties.remove(name);
+			dirtyProperties.put(name, value);
+
+			if (dirtyProperties.size() >= FLUSH_MAX_DIRTY) {
+				scheduleFlush(0);
+			}
+			else if (flushFuture == null) {
+				scheduleFlush(FLUSH_DELAY);
+			}
+		}
+	}
+
+	/**
+	 * Returns the pending (not yet written) value of a property.
+	 *
+	 * @param name the property name
+	 * @return the pending value, {@link #REMOVED} if pending removal, or <tt>null</tt> if none
+	 */
+	protected Object getDirtyValue(String name)
+	{
+		synchronized (dirtyProperties) {
+			return dirtyProperties.get(name);
+		}
+	}
+
+	/**
+	 * Schedules a flush after the specified delay; replacing any pending one. Must be called
+	 * with dirtyProperties locked.
+	 *
+	 * @param delay the delay in ms
+	 */
+	private void scheduleFlush(long delay)
+	{
+		synchronized (DatabaseConfigurationStore.class) {
+			if (flushExecutor == null)
+				flushExecutor = ExecutorUtils.newScheduledThreadPool(1, true, "ConfigurationStore");
+		}
+
+		if (flushFuture != null) {
+			if (delay > 0)
+				return;
+			flushFuture.cancel(false);
+		}
+		flushFuture = flushExecutor.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				flush();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes all the dirty properties to the database in a single transaction. The dirty entries
+	 * are cleared only after a successful write, and only if not changed again in the meantime;
+	 * on failure they are kept and the flush is retried later.
+	 */
+	public void flush()
+	{
+		synchronized (flushLock) {
+			Map<String, Object> changes;
+			synchronized (dirtyProperties) {
+				if (flushFuture != null) {
+					flushFuture.cancel(false);
+					flushFuture = null;
+				}
+				if (dirtyProperties.isEmpty())
+					return;
+				changes = new LinkedHashMap<>(dirtyProperties);
+			}
+
+			boolean success = false;
+			try {
+				writeProperties(changes);
+				success = true;
+			} catch (IOException | RuntimeException e) {
+				Timber.e(e, "Failed to flush %s configuration properties", changes.size());
+			}
+
+			synchronized (dirtyProperties) {
+				if (success) {
+					for (Map.Entry<String, Object> entry : changes.entrySet()) {
+						String name = entry.getKey();
+						if (dirtyProperties.get(name) == entry.getValue())
+							dirtyProperties.remove(name);
+					}
+				}
+				if (!dirtyProperties.isEmpty() && (flushFuture == null))
+					scheduleFlush(FLUSH_DELAY);
+			}
+		}
 	}
 
 	/**
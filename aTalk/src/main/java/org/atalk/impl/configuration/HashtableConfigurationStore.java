@@ -75,6 +75,28 @@ public abstract class HashtableConfigurationStore<T extends Hashtable>
 		}
 	}
 
+	/**
+	 * Implements {@link ConfigurationStore#getPropertyNamesByPrefix(String)}. Gets the names of
+	 * the properties in this <tt>ConfigurationStore</tt> which start with a specific prefix.
+	 *
+	 * @param prefix
+	 * 		the prefix of the property names to get
+	 * @return an array of <tt>String</tt>s which specify the names of the properties starting
+	 * with <tt>prefix</tt>; an empty array if none
+	 * @see ConfigurationStore#getPropertyNamesByPrefix(String)
+	 */
+	public String[] getPropertyNamesByPrefix(String prefix)
+	{
+		List<String> propertyNames = new ArrayList<>();
+		synchronized (properties) {
+			for (Object name : properties.keySet()) {
+				if (((String) name).startsWith(prefix))
+					propertyNames.add((String) name);
+			}
+		}
+		return propertyNames.toArray(new String[0]);
+	}
+
 	/**
 	 * Implements {@link ConfigurationStore#isSystemProperty(String)}. Considers a property to be
 	 * system if the system properties contain a value associated with its name.
@@ -133,6 +133,25 @@ public class XMLConfigurationStore implements ConfigurationStore
         return propertyNames.toArray(new String[0]);
     }
 
+    /**
+     * Implements {ConfigurationStore#getPropertyNamesByPrefix(String)}. Gets the names of the
+     * properties in this <tt>ConfigurationStore</tt> which start with a specific prefix.
+     *
+     * @param prefix the prefix of the property names to get
+     * @return an array of <tt>String</tt>s which specify the names of the properties starting
+     * with <tt>prefix</tt>; an empty array if none
+     * @see ConfigurationStore#getPropertyNamesByPrefix(String)
+     */
+    public String[] getPropertyNamesByPrefix(String prefix)
+    {
+        List<String> propertyNames = new ArrayList<>();
+        for (String name : properties.keySet()) {
+            if (name.startsWith(prefix))
+                propertyNames.add(name);
+        }
+        return propertyNames.toArray(new String[0]);
+    }
+
     /**
      * Implements {ConfigurationStore#isSystemProperty(String)}. Determines whether a specific
      * name stands for a system property.
@@ -183,7 +183,7 @@ public abstract class AbstractRTPConnector implements RTPConnector
      * remote targets; <tt>null</tt> if it does not exist yet and <tt>create</tt> is <tt>false</tt>
      * @throws IOException if creating the <tt>PushSourceStream</tt> fails
      */
-    protected RTPConnectorInputStream<?> getControlInputStream(boolean create)
+    public RTPConnectorInputStream<?> getControlInputStream(boolean create)
             throws IOException
     {
         if ((controlInputStream == null) && create)
@@ -243,7 +243,7 @@ public abstract class AbstractRTPConnector implements RTPConnector
      * remote targets; <tt>null</tt> if it does not exist yet and <tt>create</tt> is <tt>false</tt>
      * @throws IOException if creating the <tt>PushSourceStream</tt> fails
      */
-    protected RTPConnectorInputStream<?> getDataInputStream(boolean create)
+    public RTPConnectorInputStream<?> getDataInputStream(boolean create)
             throws IOException
     {
         if ((dataInputStream == null) && create)
@@ -399,6 +399,8 @@ public class AudioMediaStreamImpl extends MediaStreamImpl implements AudioMediaS
                  */
                 if (outputVolumeControl != null)
                     deviceSession.setOutputVolumeControl(outputVolumeControl);
+
+                deviceSession.setMediaStreamStats(getMediaStreamStats());
             }
         } finally {
             super.deviceSessionChanged(oldValue, newValue);
@@ -0,0 +1,315 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia;
+
+import net.sf.fmj.media.util.MediaThread;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import timber.log.Timber;
+
+/**
+ * Receives from non-blocking <tt>DatagramChannel</tt>s on a single selector thread shared by all
+ * streams, instead of a blocking receive thread per socket. The datagrams are read into a direct
+ * <tt>ByteBuffer</tt> and pushed into the <tt>RTPConnectorInputStream</tt> registered for their
+ * channel, which remains the single producer of its receive queue.
+ *
+ * @author Eng Chong Meng
+ */
+public class DatagramChannelReceiver
+{
+    /**
+     * The maximum number of datagrams read from one channel per selection, so that a flooding
+     * channel does not starve the others.
+     */
+    private static final int MAX_PACKETS_PER_SELECT = 16;
+
+    /**
+     * The time in milliseconds after which the receive thread checks whether there are still
+     * channels registered, and closes the <tt>DatagramChannelReceiver</tt> if there are none.
+     */
+    private static final long IDLE_TIMEOUT = 10000;
+
+    /**
+     * The <tt>DatagramChannelReceiver</tt> shared by all streams.
+     */
+    private static DatagramChannelReceiver instance;
+
+    /**
+     * Gets the <tt>DatagramChannelReceiver</tt> shared by all streams, starting a new one if there
+     * is none or it has been closed.
+     *
+     * @return the shared <tt>DatagramChannelReceiver</tt>
+     * @throws IOException if the <tt>Selector</tt> cannot be opened
+     */
+    public static synchronized DatagramChannelReceiver getInstance()
+            throws IOException
+    {
+        if ((instance == null) || instance.closed)
+            instance = new DatagramChannelReceiver();
+        return instance;
+    }
+
+    /**
+     * The direct buffer which the datagrams are received into; only accessed by {@link #thread}.
+     */
+    private final ByteBuffer buffer
+            = ByteBuffer.allocateDirect(RTPConnectorInputStream.PACKET_RECEIVE_BUFFER_LENGTH);
+
+    /**
+     * The <tt>DatagramPacket</tt> which carries the received datagrams to the streams; only
+     * accessed by {@link #thread}. The streams copy its data.
+     */
+    private final DatagramPacket packet
+            = new DatagramPacket(new byte[RTPConnectorInputStream.PACKET_RECEIVE_BUFFER_LENGTH], 0);
+
+    /**
+     * The channels and streams waiting to be registered with {@link #selector} by {@link #thread}.
+     * <tt>SelectableChannel#register</tt> blocks while a select is in progress.
+     */
+    private final Queue<Registration> registrations = new ConcurrentLinkedQueue<>();
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    /**
+     * Whether this instance is closed i.e. its {@link #thread} is to stop receiving. Only changed
+     * while synchronized on the class, so that no channel is registered with a closed instance.
+     */
+    private volatile boolean closed = false;
+
+    private DatagramChannelReceiver()
+            throws IOException
+    {
+        selector = Selector.open();
+
+        thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                DatagramChannelReceiver.this.runInReceiveThread();
+            }
+        };
+        thread.setDaemon(true);
+        thread.setName(DatagramChannelReceiver.class.getName() + ".receiveThread");
+        RTPConnectorInputStream.setThreadPriority(thread, MediaThread.getNetworkPriority());
+        thread.start();
+    }
+
+    /**
+     * Registers a non-blocking <tt>DatagramChannel</tt> so that the datagrams received on it are
+     * pushed into a specific stream. The registration ends when the channel is closed.
+     *
+     * If this instance has been closed in the meantime, the channel is registered with the
+     * current shared instance instead.
+     *
+     * @param channel the non-blocking <tt>DatagramChannel</tt> to receive from
+     * @param stream the <tt>RTPConnectorInputStream</tt> to push the received datagrams into
+     * @throws IOException if a new shared instance is needed and its <tt>Selector</tt> cannot be opened
+     */
+    public void register(DatagramChannel channel, RTPConnectorInputStream<?> stream)
+            throws IOException
+    {
+        synchronized (DatagramChannelReceiver.class) {
+            if (closed) {
+                getInstance().register(channel, stream);
+                return;
+            }
+            registrations.add(new Registration(channel, stream));
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Closes this instance: its thread stops receiving and closes the <tt>Selector</tt>, which
+     * cancels the registrations of the channels. The channels themselves are left open.
+     */
+    public void close()
+    {
+        synchronized (DatagramChannelReceiver.class) {
+            closed = true;
+            if (instance == this)
+                instance = null;
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Closes this instance if no channel is registered with it any more.
+     *
+     * @return <tt>true</tt> if this instance is closed
+     */
+    private boolean closeIfIdle()
+    {
+        // The keys of the closed channels are deregistered by the preceding select.
+        synchronized (DatagramChannelReceiver.class) {
+            if (selector.keys().isEmpty() && registrations.isEmpty())
+                close();
+            return closed;
+        }
+    }
+
+    /**
+     * Reads the pending datagrams of a channel which is ready for reading, and pushes them into
+     * the stream attached to its <tt>SelectionKey</tt>.
+     *
+     * @param key the <tt>SelectionKey</tt> of the channel ready for reading
+     */
+    private void receive(SelectionKey key)
+    {
+        DatagramChannel channel = (DatagramChannel) key.channel();
+        RTPConnectorInputStream<?> stream = (RTPConnectorInputStream<?>) key.attachment();
+        byte[] data = packet.getData();
+
+        for (int i = 0; i < MAX_PACKETS_PER_SELECT; i++) {
+            SocketAddress source;
+
+            buffer.clear();
+            try {
+                source = channel.receive(buffer);
+            } catch (IOException e) {
+                key.cancel();
+                // A closed channel is the normal end of the registration.
+                if (channel.isOpen()) {
+                    Timber.w(e, "Failed to receive from %s", channel);
+                    stream.receiveFailed(e);
+                }
+                return;
+            }
+            if (source == null)
+                break;
+
+            buffer.flip();
+            int length = buffer.remaining();
+            buffer.get(data, 0, length);
+            packet.setData(data, 0, length);
+            packet.setSocketAddress(source);
+
+            stream.processReceivedPacket(packet);
+        }
+    }
+
+    /**
+     * Selects the registered channels which are ready for reading and receives from them, until
+     * this instance is closed or the <tt>Selector</tt> fails.
+     */
+    private void runInReceiveThread()
+    {
+        IOException failure = null;
+        try {
+            while (!closed) {
+                Registration registration;
+                while ((registration = registrations.poll()) != null) {
+                    try {
+                        registration.channel.register(selector, SelectionKey.OP_READ, registration.stream);
+                    } catch (ClosedChannelException e) {
+                        // The stream was closed before it got registered.
+                    }
+                }
+
+                int selected;
+                try {
+                    selected = selector.select(IDLE_TIMEOUT);
+                } catch (IOException e) {
+                    Timber.e(e, "Failed to select the datagram channels to receive from");
+                    failure = e;
+                    break;
+                }
+                if ((selected == 0) && registrations.isEmpty() && closeIfIdle())
+                    break;
+
+                receiveSelected();
+            }
+        } finally {
+            close();
+            // The streams still registered, if closed explicitly or on failure, receive no more.
+            receiveFailed((failure != null) ? failure : new IOException("Datagram channel receiver closed"));
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Timber.w(e, "Failed to close the datagram channels selector");
+            }
+        }
+    }
+
+    /**
+     * Receives from the selected channels which are ready for reading.
+     */
+    private void receiveSelected()
+    {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if (key.isValid() && key.isReadable()) {
+                try {
+                    receive(key);
+                } catch (CancelledKeyException e) {
+                    // The channel was closed while receiving.
+                }
+            }
+        }
+    }
+
+    /**
+     * Notifies the streams of all the registered channels that no more packets are to be received
+     * for them, because this instance is closed or its <tt>Selector</tt> failed.
+     *
+     * @param e the <tt>IOException</tt> which caused the failure
+     */
+    private void receiveFailed(IOException e)
+    {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid())
+                    ((RTPConnectorInputStream<?>) key.attachment()).receiveFailed(e);
+            }
+        } catch (ClosedSelectorException cse) {
+            // No channel is registered any more.
+        }
+        Registration registration;
+        while ((registration = registrations.poll()) != null) {
+            registration.stream.receiveFailed(e);
+        }
+    }
+
+    /**
+     * A <tt>DatagramChannel</tt> waiting to be registered with the stream to push its datagrams into.
+     */
+    private static class Registration
+    {
+        final DatagramChannel channel;
+
+        final RTPConnectorInputStream<?> stream;
+
+        Registration(DatagramChannel channel, RTPConnectorInputStream<?> stream)
+        {
+            this.channel = channel;
+            this.stream = stream;
+        }
+    }
+}
@@ -18,6 +18,7 @@ import org.atalk.impl.neomedia.rtp.*;
 import org.atalk.impl.neomedia.rtp.remotebitrateestimator.RemoteBitrateEstimatorWrapper;
 import org.atalk.impl.neomedia.rtp.translator.RTPTranslatorImpl;
 import org.atalk.impl.neomedia.stats.MediaStreamStats2Impl;
+import org.atalk.impl.neomedia.stats.NeomediaMetrics;
 import org.atalk.impl.neomedia.transform.*;
 import org.atalk.impl.neomedia.transform.csrc.CsrcTransformEngine;
 import org.atalk.impl.neomedia.transform.csrc.SsrcTransformEngine;
@@ -354,6 +355,7 @@ public class MediaStreamImpl extends AbstractMediaStream
 
         Timber.log(TimberLog.FINER, "Created %S with hashCode %S", getClass().getSimpleName(), hashCode());
         diagnosticContext.put("stream", hashCode());
+        NeomediaMetrics.register(this);
     }
 
     /**
@@ -678,6 +680,7 @@ public class MediaStreamImpl extends AbstractMediaStream
         if (transportCCEngine != null) {
             transportCCEngine.removeMediaStream(this);
         }
+        NeomediaMetrics.unregister(this);
 
         if (rtpManager != null) {
             printFlowStatistics(rtpManager);
@@ -1638,7 +1641,7 @@ public class MediaStreamImpl extends AbstractMediaStream
      *
      * @return the <tt>RTPConnector</tt> through which this instance sends and receives RTP and RTCP traffic
      */
-    protected AbstractRTPConnector getRTPConnector()
+    public AbstractRTPConnector getRTPConnector()
     {
         return rtpConnector;
     }
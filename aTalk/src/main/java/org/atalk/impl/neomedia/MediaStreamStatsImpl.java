@@ -624,7 +624,7 @@ public class MediaStreamStatsImpl implements MediaStreamStats
     {
         StatisticsEngine statisticsEngine = mediaStreamImpl.getStatisticsEngine();
         if (statisticsEngine != null) {
-            return rtpTimeToMs(statisticsEngine.getAvgInterArrivalJitter());
+            return rtpTimeToMs(statisticsEngine.getSSRCCountersSnapshot().getAvgJitter());
         }
         return -1;
     }
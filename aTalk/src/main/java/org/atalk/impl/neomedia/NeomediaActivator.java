@@ -15,6 +15,7 @@ import org.atalk.android.R;
 import org.atalk.android.aTalkApp;
 import org.atalk.android.gui.aTalk;
 import org.atalk.impl.neomedia.device.DeviceConfiguration;
+import org.atalk.impl.neomedia.stats.NeomediaMetrics;
 import org.atalk.service.audionotifier.AudioNotifierService;
 import org.atalk.service.configuration.ConfigurationService;
 import org.atalk.service.fileaccess.FileAccessService;
@@ -142,6 +143,7 @@ public class NeomediaActivator implements BundleActivator
 
         bundleContext.registerService(MediaService.class.getName(), mediaServiceImpl, null);
         Timber.d("Media Service ... [REGISTERED]");
+        NeomediaMetrics.start();
 
         // mediaConfiguration = new MediaConfigurationImpl();
         // bundleContext.registerService(MediaConfigurationService.class.getName(), getMediaConfiguration(), null);
@@ -232,6 +234,7 @@ public class NeomediaActivator implements BundleActivator
     public void stop(BundleContext bundleContext)
             throws Exception
     {
+        NeomediaMetrics.stop();
         try {
             if (deviceConfigurationPropertyChangeListener != null) {
                 mediaServiceImpl.getDeviceConfiguration()
@@ -10,10 +10,14 @@ import net.sf.fmj.media.util.MediaThread;
 import org.atalk.android.plugin.timberlog.TimberLog;
 import org.atalk.impl.neomedia.jmfext.media.protocol.AbstractPushBufferStream;
 import org.atalk.impl.neomedia.protocol.PushBufferStreamAdapter;
+import org.atalk.service.configuration.ConfigurationService;
 import org.atalk.service.libjitsi.LibJitsi;
 import org.atalk.service.neomedia.RawPacket;
 import org.atalk.util.ArrayUtils;
+import org.atalk.util.ByteArrayPool;
+import org.atalk.util.ConfigUtils;
 import org.atalk.util.concurrent.MonotonicAtomicLong;
+import org.atalk.util.concurrent.SpscRingBuffer;
 import org.ice4j.socket.DatagramPacketFilter;
 
 import java.io.Closeable;
@@ -22,6 +26,7 @@ import java.net.DatagramPacket;
 import java.net.SocketTimeoutException;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.media.Buffer;
 import javax.media.protocol.*;
@@ -53,6 +58,38 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
      */
     public static final String SO_RCVBUF_PNAME = RTPConnectorInputStream.class.getName() + ".SO_RCVBUF";
 
+    /**
+     * The name of the property which specifies the value of {@link #RECEIVE_QUEUE_CAPACITY}.
+     */
+    public static final String RECEIVE_QUEUE_CAPACITY_PNAME
+            = RTPConnectorInputStream.class.getName() + ".RECEIVE_QUEUE_CAPACITY";
+
+    /**
+     * The name of the property which specifies the value of {@link #RECEIVE_QUEUE_DROP_OLDEST}.
+     */
+    public static final String RECEIVE_QUEUE_DROP_OLDEST_PNAME
+            = RTPConnectorInputStream.class.getName() + ".RECEIVE_QUEUE_DROP_OLDEST";
+
+    /**
+     * The number of received packets which are queued for reading by the <tt>transferHandler</tt>.
+     * The default of 1 is the single packet slot, in which a packet not yet read is replaced by
+     * the next received packet; a larger depth absorbs bursts such as key frames and RTX floods.
+     */
+    private static final int RECEIVE_QUEUE_CAPACITY;
+
+    /**
+     * Whether a packet received while the receive queue is full replaces the oldest queued packet
+     * (drop-oldest) or is dropped (drop-newest).
+     */
+    private static final boolean RECEIVE_QUEUE_DROP_OLDEST;
+
+    static {
+        ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+        RECEIVE_QUEUE_CAPACITY = Math.max(ConfigUtils.getInt(cfg, RECEIVE_QUEUE_CAPACITY_PNAME, 1), 1);
+        RECEIVE_QUEUE_DROP_OLDEST = ConfigUtils.getBoolean(cfg, RECEIVE_QUEUE_DROP_OLDEST_PNAME, true);
+    }
+
     /**
      * Sets a specific priority on a specific <tt>Thread</tt>.
      *
@@ -109,20 +146,34 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
      */
     private boolean ioError = false;
 
+    /**
+     * Whether the received packets are pushed into this instance by {@link #startReceiving()}
+     * instead of being received in {@link #receiveThread}.
+     */
+    private boolean receivingStarted = false;
+
     /**
      * Number of received bytes.
      */
     private long numberOfReceivedBytes = 0;
 
     /**
-     * The packet data to be read out of this instance through its {@link #read(byte[], int, int)} method.
+     * The packets to be read out of this instance through its {@link #read(byte[], int, int)}
+     * method; offered by {@link #receiveThread} only.
      */
-    private RawPacket pkt;
+    private final SpscRingBuffer<RawPacket> receiveQueue = new SpscRingBuffer<>(RECEIVE_QUEUE_CAPACITY);
 
     /**
-     * The <tt>Object</tt> which synchronizes the access to {@link #pkt}.
+     * The packet which did not fit into the buffer of the last read; it is read before
+     * {@link #receiveQueue}.
      */
-    private final Object pktSyncRoot = new Object();
+    private final AtomicReference<RawPacket> pendingPkt = new AtomicReference<>();
+
+    /**
+     * The number of received packets which were dropped because {@link #receiveQueue} was full.
+     * Updated by {@link #receiveThread} only.
+     */
+    private volatile long numberOfReceiveQueueDrops = 0;
 
     /**
      * The adapter of this <tt>PushSourceStream</tt> to the <tt>PushBufferStream</tt> interface.
@@ -268,6 +319,8 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
     @Override
     public synchronized void close()
     {
+        if (!closed)
+            Timber.d("Closing input stream; packet buffer pool: %s", ByteArrayPool.getStatistics());
         closed = true;
         if (socket != null) {
             /*
@@ -307,7 +360,8 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
         byte[] buffer = pkt.getBuffer();
         int length = datagramPacket.getLength();
         if (buffer == null || buffer.length < length) {
-            buffer = new byte[length];
+            ByteArrayPool.returnBuffer(buffer);
+            buffer = ByteArrayPool.getBuffer(length);
             pkt.setBuffer(buffer);
         }
 
@@ -417,10 +471,45 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
         return numberOfReceivedBytes;
     }
 
+    /**
+     * Returns the number of received packets which are waiting to be read.
+     *
+     * @return the current depth of the receive queue
+     */
+    public int getReceiveQueueSize()
+    {
+        return receiveQueue.size() + ((pendingPkt.get() == null) ? 0 : 1);
+    }
+
+    /**
+     * Returns the maximum number of received packets which can wait to be read.
+     *
+     * @return the capacity of the receive queue
+     */
+    public int getReceiveQueueCapacity()
+    {
+        return receiveQueue.getCapacity();
+    }
+
+    /**
+     * Returns the number of received packets dropped because the receive queue was full.
+     *
+     * @return the number of receive queue overflow drops
+     */
+    public long getNumberOfReceiveQueueDrops()
+    {
+        return numberOfReceiveQueueDrops;
+    }
+
     private synchronized void maybeStartReceiveThread()
     {
-        if (receiveThread == null) {
+        if ((receiveThread == null) && !receivingStarted) {
             if ((socket != null) && !closed && (transferHandler != null)) {
+                if (startReceiving()) {
+                    receivingStarted = true;
+                    return;
+                }
+
                 receiveThread = new Thread()
                 {
                     @Override
@@ -443,8 +532,8 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
 
     /**
      * Pools the specified <tt>RawPacket</tt> in order to avoid future allocations and to reduce
-     * the
-     * effects of garbage collection.
+     * the effects of garbage collection. If {@link #rawPacketPool} is full, the packet buffer is
+     * released to the {@link ByteArrayPool} instead.
      *
      * @param pkt the <tt>RawPacket</tt> to be offered to {@link #rawPacketPool}
      */
@@ -453,11 +542,12 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
         pkt.setFlags(0);
         pkt.setLength(0);
         pkt.setOffset(0);
-        rawPacketPool.offer(pkt);
+        if (!rawPacketPool.offer(pkt))
+            ByteArrayPool.returnBuffer(pkt.getBuffer());
     }
 
     /**
-     * Copies the content of the most recently received packet into <tt>data</tt>.
+     * Copies the content of the oldest received packet which was not read yet into <tt>data</tt>.
      *
      * @param buffer an optional <tt>Buffer</tt> instance associated with the specified <tt>data</tt>,
      * <tt>offset</tt> and <tt>length</tt> and provided to the method in case the
@@ -478,12 +568,9 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
         if (ioError)
             return -1;
 
-        RawPacket pkt;
-
-        synchronized (pktSyncRoot) {
-            pkt = this.pkt;
-            this.pkt = null;
-        }
+        RawPacket pkt = pendingPkt.getAndSet(null);
+        if (pkt == null)
+            pkt = receiveQueue.poll();
 
         int pktLength;
 
@@ -498,8 +585,8 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
                 pktLength = pkt.getLength();
                 if (length < pktLength) {
                     /*
-                     * If pkt is still the latest RawPacket made available to reading, reinstate it
-                     * for the next invocation of read; otherwise, return it to the pool.
+                     * Reinstate pkt for the next invocation of read (with a bigger buffer)
+                     * unless another packet is already pending; otherwise, return it to the pool.
                      */
                     poolPkt = false;
                     throw new IOException("Input buffer not big enough for " + pktLength);
@@ -518,13 +605,8 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
                     }
                 }
             } finally {
-                if (!poolPkt) {
-                    synchronized (pktSyncRoot) {
-                        if (this.pkt == null)
-                            this.pkt = pkt;
-                        else
-                            poolPkt = true;
-                    }
+                if (!poolPkt && !pendingPkt.compareAndSet(null, pkt)) {
+                    poolPkt = true;
                 }
                 if (poolPkt) {
                     // Return pkt to the pool because it was successfully read.
@@ -536,7 +618,7 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
     }
 
     /**
-     * Copies the content of the most recently received packet into <tt>buffer</tt>.
+     * Copies the content of the oldest received packet which was not read yet into <tt>buffer</tt>.
      *
      * @param buffer the <tt>byte[]</tt> that we'd like to copy the content of the packet to.
      * @param offset the position where we are supposed to start writing in <tt>buffer</tt>.
@@ -560,6 +642,54 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
     protected abstract void receive(DatagramPacket p)
             throws IOException;
 
+    /**
+     * Starts receiving packets without a {@link #receiveThread} of this instance; i.e. the received
+     * packets are pushed into {@link #processReceivedPacket(DatagramPacket)} by a single thread of
+     * the extender's choosing. The default implementation does not support it.
+     *
+     * @return <tt>true</tt> if the extender receives the packets; <tt>false</tt> to have this
+     * instance start its own <tt>receiveThread</tt>
+     */
+    protected boolean startReceiving()
+    {
+        return false;
+    }
+
+    /**
+     * Notifies this instance that receiving from its socket has failed and no more packets are to
+     * be received.
+     *
+     * @param e the <tt>IOException</tt> which caused the failure
+     */
+    protected void receiveFailed(IOException e)
+    {
+        ioError = true;
+    }
+
+    /**
+     * Processes a received datagram packet i.e. stores it for reading by the <tt>read</tt> method
+     * and notifies the local <tt>transferHandler</tt> that there's data to be read. Must only be
+     * invoked by a single thread at a time, the receive thread or the one which pushes the packets.
+     *
+     * @param p the received <tt>DatagramPacket</tt>; its data is copied
+     */
+    protected void processReceivedPacket(DatagramPacket p)
+    {
+        numberOfReceivedBytes += p.getLength();
+        try {
+            // Do the DatagramPacketFilters accept the received DatagramPacket?
+            if (accept(p)) {
+                RawPacket[] pkts = createRawPacket(p);
+                transferData(pkts);
+            }
+        } catch (Exception e) {
+            // The receive thread should not die as a result of a failure in
+            // the packetization (converting to RawPacket[] and transforming)
+            // or a failure in any of the DatagramPacketFilters.
+            Timber.e(e, "Failed to receive a packet: ");
+        }
+    }
+
     /**
      * Listens for incoming datagram packets, stores them for reading by the <tt>read</tt> method
      * and notifies the local <tt>transferHandler</tt> that there's data to be read.
@@ -581,23 +711,11 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
                 Timber.log(TimberLog.FINER, "Socket timeout, closed = %s", closed);
                 continue;
             } catch (IOException e) {
-                ioError = true;
+                receiveFailed(e);
                 break;
             }
 
-            numberOfReceivedBytes += p.getLength();
-            try {
-                // Do the DatagramPacketFilters accept the received DatagramPacket?
-                if (accept(p)) {
-                    RawPacket[] pkts = createRawPacket(p);
-                    transferData(pkts);
-                }
-            } catch (Exception e) {
-                // The receive thread should not die as a result of a failure in
-                // the packetization (converting to RawPacket[] and transforming)
-                // or a failure in any of the DatagramPacketFilters.
-                Timber.e(e, "Failed to receive a packet: ");
-            }
+            processReceivedPacket(p);
         }
     }
 
@@ -669,19 +787,27 @@ public abstract class RTPConnectorInputStream<T extends Closeable> implements Pu
                     poolRawPacket(pkt);
                 }
                 else {
-                    RawPacket oldPkt;
+                    if (!receiveQueue.offer(pkt)) {
+                        if (RECEIVE_QUEUE_DROP_OLDEST) {
+                            /*
+                             * Return the oldest packet to the pool because it was made available
+                             * to reading and it was not read. Only this thread offers, so pkt fits now.
+                             */
+                            RawPacket oldPkt = receiveQueue.poll();
+                            if (oldPkt != null)
+                                poolRawPacket(oldPkt);
+                            receiveQueue.offer(pkt);
+                        }
+                        else {
+                            poolRawPacket(pkt);
+                        }
 
-                    synchronized (pktSyncRoot) {
-                        oldPkt = this.pkt;
-                        this.pkt = pkt;
-                    }
-                    if (oldPkt != null) {
-                        /*
-                         * Return oldPkt to the pool because it was made available to reading
-                         * and it
-                         * was not read.
-                         */
-                        poolRawPacket(oldPkt);
+                        long drops = ++numberOfReceiveQueueDrops;
+                        if ((RECEIVE_QUEUE_CAPACITY > 1)
+                                && RTPConnectorOutputStream.logDroppedPacket((int) Math.min(drops, Integer.MAX_VALUE))) {
+                            Timber.w("Receive queue (capacity %s) overflow; dropped %s packets",
+                                    RECEIVE_QUEUE_CAPACITY, drops);
+                        }
                     }
 
                     if ((transferHandler != null) && !closed) {
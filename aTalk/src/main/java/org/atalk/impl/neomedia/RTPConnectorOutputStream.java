@@ -11,6 +11,7 @@ import org.atalk.android.plugin.timberlog.TimberLog;
 import org.atalk.service.configuration.ConfigurationService;
 import org.atalk.service.libjitsi.LibJitsi;
 import org.atalk.service.neomedia.RawPacket;
+import org.atalk.util.ByteArrayPool;
 import org.atalk.util.ConfigUtils;
 import org.ice4j.util.QueueStatistics;
 import org.ice4j.util.RateStatistics;
@@ -234,7 +235,7 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream
         byte[] pktBuffer;
 
         if (pkt == null) {
-            pktBuffer = new byte[len];
+            pktBuffer = ByteArrayPool.getBuffer(len);
             pkt = new RawPacket();
         }
         else {
@@ -247,7 +248,8 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream
              * insufficient more than once. That is why we recreate it without returning a packet to
              * the pool.
              */
-            pktBuffer = new byte[len];
+            ByteArrayPool.returnBuffer(pktBuffer);
+            pktBuffer = ByteArrayPool.getBuffer(len);
         }
 
         pkt.setBuffer(pktBuffer);
@@ -319,7 +321,7 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream
     private boolean send(RawPacket packet)
     {
         if (!isSocketValid()) {
-            rawPacketPool.offer(packet);
+            poolRawPacket(packet);
             return false;
         }
 
@@ -328,17 +330,30 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream
             try {
                 sendToTarget(packet, target);
             } catch (IOException ioe) {
-                rawPacketPool.offer(packet);
+                poolRawPacket(packet);
                 // too many msg hangs the system, show only once per 100
                 if ((numberOfPackets % 100) == 0)
                     Timber.w("Failed to send 100 packets to target %s: %s", target, ioe.getMessage());
                 return false;
             }
         }
-        rawPacketPool.offer(packet);
+        poolRawPacket(packet);
         return true;
     }
 
+    /**
+     * Returns a sent <tt>RawPacket</tt> to {@link #rawPacketPool} for re-use by
+     * {@link #packetize(byte[], int, int, Object)}. If the pool is full, the packet buffer is
+     * released to the {@link ByteArrayPool} instead.
+     *
+     * @param packet the <tt>RawPacket</tt> which is no longer in use
+     */
+    private void poolRawPacket(RawPacket packet)
+    {
+        if (!rawPacketPool.offer(packet))
+            ByteArrayPool.returnBuffer(packet.getBuffer());
+    }
+
     /**
      * Sends a specific <tt>RawPacket</tt> through this <tt>OutputDataStream</tt> to a specific <tt>InetSocketAddress</tt>.
      *
@@ -515,7 +530,7 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream
                     }
                 }
                 else {
-                    rawPacketPool.offer(pkt);
+                    poolRawPacket(pkt);
                 }
             }
         }
@@ -634,7 +649,7 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream
                     if (queueStats != null) {
                         queueStats.remove(now);
                     }
-                    pool.offer(b);
+                    poolBuffer(b);
                     numDroppedPackets++;
                     if (logDroppedPacket(numDroppedPackets)) {
                         Timber.w("Packets dropped (hashCode = %s): %s", hashCode(), numDroppedPackets);
@@ -700,7 +715,7 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream
                         Timber.e(e, "Failed to handle an outgoing packet.");
                         continue;
                     } finally {
-                        pool.offer(buffer);
+                        poolBuffer(buffer);
                     }
 
                     if (perNanos > 0 && maxBuffers > 0) {
@@ -745,6 +760,16 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream
             }
         }
 
+        /**
+         * Returns a {@link Buffer} to {@link #pool}; or its byte array to the {@link ByteArrayPool}
+         * if the pool is full.
+         */
+        private void poolBuffer(Buffer buffer)
+        {
+            if (!pool.offer(buffer))
+                ByteArrayPool.returnBuffer(buffer.buf);
+        }
+
         /**
          * @return a free {@link Buffer} instance with a byte array with a length of at least {@code len}.
          */
@@ -753,8 +778,10 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream
             Buffer buffer = pool.poll();
             if (buffer == null)
                 buffer = new Buffer();
-            if (buffer.buf == null || buffer.buf.length < len)
-                buffer.buf = new byte[len];
+            if (buffer.buf == null || buffer.buf.length < len) {
+                ByteArrayPool.returnBuffer(buffer.buf);
+                buffer.buf = ByteArrayPool.getBuffer(len);
+            }
             return buffer;
         }
 
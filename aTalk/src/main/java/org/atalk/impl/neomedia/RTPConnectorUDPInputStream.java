@@ -10,6 +10,9 @@ import org.atalk.impl.neomedia.transform.TransformInputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.nio.channels.DatagramChannel;
+
+import timber.log.Timber;
 
 /**
  * RTPConnectorInputStream implementation for UDP protocol.
@@ -42,6 +45,34 @@ public class RTPConnectorUDPInputStream extends TransformInputStream<DatagramSoc
         socket.receive(p);
     }
 
+    /**
+     * Receives on the <tt>DatagramChannelReceiver</tt> shared by all streams if the socket is
+     * backed by a non-blocking <tt>DatagramChannel</tt>, which cannot be received from in the
+     * blocking receive thread.
+     *
+     * @return <tt>true</tt> if the shared <tt>DatagramChannelReceiver</tt> receives the packets
+     */
+    @Override
+    protected boolean startReceiving()
+    {
+        DatagramChannel channel = socket.getChannel();
+        if ((channel == null) || channel.isBlocking())
+            return false;
+
+        try {
+            DatagramChannelReceiver.getInstance().register(channel, this);
+            return true;
+        } catch (IOException ioe) {
+            Timber.w(ioe, "Failed to start the datagram channel receiver; using a receive thread");
+        }
+        try {
+            channel.configureBlocking(true);
+        } catch (IOException ioe) {
+            receiveFailed(ioe);
+        }
+        return false;
+    }
+
     @Override
     protected void setReceiveBufferSize(int receiveBufferSize)
             throws IOException
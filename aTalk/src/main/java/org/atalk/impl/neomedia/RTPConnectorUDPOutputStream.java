@@ -9,6 +9,10 @@ import org.atalk.service.neomedia.RawPacket;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import timber.log.Timber;
 
 /**
  * RTPConnectorOutputStream implementation for UDP protocol.
@@ -22,6 +26,29 @@ public class RTPConnectorUDPOutputStream extends RTPConnectorOutputStream
      */
     private final DatagramSocket socket;
 
+    /**
+     * The non-blocking <tt>DatagramChannel</tt> of {@link #socket} if any; the packets are then sent
+     * through it from {@link #sendBuffer} because the socket adaptor cannot send.
+     */
+    private final DatagramChannel channel;
+
+    /**
+     * The direct buffer which the packets are copied into to be sent through {@link #channel};
+     * grows on demand.
+     */
+    private ByteBuffer sendBuffer;
+
+    /**
+     * The <tt>DatagramPacket</tt> re-used to send through {@link #socket}. <tt>DatagramSocket#send</tt>
+     * synchronizes on it anyway so it also serializes the use of {@link #sendBuffer}.
+     */
+    private final DatagramPacket sendPacket = new DatagramPacket(new byte[0], 0);
+
+    /**
+     * The number of packets not sent through {@link #channel} because its socket send buffer was full.
+     */
+    private int numberOfChannelDrops = 0;
+
     /**
      * Initializes a new <tt>RTPConnectorUDPOutputStream</tt>.
      *
@@ -30,6 +57,9 @@ public class RTPConnectorUDPOutputStream extends RTPConnectorOutputStream
     public RTPConnectorUDPOutputStream(DatagramSocket socket)
     {
         this.socket = socket;
+
+        DatagramChannel channel = (socket == null) ? null : socket.getChannel();
+        this.channel = ((channel == null) || channel.isBlocking()) ? null : channel;
     }
 
     /**
@@ -45,8 +75,42 @@ public class RTPConnectorUDPOutputStream extends RTPConnectorOutputStream
     protected void sendToTarget(RawPacket packet, InetSocketAddress target)
             throws IOException
     {
-        socket.send(new DatagramPacket(packet.getBuffer(), packet.getOffset(), packet.getLength(),
-                target.getAddress(), target.getPort()));
+        synchronized (sendPacket) {
+            if (channel != null) {
+                sendThroughChannel(packet, target);
+            }
+            else {
+                sendPacket.setData(packet.getBuffer(), packet.getOffset(), packet.getLength());
+                sendPacket.setSocketAddress(target);
+                socket.send(sendPacket);
+            }
+        }
+    }
+
+    /**
+     * Sends a specific <tt>RawPacket</tt> through {@link #channel} from the direct {@link #sendBuffer}.
+     * The packet is dropped if the socket send buffer is full.
+     *
+     * @param packet the <tt>RawPacket</tt> to send
+     * @param target the <tt>InetSocketAddress</tt> to send the packet to
+     * @throws IOException if anything goes wrong while sending
+     */
+    private void sendThroughChannel(RawPacket packet, InetSocketAddress target)
+            throws IOException
+    {
+        int length = packet.getLength();
+        if ((sendBuffer == null) || (sendBuffer.capacity() < length))
+            sendBuffer = ByteBuffer.allocateDirect(Math.max(length, 1500));
+
+        sendBuffer.clear();
+        sendBuffer.put(packet.getBuffer(), packet.getOffset(), length);
+        sendBuffer.flip();
+        if (channel.send(sendBuffer, target) == 0) {
+            numberOfChannelDrops++;
+            if (logDroppedPacket(numberOfChannelDrops)) {
+                Timber.w("Packets dropped because the socket send buffer is full: %s", numberOfChannelDrops);
+            }
+        }
     }
 
     /**
@@ -18,6 +18,7 @@ import org.atalk.impl.neomedia.transform.fec.FECTransformEngine;
 import org.atalk.service.configuration.ConfigurationService;
 import org.atalk.service.libjitsi.LibJitsi;
 import org.atalk.service.neomedia.*;
+import org.atalk.service.neomedia.control.BitrateAwareEncoder;
 import org.atalk.service.neomedia.control.KeyFrameControl;
 import org.atalk.service.neomedia.control.KeyFrameControlAdapter;
 import org.atalk.service.neomedia.device.MediaDevice;
@@ -1128,9 +1129,38 @@ public class VideoMediaStreamImpl extends MediaStreamImpl implements VideoMediaS
     {
         if (bandwidthEstimator == null) {
             bandwidthEstimator = new BandwidthEstimatorImpl(this);
+            bandwidthEstimator.addListener(new BandwidthEstimator.Listener()
+            {
+                @Override
+                public void bandwidthEstimationChanged(long newValueBps)
+                {
+                    updateEncoderBitrate(newValueBps);
+                }
+            });
             recurringRunnableExecutor.registerRecurringRunnable(bandwidthEstimator);
             Timber.i("Creating a BandwidthEstimator for stream %s", this);
         }
         return bandwidthEstimator;
     }
+
+    /**
+     * Notifies the encoders of this stream of the bitrate which the send-side bandwidth estimation
+     * allows.
+     *
+     * @param bitrateBps the estimated available bitrate in bps
+     */
+    private void updateEncoderBitrate(long bitrateBps)
+    {
+        if (getDirection() == MediaDirection.INACTIVE)
+            return;
+
+        MediaDeviceSession deviceSession = getDeviceSession();
+        if (deviceSession == null)
+            return;
+
+        for (BitrateAwareEncoder encoder : deviceSession.getEncoderControls(BitrateAwareEncoder.class)) {
+            if (encoder != null)
+                encoder.setTargetBitrate(bitrateBps);
+        }
+    }
 }
@@ -6,12 +6,14 @@
  */
 package org.atalk.impl.neomedia.codec.video.vp8;
 
+import java.awt.Component;
 import java.awt.Dimension;
 import org.atalk.impl.neomedia.NeomediaServiceUtils;
 import org.atalk.impl.neomedia.codec.AbstractCodec2;
 import org.atalk.impl.neomedia.codec.video.VPX;
 import org.atalk.impl.neomedia.device.DeviceConfiguration;
 import org.atalk.service.neomedia.codec.Constants;
+import org.atalk.service.neomedia.control.BitrateAwareEncoder;
 
 import javax.media.Buffer;
 import javax.media.Format;
@@ -27,7 +29,7 @@ import timber.log.Timber;
  * @author Boris Grozev
  * @author Eng Chong Meng
  */
-public class VP8Encoder extends AbstractCodec2
+public class VP8Encoder extends AbstractCodec2 implements BitrateAwareEncoder
 {
     /**
      * VPX interface to use
@@ -89,6 +91,22 @@ public class VP8Encoder extends AbstractCodec2
     @SuppressWarnings("SuspiciousNameCombination")
     private int mHeight = DeviceConfiguration.DEFAULT_VIDEO_WIDTH;
 
+    /**
+     * The configured bitrate in kbps; the target bitrate never exceeds it.
+     */
+    private int maxBitrateKbps;
+
+    /**
+     * The target bitrate in kbps currently set in {@link #cfg}.
+     */
+    private int targetBitrateKbps;
+
+    /**
+     * The target bitrate in kbps requested by the bandwidth estimation, applied before the next
+     * frame is encoded; or -1 if none is pending.
+     */
+    private volatile int pendingBitrateKbps = -1;
+
     /**
      * Initializes a new <tt>VP8Encoder</tt> instance.
      */
@@ -107,6 +125,7 @@ public class VP8Encoder extends AbstractCodec2
                 Format.NOT_SPECIFIED, /* offsetU */
                 Format.NOT_SPECIFIED) /* offsetV */
         };
+        addControl(this);
     }
 
     /**
@@ -176,6 +195,7 @@ public class VP8Encoder extends AbstractCodec2
         VPX.codec_enc_cfg_set_w(cfg, mWidth);
         VPX.codec_enc_cfg_set_h(cfg, mHeight);
         VPX.codec_enc_cfg_set_rc_target_bitrate(cfg, bitRate);
+        maxBitrateKbps = targetBitrateKbps = bitRate;
         VPX.codec_enc_cfg_set_rc_resize_allowed(cfg, 1);
         VPX.codec_enc_cfg_set_rc_end_usage(cfg, VPX.RC_MODE_CBR);
         VPX.codec_enc_cfg_set_kf_mode(cfg, VPX.KF_MODE_AUTO);
@@ -222,6 +242,7 @@ public class VP8Encoder extends AbstractCodec2
             int height = formatSize.height;
 
             flags = 0;
+            updateTargetBitrate();
             if (width > 0 && height > 0
                     && (width != mWidth || height != mHeight)) {
                 Timber.d("VP8 encode video size changed: [width=%s, height=%s]=>%s", mWidth, mHeight, formatSize);
@@ -280,6 +301,55 @@ public class VP8Encoder extends AbstractCodec2
         }
     }
 
+    /**
+     * Applies the target bitrate requested by the bandwidth estimation, if any, to the encoder.
+     */
+    private void updateTargetBitrate()
+    {
+        int bitrateKbps = pendingBitrateKbps;
+        if (bitrateKbps == -1)
+            return;
+
+        pendingBitrateKbps = -1;
+        bitrateKbps = Math.min(bitrateKbps, maxBitrateKbps);
+        if (bitrateKbps == targetBitrateKbps || cfg == 0 || vpctx == 0)
+            return;
+
+        VPX.codec_enc_cfg_set_rc_target_bitrate(cfg, bitrateKbps);
+        int ret = VPX.codec_enc_config_set(vpctx, cfg);
+        if (ret != VPX.CODEC_OK) {
+            Timber.w("Failed to set VP8 target bitrate %d kbps: %s",
+                    bitrateKbps, VPX.codec_err_to_string(ret));
+            VPX.codec_enc_cfg_set_rc_target_bitrate(cfg, targetBitrateKbps);
+            return;
+        }
+        Timber.d("VP8 target bitrate: %d => %d kbps", targetBitrateKbps, bitrateKbps);
+        targetBitrateKbps = bitrateKbps;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The new target is applied before the next frame is encoded.
+     */
+    @Override
+    public void setTargetBitrate(long bitrateBps)
+    {
+        pendingBitrateKbps = (int) Math.max(bitrateBps / 1000, 1);
+    }
+
+    /**
+     * Implements {@link javax.media.Control#getControlComponent()}. <tt>VP8Encoder</tt> does not
+     * provide user interface of its own.
+     *
+     * @return <tt>null</tt> to signify that <tt>VP8Encoder</tt> does not provide user interface of its own
+     */
+    @Override
+    public Component getControlComponent()
+    {
+        return null;
+    }
+
     /**
      * Gets the matching output formats for a specific format.
      *
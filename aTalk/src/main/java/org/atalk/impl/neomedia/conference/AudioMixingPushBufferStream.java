@@ -53,6 +53,12 @@ public class AudioMixingPushBufferStream extends ControlsAdapter
         }
     }
 
+    /**
+     * The fraction of the maximum sample value above which the mix is compressed rather than
+     * clipped.
+     */
+    private static final float SOFT_CLIP_THRESHOLD = 0.75f;
+
     /**
      * The <tt>AudioMixerPushBufferStream</tt> which reads data from the input <tt>DataSource</tt>s
      * and pushes it to this instance to be mixed.
@@ -88,6 +94,13 @@ public class AudioMixingPushBufferStream extends ControlsAdapter
      */
     private short[] outSamples;
 
+    /**
+     * The sums of the input audio samples of the last invocation of
+     * {@link #mix(short[][], AudioFormat, int)}. Cached in order to reduce allocations and
+     * garbage collection.
+     */
+    private int[] accumulator;
+
     /**
      * The <tt>Object</tt> which synchronizes the access to the data to be read from this
      * <tt>PushBufferStream</tt> i.e. to {@link #inSamples}, {@link #maxInSampleCount} and
@@ -134,6 +147,15 @@ public class AudioMixingPushBufferStream extends ControlsAdapter
         return outSamples;
     }
 
+    private int[] allocateAccumulator(int minSize)
+    {
+        int[] accumulator = this.accumulator;
+
+        if ((accumulator == null) || (accumulator.length < minSize))
+            this.accumulator = accumulator = new int[minSize];
+        return accumulator;
+    }
+
     /**
      * Implements {@link SourceStream#endOfStream()}. Delegates to the wrapped
      * <tt>AudioMixerPushBufferStream</tt> because this instance is just a facet to it.
@@ -244,10 +266,7 @@ public class AudioMixingPushBufferStream extends ControlsAdapter
             return outSamples;
         }
 
-        outSamples = allocateOutSamples(outSampleCount);
-        Arrays.fill(outSamples, 0, outSampleCount, (short) 0);
-
-        float maxOutSample;
+        int maxOutSample;
 
         try {
             maxOutSample = getMaxOutSample(outFormat);
@@ -255,24 +274,57 @@ public class AudioMixingPushBufferStream extends ControlsAdapter
             throw new UnsupportedOperationException(ufex);
         }
 
+        /*
+         * Sum the contributing streams, which are at the head of inSamples, into int-s so that
+         * the sum does not overflow. The loops are kept trivial for the JIT to vectorize them.
+         */
+        int[] accumulator = allocateAccumulator(outSampleCount);
+        Arrays.fill(accumulator, 0, outSampleCount, 0);
         for (short[] inStreamSamples : inSamples) {
-            if (inStreamSamples != null) {
-
-                int inStreamSampleCount = Math.min(inStreamSamples.length, outSampleCount);
-                if (inStreamSampleCount != 0) {
-                    for (int i = 0; i < inStreamSampleCount; i++) {
-                        int inStreamSample = inStreamSamples[i];
-                        int outSample = outSamples[i];
-
-                        outSamples[i] = (short) (inStreamSample + outSample
-                                - Math.round(inStreamSample * (outSample / maxOutSample)));
-                    }
-                }
-            }
+            if (inStreamSamples == null)
+                break;
+
+            int inStreamSampleCount = Math.min(inStreamSamples.length, outSampleCount);
+            for (int i = 0; i < inStreamSampleCount; i++)
+                accumulator[i] += inStreamSamples[i];
         }
+
+        outSamples = allocateOutSamples(outSampleCount);
+        softClip(accumulator, outSamples, outSampleCount, Math.min(maxOutSample, Short.MAX_VALUE));
         return outSamples;
     }
 
+    /**
+     * Converts sums of audio samples into audio samples. The sums within a threshold below the
+     * maximum sample value are kept as they are; the ones beyond it are compressed so that they
+     * approach the maximum sample value instead of being clipped.
+     *
+     * @param accumulator the sums of audio samples
+     * @param outSamples the array to receive the audio samples
+     * @param sampleCount the number of audio samples to convert
+     * @param maxOutSample the maximum possible value for an audio sample
+     */
+    private static void softClip(int[] accumulator, short[] outSamples, int sampleCount,
+            int maxOutSample)
+    {
+        int threshold = (int) (maxOutSample * SOFT_CLIP_THRESHOLD);
+        long headroom = maxOutSample - threshold;
+
+        for (int i = 0; i < sampleCount; i++) {
+            int sum = accumulator[i];
+
+            if (sum > threshold) {
+                long excess = sum - threshold;
+                sum = threshold + (int) (excess * headroom / (excess + headroom));
+            }
+            else if (sum < -threshold) {
+                long excess = -threshold - sum;
+                sum = -threshold - (int) (excess * headroom / (excess + headroom));
+            }
+            outSamples[i] = (short) sum;
+        }
+    }
+
     /**
      * Implements {@link PushBufferStream#read(Buffer)}. If <tt>inSamples</tt> are available, mixes
      * them and writes the mix to the specified <tt>Buffer</tt> performing the necessary data type
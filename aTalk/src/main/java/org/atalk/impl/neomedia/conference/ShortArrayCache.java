@@ -5,28 +5,32 @@
  */
 package org.atalk.impl.neomedia.conference;
 
-import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.media.Buffer;
 
 /**
  * Caches <tt>short</tt> arrays for the purposes of reducing garbage collection.
  *
+ * The arrays are kept in a fixed number of slots which are claimed and filled with
+ * compare-and-set, so neither allocation nor deallocation takes a lock. An array deallocated
+ * while all slots are occupied is left to the garbage collector.
+ *
  * @author Lyubomir Marinov
+ * @author Eng Chong Meng
  */
 class ShortArrayCache
 {
 	/**
-	 * The cache of <tt>short</tt> arrays managed by this instance for the purposes of reducing
-	 * garbage collection.
+	 * The number of <tt>short</tt> arrays which may be cached by an instance.
 	 */
-	private SoftReference<short[][]> elements;
+	private static final int CAPACITY = 16;
 
 	/**
-	 * The number of elements at the head of {@link #elements} which are currently utilized.
-	 * Introduced to limit the scope of iteration.
+	 * The cache of <tt>short</tt> arrays managed by this instance for the purposes of reducing
+	 * garbage collection.
 	 */
-	private int length;
+	private final AtomicReferenceArray<short[]> elements = new AtomicReferenceArray<>(CAPACITY);
 
 	/**
 	 * Allocates a <tt>short</tt> array with length/size greater than or equal to a specific
@@ -37,19 +41,14 @@ class ShortArrayCache
 	 * 		the minimum length/size of the array to be returned
 	 * @return a <tt>short</tt> array with length/size greater than or equal to <tt>minSize</tt>
 	 */
-	public synchronized short[] allocateShortArray(int minSize)
+	public short[] allocateShortArray(int minSize)
 	{
-		short[][] elements = (this.elements == null) ? null : this.elements.get();
+		for (int i = 0; i < CAPACITY; i++) {
+			short[] element = elements.get(i);
 
-		if (elements != null) {
-			for (int i = 0; i < length; i++) {
-				short[] element = elements[i];
-
-				if ((element != null) && element.length >= minSize) {
-					elements[i] = null;
-					return element;
-				}
-			}
+			if ((element != null) && element.length >= minSize
+					&& elements.compareAndSet(i, element, null))
+				return element;
 		}
 		return new short[minSize];
 	}
@@ -62,56 +61,28 @@ class ShortArrayCache
 	 * 		the <tt>short</tt> array to be returned into the cache/pool implemented by this
 	 * 		instance. If <tt>null</tt> , the method does nothing.
 	 */
-	public synchronized void deallocateShortArray(short[] shortArray)
+	public void deallocateShortArray(short[] shortArray)
 	{
 		if (shortArray == null)
 			return;
 
-		short[][] elements;
-
-		if ((this.elements == null) || ((elements = this.elements.get()) == null)) {
-			elements = new short[8][];
-			this.elements = new SoftReference<short[][]>(elements);
-			length = 0;
-		}
-
-		if (length != 0)
-			for (int i = 0; i < length; i++)
-				if (elements[i] == shortArray)
-					return;
-
-		if (length == elements.length) {
-			/*
-			 * Compact the non-null elements at the head of the storage in order to possibly
-			 * prevent reallocation.
-			 */
-			int newLength = 0;
-
-			for (int i = 0; i < length; i++) {
-				short[] element = elements[i];
-
-				if (element != null) {
-					if (i != newLength) {
-						elements[newLength] = element;
-						elements[i] = null;
-					}
-					newLength++;
-				}
-			}
+		int free = -1;
 
-			if (newLength == length) {
-				// Expand the storage.
-				short[][] newElements = new short[elements.length + 4][];
+		for (int i = 0; i < CAPACITY; i++) {
+			short[] element = elements.get(i);
 
-				System.arraycopy(elements, 0, newElements, 0, elements.length);
-				elements = newElements;
-				this.elements = new SoftReference<short[][]>(elements);
-			}
-			else {
-				length = newLength;
-			}
+			if (element == shortArray)
+				return;
+			if ((element == null) && (free == -1))
+				free = i;
 		}
-		elements[length++] = shortArray;
+		if (free == -1)
+			return;
+
+		// Another thread may have taken the free slot meanwhile; try the following ones.
+		for (int i = free; i < CAPACITY; i++)
+			if (elements.compareAndSet(i, null, shortArray))
+				return;
 	}
 
 	/**
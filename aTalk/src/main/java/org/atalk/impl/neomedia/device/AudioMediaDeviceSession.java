@@ -5,15 +5,21 @@
  */
 package org.atalk.impl.neomedia.device;
 
+import org.atalk.impl.neomedia.MediaStreamStatsImpl;
 import org.atalk.impl.neomedia.audiolevel.AudioLevelEffect;
 import org.atalk.impl.neomedia.audiolevel.AudioLevelEffect2;
+import org.atalk.impl.neomedia.format.MediaFormatImpl;
+import org.atalk.impl.neomedia.jitterbuffer.AdaptiveJitterBufferEffect;
 import org.atalk.impl.neomedia.jmfext.media.renderer.audio.AbstractAudioRenderer;
+import org.atalk.impl.neomedia.stats.MediaStreamStats2Impl;
 import org.atalk.service.neomedia.VolumeControl;
 import org.atalk.service.neomedia.event.SimpleAudioLevelListener;
 
 import javax.media.*;
+import javax.media.control.JitterBufferControl;
 import javax.media.control.TrackControl;
 import javax.media.format.AudioFormat;
+import javax.media.rtp.ReceiveStream;
 
 import timber.log.Timber;
 
@@ -51,6 +57,12 @@ public class AudioMediaDeviceSession extends MediaDeviceSession
      */
     private final AudioLevelEffect streamAudioLevelEffect = new AudioLevelEffect();
 
+    /**
+     * The statistics of the <tt>MediaStream</tt> which uses this instance; the adaptive jitter
+     * buffers of the received streams report to and are steered by them.
+     */
+    private MediaStreamStats2Impl mediaStreamStats;
+
     /**
      * Initializes a new <tt>MediaDeviceSession</tt> instance which is to represent the use of a
      * specific <tt>MediaDevice</tt> by a <tt>MediaStream</tt>.
@@ -131,7 +143,7 @@ public class AudioMediaDeviceSession extends MediaDeviceSession
                 if (tc.getFormat() instanceof AudioFormat) {
                     // Assume there is only one audio track.
                     try {
-                        registerStreamAudioLevelJMFEffect(tc);
+                        registerStreamAudioLevelJMFEffect(tc, createJitterBufferEffect(player));
                     } catch (UnsupportedPlugInException upie) {
                         Timber.e(upie, "Failed to register stream audio level Effect");
                     }
@@ -141,6 +153,32 @@ public class AudioMediaDeviceSession extends MediaDeviceSession
         }
     }
 
+    /**
+     * Creates the <tt>AdaptiveJitterBufferEffect</tt> which is to play out the <tt>ReceiveStream</tt>
+     * rendered by a specific <tt>Player</tt>.
+     *
+     * @param player the <tt>Player</tt> of the <tt>ReceiveStream</tt>
+     * @return the new <tt>AdaptiveJitterBufferEffect</tt> or <tt>null</tt> if it is disabled or the
+     * <tt>ReceiveStream</tt> has no jitter buffer to steer
+     */
+    private AdaptiveJitterBufferEffect createJitterBufferEffect(Player player)
+    {
+        MediaStreamStats2Impl stats = mediaStreamStats;
+        MediaFormatImpl<? extends Format> format = getFormat();
+        if (!AdaptiveJitterBufferEffect.ENABLED || (stats == null) || (format == null))
+            return null;
+
+        ReceiveStream receiveStream = getReceiveStream(player);
+        JitterBufferControl jitterBufferControl = (receiveStream == null)
+                ? null : MediaStreamStatsImpl.getJitterBufferControl(receiveStream);
+        if (jitterBufferControl == null)
+            return null;
+
+        long ssrc = 0xFFFFFFFFL & receiveStream.getSSRC();
+        return new AdaptiveJitterBufferEffect(stats.getReceiveStats(ssrc), jitterBufferControl,
+                (int) format.getClockRate());
+    }
+
     /**
      * Gets notified about <tt>ControllerEvent</tt>s generated by the processor reading our capture
      * data source, calls the corresponding method from the parent class so that it would initialize
@@ -203,17 +241,33 @@ public class AudioMediaDeviceSession extends MediaDeviceSession
      *
      * @param trackControl the <tt>TrackControl</tt> where we need to register a level effect that would measure
      * the audio levels of the <tt>ReceiveStream</tt> associated with this class.
+     * @param jitterBufferEffect the <tt>AdaptiveJitterBufferEffect</tt> to precede the level effect or
+     * <tt>null</tt>
      * @throws UnsupportedPlugInException if we fail to add our sound level effect to the track control of
      * <tt>mediaStream</tt>'s processor.
      */
-    private void registerStreamAudioLevelJMFEffect(TrackControl trackControl)
+    private void registerStreamAudioLevelJMFEffect(TrackControl trackControl,
+            AdaptiveJitterBufferEffect jitterBufferEffect)
             throws UnsupportedPlugInException
     {
         // we register the effect regardless of whether or not we have any
         // listeners at this point because we won't get a second chance.
         // however the effect would do next to nothing unless we register a
         // first listener with it. Assume there is only one audio track
-        trackControl.setCodecChain(new Codec[]{streamAudioLevelEffect});
+        trackControl.setCodecChain((jitterBufferEffect == null)
+                ? new Codec[]{streamAudioLevelEffect}
+                : new Codec[]{jitterBufferEffect, streamAudioLevelEffect});
+    }
+
+    /**
+     * Sets the statistics of the <tt>MediaStream</tt> which uses this instance, for the adaptive
+     * jitter buffers of the <tt>ReceiveStream</tt>s played back afterwards.
+     *
+     * @param mediaStreamStats the <tt>MediaStreamStats2Impl</tt> of the <tt>MediaStream</tt>
+     */
+    public void setMediaStreamStats(MediaStreamStats2Impl mediaStreamStats)
+    {
+        this.mediaStreamStats = mediaStreamStats;
     }
 
     /**
@@ -830,6 +830,27 @@ public class MediaDeviceSession extends PropertyChangeNotifier
         return null;
     }
 
+    /**
+     * Gets the <tt>ReceiveStream</tt> rendered by a specific <tt>Player</tt>.
+     *
+     * @param player the <tt>Player</tt> to get the rendered <tt>ReceiveStream</tt> of
+     * @return the <tt>ReceiveStream</tt> rendered by the specified <tt>player</tt> or <tt>null</tt>
+     */
+    protected ReceiveStream getReceiveStream(Player player)
+    {
+        Lock readLock = playbacksLock.readLock();
+        readLock.lock();
+        try {
+            for (Playback playback : playbacks) {
+                if (playback.player == player)
+                    return playback.receiveStream;
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return null;
+    }
+
     /**
      * Gets the <tt>Player</tt>s rendering the <tt>ReceiveStream</tt>s of this instance on its
      * associated <tt>MediaDevice</tt>.
@@ -0,0 +1,289 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.jitterbuffer;
+
+import org.atalk.impl.neomedia.codec.AbstractCodec2;
+import org.atalk.impl.neomedia.stats.ReceiveTrackStatsImpl;
+import org.atalk.service.configuration.ConfigurationService;
+import org.atalk.service.libjitsi.LibJitsi;
+import org.atalk.util.ConfigUtils;
+
+import javax.media.*;
+import javax.media.control.JitterBufferControl;
+import javax.media.format.AudioFormat;
+
+import timber.log.Timber;
+
+/**
+ * An <tt>Effect</tt> in the receive codec chain of an audio stream, after the decoder, which
+ * adapts the playout delay to the network jitter in the manner of NetEQ.
+ *
+ * The delay of the stream is the delay of the packets queued in its FMJ jitter buffer. The
+ * <tt>DelayManager</tt> of the stream estimates the target delay from the arrival times of the
+ * packets. When the filtered delay exceeds the target, a decoded frame is accelerated i.e.
+ * shortened by one pitch period so that the queue drains faster than real time; when it falls below
+ * the target, a frame is expanded so that the queue fills up. The frames concealed by the decoders
+ * (see {@link AbstractCodec2#BUFFER_FLAG_PLC}) are counted for the concealment ratio of the stream.
+ *
+ * @author Eng Chong Meng
+ */
+public class AdaptiveJitterBufferEffect extends AbstractCodec2 implements Effect
+{
+    /**
+     * The name of the property which enables the adaptive jitter buffer of the audio receive streams.
+     */
+    public static final String ENABLED_PNAME = AdaptiveJitterBufferEffect.class.getName() + ".ENABLED";
+
+    /**
+     * Whether the audio receive streams are played out through an <tt>AdaptiveJitterBufferEffect</tt>.
+     */
+    public static final boolean ENABLED;
+
+    static {
+        ConfigurationService cfg = LibJitsi.getConfigurationService();
+        ENABLED = ConfigUtils.getBoolean(cfg, ENABLED_PNAME, true);
+    }
+
+    /**
+     * The name of this <tt>PlugIn</tt>.
+     */
+    private static final String NAME = "Adaptive Jitter Buffer Effect";
+
+    /**
+     * The <tt>Format</tt>s supported as input/output by this <tt>Effect</tt>.
+     */
+    private static final Format[] SUPPORTED_FORMATS = new Format[]{new AudioFormat(
+            AudioFormat.LINEAR,
+            Format.NOT_SPECIFIED, // sampleRate
+            16, // sampleSizeInBits
+            Format.NOT_SPECIFIED, // channels
+            Format.NOT_SPECIFIED, // endian
+            AudioFormat.SIGNED)
+    };
+
+    /**
+     * The weight of a new delay sample in {@link #filteredDelayMs}.
+     */
+    private static final double DELAY_FILTER_WEIGHT = 1 / 8D;
+
+    /**
+     * The minimum deviation in milliseconds of the filtered delay from the target delay before
+     * a frame is time-stretched.
+     */
+    private static final int HYSTERESIS_MS = 10;
+
+    /**
+     * The estimator of the target delay of the stream.
+     */
+    private final DelayManager delayManager;
+
+    /**
+     * The FMJ jitter buffer whose delay is steered.
+     */
+    private final JitterBufferControl jitterBufferControl;
+
+    /**
+     * The statistics of the stream to report the concealment to.
+     */
+    private final ReceiveTrackStatsImpl stats;
+
+    /**
+     * The delay of the FMJ jitter buffer, smoothed over the frames.
+     */
+    private double filteredDelayMs = -1;
+
+    /**
+     * The <tt>TimeStretch</tt> for the current input format; re-created when the format changes.
+     */
+    private TimeStretch timeStretch;
+
+    /**
+     * The input format of {@link #timeStretch}.
+     */
+    private AudioFormat timeStretchFormat;
+
+    /**
+     * The samples of the frame being processed and the samples of its time-stretched version.
+     */
+    private short[] inSamples = new short[0], outSamples = new short[0];
+
+    /**
+     * The number of frames accelerated and expanded, for logging.
+     */
+    private int accelerated = 0, expanded = 0;
+
+    /**
+     * Initializes a new <tt>AdaptiveJitterBufferEffect</tt>.
+     *
+     * @param stats the statistics of the received stream which is played out through the new instance
+     * @param jitterBufferControl the FMJ jitter buffer of the stream
+     * @param clockRate the RTP clock rate of the stream
+     */
+    public AdaptiveJitterBufferEffect(ReceiveTrackStatsImpl stats,
+            JitterBufferControl jitterBufferControl, int clockRate)
+    {
+        super(NAME, AudioFormat.class, SUPPORTED_FORMATS);
+
+        this.stats = stats;
+        this.jitterBufferControl = jitterBufferControl;
+        delayManager = stats.getDelayManager();
+        delayManager.setClockRate(clockRate);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doClose()
+    {
+        Timber.i("Closing adaptive jitter buffer; accelerated %d, expanded %d frames; concealment ratio %.3f",
+                accelerated, expanded, stats.getConcealmentRatio());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doOpen()
+            throws ResourceUnavailableException
+    {
+    }
+
+    /**
+     * Copies the samples of <tt>inBuf</tt> to <tt>outBuf</tt>, accelerated or expanded by one pitch
+     * period if the delay of the jitter buffer deviates from its target.
+     *
+     * @param inBuf the input <tt>Buffer</tt>
+     * @param outBuf the output <tt>Buffer</tt>
+     * @return <tt>BUFFER_PROCESSED_OK</tt>
+     */
+    @Override
+    protected int doProcess(Buffer inBuf, Buffer outBuf)
+    {
+        AudioFormat format = (AudioFormat) inBuf.getFormat();
+        int channels = Math.max(1, format.getChannels());
+        int sampleRate = (int) format.getSampleRate();
+        int frames = inBuf.getLength() / (2 * channels);
+
+        if ((frames == 0) || (sampleRate <= 0) || !(inBuf.getData() instanceof byte[])) {
+            outBuf.copy(inBuf);
+            return BUFFER_PROCESSED_OK;
+        }
+
+        boolean concealed = (inBuf.getFlags() & BUFFER_FLAG_PLC) != 0;
+        stats.samplesPlayed(frames, concealed);
+
+        int delayMs = jitterBufferControl.getCurrentDelayMs();
+        filteredDelayMs = (filteredDelayMs < 0)
+                ? delayMs : (filteredDelayMs + DELAY_FILTER_WEIGHT * (delayMs - filteredDelayMs));
+
+        int targetMs = delayManager.getTargetDelayMs();
+        int frameMs = frames * 1000 / sampleRate;
+        int outFrames = -1;
+
+        if ((filteredDelayMs > targetMs + Math.max(frameMs, HYSTERESIS_MS)) && !concealed) {
+            TimeStretch timeStretch = getTimeStretch(format);
+            outFrames = timeStretch.accelerate(readSamples(inBuf, format, frames * channels), frames, outSamples);
+            if (outFrames >= 0) {
+                accelerated++;
+                // Compensate the lag of the filter for the drain caused by the removed samples.
+                filteredDelayMs -= (frames - outFrames) * 1000D / sampleRate;
+            }
+        }
+        else if ((filteredDelayMs < targetMs - HYSTERESIS_MS) && (delayMs < targetMs)) {
+            TimeStretch timeStretch = getTimeStretch(format);
+            outFrames = timeStretch.expand(readSamples(inBuf, format, frames * channels), frames, outSamples);
+            if (outFrames >= 0)
+                expanded++;
+        }
+
+        if (outFrames < 0) {
+            outBuf.copy(inBuf);
+            return BUFFER_PROCESSED_OK;
+        }
+
+        int outLength = outFrames * channels * 2;
+        byte[] out = validateByteArraySize(outBuf, outLength, false);
+        boolean bigEndian = (format.getEndian() == AudioFormat.BIG_ENDIAN);
+        for (int i = 0, o = 0; i < outFrames * channels; i++) {
+            short s = outSamples[i];
+            if (bigEndian) {
+                out[o++] = (byte) (s >> 8);
+                out[o++] = (byte) s;
+            }
+            else {
+                out[o++] = (byte) s;
+                out[o++] = (byte) (s >> 8);
+            }
+        }
+
+        outBuf.setLength(outLength);
+        outBuf.setOffset(0);
+        outBuf.setFormat(format);
+        outBuf.setHeader(inBuf.getHeader());
+        outBuf.setSequenceNumber(inBuf.getSequenceNumber());
+        outBuf.setTimeStamp(inBuf.getTimeStamp());
+        outBuf.setRtpTimeStamp(inBuf.getRtpTimeStamp());
+        outBuf.setFlags(inBuf.getFlags());
+        outBuf.setDiscard(inBuf.isDiscard());
+        outBuf.setEOM(inBuf.isEOM());
+        outBuf.setDuration((outFrames * 1000L * 1000L * 1000L) / sampleRate);
+        return BUFFER_PROCESSED_OK;
+    }
+
+    /**
+     * Gets the <tt>TimeStretch</tt> for a specific format, and sizes {@link #outSamples} for it.
+     *
+     * @param format the <tt>AudioFormat</tt> of the frame to be time-stretched
+     * @return the <tt>TimeStretch</tt> for <tt>format</tt>
+     */
+    private TimeStretch getTimeStretch(AudioFormat format)
+    {
+        if ((timeStretch == null) || !format.matches(timeStretchFormat)) {
+            timeStretch = new TimeStretch((int) format.getSampleRate(), Math.max(1, format.getChannels()));
+            timeStretchFormat = format;
+        }
+        return timeStretch;
+    }
+
+    /**
+     * Reads the 16-bit samples of a <tt>Buffer</tt> into {@link #inSamples}, and grows
+     * {@link #outSamples} to hold them expanded by the current {@link #timeStretch}.
+     *
+     * @param buf the <tt>Buffer</tt> to read
+     * @param format the <tt>AudioFormat</tt> of <tt>buf</tt>
+     * @param samples the number of samples to read
+     * @return {@link #inSamples}
+     */
+    private short[] readSamples(Buffer buf, AudioFormat format, int samples)
+    {
+        if (inSamples.length < samples)
+            inSamples = new short[samples];
+        int outCapacity = samples + timeStretch.getMaxPeriod() * Math.max(1, format.getChannels());
+        if (outSamples.length < outCapacity)
+            outSamples = new short[outCapacity];
+
+        byte[] data = (byte[]) buf.getData();
+        boolean bigEndian = (format.getEndian() == AudioFormat.BIG_ENDIAN);
+        for (int i = 0, o = buf.getOffset(); i < samples; i++, o += 2) {
+            inSamples[i] = bigEndian
+                    ? (short) ((data[o] << 8) | (data[o + 1] & 0xFF))
+                    : (short) ((data[o + 1] << 8) | (data[o] & 0xFF));
+        }
+        return inSamples;
+    }
+}
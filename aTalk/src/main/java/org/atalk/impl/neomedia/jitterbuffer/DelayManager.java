@@ -0,0 +1,214 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.jitterbuffer;
+
+/**
+ * Estimates the target delay of an audio jitter buffer from the arrival times of the RTP packets
+ * of a stream, in the manner of the NetEQ delay manager.
+ *
+ * The relative arrival delay of a packet is its transit time (arrival time minus RTP timestamp)
+ * above the one of the fastest packet of the last few seconds. The relative delays are kept in a
+ * histogram with exponential forgetting, and the target delay is the delay which covers
+ * {@link #QUANTILE} of the packets; i.e. a buffer at the target delay only lets the slowest packets
+ * arrive too late for their playout.
+ *
+ * @author Eng Chong Meng
+ */
+public class DelayManager
+{
+    /**
+     * The width in milliseconds of a bucket of {@link #histogram}.
+     */
+    private static final int BUCKET_MS = 5;
+
+    /**
+     * The number of buckets of {@link #histogram}; the last one collects all larger delays.
+     */
+    private static final int NUM_BUCKETS = 200;
+
+    /**
+     * The weight of the history of {@link #histogram} upon the arrival of a packet. At 50 packets
+     * per second, the histogram remembers about the last 10 seconds.
+     */
+    private static final double FORGET_FACTOR = 0.998;
+
+    /**
+     * The fraction of the packets which are to arrive in time for a buffer at the target delay.
+     */
+    private static final double QUANTILE = 0.95;
+
+    /**
+     * The duration in milliseconds of a window over which the fastest transit time is tracked.
+     * The base of the relative delays is the fastest transit time of the current and the
+     * previous window, so that it follows clock drift.
+     */
+    private static final long BASE_WINDOW_MS = 2000;
+
+    /**
+     * The relative delay in milliseconds beyond which a packet is considered a discontinuity of
+     * the stream (e.g. a new source or a timestamp jump) which resets the estimation.
+     */
+    private static final long MAX_RELATIVE_DELAY_MS = 5000;
+
+    /**
+     * The lower bound in milliseconds of the target delay.
+     */
+    public static final int MIN_TARGET_DELAY_MS = 20;
+
+    /**
+     * The upper bound in milliseconds of the target delay.
+     */
+    public static final int MAX_TARGET_DELAY_MS = 500;
+
+    /**
+     * The forgetting histogram of the relative arrival delays, in buckets of {@link #BUCKET_MS}.
+     */
+    private final double[] histogram = new double[NUM_BUCKETS];
+
+    /**
+     * The sum of the weights in {@link #histogram}.
+     */
+    private double histogramSum = 0;
+
+    /**
+     * The RTP clock rate of the stream; the packets are ignored until it is known.
+     */
+    private int clockRate = -1;
+
+    /**
+     * The last RTP timestamp received, or -1 if none.
+     */
+    private long lastTimestamp = -1;
+
+    /**
+     * The RTP timestamp of the last packet unwrapped to 64 bits.
+     */
+    private long extendedTimestamp;
+
+    /**
+     * The fastest transit time in milliseconds of the current base window.
+     */
+    private double windowMinTransit = Double.MAX_VALUE;
+
+    /**
+     * The fastest transit time in milliseconds of the previous base window.
+     */
+    private double previousWindowMinTransit = Double.MAX_VALUE;
+
+    /**
+     * The arrival time in milliseconds at which the current base window started.
+     */
+    private long windowStart = -1;
+
+    /**
+     * The current target delay in milliseconds.
+     */
+    private int targetDelayMs = MIN_TARGET_DELAY_MS;
+
+    /**
+     * Sets the RTP clock rate of the stream. Resets the estimation if it changes.
+     *
+     * @param clockRate the RTP clock rate of the stream
+     */
+    public synchronized void setClockRate(int clockRate)
+    {
+        if (this.clockRate != clockRate) {
+            this.clockRate = clockRate;
+            reset();
+        }
+    }
+
+    /**
+     * Notifies this instance that an RTP packet has arrived.
+     *
+     * @param timestamp the RTP timestamp of the packet
+     * @param arrivalTimeMs the time in milliseconds at which the packet arrived
+     */
+    public synchronized void packetArrived(long timestamp, long arrivalTimeMs)
+    {
+        if (clockRate <= 0)
+            return;
+
+        if (lastTimestamp == -1) {
+            extendedTimestamp = timestamp;
+        }
+        else {
+            // The signed difference of the 32-bit timestamps is correct across wraps and for
+            // reordered packets.
+            extendedTimestamp += (int) (timestamp - lastTimestamp);
+        }
+        lastTimestamp = timestamp;
+
+        double transit = arrivalTimeMs - (extendedTimestamp * 1000D / clockRate);
+
+        if ((windowStart == -1) || (arrivalTimeMs - windowStart >= BASE_WINDOW_MS)) {
+            previousWindowMinTransit = windowMinTransit;
+            windowMinTransit = Double.MAX_VALUE;
+            windowStart = arrivalTimeMs;
+        }
+        if (transit < windowMinTransit)
+            windowMinTransit = transit;
+
+        double relativeDelay = transit - Math.min(windowMinTransit, previousWindowMinTransit);
+        if (relativeDelay > MAX_RELATIVE_DELAY_MS) {
+            reset();
+            return;
+        }
+
+        int bucket = Math.min((int) (relativeDelay / BUCKET_MS), NUM_BUCKETS - 1);
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            histogram[i] *= FORGET_FACTOR;
+        histogram[bucket] += 1 - FORGET_FACTOR;
+        histogramSum = histogramSum * FORGET_FACTOR + (1 - FORGET_FACTOR);
+
+        double threshold = QUANTILE * histogramSum;
+        double sum = 0;
+        int i = 0;
+        for (; i < NUM_BUCKETS - 1; i++) {
+            sum += histogram[i];
+            if (sum >= threshold)
+                break;
+        }
+        int delayMs = (i + 1) * BUCKET_MS;
+        targetDelayMs = Math.max(MIN_TARGET_DELAY_MS, Math.min(delayMs, MAX_TARGET_DELAY_MS));
+    }
+
+    /**
+     * Gets the delay in milliseconds which the jitter buffer is to keep above the fastest packets.
+     *
+     * @return the target delay in milliseconds
+     */
+    public synchronized int getTargetDelayMs()
+    {
+        return targetDelayMs;
+    }
+
+    /**
+     * Forgets the arrival history, e.g. upon a discontinuity of the stream.
+     */
+    public synchronized void reset()
+    {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            histogram[i] = 0;
+        histogramSum = 0;
+        lastTimestamp = -1;
+        windowMinTransit = Double.MAX_VALUE;
+        previousWindowMinTransit = Double.MAX_VALUE;
+        windowStart = -1;
+        targetDelayMs = MIN_TARGET_DELAY_MS;
+    }
+}
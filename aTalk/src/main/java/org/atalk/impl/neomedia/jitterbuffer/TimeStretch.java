@@ -0,0 +1,245 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.jitterbuffer;
+
+/**
+ * Time-stretches frames of 16-bit interleaved PCM by one pitch period without changing the pitch,
+ * in the manner of the NetEQ accelerate and preemptive expand operations.
+ *
+ * The pitch period is the lag of the best normalized autocorrelation of the frame, searched on a
+ * signal decimated to {@link #SEARCH_RATE} and refined at the full rate. Accelerate cross-fades the
+ * first period into the second one and removes one period; expand cross-fades the second period
+ * back into the first one and repeats one period.
+ *
+ * @author Eng Chong Meng
+ */
+public class TimeStretch
+{
+    /**
+     * The sample rate of the decimated signal on which the pitch period is searched.
+     */
+    private static final int SEARCH_RATE = 4000;
+
+    /**
+     * The shortest pitch period in milliseconds searched i.e. a pitch of 400 Hz.
+     */
+    private static final double MIN_PERIOD_MS = 2.5;
+
+    /**
+     * The longest pitch period in milliseconds searched i.e. a pitch of 80 Hz.
+     */
+    private static final double MAX_PERIOD_MS = 12.5;
+
+    /**
+     * The minimum normalized correlation between two consecutive periods for a frame to be
+     * accelerated. Removing a period of a non-periodic signal is audible.
+     */
+    private static final double ACCELERATE_CORRELATION_THRESHOLD = 0.9;
+
+    /**
+     * The mean square of a sample below which a frame is considered silent, and is accelerated
+     * regardless of its periodicity.
+     */
+    private static final double SILENCE_ENERGY = 100 * 100;
+
+    private final int channels;
+
+    private final int decimation;
+
+    private final int minPeriod;
+
+    private final int maxPeriod;
+
+    /**
+     * The decimated mono signal of the frame; grows on demand.
+     */
+    private double[] decimated = new double[0];
+
+    /**
+     * The normalized correlation at the period found by the last {@link #findPeriod(short[], int)}.
+     */
+    private double correlation;
+
+    /**
+     * The mean square of the samples of the frame of the last {@link #findPeriod(short[], int)}.
+     */
+    private double energy;
+
+    /**
+     * Initializes a new <tt>TimeStretch</tt> for a specific PCM format.
+     *
+     * @param sampleRate the sample rate of the PCM
+     * @param channels the number of interleaved channels of the PCM
+     */
+    public TimeStretch(int sampleRate, int channels)
+    {
+        this.channels = channels;
+        decimation = Math.max(1, sampleRate / SEARCH_RATE);
+        minPeriod = (int) (sampleRate * MIN_PERIOD_MS / 1000);
+        maxPeriod = (int) (sampleRate * MAX_PERIOD_MS / 1000);
+    }
+
+    /**
+     * Removes one pitch period of a frame if the frame is periodic or silent.
+     *
+     * @param in the interleaved samples of the frame
+     * @param frames the number of samples per channel in <tt>in</tt>
+     * @param out the array to write the shortened frame to; at least as long as <tt>in</tt>
+     * @return the number of samples per channel written to <tt>out</tt>, or -1 if the frame is not
+     * to be accelerated
+     */
+    public int accelerate(short[] in, int frames, short[] out)
+    {
+        int period = findPeriod(in, frames);
+        if ((period <= 0)
+                || ((correlation < ACCELERATE_CORRELATION_THRESHOLD) && (energy > SILENCE_ENERGY)))
+            return -1;
+
+        int n = period * channels;
+        for (int i = 0; i < n; i++) {
+            // The cross-fade weight changes per frame, not per interleaved sample.
+            int f = i / channels;
+            out[i] = (short) ((in[i] * (period - f) + in[n + i] * f) / period);
+        }
+        System.arraycopy(in, 2 * n, out, n, (frames - 2 * period) * channels);
+        return frames - period;
+    }
+
+    /**
+     * Repeats one pitch period of a frame.
+     *
+     * @param in the interleaved samples of the frame
+     * @param frames the number of samples per channel in <tt>in</tt>
+     * @param out the array to write the lengthened frame to; at least
+     * <tt>frames + maxPeriod</tt> samples per channel
+     * @return the number of samples per channel written to <tt>out</tt>, or -1 if the frame is too
+     * short to be expanded
+     */
+    public int expand(short[] in, int frames, short[] out)
+    {
+        int period = findPeriod(in, frames);
+        if (period <= 0)
+            return -1;
+
+        int n = period * channels;
+        System.arraycopy(in, 0, out, 0, n);
+        for (int i = 0; i < n; i++) {
+            int f = i / channels;
+            out[n + i] = (short) ((in[n + i] * (period - f) + in[i] * f) / period);
+        }
+        System.arraycopy(in, n, out, 2 * n, (frames - period) * channels);
+        return frames + period;
+    }
+
+    /**
+     * Gets the longest number of samples per channel which {@link #expand(short[], int, short[])}
+     * adds to a frame.
+     *
+     * @return the longest pitch period in samples per channel
+     */
+    public int getMaxPeriod()
+    {
+        return maxPeriod;
+    }
+
+    /**
+     * Finds the pitch period of a frame, which is to contain two consecutive periods. Sets
+     * {@link #correlation} and {@link #energy}.
+     *
+     * @param in the interleaved samples of the frame
+     * @param frames the number of samples per channel in <tt>in</tt>
+     * @return the pitch period in samples per channel, or -1 if the frame is too short
+     */
+    private int findPeriod(short[] in, int frames)
+    {
+        int maxLag = Math.min(maxPeriod, frames / 2);
+        if (maxLag < minPeriod)
+            return -1;
+
+        // Decimate the mono mix by averaging; the search is coarse anyway.
+        int length = frames / decimation;
+        if (decimated.length < length)
+            decimated = new double[length];
+        double sumSquares = 0;
+        for (int i = 0, s = 0; i < length; i++) {
+            double sum = 0;
+            for (int j = 0; j < decimation * channels; j++, s++) {
+                sum += in[s];
+                sumSquares += (double) in[s] * in[s];
+            }
+            decimated[i] = sum / (decimation * channels);
+        }
+        energy = sumSquares / Math.max(1, length * decimation * channels);
+
+        int bestLag = -1;
+        double best = -Double.MAX_VALUE;
+        for (int lag = Math.max(1, minPeriod / decimation); lag <= maxLag / decimation; lag++) {
+            double c = normalizedCorrelation(decimated, 1, lag, lag);
+            if (c > best) {
+                best = c;
+                bestLag = lag;
+            }
+        }
+        if (bestLag <= 0)
+            return -1;
+
+        // Refine around the coarse lag on channel 0 at the full rate.
+        int coarse = bestLag * decimation;
+        int period = coarse;
+        best = -Double.MAX_VALUE;
+        for (int lag = Math.max(minPeriod, coarse - decimation);
+                lag <= Math.min(maxLag, coarse + decimation); lag++) {
+            double c = normalizedCorrelation(in, channels, lag, lag);
+            if (c > best) {
+                best = c;
+                period = lag;
+            }
+        }
+        correlation = best;
+        return period;
+    }
+
+    /**
+     * Computes the normalized correlation between the first <tt>length</tt> samples of channel 0 of
+     * a signal and the ones <tt>lag</tt> samples later.
+     */
+    private static double normalizedCorrelation(short[] x, int stride, int lag, int length)
+    {
+        double xy = 0, xx = 0, yy = 0;
+        for (int i = 0, j = lag * stride; i < length * stride; i += stride, j += stride) {
+            xy += (double) x[i] * x[j];
+            xx += (double) x[i] * x[i];
+            yy += (double) x[j] * x[j];
+        }
+        return (xx == 0 || yy == 0) ? 0 : xy / Math.sqrt(xx * yy);
+    }
+
+    /**
+     * Computes the normalized correlation between the first <tt>length</tt> samples of a signal
+     * and the ones <tt>lag</tt> samples later.
+     */
+    private static double normalizedCorrelation(double[] x, int stride, int lag, int length)
+    {
+        double xy = 0, xx = 0, yy = 0;
+        for (int i = 0, j = lag * stride; i < length * stride; i += stride, j += stride) {
+            xy += x[i] * x[j];
+            xx += x[i] * x[i];
+            yy += x[j] * x[j];
+        }
+        return (xx == 0 || yy == 0) ? 0 : xy / Math.sqrt(xx * yy);
+    }
+}
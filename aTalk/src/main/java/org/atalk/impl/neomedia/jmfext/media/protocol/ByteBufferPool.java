@@ -7,33 +7,134 @@ package org.atalk.impl.neomedia.jmfext.media.protocol;
 
 import org.atalk.impl.neomedia.codec.video.ByteBuffer;
 import org.atalk.impl.neomedia.codec.FFmpeg;
+import org.atalk.service.configuration.ConfigurationService;
+import org.atalk.service.libjitsi.LibJitsi;
+import org.atalk.util.ConfigUtils;
 
 import java.lang.ref.WeakReference;
-import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a pool of <tt>ByteBuffer</tt>s which reduces the allocations and deallocations of
  * <tt>ByteBuffer</tt>s in the Java heap and of native memory in the native heap.
  *
+ * The pooled <tt>ByteBuffer</tt>s have power of two capacities and are kept in a lock-free stack
+ * per capacity, so getting and returning a <tt>ByteBuffer</tt> takes constant time. The pool
+ * retains at most {@link #MAX_RETAINED_BYTES} bytes; a <tt>ByteBuffer</tt> returned beyond that
+ * evicts the least recently returned <tt>ByteBuffer</tt>s of the other capacities or is freed.
+ *
  * @author Lyubomir Marinov
+ * @author Eng Chong Meng
  */
 public class ByteBufferPool
 {
 	/**
-	 * The <tt>ByteBuffer</tt>s which are managed by this <tt>ByteBufferPool</tt>.
+	 * The name of the property which specifies the value of {@link #MAX_RETAINED_BYTES}.
+	 */
+	private static final String MAX_RETAINED_BYTES_PNAME
+			= ByteBufferPool.class.getName() + ".MAX_RETAINED_BYTES";
+
+	/**
+	 * The maximum number of bytes of native memory retained by a <tt>ByteBufferPool</tt>.
+	 */
+	private static final int MAX_RETAINED_BYTES;
+
+	/**
+	 * The capacity of the <tt>ByteBuffer</tt>s of size class 0.
+	 */
+	private static final int MIN_BUFFER_SIZE = 1 << 10;
+
+	/**
+	 * The largest capacity of a pooled <tt>ByteBuffer</tt>; larger ones are freed when returned.
+	 */
+	private static final int MAX_BUFFER_SIZE = 1 << 26;
+
+	private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+	private static final int NUM_SIZE_CLASSES
+			= Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SIZE_SHIFT + 1;
+
+	static {
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+		MAX_RETAINED_BYTES = ConfigUtils.getInt(cfg, MAX_RETAINED_BYTES_PNAME, 32 * 1024 * 1024);
+	}
+
+	/**
+	 * The <tt>ByteBuffer</tt>s which are managed by this <tt>ByteBufferPool</tt>; the ones of
+	 * size class i have a capacity of (MIN_BUFFER_SIZE << i) bytes. The most recently returned
+	 * is at the head of each stack.
+	 */
+	private final ConcurrentLinkedDeque<PooledByteBuffer>[] buffers;
+
+	/**
+	 * The number of bytes of the <tt>ByteBuffer</tt>s in {@link #buffers}.
+	 */
+	private final AtomicLong retainedBytes = new AtomicLong();
+
+	/**
+	 * The number of requests served from the pool.
+	 */
+	private final AtomicLong numHits = new AtomicLong();
+
+	/**
+	 * The number of requests which allocated a new <tt>ByteBuffer</tt>.
+	 */
+	private final AtomicLong numMisses = new AtomicLong();
+
+	/**
+	 * The total number of bytes of native memory newly allocated.
+	 */
+	private final AtomicLong numAllocatedBytes = new AtomicLong();
+
+	/**
+	 * The number of returned or pooled <tt>ByteBuffer</tt>s which were freed in order to keep
+	 * the retained bytes within {@link #MAX_RETAINED_BYTES}.
+	 */
+	private final AtomicLong numEvictions = new AtomicLong();
+
+	/**
+	 * Initializes a new, empty <tt>ByteBufferPool</tt>.
+	 */
+	@SuppressWarnings("unchecked")
+	public ByteBufferPool()
+	{
+		buffers = new ConcurrentLinkedDeque[NUM_SIZE_CLASSES];
+		for (int i = 0; i < NUM_SIZE_CLASSES; i++)
+			buffers[i] = new ConcurrentLinkedDeque<>();
+	}
+
+	/**
+	 * Gets the size class of the smallest <tt>ByteBuffer</tt>s which can receive a specific
+	 * number of bytes.
+	 *
+	 * @param capacity
+	 * 		the number of bytes
+	 * @return the size class, or -1 if <tt>capacity</tt> is larger than {@link #MAX_BUFFER_SIZE}
 	 */
-	private final List<PooledByteBuffer> buffers = new ArrayList<>();
+	private static int ceilSizeClass(int capacity)
+	{
+		if (capacity <= MIN_BUFFER_SIZE)
+			return 0;
+		if (capacity > MAX_BUFFER_SIZE)
+			return -1;
+		return (32 - Integer.numberOfLeadingZeros(capacity - 1)) - MIN_SIZE_SHIFT;
+	}
 
 	/**
 	 * Drains this <tt>ByteBufferPool</tt> i.e. frees the <tt>ByteBuffer</tt>s that it contains.
 	 */
-	public synchronized void drain()
+	public void drain()
 	{
-		for (Iterator<PooledByteBuffer> i = buffers.iterator(); i.hasNext(); ) {
-			PooledByteBuffer buffer = i.next();
+		for (ConcurrentLinkedDeque<PooledByteBuffer> stack : buffers) {
+			PooledByteBuffer buffer;
 
-			i.remove();
-			buffer.doFree();
+			while ((buffer = stack.pollFirst()) != null) {
+				retainedBytes.addAndGet(-buffer.pooledCapacity);
+				buffer.doFree();
+			}
 		}
 	}
 
@@ -47,25 +148,28 @@ public class ByteBufferPool
 	 * @return a <tt>ByteBuffer</tt> which is ready for writing captured media data into and which
 	 * is capable of receiving at least <tt>capacity</tt> number of bytes
 	 */
-	public synchronized ByteBuffer getBuffer(int capacity)
+	public ByteBuffer getBuffer(int capacity)
 	{
 		// XXX Pad with FF_INPUT_BUFFER_PADDING_SIZE or hell will break loose.
 		capacity += FFmpeg.FF_INPUT_BUFFER_PADDING_SIZE;
 
-		ByteBuffer buffer = null;
+		int sizeClass = ceilSizeClass(capacity);
 
-		for (Iterator<PooledByteBuffer> i = buffers.iterator(); i.hasNext(); ) {
-			ByteBuffer aBuffer = i.next();
+		if (sizeClass >= 0) {
+			PooledByteBuffer buffer = buffers[sizeClass].pollFirst();
 
-			if (aBuffer.getCapacity() >= capacity) {
-				i.remove();
-				buffer = aBuffer;
-				break;
+			if (buffer != null) {
+				retainedBytes.addAndGet(-buffer.pooledCapacity);
+				buffer.pooled.set(false);
+				numHits.incrementAndGet();
+				return buffer;
 			}
+			capacity = MIN_BUFFER_SIZE << sizeClass;
 		}
-		if (buffer == null)
-			buffer = new PooledByteBuffer(capacity, this);
-		return buffer;
+
+		numMisses.incrementAndGet();
+		numAllocatedBytes.addAndGet(capacity);
+		return new PooledByteBuffer(capacity, sizeClass, this);
 	}
 
 	/**
@@ -74,10 +178,105 @@ public class ByteBufferPool
 	 * @param buffer
 	 * 		the <tt>ByteBuffer</tt> to be returned into this pool of <tt>ByteBuffer</tt>s
 	 */
-	private synchronized void returnBuffer(PooledByteBuffer buffer)
+	private void returnBuffer(PooledByteBuffer buffer)
 	{
-		if (!buffers.contains(buffer))
-			buffers.add(buffer);
+		if (!buffer.pooled.compareAndSet(false, true))
+			return;
+
+		int sizeClass = buffer.sizeClass;
+		int capacity = buffer.pooledCapacity;
+
+		if ((sizeClass < 0) || !reserve(capacity, sizeClass)) {
+			numEvictions.incrementAndGet();
+			buffer.doFree();
+			return;
+		}
+		buffers[sizeClass].offerFirst(buffer);
+	}
+
+	/**
+	 * Accounts for <tt>capacity</tt> more retained bytes, evicting the least recently returned
+	 * <tt>ByteBuffer</tt>s of the other size classes if the retained bytes would exceed
+	 * {@link #MAX_RETAINED_BYTES}.
+	 *
+	 * @param capacity
+	 * 		the number of bytes to retain
+	 * @param sizeClass
+	 * 		the size class of the <tt>ByteBuffer</tt> to retain
+	 * @return <tt>true</tt> if the bytes are accounted for, <tt>false</tt> if there was no room
+	 */
+	private boolean reserve(int capacity, int sizeClass)
+	{
+		while (retainedBytes.addAndGet(capacity) > MAX_RETAINED_BYTES) {
+			retainedBytes.addAndGet(-capacity);
+
+			PooledByteBuffer evicted = null;
+
+			for (int i = NUM_SIZE_CLASSES - 1; (i >= 0) && (evicted == null); i--)
+				if (i != sizeClass)
+					evicted = buffers[i].pollLast();
+			if (evicted == null)
+				return false;
+
+			retainedBytes.addAndGet(-evicted.pooledCapacity);
+			numEvictions.incrementAndGet();
+			evicted.doFree();
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of requests served from the pool
+	 */
+	public long getNumHits()
+	{
+		return numHits.get();
+	}
+
+	/**
+	 * @return the number of requests which allocated a new <tt>ByteBuffer</tt>
+	 */
+	public long getNumMisses()
+	{
+		return numMisses.get();
+	}
+
+	/**
+	 * @return the total number of bytes of native memory newly allocated
+	 */
+	public long getNumAllocatedBytes()
+	{
+		return numAllocatedBytes.get();
+	}
+
+	/**
+	 * @return the number of <tt>ByteBuffer</tt>s freed to keep the retained bytes within limits
+	 */
+	public long getNumEvictions()
+	{
+		return numEvictions.get();
+	}
+
+	/**
+	 * @return the number of bytes of native memory currently retained by this pool
+	 */
+	public long getRetainedBytes()
+	{
+		return retainedBytes.get();
+	}
+
+	/**
+	 * Gets a summary of the pool counters, for logging.
+	 *
+	 * @return the pool counters
+	 */
+	public String getStatistics()
+	{
+		return "hits=" + numHits.get()
+				+ " misses=" + numMisses.get()
+				+ " allocatedBytes=" + numAllocatedBytes.get()
+				+ " evictions=" + numEvictions.get()
+				+ " retainedBytes=" + retainedBytes.get();
 	}
 
 	/**
@@ -93,10 +292,28 @@ public class ByteBufferPool
 		 */
 		private final WeakReference<ByteBufferPool> pool;
 
-		public PooledByteBuffer(int capacity, ByteBufferPool pool)
+		/**
+		 * The capacity this instance was allocated with; {@link #getCapacity()} drops to 0 once
+		 * the native memory is freed.
+		 */
+		final int pooledCapacity;
+
+		/**
+		 * The size class of this instance in {@link #pool}, or -1 if it is too large to be pooled.
+		 */
+		final int sizeClass;
+
+		/**
+		 * Whether this instance is in {@link #pool}; guards against returning it twice.
+		 */
+		final AtomicBoolean pooled = new AtomicBoolean();
+
+		public PooledByteBuffer(int capacity, int sizeClass, ByteBufferPool pool)
 		{
 			super(capacity);
 
+			this.pooledCapacity = capacity;
+			this.sizeClass = sizeClass;
 			this.pool = new WeakReference<ByteBufferPool>(pool);
 		}
 
@@ -0,0 +1,262 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.recording;
+
+import org.atalk.service.neomedia.RawPacket;
+import org.atalk.util.RTPUtils;
+
+import java.io.IOException;
+
+import timber.log.Timber;
+
+/**
+ * Records the Opus RTP packets of a receive stream into Ogg Opus files without decoding them.
+ *
+ * The packets are put back in order in a window of a few packets. A gap in the RTP timestamps,
+ * left by lost packets or by DTX, is filled with empty Opus frames which the player conceals, so
+ * that the granule positions follow the RTP clock. Like the <tt>SilenceEffect</tt> of the decoding
+ * path, a gap longer than {@link #MAX_GAP_SAMPLES} or a jump back of the RTP timestamps starts
+ * a new file.
+ *
+ * @author Eng Chong Meng
+ */
+class OggOpusRecording
+{
+    /**
+     * The longest gap filled in a file, in samples; 3 seconds.
+     */
+    private static final int MAX_GAP_SAMPLES = OggOpusWriter.SAMPLE_RATE * 3;
+
+    /**
+     * The number of packets kept to put them back in order; a power of two.
+     */
+    private static final int REORDER_WINDOW = 8;
+
+    /**
+     * Notified when this instance starts writing a file.
+     */
+    interface Listener
+    {
+        /**
+         * Gets the name of the file of the next recording.
+         *
+         * @return the name of a file which does not exist, or <tt>null</tt>
+         */
+        String getNextFilename();
+
+        /**
+         * Notifies that a recording has started.
+         *
+         * @param filename the name of the file of the recording
+         * @param rtpTimestamp the RTP timestamp of the first packet of the recording
+         */
+        void recordingStarted(String filename, long rtpTimestamp);
+    }
+
+    private final Listener listener;
+
+    /**
+     * The payloads of the packets waiting to be written; the one with sequence number
+     * <tt>seq</tt> at index <tt>seq % REORDER_WINDOW</tt>.
+     */
+    private final byte[][] payloads = new byte[REORDER_WINDOW][];
+
+    private final int[] lengths = new int[REORDER_WINDOW];
+
+    private final long[] timestamps = new long[REORDER_WINDOW];
+
+    private final boolean[] present = new boolean[REORDER_WINDOW];
+
+    /**
+     * The sequence number of the next packet to write, or -1 before the first packet.
+     */
+    private int nextSeq = -1;
+
+    /**
+     * The writer of the current file, or <tt>null</tt>.
+     */
+    private OggOpusWriter writer;
+
+    /**
+     * The RTP timestamp which follows the last packet written.
+     */
+    private long nextTimestamp;
+
+    /**
+     * The TOC byte of the last packet written, giving the frame size of the concealed frames.
+     */
+    private int lastToc;
+
+    /**
+     * The buffer of the packets of concealed frames.
+     */
+    private final byte[] concealed = new byte[2];
+
+    /**
+     * Whether this instance has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Initializes a new <tt>OggOpusRecording</tt>.
+     *
+     * @param listener the <tt>Listener</tt> which names the files and is notified when they start
+     */
+    OggOpusRecording(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Records an Opus RTP packet of the stream. The packet is copied.
+     *
+     * @param pkt the packet
+     */
+    synchronized void write(RawPacket pkt)
+    {
+        if (closed)
+            return;
+
+        int seq = pkt.getSequenceNumber();
+        if (nextSeq == -1)
+            nextSeq = seq;
+
+        int delta = RTPUtils.getSequenceNumberDelta(seq, nextSeq);
+        if (delta < 0)
+            return; // too late, or a duplicate of a packet written
+        if (delta >= REORDER_WINDOW)
+            release(delta - REORDER_WINDOW + 1);
+
+        int i = seq & (REORDER_WINDOW - 1);
+        int len = pkt.getPayloadLength(true);
+        if (payloads[i] == null || payloads[i].length < len)
+            payloads[i] = new byte[Math.max(len, 256)];
+        System.arraycopy(pkt.getBuffer(), pkt.getPayloadOffset(), payloads[i], 0, len);
+        lengths[i] = len;
+        timestamps[i] = pkt.getTimestamp();
+        present[i] = true;
+
+        while (present[nextSeq & (REORDER_WINDOW - 1)])
+            release(1);
+    }
+
+    /**
+     * Writes the packets waiting to be written and closes the current file.
+     */
+    synchronized void close()
+    {
+        if (closed)
+            return;
+
+        closed = true;
+        if (nextSeq != -1)
+            release(REORDER_WINDOW);
+        closeWriter();
+    }
+
+    /**
+     * Writes the next packets in sequence number order, skipping the missing ones.
+     *
+     * @param count the number of sequence numbers to advance by
+     */
+    private void release(int count)
+    {
+        for (int n = 0; n < count; n++) {
+            int i = nextSeq & (REORDER_WINDOW - 1);
+            if (present[i]) {
+                present[i] = false;
+                writePayload(payloads[i], lengths[i], timestamps[i]);
+            }
+            nextSeq = (nextSeq + 1) & 0xffff;
+        }
+    }
+
+    private void writePayload(byte[] payload, int len, long timestamp)
+    {
+        int samples = OggOpusWriter.getSampleCount(payload, 0, len);
+        if (samples == -1)
+            return;
+
+        try {
+            if (writer != null) {
+                long gap = RTPUtils.rtpTimestampDiff(timestamp, nextTimestamp);
+                if (gap < -MAX_GAP_SAMPLES || gap > MAX_GAP_SAMPLES) {
+                    Timber.i("RTP timestamp gap of %d samples, starting a new Ogg Opus file", gap);
+                    closeWriter();
+                }
+                else if (gap < 0) {
+                    return; // overlaps what has been written
+                }
+                else if (gap > 0) {
+                    conceal((int) gap);
+                }
+            }
+
+            if (writer == null) {
+                String filename = listener.getNextFilename();
+                if (filename == null)
+                    return;
+
+                writer = new OggOpusWriter(filename, (payload[0] & 0x04) != 0 ? 2 : 1);
+                listener.recordingStarted(filename, timestamp);
+            }
+
+            writer.writePacket(payload, 0, len, samples);
+            nextTimestamp = (timestamp + samples) & 0xffffffffL;
+            lastToc = payload[0] & 0xff;
+        } catch (IOException ioe) {
+            Timber.e(ioe, "Failed to write to the Ogg Opus file");
+            closeWriter();
+        }
+    }
+
+    /**
+     * Fills a gap with packets of empty frames of the configuration of the last packet written,
+     * each of up to {@link OggOpusWriter#MAX_PACKET_SAMPLES}. A remainder shorter than a frame is
+     * left out.
+     *
+     * @param gap the number of samples missing
+     * @throws IOException if a page could not be written
+     */
+    private void conceal(int gap)
+            throws IOException
+    {
+        int frameSize = OggOpusWriter.getFrameSize(lastToc);
+        int maxFrames = OggOpusWriter.MAX_PACKET_SAMPLES / frameSize;
+
+        // A code 3 packet of constant bitrate with a length of 2 carries frames of length 0.
+        concealed[0] = (byte) (lastToc | 0x03);
+        for (int frames = gap / frameSize; frames > 0; ) {
+            int n = Math.min(frames, maxFrames);
+            concealed[1] = (byte) n;
+            writer.writePacket(concealed, 0, 2, n * frameSize);
+            frames -= n;
+        }
+    }
+
+    private void closeWriter()
+    {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ioe) {
+                Timber.e(ioe, "Failed to close the Ogg Opus file");
+            }
+            writer = null;
+        }
+    }
+}
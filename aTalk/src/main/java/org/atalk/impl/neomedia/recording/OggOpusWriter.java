@@ -0,0 +1,303 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.recording;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Writes Opus packets into an Ogg Opus file (RFC 7845) as they are, without decoding them.
+ *
+ * A packet never spans pages; a page is written when its segment table is full or when it holds a
+ * second of audio, and its granule position is the number of 48 kHz samples up to the end of its
+ * last packet. Not thread-safe.
+ *
+ * @author Eng Chong Meng
+ */
+public class OggOpusWriter
+{
+    /**
+     * The sample rate of the granule positions of Ogg Opus.
+     */
+    public static final int SAMPLE_RATE = 48000;
+
+    /**
+     * The largest number of samples in an Opus packet i.e. 120 ms.
+     */
+    public static final int MAX_PACKET_SAMPLES = 5760;
+
+    /**
+     * The number of samples after which a page is written.
+     */
+    private static final int PAGE_SAMPLES = SAMPLE_RATE;
+
+    private static final int MAX_SEGMENTS = 255;
+
+    private static final int HEADER_TYPE_BOS = 0x02;
+
+    private static final int HEADER_TYPE_EOS = 0x04;
+
+    private static final String VENDOR = "aTalk";
+
+    /**
+     * The lookup table of the CRC-32 of Ogg (polynomial 0x04c11db7, not reflected).
+     */
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int r = i << 24;
+            for (int j = 0; j < 8; j++)
+                r = (r & 0x80000000) != 0 ? (r << 1) ^ 0x04c11db7 : r << 1;
+            CRC_TABLE[i] = r;
+        }
+    }
+
+    private final OutputStream out;
+
+    private final int serial = new Random().nextInt();
+
+    private int pageSequence = 0;
+
+    /**
+     * The lacing values of the page being filled.
+     */
+    private final byte[] segments = new byte[MAX_SEGMENTS];
+
+    private int segmentCount = 0;
+
+    /**
+     * The packets of the page being filled.
+     */
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+
+    /**
+     * The number of samples in the packets of the page being filled.
+     */
+    private int pageSamples = 0;
+
+    /**
+     * The number of samples written, the pending page included.
+     */
+    private long granulePosition = 0;
+
+    /**
+     * The header of the page being written, reused.
+     */
+    private final byte[] header = new byte[27 + MAX_SEGMENTS];
+
+    /**
+     * Creates the file and writes the identification and comment headers.
+     *
+     * @param filename the name of the file to write
+     * @param channels the number of channels of the Opus stream, 1 or 2
+     * @throws IOException if the file could not be created or written
+     */
+    public OggOpusWriter(String filename, int channels)
+            throws IOException
+    {
+        out = new BufferedOutputStream(new FileOutputStream(filename));
+
+        // The recording starts in the middle of the stream, so its timing is kept exact by
+        // a pre-skip of 0 rather than by skipping the decoder warm up.
+        byte[] head = new byte[19];
+        writeAscii(head, 0, "OpusHead");
+        head[8] = 1;
+        head[9] = (byte) channels;
+        writeLE(head, 10, 0, 2);
+        writeLE(head, 12, SAMPLE_RATE, 4);
+        writeLE(head, 16, 0, 2);
+        head[18] = 0;
+        writeHeaderPage(head, HEADER_TYPE_BOS);
+
+        byte[] tags = new byte[8 + 4 + VENDOR.length() + 4];
+        writeAscii(tags, 0, "OpusTags");
+        writeLE(tags, 8, VENDOR.length(), 4);
+        writeAscii(tags, 12, VENDOR);
+        writeLE(tags, 12 + VENDOR.length(), 0, 4);
+        writeHeaderPage(tags, 0);
+    }
+
+    /**
+     * Writes an Opus packet.
+     *
+     * @param buf the buffer holding the packet
+     * @param off the offset of the packet in <tt>buf</tt>
+     * @param len the length of the packet
+     * @param samples the number of 48 kHz samples the packet decodes to
+     * @throws IOException if a page could not be written
+     */
+    public void writePacket(byte[] buf, int off, int len, int samples)
+            throws IOException
+    {
+        int lacing = len / 255 + 1;
+        if (lacing > MAX_SEGMENTS)
+            throw new IOException("Opus packet too long: " + len);
+        if (segmentCount + lacing > MAX_SEGMENTS)
+            writePage(0);
+
+        for (int i = 1; i < lacing; i++)
+            segments[segmentCount++] = (byte) 255;
+        segments[segmentCount++] = (byte) (len % 255);
+        body.write(buf, off, len);
+        pageSamples += samples;
+        granulePosition += samples;
+
+        if (pageSamples >= PAGE_SAMPLES)
+            writePage(0);
+    }
+
+    /**
+     * Gets the number of samples written so far.
+     *
+     * @return the granule position at the end of the last packet written
+     */
+    public long getGranulePosition()
+    {
+        return granulePosition;
+    }
+
+    /**
+     * Writes the pending packets in the last page of the stream and closes the file.
+     *
+     * @throws IOException if the last page could not be written
+     */
+    public void close()
+            throws IOException
+    {
+        try {
+            writePage(HEADER_TYPE_EOS);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeHeaderPage(byte[] packet, int headerType)
+            throws IOException
+    {
+        segments[0] = (byte) packet.length;
+        segmentCount = 1;
+        body.write(packet, 0, packet.length);
+        writePage(headerType);
+    }
+
+    /**
+     * Writes the page being filled, unless it is empty and not the last page.
+     *
+     * @param headerType the flags of the page
+     * @throws IOException if the page could not be written
+     */
+    private void writePage(int headerType)
+            throws IOException
+    {
+        if (segmentCount == 0 && (headerType & HEADER_TYPE_EOS) == 0)
+            return;
+
+        writeAscii(header, 0, "OggS");
+        header[4] = 0;
+        header[5] = (byte) headerType;
+        writeLE(header, 6, (int) granulePosition, 4);
+        writeLE(header, 10, (int) (granulePosition >>> 32), 4);
+        writeLE(header, 14, serial, 4);
+        writeLE(header, 18, pageSequence++, 4);
+        writeLE(header, 22, 0, 4);
+        header[26] = (byte) segmentCount;
+        System.arraycopy(segments, 0, header, 27, segmentCount);
+
+        int headerLength = 27 + segmentCount;
+        byte[] data = body.toByteArray();
+        int crc = crc(0, header, 0, headerLength);
+        crc = crc(crc, data, 0, data.length);
+        writeLE(header, 22, crc, 4);
+
+        out.write(header, 0, headerLength);
+        out.write(data);
+
+        segmentCount = 0;
+        body.reset();
+        pageSamples = 0;
+    }
+
+    private static int crc(int crc, byte[] buf, int off, int len)
+    {
+        for (int i = off, end = off + len; i < end; i++)
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ buf[i]) & 0xff];
+        return crc;
+    }
+
+    private static void writeAscii(byte[] buf, int off, String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+            buf[off + i] = (byte) s.charAt(i);
+    }
+
+    private static void writeLE(byte[] buf, int off, int value, int len)
+    {
+        for (int i = 0; i < len; i++)
+            buf[off + i] = (byte) (value >>> (8 * i));
+    }
+
+    /**
+     * Gets the number of 48 kHz samples an Opus packet decodes to (RFC 6716, section 3.1).
+     *
+     * @param buf the buffer holding the packet
+     * @param off the offset of the packet in <tt>buf</tt>
+     * @param len the length of the packet
+     * @return the number of samples of the packet, or -1 if it is malformed
+     */
+    public static int getSampleCount(byte[] buf, int off, int len)
+    {
+        if (len < 1)
+            return -1;
+
+        int toc = buf[off] & 0xff;
+        int frames;
+        switch (toc & 0x03) {
+        case 0:
+            frames = 1;
+            break;
+        case 3:
+            if (len < 2)
+                return -1;
+            frames = buf[off + 1] & 0x3f;
+            break;
+        default:
+            frames = 2;
+            break;
+        }
+
+        int samples = frames * getFrameSize(toc);
+        return (samples == 0 || samples > MAX_PACKET_SAMPLES) ? -1 : samples;
+    }
+
+    /**
+     * Gets the number of 48 kHz samples of a frame of the configuration of an Opus TOC byte.
+     *
+     * @param toc the TOC byte
+     * @return the number of samples of a frame
+     */
+    public static int getFrameSize(int toc)
+    {
+        int config = (toc & 0xff) >> 3;
+        if (config < 12) // SILK: 10, 20, 40, 60 ms
+            return ((config & 3) == 3) ? 2880 : 480 << (config & 3);
+        else if (config < 16) // Hybrid: 10, 20 ms
+            return 480 << (config & 1);
+        else // CELT: 2.5, 5, 10, 20 ms
+            return 120 << (config & 3);
+    }
+}
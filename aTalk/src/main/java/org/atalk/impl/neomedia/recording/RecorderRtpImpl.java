@@ -102,10 +102,22 @@ public class RecorderRtpImpl implements Recorder, ReceiveStreamListener,
     private static String PERFORM_ASD_PNAME = "neomedia.recording.PERFORM_ASD";
 
     /**
-     * The name of the property which sets a custom output audio codec. Currently only WAV is supported
+     * The name of the property which sets a custom output audio codec. Currently WAV and Opus
+     * are supported; with Opus, the Opus streams are written into Ogg files as received, without
+     * being decoded.
      */
     private static String AUDIO_CODEC_PNAME = "neomedia.recording.AUDIO_CODEC";
 
+    /**
+     * Whether the Opus audio streams are recorded without being decoded.
+     */
+    private static boolean OPUS_PASSTHROUGH = false;
+
+    /**
+     * The suffix for the file names of the Opus audio streams recorded without being decoded.
+     */
+    private static final String OPUS_FILENAME_SUFFIX = ".opus";
+
     /**
      * The <tt>ContentDescriptor</tt> to use when saving audio.
      */
@@ -170,6 +182,12 @@ public class RecorderRtpImpl implements Recorder, ReceiveStreamListener,
 
     private final Set<Long> activeVideoSsrcs = new HashSet<Long>();
 
+    /**
+     * The <tt>OggOpusRecording</tt>s of the Opus audio streams recorded without being decoded,
+     * by SSRC.
+     */
+    private final Map<Long, OggOpusRecording> opusRecordings = new HashMap<>();
+
     /**
      * The <tt>ActiveSpeakerDetector</tt> which will listen to the audio receive streams of this
      * <tt>RecorderRtpImpl</tt> and notify it about changes to the active speaker via calls to
@@ -211,6 +229,9 @@ public class RecorderRtpImpl implements Recorder, ReceiveStreamListener,
                 AUDIO_FILENAME_SUFFIX = ".wav";
                 AUDIO_CONTENT_DESCRIPTOR = new ContentDescriptor(FileTypeDescriptor.WAVE);
             }
+            else if ("opus".equalsIgnoreCase(audioCodec) || "ogg".equalsIgnoreCase(audioCodec)) {
+                OPUS_PASSTHROUGH = true;
+            }
         }
         this.performActiveSpeakerDetection = performActiveSpeakerDetection;
     }
@@ -434,6 +455,13 @@ public class RecorderRtpImpl implements Recorder, ReceiveStreamListener,
                 rtpClockRate = 90000;
             getSynchronizer().setRtpClockRate(ssrc, rtpClockRate);
 
+            // Active speaker detection needs the audio levels of the decoded audio.
+            if (OPUS_PASSTHROUGH && !performActiveSpeakerDetection
+                    && Constants.OPUS_RTP.equals(receiveStreamDesc.format.getEncoding())) {
+                startOpusRecording(receiveStreamDesc);
+                return;
+            }
+
             // create a Processor and configure it
             Processor processor;
             try {
@@ -528,6 +556,13 @@ public class RecorderRtpImpl implements Recorder, ReceiveStreamListener,
             rtpConnector.packetBuffer.reset(ssrc);
         }
 
+        if (receiveStream.opusRecording != null) {
+            synchronized (opusRecordings) {
+                opusRecordings.remove(ssrc);
+            }
+            receiveStream.opusRecording.close();
+        }
+
         if (receiveStream.dataSink != null) {
             try {
                 receiveStream.dataSink.stop();
@@ -735,6 +770,40 @@ public class RecorderRtpImpl implements Recorder, ReceiveStreamListener,
         }
     }
 
+    /**
+     * Starts recording an Opus audio stream without decoding it: its RTP packets are intercepted
+     * by {@link #handleRtpPacket(RawPacket)}, and FMJ only keeps track of the stream.
+     *
+     * @param desc the <tt>ReceiveStreamDesc</tt> of the stream
+     */
+    private void startOpusRecording(final ReceiveStreamDesc desc)
+    {
+        final long ssrc = desc.ssrc;
+        desc.opusRecording = new OggOpusRecording(new OggOpusRecording.Listener()
+        {
+            @Override
+            public String getNextFilename()
+            {
+                return RecorderRtpImpl.this.getNextFilename(path + "/" + ssrc, OPUS_FILENAME_SUFFIX);
+            }
+
+            @Override
+            public void recordingStarted(String filename, long rtpTimestamp)
+            {
+                Timber.i("Started Ogg Opus recording for SSRC = %s. Output filename: %s", ssrc, filename);
+                desc.filename = filename;
+                audioRecordingStarted(ssrc, rtpTimestamp);
+            }
+        });
+
+        synchronized (receiveStreams) {
+            receiveStreams.add(desc);
+        }
+        synchronized (opusRecordings) {
+            opusRecordings.put(ssrc, desc.opusRecording);
+        }
+    }
+
     /**
      * Restarts the recording for a specific SSRC.
      *
@@ -956,6 +1025,14 @@ public class RecorderRtpImpl implements Recorder, ReceiveStreamListener,
                 }
             }
         }
+        else if (pkt != null && pkt.getPayloadType() == opusPayloadType && OPUS_PASSTHROUGH) {
+            OggOpusRecording opusRecording;
+            synchronized (opusRecordings) {
+                opusRecording = opusRecordings.get(pkt.getSSRCAsLong());
+            }
+            if (opusRecording != null)
+                opusRecording.write(pkt);
+        }
     }
 
     private void handleRtcpPacket(RawPacket pkt)
@@ -1528,6 +1605,11 @@ public class RecorderRtpImpl implements Recorder, ReceiveStreamListener,
          */
         private SilenceEffect silenceEffect;
 
+        /**
+         * The <tt>OggOpusRecording</tt> of this stream if it is recorded without being decoded.
+         */
+        private OggOpusRecording opusRecording;
+
         private ReceiveStreamDesc(ReceiveStream receiveStream)
         {
             this.receiveStream = receiveStream;
@@ -35,9 +35,9 @@ public class WebmDataSink implements DataSink, BufferTransferHandler
     private static final boolean USE_RECORDING_ENDED_EVENTS = false;
 
     /**
-     * The <tt>WebmWriter</tt> which we use to write the frames to a file.
+     * The <tt>WebmMuxer</tt> which we use to write the frames to a file.
      */
-    private WebmWriter writer = null;
+    private WebmMuxer writer = null;
 
     private RecorderEventHandler eventHandler;
     private long ssrc = -1;
@@ -240,9 +240,9 @@ public class WebmDataSink implements DataSink, BufferTransferHandler
     public void start()
             throws IOException
     {
-        writer = new WebmWriter(filename);
+        writer = new WebmMuxer(filename);
         dataSource.start();
-        Timber.i("Created WebmWriter on %s", filename);
+        Timber.i("Created WebmMuxer on %s", filename);
     }
 
     /**
@@ -390,9 +390,9 @@ public class WebmDataSink implements DataSink, BufferTransferHandler
                 fd.buffer = data;
                 fd.offset = offset;
                 fd.length = len;
-                fd.flags = key ? WebmWriter.FLAG_FRAME_IS_KEY : 0;
+                fd.flags = key ? WebmMuxer.FLAG_FRAME_IS_KEY : 0;
                 if (!isShowFrame(data, offset))
-                    fd.flags |= WebmWriter.FLAG_FRAME_IS_INVISIBLE;
+                    fd.flags |= WebmMuxer.FLAG_FRAME_IS_INVISIBLE;
 
                 long diff = rtpTimeStamp - firstFrameRtpTimestamp;
                 if (diff < -(1L << 31))
@@ -0,0 +1,567 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.recording;
+
+import java.io.*;
+import java.util.Random;
+
+import timber.log.Timber;
+
+/**
+ * A pure Java, streaming writer of WebM (Matroska) files with a single VP8 video track; a
+ * replacement for the native <tt>WebmWriter</tt> with the same methods.
+ *
+ * The frames of a cluster are buffered in memory and the cluster is written with a single write
+ * when the next keyframe starts a new cluster (or the cluster gets too long), so the recording
+ * thread only does file I/O once per cluster. The segment size, the duration, the seek head and
+ * the cue index (one cue per cluster starting with a keyframe) are written on {@link #close()}.
+ *
+ * @author Eng Chong Meng
+ */
+public class WebmMuxer
+{
+    /**
+     * The flag of a keyframe in {@link WebmWriter.FrameDescriptor#flags}; the same value as
+     * <tt>WebmWriter.FLAG_FRAME_IS_KEY</tt>, which is not referenced so as not to load the native
+     * library.
+     */
+    public static final int FLAG_FRAME_IS_KEY = 0x01;
+
+    /**
+     * The flag of a frame which is not shown in {@link WebmWriter.FrameDescriptor#flags}.
+     */
+    public static final int FLAG_FRAME_IS_INVISIBLE = 0x04;
+
+    /**
+     * The longest duration in milliseconds of a cluster; also bounds the relative timecodes of
+     * its blocks.
+     */
+    private static final long MAX_CLUSTER_DURATION_MS = 5000;
+
+    /**
+     * The number of bytes reserved for the seek head, which is written on close.
+     */
+    private static final int SEEK_HEAD_RESERVED_SIZE = 96;
+
+    private static final int ID_EBML = 0x1A45DFA3;
+    private static final int ID_EBML_VERSION = 0x4286;
+    private static final int ID_EBML_READ_VERSION = 0x42F7;
+    private static final int ID_EBML_MAX_ID_LENGTH = 0x42F2;
+    private static final int ID_EBML_MAX_SIZE_LENGTH = 0x42F3;
+    private static final int ID_DOC_TYPE = 0x4282;
+    private static final int ID_DOC_TYPE_VERSION = 0x4287;
+    private static final int ID_DOC_TYPE_READ_VERSION = 0x4285;
+    private static final int ID_SEGMENT = 0x18538067;
+    private static final int ID_SEEK_HEAD = 0x114D9B74;
+    private static final int ID_SEEK = 0x4DBB;
+    private static final int ID_SEEK_ID = 0x53AB;
+    private static final int ID_SEEK_POSITION = 0x53AC;
+    private static final int ID_VOID = 0xEC;
+    private static final int ID_INFO = 0x1549A966;
+    private static final int ID_TIMECODE_SCALE = 0x2AD7B1;
+    private static final int ID_DURATION = 0x4489;
+    private static final int ID_MUXING_APP = 0x4D80;
+    private static final int ID_WRITING_APP = 0x5741;
+    private static final int ID_TRACKS = 0x1654AE6B;
+    private static final int ID_TRACK_ENTRY = 0xAE;
+    private static final int ID_TRACK_NUMBER = 0xD7;
+    private static final int ID_TRACK_UID = 0x73C5;
+    private static final int ID_TRACK_TYPE = 0x83;
+    private static final int ID_CODEC_ID = 0x86;
+    private static final int ID_VIDEO = 0xE0;
+    private static final int ID_PIXEL_WIDTH = 0xB0;
+    private static final int ID_PIXEL_HEIGHT = 0xBA;
+    private static final int ID_CLUSTER = 0x1F43B675;
+    private static final int ID_TIMECODE = 0xE7;
+    private static final int ID_SIMPLE_BLOCK = 0xA3;
+    private static final int ID_CUES = 0x1C53BB6B;
+    private static final int ID_CUE_POINT = 0xBB;
+    private static final int ID_CUE_TIME = 0xB3;
+    private static final int ID_CUE_TRACK_POSITIONS = 0xB7;
+    private static final int ID_CUE_TRACK = 0xF7;
+    private static final int ID_CUE_CLUSTER_POSITION = 0xF1;
+
+    /**
+     * The number of the single video track.
+     */
+    private static final int TRACK_NUMBER = 1;
+
+    private static final String APP_NAME = "aTalk WebmMuxer";
+
+    private final RandomAccessFile file;
+
+    private final String filename;
+
+    /**
+     * The offset in {@link #file} of the data of the segment; the positions in the seek head
+     * and the cues are relative to it.
+     */
+    private long segmentDataOffset = -1;
+
+    /**
+     * The offset in {@link #file} of the duration, which is patched on close.
+     */
+    private long durationOffset;
+
+    /**
+     * The positions relative to the segment data of the info and tracks elements.
+     */
+    private long infoPosition, tracksPosition;
+
+    /**
+     * The blocks of the current cluster.
+     */
+    private final EbmlBuffer cluster = new EbmlBuffer(64 * 1024);
+
+    /**
+     * The buffer into which the headers of the segment and of the clusters are written.
+     */
+    private final EbmlBuffer header = new EbmlBuffer(256);
+
+    /**
+     * The timecode in milliseconds of the current cluster, or -1 if it has no blocks.
+     */
+    private long clusterTimecode = -1;
+
+    /**
+     * Whether the current cluster starts with a keyframe.
+     */
+    private boolean clusterStartsWithKey;
+
+    /**
+     * The cue points: the timecodes and cluster positions of the clusters starting with a keyframe.
+     */
+    private final EbmlBuffer cues = new EbmlBuffer(1024);
+
+    /**
+     * The largest timecode in milliseconds written.
+     */
+    private long lastPts = 0;
+
+    /**
+     * Whether writing has failed; no more is written after a failure.
+     */
+    private boolean failed = false;
+
+    /**
+     * Opens a file for writing a WebM stream into it.
+     *
+     * @param filename the name of the file
+     * @throws IOException if the file cannot be opened for writing
+     */
+    public WebmMuxer(String filename)
+            throws IOException
+    {
+        this.filename = filename;
+        file = new RandomAccessFile(filename, "rw");
+        file.setLength(0);
+    }
+
+    /**
+     * Writes the EBML header and the headers of the segment, for a VP8 track of a specific size.
+     *
+     * @param width the width of the video
+     * @param height the height of the video
+     */
+    public void writeWebmFileHeader(int width, int height)
+    {
+        if (failed || segmentDataOffset != -1)
+            return;
+
+        EbmlBuffer b = header;
+        b.reset();
+
+        int ebml = b.startElement(ID_EBML);
+        b.writeUInt(ID_EBML_VERSION, 1);
+        b.writeUInt(ID_EBML_READ_VERSION, 1);
+        b.writeUInt(ID_EBML_MAX_ID_LENGTH, 4);
+        b.writeUInt(ID_EBML_MAX_SIZE_LENGTH, 8);
+        b.writeString(ID_DOC_TYPE, "webm");
+        b.writeUInt(ID_DOC_TYPE_VERSION, 2);
+        b.writeUInt(ID_DOC_TYPE_READ_VERSION, 2);
+        b.endElement(ebml);
+
+        // The segment size is unknown until close.
+        b.writeId(ID_SEGMENT);
+        b.writeUnknownSize();
+        int segmentData = b.length();
+
+        b.writeVoid(SEEK_HEAD_RESERVED_SIZE);
+
+        infoPosition = b.length() - segmentData;
+        int info = b.startElement(ID_INFO);
+        b.writeUInt(ID_TIMECODE_SCALE, 1000000); // milliseconds
+        b.writeId(ID_DURATION);
+        b.writeSize(8);
+        int duration = b.length();
+        b.writeLong(0);
+        b.writeString(ID_MUXING_APP, APP_NAME);
+        b.writeString(ID_WRITING_APP, APP_NAME);
+        b.endElement(info);
+
+        tracksPosition = b.length() - segmentData;
+        int tracks = b.startElement(ID_TRACKS);
+        int trackEntry = b.startElement(ID_TRACK_ENTRY);
+        b.writeUInt(ID_TRACK_NUMBER, TRACK_NUMBER);
+        b.writeUInt(ID_TRACK_UID, new Random().nextInt() & 0x7fffffff);
+        b.writeUInt(ID_TRACK_TYPE, 1); // video
+        b.writeString(ID_CODEC_ID, "V_VP8");
+        int video = b.startElement(ID_VIDEO);
+        b.writeUInt(ID_PIXEL_WIDTH, width);
+        b.writeUInt(ID_PIXEL_HEIGHT, height);
+        b.endElement(video);
+        b.endElement(trackEntry);
+        b.endElement(tracks);
+
+        try {
+            long offset = file.getFilePointer();
+            write(b);
+            segmentDataOffset = offset + segmentData;
+            durationOffset = offset + duration;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Adds a VP8 frame to the current cluster, after writing the current cluster and starting a
+     * new one if the frame is a keyframe or does not fit in it.
+     *
+     * @param fd the frame and its presentation timestamp in milliseconds
+     */
+    public void writeFrame(WebmWriter.FrameDescriptor fd)
+    {
+        if (failed || segmentDataOffset == -1)
+            return;
+
+        boolean key = (fd.flags & FLAG_FRAME_IS_KEY) != 0;
+        long pts = Math.max(0, fd.pts);
+        long relativeTimecode = pts - clusterTimecode;
+
+        if (clusterTimecode == -1 || key
+                || relativeTimecode < Short.MIN_VALUE || relativeTimecode >= MAX_CLUSTER_DURATION_MS) {
+            flushCluster();
+            if (failed)
+                return;
+            clusterTimecode = pts;
+            clusterStartsWithKey = key;
+            relativeTimecode = 0;
+        }
+
+        int length = (int) fd.length;
+        int flags = 0;
+        if (key)
+            flags |= 0x80;
+        if ((fd.flags & FLAG_FRAME_IS_INVISIBLE) != 0)
+            flags |= 0x08;
+
+        cluster.writeId(ID_SIMPLE_BLOCK);
+        cluster.writeSize(4 + length);
+        cluster.writeByte(0x80 | TRACK_NUMBER);
+        cluster.writeByte((int) (relativeTimecode >> 8));
+        cluster.writeByte((int) relativeTimecode);
+        cluster.writeByte(flags);
+        cluster.write(fd.buffer, fd.offset, length);
+
+        if (pts > lastPts)
+            lastPts = pts;
+    }
+
+    /**
+     * Writes the current cluster, if it has blocks, and adds a cue point for it if it starts
+     * with a keyframe.
+     */
+    private void flushCluster()
+    {
+        if (clusterTimecode == -1)
+            return;
+
+        try {
+            long position = file.getFilePointer() - segmentDataOffset;
+            if (clusterStartsWithKey) {
+                int cuePoint = cues.startElement(ID_CUE_POINT);
+                cues.writeUInt(ID_CUE_TIME, clusterTimecode);
+                int positions = cues.startElement(ID_CUE_TRACK_POSITIONS);
+                cues.writeUInt(ID_CUE_TRACK, TRACK_NUMBER);
+                cues.writeUInt(ID_CUE_CLUSTER_POSITION, position);
+                cues.endElement(positions);
+                cues.endElement(cuePoint);
+            }
+
+            header.reset();
+            header.writeId(ID_CLUSTER);
+            header.writeSize(2 + EbmlBuffer.uintLength(clusterTimecode) + cluster.length());
+            header.writeUInt(ID_TIMECODE, clusterTimecode);
+            write(header);
+            write(cluster);
+        } catch (IOException e) {
+            fail(e);
+        }
+        cluster.reset();
+        clusterTimecode = -1;
+    }
+
+    /**
+     * Writes the last cluster, the cues and the seek head, patches the sizes of the segment and
+     * the duration, and closes the file.
+     */
+    public void close()
+    {
+        try {
+            if (!failed && segmentDataOffset != -1) {
+                flushCluster();
+            }
+            if (!failed && segmentDataOffset != -1) {
+                long cuesPosition = -1;
+                if (cues.length() > 0) {
+                    cuesPosition = file.getFilePointer() - segmentDataOffset;
+                    header.reset();
+                    header.writeId(ID_CUES);
+                    header.writeSize(cues.length());
+                    write(header);
+                    write(cues);
+                }
+                long end = file.getFilePointer();
+
+                // The seek head, padded with a void element to its reserved size.
+                header.reset();
+                int seekHead = header.startElement(ID_SEEK_HEAD);
+                writeSeek(header, ID_INFO, infoPosition);
+                writeSeek(header, ID_TRACKS, tracksPosition);
+                if (cuesPosition != -1)
+                    writeSeek(header, ID_CUES, cuesPosition);
+                header.endElement(seekHead);
+                header.writeVoid(SEEK_HEAD_RESERVED_SIZE - header.length());
+                file.seek(segmentDataOffset);
+                write(header);
+
+                // The segment size: an 8-byte vint.
+                file.seek(segmentDataOffset - 8);
+                file.writeLong((end - segmentDataOffset) | (1L << 56));
+
+                file.seek(durationOffset);
+                file.writeDouble(lastPts);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Timber.w(e, "Failed to close %s", filename);
+            }
+        }
+    }
+
+    private static void writeSeek(EbmlBuffer b, int id, long position)
+    {
+        int seek = b.startElement(ID_SEEK);
+        b.writeId(ID_SEEK_ID);
+        b.writeSize(EbmlBuffer.idLength(id));
+        b.writeId(id);
+        b.writeUInt(ID_SEEK_POSITION, position);
+        b.endElement(seek);
+    }
+
+    private void write(EbmlBuffer b)
+            throws IOException
+    {
+        file.write(b.data, 0, b.length());
+    }
+
+    private void fail(IOException e)
+    {
+        if (!failed) {
+            failed = true;
+            Timber.e(e, "Failed to write %s; no more frames are written.", filename);
+        }
+    }
+
+    /**
+     * A growable buffer of EBML elements.
+     */
+    private static class EbmlBuffer
+    {
+        /**
+         * The length of the size of a master element started with {@link #startElement(int)};
+         * the size is patched by {@link #endElement(int)}.
+         */
+        private static final int MASTER_SIZE_LENGTH = 4;
+
+        byte[] data;
+
+        private int length = 0;
+
+        EbmlBuffer(int capacity)
+        {
+            data = new byte[capacity];
+        }
+
+        int length()
+        {
+            return length;
+        }
+
+        void reset()
+        {
+            length = 0;
+        }
+
+        private void ensureCapacity(int extra)
+        {
+            if (length + extra > data.length) {
+                byte[] newData = new byte[Math.max(data.length * 2, length + extra)];
+                System.arraycopy(data, 0, newData, 0, length);
+                data = newData;
+            }
+        }
+
+        void writeByte(int b)
+        {
+            ensureCapacity(1);
+            data[length++] = (byte) b;
+        }
+
+        void write(byte[] buf, int off, int len)
+        {
+            ensureCapacity(len);
+            System.arraycopy(buf, off, data, length, len);
+            length += len;
+        }
+
+        void writeLong(long value)
+        {
+            for (int shift = 56; shift >= 0; shift -= 8)
+                writeByte((int) (value >> shift));
+        }
+
+        /**
+         * Writes an element ID, which includes its length marker.
+         */
+        void writeId(int id)
+        {
+            for (int i = idLength(id) - 1; i >= 0; i--)
+                writeByte(id >> (8 * i));
+        }
+
+        /**
+         * Writes an element size as a vint of the shortest length.
+         */
+        void writeSize(long size)
+        {
+            int len = 1;
+            while (len < 8 && size >= (1L << (7 * len)) - 1)
+                len++;
+            writeSize(size, len);
+        }
+
+        void writeSize(long size, int len)
+        {
+            long value = size | (1L << (7 * len));
+            for (int i = len - 1; i >= 0; i--)
+                writeByte((int) (value >> (8 * i)));
+        }
+
+        /**
+         * Writes the reserved "unknown" size as an 8-byte vint.
+         */
+        void writeUnknownSize()
+        {
+            writeLong(0x01FFFFFFFFFFFFFFL);
+        }
+
+        void writeUInt(int id, long value)
+        {
+            writeId(id);
+            int len = uintLength(value);
+            writeSize(len);
+            for (int i = len - 1; i >= 0; i--)
+                writeByte((int) (value >> (8 * i)));
+        }
+
+        void writeString(int id, String value)
+        {
+            byte[] bytes;
+            try {
+                bytes = value.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            writeId(id);
+            writeSize(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Writes a void element of a specific total length, at least 2.
+         */
+        void writeVoid(int totalLength)
+        {
+            writeId(ID_VOID);
+            int size = totalLength - 2;
+            if (size < 0x7F) {
+                writeSize(size, 1);
+            }
+            else {
+                size = totalLength - 1 - 8;
+                writeSize(size, 8);
+            }
+            ensureCapacity(size);
+            for (int i = 0; i < size; i++)
+                data[length++] = 0;
+        }
+
+        /**
+         * Starts a master element with a size to be patched by {@link #endElement(int)}.
+         *
+         * @return the offset of the size of the element
+         */
+        int startElement(int id)
+        {
+            writeId(id);
+            int sizeOffset = length;
+            writeSize(0, MASTER_SIZE_LENGTH);
+            return sizeOffset;
+        }
+
+        void endElement(int sizeOffset)
+        {
+            long value = (length - sizeOffset - MASTER_SIZE_LENGTH) | (1L << (7 * MASTER_SIZE_LENGTH));
+            for (int i = 0; i < MASTER_SIZE_LENGTH; i++)
+                data[sizeOffset + i] = (byte) (value >> (8 * (MASTER_SIZE_LENGTH - 1 - i)));
+        }
+
+        static int idLength(int id)
+        {
+            if ((id & 0xFF000000) != 0)
+                return 4;
+            if ((id & 0xFF0000) != 0)
+                return 3;
+            if ((id & 0xFF00) != 0)
+                return 2;
+            return 1;
+        }
+
+        static int uintLength(long value)
+        {
+            int len = 1;
+            while (len < 8 && (value >>> (8 * len)) != 0)
+                len++;
+            return len;
+        }
+    }
+}
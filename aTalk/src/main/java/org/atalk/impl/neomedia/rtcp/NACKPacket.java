@@ -182,6 +182,23 @@ public class NACKPacket extends RTCPFBPacket
 		this.lostPackets = sorted;
 	}
 
+	/**
+	 * Initializes a new <tt>NACKPacket</tt> instance with specific "packet sender SSRC" and
+	 * "media source SSRC" values and an FCI field which is already made of generic NACK entries.
+	 *
+	 * @param senderSSRC
+	 * 		the value to use for the "packet sender SSRC" field.
+	 * @param sourceSSRC
+	 * 		the value to use for the "media source SSRC" field.
+	 * @param fci
+	 * 		the PID and BLP entries of the NACK packet, 4 bytes each.
+	 */
+	public NACKPacket(long senderSSRC, long sourceSSRC, byte[] fci)
+	{
+		super(FMT, RTPFB, senderSSRC, sourceSSRC);
+		this.fci = fci;
+	}
+
 	/**
 	 * Gets the set of sequence numbers reported lost in this NACK packet.
 	 *
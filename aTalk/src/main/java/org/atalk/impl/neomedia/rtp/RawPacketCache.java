@@ -24,8 +24,8 @@ import org.atalk.util.logging.Logger;
 import org.atalk.util.concurrent.MonotonicAtomicLong;
 
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.*;
 
 import timber.log.Timber;
 
@@ -33,6 +33,11 @@ import timber.log.Timber;
  * An simple interface which allows a packet to be retrieved from a
  * cache/storage by an SSRC identifier and a sequence number.
  *
+ * The packets of each SSRC are kept in a ring indexed by their extended
+ * sequence number, which is read without locking when NACKs are serviced.
+ * Packets are dropped when they are older than a retention time, which
+ * follows the RTT, or when the packets of all SSRCs exceed a byte budget.
+ *
  * @author Boris Grozev
  * @author George Politis
  * @author Eng Chong Meng
@@ -62,14 +67,25 @@ public class RawPacketCache implements AutoCloseable
     public final static String NACK_CACHE_SIZE_MILLIS
             = "neomedia.transform.CachingTransformer.CACHE_SIZE_MILLIS";
 
+    /**
+     * Configuration property for the size in bytes of the packets cached for
+     * all SSRCs combined.
+     */
+    public final static String NACK_CACHE_SIZE_BYTES
+            = "neomedia.transform.CachingTransformer.CACHE_SIZE_BYTES";
+
     /**
      * Packets added to the cache more than <tt>SIZE_MILLIS</tt> ago might be
-     * cleared from the cache.
-     *
-     * FIXME(gp) the cache size should be adaptive based on the RTT.
+     * cleared from the cache, unless the RTT calls for a longer time.
      */
     private static int SIZE_MILLIS = cfg.getInt(NACK_CACHE_SIZE_MILLIS, 1000);
 
+    /**
+     * The number of RTTs a packet is kept for, so that a NACK which is sent
+     * late or lost once can still be serviced.
+     */
+    private static final int RTT_FACTOR = 3;
+
     /**
      * The maximum number of different SSRCs for which a cache will be created.
      */
@@ -79,57 +95,67 @@ public class RawPacketCache implements AutoCloseable
      * The maximum number of packets cached for each SSRC. A 1080p stream maxes
      * out at around 500 packets per second (pps). Assuming an RTT of 500ms, a
      * 250packets/500ms packet cache is just enough. In order to be on the safe
-     * side, we use the double as defaults.
+     * side, we use the double as defaults. It is rounded up to a power of two
+     * for the ring.
      */
     private static int MAX_SIZE_PACKETS = cfg.getInt(NACK_CACHE_SIZE_PACKETS, 500);
 
     /**
-     * The size of {@link #pool} and {@link #containersPool}.
+     * The maximum size in bytes of the packets cached by all the instances combined.
      */
-    private static int POOL_SIZE = 100;
+    private static int MAX_SIZE_BYTES = cfg.getInt(NACK_CACHE_SIZE_BYTES, 8 * 1024 * 1024);
 
     /**
-     * The amount of time, after which the cache for an SSRC will be cleared,
-     * unless new packets have been inserted.
+     * The time after which the buffer of a packet dropped from the cache is
+     * reused, so that it is not overwritten while a reader, which does not
+     * lock, is still copying it.
      */
-    private static int SSRC_TIMEOUT_MILLIS = SIZE_MILLIS + 50;
+    private static final int REUSE_DELAY_MILLIS = 100;
 
     /**
-     * The pool of <tt>RawPacket</tt>s which we use to avoid allocation and GC.
+     * The number of packets in the ring of each SSRC.
      */
-    private final Queue<RawPacket> pool = new LinkedBlockingQueue<>(POOL_SIZE);
+    private static final int RING_SIZE
+            = Integer.highestOneBit(Math.max(MAX_SIZE_PACKETS, 2) - 1) << 1;
 
     /**
-     * A cache of unused {@link Container} instances.
+     * The largest number of dropped packets kept for their buffers to be reused.
      */
-    private final Queue<Container> containersPool = new LinkedBlockingQueue<>(POOL_SIZE);
+    private static final int POOL_SIZE = 100;
 
     /**
-     * An object used to synchronize access to {@link #sizeInBytes},
-     * {@link #maxSizeInBytes}, {@link #sizeInPackets} and
-     * {@link #maxSizeInPackets}.
+     * The packets dropped from the caches, oldest first, whose buffers are
+     * reused once they have been dropped for {@link #REUSE_DELAY_MILLIS}.
      */
-    private final Object sizesSyncRoot = new Object();
+    private final Queue<Entry> retired = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger retiredCount = new AtomicInteger();
+
+    /**
+     * The current size in bytes of the packets cached by all the instances combined, which is
+     * kept within {@link #MAX_SIZE_BYTES}.
+     */
+    private static final AtomicLong totalSizeInBytes = new AtomicLong();
 
     /**
      * The current size in bytes of the cache (for all SSRCs combined).
      */
-    private int sizeInBytes = 0;
+    private final AtomicLong sizeInBytes = new AtomicLong();
 
     /**
      * The maximum reached size in bytes of the cache (for all SSRCs combined).
      */
-    private int maxSizeInBytes = 0;
+    private final MonotonicAtomicLong maxSizeInBytes = new MonotonicAtomicLong();
 
     /**
      * The current number of packets in the cache (for all SSRCs combined).
      */
-    private int sizeInPackets = 0;
+    private final AtomicInteger sizeInPackets = new AtomicInteger();
 
     /**
      * The maximum reached number of packets in the cache (for all SSRCs combined).
      */
-    private int maxSizeInPackets = 0;
+    private final MonotonicAtomicLong maxSizeInPackets = new MonotonicAtomicLong();
 
     /**
      * Counts the number of requests (calls to {@link #get(long, int)}) which
@@ -143,6 +169,19 @@ public class RawPacketCache implements AutoCloseable
      */
     private AtomicInteger totalMisses = new AtomicInteger(0);
 
+    /**
+     * Counts the number of requests which the cache was not able to answer
+     * because the packet had been dropped, for lack of space, before its
+     * retention time was over.
+     */
+    private AtomicInteger totalEvictedTooEarly = new AtomicInteger(0);
+
+    /**
+     * Counts the number of packets dropped for lack of space before their
+     * retention time was over.
+     */
+    private AtomicInteger totalEvictions = new AtomicInteger(0);
+
     /**
      * Counts the total number of packets added to this cache.
      */
@@ -159,6 +198,11 @@ public class RawPacketCache implements AutoCloseable
      */
     private MonotonicAtomicLong oldestHit = new MonotonicAtomicLong();
 
+    /**
+     * The time in milliseconds packets are kept for.
+     */
+    private volatile long retentionMillis = SIZE_MILLIS;
+
     /**
      * The hash code or other identifier of the owning stream, if any. Only used for logging.
      */
@@ -182,15 +226,30 @@ public class RawPacketCache implements AutoCloseable
             throws Exception
     {
         if (totalPacketsAdded.get() > 0) {
-            Timber.i("%s closed,stream=%d max_size_bytes=%s,max_size_packets=%s,total_hits=%d, total_misses=%d, total_packets=%d, oldest_hit_ms=%s",
+            Timber.i("%s closed,stream=%d max_size_bytes=%s,max_size_packets=%s,total_hits=%d, total_misses=%d, total_evicted_too_early=%d, total_evictions=%d, total_packets=%d, oldest_hit_ms=%s",
                     Logger.Category.STATISTICS, streamId, maxSizeInBytes, maxSizeInPackets, totalHits.get(),
-                    totalMisses.get(), totalPacketsAdded.get(), oldestHit);
+                    totalMisses.get(), totalEvictedTooEarly.get(), totalEvictions.get(),
+                    totalPacketsAdded.get(), oldestHit);
         }
+        // Release the share of the global size budget held by this instance.
+        long now = System.currentTimeMillis();
         synchronized (caches) {
+            for (Cache cache : caches.values())
+                cache.empty(now);
             caches.clear();
         }
-        pool.clear();
-        containersPool.clear();
+        retired.clear();
+        retiredCount.set(0);
+    }
+
+    /**
+     * Sets the RTT which the retention time of the packets follows.
+     *
+     * @param rttMs the RTT in milliseconds, or -1 if it is not known.
+     */
+    public void setRtt(long rttMs)
+    {
+        retentionMillis = Math.max(SIZE_MILLIS, RTT_FACTOR * rttMs);
     }
 
     /**
@@ -217,6 +276,8 @@ public class RawPacketCache implements AutoCloseable
         }
         else {
             totalMisses.incrementAndGet();
+            if (cache != null && cache.wasEvictedTooEarly(seq))
+                totalEvictedTooEarly.incrementAndGet();
         }
         return container;
     }
@@ -279,77 +340,70 @@ public class RawPacketCache implements AutoCloseable
     }
 
     /**
-     * Gets an unused <tt>RawPacket</tt> with at least <tt>len</tt> bytes of
-     * buffer space.
+     * Gets an unused {@link Entry} with at least <tt>len</tt> bytes of buffer
+     * space, reusing the one dropped the longest ago if it has been dropped for
+     * long enough.
      *
      * @param len the minimum available length
-     * @return An unused <tt>RawPacket</tt> with at least <tt>len</tt> bytes of
+     * @param now the current time in milliseconds.
+     * @return An unused <tt>Entry</tt> with at least <tt>len</tt> bytes of
      * buffer space.
      */
-    private RawPacket getFreePacket(int len)
+    private Entry getFreeEntry(int len, long now)
     {
-        RawPacket pkt = pool.poll();
-        if (pkt == null)
-            pkt = new RawPacket(new byte[len], 0, 0);
-
-        if (pkt.getBuffer() == null || pkt.getBuffer().length < len)
-            pkt.setBuffer(new byte[len]);
-        pkt.setOffset(0);
-        pkt.setLength(0);
-        return pkt;
+        Entry entry = retired.peek();
+        if (entry != null && entry.timeRetired + REUSE_DELAY_MILLIS <= now && retired.remove(entry)) {
+            retiredCount.decrementAndGet();
+            if (entry.buf.length >= len)
+                return entry;
+        }
+        return new Entry(new byte[Math.max(len, 1500)]);
     }
 
     /**
-     * @return an unused {@link Container} instance.
+     * Keeps an {@link Entry} dropped from a {@link Cache} for its buffer to be
+     * reused.
+     *
+     * @param entry the entry dropped.
+     * @param now the current time in milliseconds.
      */
-    private Container getFreeContainer()
+    private void retire(Entry entry, long now)
     {
-        Container container = containersPool.poll();
-        if (container == null) {
-            container = new Container();
+        // Readers which copy the buffer from now on discard their copy.
+        entry.index = -1;
+        totalSizeInBytes.addAndGet(-entry.length);
+        sizeInBytes.addAndGet(-entry.length);
+        sizeInPackets.decrementAndGet();
+        if (retiredCount.get() < POOL_SIZE) {
+            entry.timeRetired = now;
+            retiredCount.incrementAndGet();
+            retired.offer(entry);
         }
-        return container;
     }
 
     /**
      * Checks for {@link Cache} instances which have not received new packets
-     * for a period longer than {@link #SSRC_TIMEOUT_MILLIS} and removes them.
+     * for a period longer than the retention time and removes them.
      */
     public void clean(long now)
     {
         synchronized (caches) {
             Timber.log(TimberLog.FINER, "Cleaning CachingTransformer %s", hashCode());
 
+            long ssrcTimeoutMillis = retentionMillis + 50;
             Iterator<Map.Entry<Long, Cache>> iter = caches.entrySet().iterator();
             while (iter.hasNext()) {
                 Map.Entry<Long, Cache> entry = iter.next();
                 Cache cache = entry.getValue();
-                if (cache.lastInsertTime + SSRC_TIMEOUT_MILLIS < now) {
+                if (cache.lastInsertTime + ssrcTimeoutMillis < now) {
                     Timber.log(TimberLog.FINER, "Removing cache for SSRC %s", entry.getKey());
-                    cache.empty();
+                    cache.empty(now);
                     iter.remove();
                 }
             }
         }
     }
 
-    /**
-     * Returns a {@link Container} and its {@link RawPacket} to the list of free containers (and
-     * packets).
-     *
-     * @param container the container to return.
-     */
-    private void returnContainer(Container container)
-    {
-        if (container != null) {
-            if (container.pkt != null) {
-                pool.offer(container.pkt);
-            }
-            container.pkt = null;
-            containersPool.offer(container);
-        }
-    }
-
     /**
      * Gets the most recent packets from the cache that pertains to the SSRC
      * that is specified as an argument, not exceeding the number of bytes
@@ -378,43 +432,119 @@ public class RawPacketCache implements AutoCloseable
      */
     public void updateTimestamp(long ssrc, int seq, long ts)
     {
-        Cache cache = getCache(ssrc, false);
+        Cache cache = getCache(ssrc & 0xffff_ffffL, false);
         if (cache != null) {
-            synchronized (cache) {
-                Container container = cache.doGet(seq);
-                if (container != null) {
-                    container.timeAdded = ts;
-                }
+            Entry entry = cache.doGet(seq);
+            if (entry != null) {
+                entry.timeAdded = ts;
             }
         }
     }
 
     /**
-     * Implements a cache for the packets of a specific SSRC.
+     * Gets the number of requests the cache was able to answer.
+     *
+     * @return the number of hits.
+     */
+    public int getTotalHits()
+    {
+        return totalHits.get();
+    }
+
+    /**
+     * Gets the number of requests the cache was not able to answer.
+     *
+     * @return the number of misses.
+     */
+    public int getTotalMisses()
+    {
+        return totalMisses.get();
+    }
+
+    /**
+     * Gets the number of requests the cache was not able to answer because the
+     * packet had been dropped for lack of space before its retention time was
+     * over.
+     *
+     * @return the number of misses due to packets evicted too early.
+     */
+    public int getTotalEvictedTooEarly()
+    {
+        return totalEvictedTooEarly.get();
+    }
+
+    /**
+     * A packet of a {@link Cache}. It is published to the readers by being put
+     * in the ring, and is not written again until it has been dropped from the
+     * ring for {@link #REUSE_DELAY_MILLIS}. A reader checks {@link #index}
+     * again after it has copied the buffer, in case it took longer than that.
+     */
+    private static class Entry
+    {
+        private final byte[] buf;
+
+        private int length;
+
+        /**
+         * The extended sequence number of the packet, or -1 once it has been
+         * dropped from the cache.
+         */
+        private volatile long index = -1;
+
+        /**
+         * The time the packet was added to the cache, or last retransmitted.
+         */
+        private volatile long timeAdded;
+
+        /**
+         * The time the packet was dropped from the cache.
+         */
+        private long timeRetired;
+
+        private Entry(byte[] buf)
+        {
+            this.buf = buf;
+        }
+    }
+
+    /**
+     * Implements a cache for the packets of a specific SSRC. Inserting and
+     * dropping packets is synchronized, getting them is not.
      */
     private class Cache
     {
         /**
-         * The underlying container. It maps a packet index (based on its RTP
-         * sequence number, in the same way as used in SRTP (RFC3711)) to the
-         * <tt>RawPacket</tt> with the packet contents.
+         * The packets, the one with extended sequence number <tt>index</tt> at
+         * <tt>index & (RING_SIZE - 1)</tt>.
          */
-        private TreeMap<Integer, Container> cache = new TreeMap<>();
+        private final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<>(RING_SIZE);
 
         /**
-         * Last system time of insertion of a packet in this cache.
+         * The highest extended sequence number inserted, or -1.
+         */
+        private volatile long highestIndex = -1;
+
+        /**
+         * The lowest extended sequence number which may still be in the ring.
          */
-        private long lastInsertTime = -1;
+        private long oldestIndex = -1;
 
         /**
-         * A Roll Over Counter (as in by RFC3711).
+         * The highest extended sequence number dropped for lack of space
+         * before its retention time was over, or -1.
+         */
+        private volatile long evictedTooEarlyIndex = -1;
+
+        /**
+         * Last system time of insertion of a packet in this cache.
          */
-        private int ROC = 0;
+        private volatile long lastInsertTime = -1;
 
         /**
-         * The highest received sequence number (as in RFC3711).
+         * Whether this cache has been emptied on removal; a packet inserted afterwards would hold
+         * its size in the global budget forever.
          */
-        private int s_l = -1;
+        private boolean emptied = false;
 
         /**
          * Inserts a packet into this <tt>Cache</tt>.
@@ -423,69 +553,64 @@ public class RawPacketCache implements AutoCloseable
          */
         private synchronized void insert(RawPacket pkt)
         {
-            int len = pkt.getLength();
-            RawPacket cachePacket = getFreePacket(len);
-            System.arraycopy(pkt.getBuffer(), pkt.getOffset(), cachePacket.getBuffer(), 0, len);
-            cachePacket.setLength(len);
+            if (emptied)
+                return;
 
-            int index = calculateIndex(pkt.getSequenceNumber());
-            Container container = getFreeContainer();
-            container.pkt = cachePacket;
-            container.timeAdded = System.currentTimeMillis();
+            long now = System.currentTimeMillis();
+            long index = calculateIndex(pkt.getSequenceNumber());
+            if (highestIndex != -1 && index < oldestIndex)
+                return; // too old, or already dropped from the ring
+
+            int len = pkt.getLength();
+            Entry entry = getFreeEntry(len, now);
+            System.arraycopy(pkt.getBuffer(), pkt.getOffset(), entry.buf, 0, len);
+            entry.length = len;
+            entry.index = index;
+            entry.timeAdded = now;
 
             // If the packet is already in the cache, we want to update the
             // timeAdded field for retransmission purposes. This is implemented
-            // by simply replacing the old packet.
-            Container oldContainer = cache.put(index, container);
-
-            synchronized (sizesSyncRoot) {
-                sizeInPackets++;
-                sizeInBytes += len;
-                if (oldContainer != null) {
-                    sizeInPackets--;
-                    sizeInBytes -= oldContainer.pkt.getLength();
-                }
-                if (sizeInPackets > maxSizeInPackets)
-                    maxSizeInPackets = sizeInPackets;
-                if (sizeInBytes > maxSizeInBytes)
-                    maxSizeInBytes = sizeInBytes;
+            // by simply replacing the old packet. A packet in the same slot one
+            // ring earlier is dropped.
+            int slot = (int) index & (RING_SIZE - 1);
+            Entry old = ring.getAndSet(slot, entry);
+            if (old != null)
+                drop(old, now, old.index != index);
+
+            totalSizeInBytes.addAndGet(len);
+            maxSizeInBytes.increase(sizeInBytes.addAndGet(len));
+            maxSizeInPackets.increase(sizeInPackets.incrementAndGet());
+
+            if (index > highestIndex) {
+                if (highestIndex == -1)
+                    oldestIndex = index;
+                highestIndex = index;
+                oldestIndex = Math.max(oldestIndex, index - RING_SIZE + 1);
             }
-            returnContainer(oldContainer);
-            lastInsertTime = System.currentTimeMillis();
-            clean();
+            lastInsertTime = now;
+            clean(now);
         }
 
-
         /**
-         * Calculates the index of an RTP packet based on its RTP sequence
-         * number and updates the <tt>s_l</tt> and <tt>ROC</tt> fields. Based
-         * on the procedure outlined in RFC3711
+         * Calculates the extended sequence number of an RTP packet, assuming
+         * that it is the closest to the highest one inserted.
          *
          * @param seq the RTP sequence number of the RTP packet.
-         * @return the index of the RTP sequence number with sequence number
-         * <tt>seq</tt>.
+         * @return the extended sequence number of the RTP packet with sequence
+         * number <tt>seq</tt>.
          */
-        private int calculateIndex(int seq)
+        private long calculateIndex(int seq)
         {
-            if (s_l == -1) {
-                s_l = seq;
+            long highest = highestIndex;
+            if (highest == -1)
                 return seq;
-            }
 
-            int v = ROC;
-            if (s_l < 0x8000)
-                if (seq - s_l > 0x8000)
-                    v = (int) ((ROC - 1) & 0xffff_ffffL);
-                else if (s_l - 0x1_0000 > seq)
-                    v = (int) ((ROC + 1) & 0xffff_ffffL);
-
-            if (v == ROC && seq > s_l)
-                s_l = seq;
-            else if (v == ((ROC + 1) & 0xffff_ffffL)) {
-                s_l = seq;
-                ROC = v;
-            }
-            return seq + v * 0x1_0000;
+            long index = (highest & ~0xffffL) | seq;
+            if (index - highest > 0x8000)
+                index -= 0x1_0000;
+            else if (highest - index > 0x8000)
+                index += 0x1_0000;
+            return index;
         }
 
         /**
@@ -498,99 +623,121 @@ public class RawPacketCache implements AutoCloseable
          * from the cache, or {@code null} if the cache does not contain a
          * packet with this sequence number.
          */
-        private synchronized Container get(int seq)
+        private Container get(int seq)
         {
-            Container container = doGet(seq);
-
-            return container == null
-                    ? null
-                    : new Container(new RawPacket(container.pkt.getBuffer().clone(),
-                    container.pkt.getOffset(),
-                    container.pkt.getLength()),
-                    container.timeAdded);
+            Entry entry = doGet(seq);
+            return (entry == null) ? null : copy(entry, entry.index);
         }
 
         /**
-         * Returns the RTP packet with sequence number {@code seq}
+         * Copies the packet of an entry, unless the entry is dropped from the
+         * cache before the copy is complete; its buffer may then have been
+         * reused for another packet while it was being copied.
+         *
+         * @param entry the entry of the packet to copy.
+         * @param index the extended sequence number of the packet.
+         * @return a copy of the packet, or {@code null} if <tt>entry</tt> no
+         * longer holds the packet with extended sequence number <tt>index</tt>.
+         */
+        private Container copy(Entry entry, long index)
+        {
+            if (index == -1)
+                return null;
+
+            long timeAdded = entry.timeAdded;
+            int len = entry.length;
+            byte[] buf = Arrays.copyOf(entry.buf, len);
+            return (entry.index == index)
+                    ? new Container(new RawPacket(buf, 0, len), timeAdded) : null;
+        }
+
+        /**
+         * Returns the entry of the RTP packet with sequence number {@code seq}
          * from the cache, or {@code null} if the cache does not contain a
          * packet with this sequence number.
          *
          * @param seq the RTP sequence number of the packet to get.
-         * @return the RTP packet with sequence number {@code seq}
+         * @return the entry of the RTP packet with sequence number {@code seq}
          * from the cache, or {@code null} if the cache does not contain a
          * packet with this sequence number.
          */
-        private synchronized Container doGet(int seq)
+        private Entry doGet(int seq)
         {
+            if (highestIndex == -1)
+                return null;
+
             // Since sequence numbers wrap at 2^16, we can't know with absolute
             // certainty which packet the request refers to. We assume that it
-            // is for the latest packet (i.e. the one with the highest index).
-            Container container = cache.get(seq + ROC * 0x1_0000);
-
-            // Maybe the ROC was just bumped recently.
-            if (container == null && ROC > 0)
-                container = cache.get(seq + (ROC - 1) * 0x1_0000);
+            // is for the one closest to the latest packet.
+            long index = calculateIndex(seq);
+            Entry entry = ring.get((int) index & (RING_SIZE - 1));
+            return (entry != null && entry.index == index) ? entry : null;
+        }
 
-            // Since the cache only stores <tt>SIZE_MILLIS</tt> milliseconds of
-            // packets, we assume that it doesn't contain packets spanning
-            // more than one ROC.
-            return container;
+        /**
+         * Checks whether the packet with sequence number {@code seq} has been
+         * dropped for lack of space before its retention time was over.
+         *
+         * @param seq the RTP sequence number of the packet.
+         * @return {@code true} if the packet has been evicted too early.
+         */
+        private boolean wasEvictedTooEarly(int seq)
+        {
+            long evicted = evictedTooEarlyIndex;
+            return evicted != -1 && calculateIndex(seq) <= evicted;
         }
 
         /**
          * Drops the oldest packets from the cache until:
-         * 1. The cache contains at most {@link #MAX_SIZE_PACKETS} packets, and
-         * 2. The cache only contains packets at most {@link #SIZE_MILLIS}
-         * milliseconds older than the newest packet in the cache.
+         * 1. The cache only contains packets at most the retention time older
+         * than now, and
+         * 2. The packets of all the instances combined take at most
+         * {@link #MAX_SIZE_BYTES}, or this cache holds a single packet.
          */
-        private synchronized void clean()
+        private void clean(long now)
         {
-            int size = cache.size();
-            if (size <= 0)
-                return;
-
-            long cleanBefore = System.currentTimeMillis() - SIZE_MILLIS;
-            Iterator<Map.Entry<Integer, Container>> iter = cache.entrySet().iterator();
-            int removedPackets = 0;
-            int removedBytes = 0;
-            while (iter.hasNext()) {
-                Container container = iter.next().getValue();
-                RawPacket pkt = container.pkt;
-
-                if (size > MAX_SIZE_PACKETS) {
-                    // Remove until we go under the max size, regardless of the timestamps.
-                    size--;
+            long cleanBefore = now - retentionMillis;
+            while (oldestIndex < highestIndex) {
+                int slot = (int) oldestIndex & (RING_SIZE - 1);
+                Entry entry = ring.get(slot);
+                if (entry != null && entry.index == oldestIndex) {
+                    boolean overBudget = totalSizeInBytes.get() > MAX_SIZE_BYTES;
+                    if (!overBudget && entry.timeAdded > cleanBefore) {
+                        // We reached a packet with a timestamp after 'cleanBefore'.
+                        break;
+                    }
+                    ring.set(slot, null);
+                    drop(entry, now, overBudget);
                 }
-                else if (container.timeAdded >= 0
-                        && container.timeAdded > cleanBefore) {
-                    // We reached a packet with a timestamp after 'cleanBefore'.
-                    // The rest of the packets are even more recent.
-                    break;
-                }
-
-                iter.remove();
-                removedBytes += pkt.getLength();
-                removedPackets++;
-                returnContainer(container);
-            }
-            synchronized (sizesSyncRoot) {
-                sizeInBytes -= removedBytes;
-                sizeInPackets -= removedPackets;
+                oldestIndex++;
             }
         }
 
-        synchronized private void empty()
+        /**
+         * Accounts for a packet dropped from this cache.
+         *
+         * @param entry the entry of the packet.
+         * @param now the current time in milliseconds.
+         * @param forSpace whether the packet is dropped for lack of space.
+         */
+        private void drop(Entry entry, long now, boolean forSpace)
         {
-            int removedBytes = 0;
-            for (Container container : cache.values()) {
-                removedBytes += container.pkt.getBuffer().length;
-                returnContainer(container);
+            if (forSpace && entry.timeAdded > now - retentionMillis) {
+                totalEvictions.incrementAndGet();
+                if (entry.index > evictedTooEarlyIndex)
+                    evictedTooEarlyIndex = entry.index;
             }
-            synchronized (sizesSyncRoot) {
-                sizeInPackets -= cache.size();
-                sizeInBytes -= removedBytes;
+            retire(entry, now);
+        }
+
+        synchronized private void empty(long now)
+        {
+            emptied = true;
+            for (int i = 0; i < RING_SIZE; i++) {
+                Entry entry = ring.getAndSet(i, null);
+                if (entry != null)
+                    drop(entry, now, false);
             }
-            cache.clear();
         }
 
         /**
@@ -602,27 +749,23 @@ public class RawPacketCache implements AutoCloseable
          * the number of bytes specified as an argument, or null if there are
          * no packets in the cache.
          */
-        public synchronized Set<Container> getMany(int bytes)
+        public Set<Container> getMany(int bytes)
         {
-            if (cache.isEmpty() || bytes < 1) {
+            long highest = highestIndex;
+            if (highest == -1 || bytes < 1) {
                 return null;
             }
 
-            // XXX(gp) This is effectively Copy-on-Read and is inefficient. We
-            // should implement a Copy-on-Write method or something else that is
-            // more efficient than this..
             Set<Container> set = new HashSet<>();
-
-            Iterator<Map.Entry<Integer, Container>> it
-                    = cache.descendingMap().entrySet().iterator();
-            while (it.hasNext() && bytes > 0) {
-                Container container = it.next().getValue();
-                if (container != null && container.pkt != null) {
+            for (long index = highest; index > highest - RING_SIZE && index >= 0 && bytes > 0; index--) {
+                Entry entry = ring.get((int) index & (RING_SIZE - 1));
+                Container container = (entry != null && entry.index == index) ? copy(entry, index) : null;
+                if (container != null) {
                     set.add(container);
                     bytes -= container.pkt.getLength();
                 }
             }
-            return set;
+            return set.isEmpty() ? null : set;
         }
     }
 
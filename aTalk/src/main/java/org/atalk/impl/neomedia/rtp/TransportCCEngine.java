@@ -17,14 +17,15 @@ package org.atalk.impl.neomedia.rtp;
 
 import org.atalk.impl.neomedia.RTPPacketPredicate;
 import org.atalk.impl.neomedia.rtcp.RTCPTCCPacket;
-import org.atalk.impl.neomedia.rtp.remotebitrateestimator.RemoteBitrateEstimatorAbsSendTime;
 import org.atalk.impl.neomedia.rtp.remotebitrateestimator.RemoteBitrateObserver;
+import org.atalk.impl.neomedia.rtp.sendsidebandwidthestimation.DelayBasedBandwidthEstimator;
 import org.atalk.impl.neomedia.transform.*;
 import org.atalk.service.neomedia.*;
 import org.atalk.service.neomedia.rtp.CallStatsObserver;
 import org.atalk.util.*;
 import org.atalk.util.logging.DiagnosticContext;
 import org.atalk.util.logging.TimeSeriesLogger;
+import org.atalk.util.logging.TimeSeriesRecorder;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
@@ -64,6 +65,17 @@ public class TransportCCEngine extends RTCPPacketListenerAdapter implements Remo
     private static final TimeSeriesLogger timeSeriesLogger
             = TimeSeriesLogger.getTimeSeriesLogger(TransportCCEngine.class);
 
+    /**
+     * The time series of the packets and acknowledgements, recorded without allocation.
+     */
+    private static final TimeSeriesRecorder.Series ingressPktSeries = TimeSeriesRecorder
+            .series("ingress_tcc_pkt").addLong("seq").addLong("pt").build();
+    private static final TimeSeriesRecorder.Series ingressAckSeries = TimeSeriesRecorder
+            .series("ingress_tcc_ack").addLong("seq").addLong("arrival_time_ms")
+            .addLong("diff_ms").build();
+    private static final TimeSeriesRecorder.Series egressPktSeries = TimeSeriesRecorder
+            .series("egress_tcc_pkt").addLong("rtp_seq").addLong("pt").addLong("tcc_seq").build();
+
     /**
      * The engine which handles incoming RTP packets for this instance. It
      * reads transport-wide sequence numbers and registers arrival times.
@@ -154,7 +166,7 @@ public class TransportCCEngine extends RTCPPacketListenerAdapter implements Remo
     /**
      * Used for estimating the bitrate from RTCP TCC feedback packets
      */
-    private final RemoteBitrateEstimatorAbsSendTime bitrateEstimatorAbsSendTime;
+    private final DelayBasedBandwidthEstimator delayBasedBandwidthEstimator;
 
     /**
      * Ctor.
@@ -164,7 +176,7 @@ public class TransportCCEngine extends RTCPPacketListenerAdapter implements Remo
     public TransportCCEngine(@NotNull DiagnosticContext diagnosticContext)
     {
         this.diagnosticContext = diagnosticContext;
-        bitrateEstimatorAbsSendTime = new RemoteBitrateEstimatorAbsSendTime(this, diagnosticContext);
+        delayBasedBandwidthEstimator = new DelayBasedBandwidthEstimator(this, diagnosticContext);
     }
 
     /**
@@ -198,6 +210,7 @@ public class TransportCCEngine extends RTCPPacketListenerAdapter implements Remo
             incomingPackets.put(seq, now);
         }
 
+        ingressPktSeries.record(now, seq, pt);
         if (timeSeriesLogger.isTraceEnabled()) {
             timeSeriesLogger.trace(diagnosticContext
                     .makeTimeSeriesPoint("ingress_tcc_pkt", now)
@@ -334,7 +347,7 @@ public class TransportCCEngine extends RTCPPacketListenerAdapter implements Remo
     @Override
     public void onRttUpdate(long avgRttMs, long maxRttMs)
     {
-        bitrateEstimatorAbsSendTime.onRttUpdate(avgRttMs, maxRttMs);
+        delayBasedBandwidthEstimator.onRttUpdate(avgRttMs);
     }
 
     /**
@@ -375,6 +388,7 @@ public class TransportCCEngine extends RTCPPacketListenerAdapter implements Remo
     public void tccReceived(RTCPTCCPacket tccPacket)
     {
         RTCPTCCPacket.PacketMap packetMap = tccPacket.getPackets();
+        long nowMs = System.currentTimeMillis();
         long previousArrivalTimeMs = -1;
         for (Map.Entry<Integer, Long> entry : packetMap.entrySet()) {
             long arrivalTime250Us = entry.getValue();
@@ -399,6 +413,10 @@ public class TransportCCEngine extends RTCPPacketListenerAdapter implements Remo
 
             long arrivalTimeMs = arrivalTime250Us / 4 - remoteReferenceTimeMs + localReferenceTimeMs;
 
+            if (ingressAckSeries.isEnabled()) {
+                ingressAckSeries.record(System.currentTimeMillis(), entry.getKey(), arrivalTimeMs,
+                        (previousArrivalTimeMs != -1) ? arrivalTimeMs - previousArrivalTimeMs : 0L);
+            }
             if (timeSeriesLogger.isTraceEnabled()) {
                 if (previousArrivalTimeMs != -1) {
                     long diff_ms = arrivalTimeMs - previousArrivalTimeMs;
@@ -417,10 +435,12 @@ public class TransportCCEngine extends RTCPPacketListenerAdapter implements Remo
             }
 
             previousArrivalTimeMs = arrivalTimeMs;
-            long sendTime24bits = RemoteBitrateEstimatorAbsSendTime.convertMsTo24Bits(packetDetail.packetSendTimeMs);
+            delayBasedBandwidthEstimator.incomingPacketFeedback(
+                    packetDetail.packetSendTimeMs, arrivalTimeMs, packetDetail.packetLength, nowMs);
+        }
 
-            bitrateEstimatorAbsSendTime.incomingPacketInfo(
-                    arrivalTimeMs, sendTime24bits, packetDetail.packetLength, tccPacket.getSourceSSRC());
+        if (previousArrivalTimeMs != -1) {
+            delayBasedBandwidthEstimator.feedbackProcessed(tccPacket.getSourceSSRC(), nowMs);
         }
     }
 
@@ -543,6 +563,10 @@ public class TransportCCEngine extends RTCPPacketListenerAdapter implements Remo
                 int seq = outgoingSeq.getAndIncrement() & 0xffff;
                 RTPUtils.writeShort(ext.getBuffer(), ext.getOffset() + 1, (short) seq);
 
+                if (egressPktSeries.isEnabled()) {
+                    egressPktSeries.record(System.currentTimeMillis(), pkt.getSequenceNumber(),
+                            RawPacket.getPayloadType(pkt), seq);
+                }
                 if (timeSeriesLogger.isTraceEnabled()) {
                     timeSeriesLogger.trace(diagnosticContext
                             .makeTimeSeriesPoint("egress_tcc_pkt")
@@ -16,6 +16,7 @@ package org.atalk.impl.neomedia.rtp.remotebitrateestimator;
 import org.atalk.android.plugin.timberlog.TimberLog;
 import org.atalk.service.neomedia.rtp.RemoteBitrateEstimator;
 import org.atalk.util.logging.DiagnosticContext;
+import org.atalk.util.logging.TimeSeriesRecorder;
 import org.jetbrains.annotations.NotNull;
 
 import timber.log.Timber;
@@ -31,7 +32,7 @@ import timber.log.Timber;
  * @author Lyubomir Marinov
  * @author Eng Chong Meng
  */
-class AimdRateControl
+public class AimdRateControl
 {
     private static final int kDefaultRttMs = 200;
     private static final long kInitializationTimeMs = 5000;
@@ -40,6 +41,20 @@ class AimdRateControl
     private static final long kMinFeedbackIntervalMs = 200;
     private static final int kRtcpSize = 80;
     private static final double kWithinIncomingBitrateHysteresis = 1.05;
+
+    /**
+     * The time series recorded by the instances, with the <tt>hashCode</tt> of the instance as
+     * <tt>aimd_id</tt>.
+     */
+    private static final TimeSeriesRecorder.Series regionSeries = TimeSeriesRecorder
+            .series("aimd_region").addLong("aimd_id").addLong("region").build();
+    private static final TimeSeriesRecorder.Series stateSeries = TimeSeriesRecorder
+            .series("aimd_state").addLong("aimd_id").addLong("state").build();
+    private static final TimeSeriesRecorder.Series rttSeries = TimeSeriesRecorder
+            .series("aimd_rtt").addLong("aimd_id").addLong("rtt").build();
+    private static final TimeSeriesRecorder.Series estimateSeries = TimeSeriesRecorder
+            .series("aimd_estimate").addLong("aimd_id").addLong("estimate_bps")
+            .addLong("incoming_bps").build();
     private final DiagnosticContext diagnosticContext;
     private float avgMaxBitrateKbps;
     private float beta;
@@ -177,10 +192,13 @@ class AimdRateControl
         }
 
         rateControlRegion = region;
-        Timber.log(TimberLog.FINER, "%s", diagnosticContext
-                .makeTimeSeriesPoint("aimd_region", nowMs)
-                .addField("aimd_id", hashCode())
-                .addField("region", region));
+        regionSeries.record(nowMs, hashCode(), region.ordinal());
+        if (TimberLog.isTraceEnable) {
+            Timber.log(TimberLog.FINER, "%s", diagnosticContext
+                    .makeTimeSeriesPoint("aimd_region", nowMs)
+                    .addField("aimd_id", hashCode())
+                    .addField("region", region));
+        }
     }
 
     private void changeState(RateControlInput input, long nowMs)
@@ -212,10 +230,13 @@ class AimdRateControl
         }
 
         rateControlState = newState;
-        Timber.log(TimberLog.FINER, "%s", diagnosticContext
-                .makeTimeSeriesPoint("aimd_state", nowMs)
-                .addField("aimd_id", hashCode())
-                .addField("state", rateControlState));
+        stateSeries.record(nowMs, hashCode(), rateControlState.ordinal());
+        if (TimberLog.isTraceEnable) {
+            Timber.log(TimberLog.FINER, "%s", diagnosticContext
+                    .makeTimeSeriesPoint("aimd_state", nowMs)
+                    .addField("aimd_id", hashCode())
+                    .addField("state", rateControlState));
+        }
     }
 
     public long getFeedBackInterval()
@@ -314,10 +335,14 @@ class AimdRateControl
 
     public void setRtt(long rtt)
     {
-        Timber.log(TimberLog.FINER, "%s", diagnosticContext
-                .makeTimeSeriesPoint("aimd_rtt", System.currentTimeMillis())
-                .addField("aimd_id", hashCode())
-                .addField("rtt", rtt));
+        if (rttSeries.isEnabled())
+            rttSeries.record(System.currentTimeMillis(), hashCode(), rtt);
+        if (TimberLog.isTraceEnable) {
+            Timber.log(TimberLog.FINER, "%s", diagnosticContext
+                    .makeTimeSeriesPoint("aimd_rtt", System.currentTimeMillis())
+                    .addField("aimd_id", hashCode())
+                    .addField("rtt", rtt));
+        }
         this.rtt = rtt;
     }
 
@@ -356,11 +381,14 @@ class AimdRateControl
     {
         currentBitrateBps = changeBitrate(currentBitrateBps, currentInput.incomingBitRate, nowMs);
         if (isValidEstimate()) {
-            Timber.log(TimberLog.FINER, "%s", diagnosticContext
-                    .makeTimeSeriesPoint("aimd_estimate", nowMs)
-                    .addField("aimd_id", hashCode())
-                    .addField("estimate_bps", currentBitrateBps)
-                    .addField("incoming_bps", currentInput.incomingBitRate));
+            estimateSeries.record(nowMs, hashCode(), currentBitrateBps, currentInput.incomingBitRate);
+            if (TimberLog.isTraceEnable) {
+                Timber.log(TimberLog.FINER, "%s", diagnosticContext
+                        .makeTimeSeriesPoint("aimd_estimate", nowMs)
+                        .addField("aimd_id", hashCode())
+                        .addField("estimate_bps", currentBitrateBps)
+                        .addField("incoming_bps", currentInput.incomingBitRate));
+            }
         }
 
         if (nowMs - timeOfLastLog > kLogIntervalMs)
@@ -10,7 +10,7 @@ package org.atalk.impl.neomedia.rtp.remotebitrateestimator;
  *
  * @author Lyubomir Marinov
  */
-enum BandwidthUsage
+public enum BandwidthUsage
 {
 	kBwNormal(0), kBwUnderusing(-1), kBwOverusing(1);
 
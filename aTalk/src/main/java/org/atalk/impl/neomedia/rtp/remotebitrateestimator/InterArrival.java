@@ -32,7 +32,7 @@ import timber.log.Timber;
  * @author George Politis
  * @author Eng Chong Meng
  */
-class InterArrival
+public class InterArrival
 {
     private static final int kBurstDeltaThresholdMs = 5;
 
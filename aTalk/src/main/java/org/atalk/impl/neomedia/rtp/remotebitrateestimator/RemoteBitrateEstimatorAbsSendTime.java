@@ -18,6 +18,7 @@ package org.atalk.impl.neomedia.rtp.remotebitrateestimator;
 import org.atalk.service.neomedia.rtp.RemoteBitrateEstimator;
 import org.atalk.util.logging.DiagnosticContext;
 import org.atalk.util.logging.TimeSeriesLogger;
+import org.atalk.util.logging.TimeSeriesRecorder;
 import org.ice4j.util.RateStatistics;
 import org.jetbrains.annotations.NotNull;
 
@@ -39,6 +40,13 @@ public class RemoteBitrateEstimatorAbsSendTime implements RemoteBitrateEstimator
     private static final TimeSeriesLogger timeSeriesLogger
             = TimeSeriesLogger.getTimeSeriesLogger(RemoteBitrateEstimatorAbsSendTime.class);
 
+    /**
+     * The time series of the incoming packets, recorded without allocation.
+     */
+    private static final TimeSeriesRecorder.Series inPktSeries = TimeSeriesRecorder
+            .series("in_pkt").addLong("rbe_id").addLong("recv_ts_ms").addLong("send_ts_ms")
+            .addLong("pkt_sz_bytes").addLong("ssrc").build();
+
     /**
      * Defines the number of digits in the AST representation (24 bits, 6.18 fixed point) after the radix.
      */
@@ -179,6 +187,7 @@ public class RemoteBitrateEstimatorAbsSendTime implements RemoteBitrateEstimator
         // not now. In our code however, we don't have access to the arrival time.
         long nowMs = System.currentTimeMillis();
 
+        inPktSeries.record(nowMs, hashCode(), arrivalTimeMs, sendTimeMs, payloadSize, ssrc);
         if (timeSeriesLogger.isTraceEnabled()) {
             timeSeriesLogger.trace(diagnosticContext
                     .makeTimeSeriesPoint("in_pkt", nowMs)
@@ -0,0 +1,132 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+/**
+ * Estimates the bitrate which reaches the remote end from the sizes and arrival times of the
+ * packets acknowledged by transport-cc feedback. The bytes arriving in a window are a sample
+ * which is merged with the estimate by a Bayesian update, weighing the sample less the further
+ * it is from the estimate. Based on webrtc.org bitrate_estimator.cc.
+ *
+ * @author Eng Chong Meng
+ */
+class AcknowledgedBitrateEstimator
+{
+    /**
+     * The length of the window of the first sample; longer, for the estimate to start stable.
+     */
+    private static final int INITIAL_WINDOW_MS = 500;
+
+    private static final int WINDOW_MS = 150;
+
+    /**
+     * The scale of the uncertainty of a sample relative to its distance to the estimate.
+     */
+    private static final double UNCERTAINTY_SCALE = 10.0;
+
+    /**
+     * The increase of the variance of the estimate per sample, in (kbps)^2.
+     */
+    private static final double PROCESS_NOISE = 5.0;
+
+    private long currentWindowStartMs = -1;
+
+    private long prevArrivalTimeMs = -1;
+
+    private long sumBytes = 0;
+
+    /**
+     * The estimate in kbps, or -1 before the first sample.
+     */
+    private double bitrateEstimateKbps = -1;
+
+    private double bitrateEstimateVar = 50;
+
+    /**
+     * Accounts for an acknowledged packet.
+     *
+     * @param arrivalTimeMs the arrival time of the packet
+     * @param size the size of the packet in bytes
+     */
+    void update(long arrivalTimeMs, int size)
+    {
+        int windowMs = (bitrateEstimateKbps < 0) ? INITIAL_WINDOW_MS : WINDOW_MS;
+        double sampleKbps = updateWindow(arrivalTimeMs, size, windowMs);
+        if (sampleKbps < 0)
+            return;
+
+        if (bitrateEstimateKbps < 0) {
+            bitrateEstimateKbps = sampleKbps;
+            return;
+        }
+
+        double sampleUncertainty
+                = UNCERTAINTY_SCALE * Math.abs(bitrateEstimateKbps - sampleKbps) / bitrateEstimateKbps;
+        double sampleVar = sampleUncertainty * sampleUncertainty;
+        double predVar = bitrateEstimateVar + PROCESS_NOISE;
+
+        bitrateEstimateKbps
+                = (sampleVar * bitrateEstimateKbps + predVar * sampleKbps) / (sampleVar + predVar);
+        bitrateEstimateVar = sampleVar * predVar / (sampleVar + predVar);
+    }
+
+    /**
+     * Adds a packet to the current window, and closes the window if it is over.
+     *
+     * @return the bitrate of the window closed, in kbps, or -1 if no window was closed
+     */
+    private double updateWindow(long arrivalTimeMs, int size, int windowMs)
+    {
+        // Reset if time moves backwards.
+        if (arrivalTimeMs < prevArrivalTimeMs) {
+            prevArrivalTimeMs = -1;
+            sumBytes = 0;
+            currentWindowStartMs = -1;
+        }
+        if (prevArrivalTimeMs != -1) {
+            currentWindowStartMs += arrivalTimeMs - prevArrivalTimeMs;
+            // Reset if nothing has been received for more than a full window.
+            if (arrivalTimeMs - prevArrivalTimeMs > windowMs) {
+                sumBytes = 0;
+                currentWindowStartMs %= windowMs;
+            }
+        }
+        prevArrivalTimeMs = arrivalTimeMs;
+
+        double bitrateSample = -1;
+        if (currentWindowStartMs >= windowMs) {
+            bitrateSample = 8.0 * sumBytes / windowMs;
+            currentWindowStartMs -= windowMs;
+            sumBytes = 0;
+        }
+        else if (currentWindowStartMs < 0) {
+            currentWindowStartMs = 0;
+        }
+        sumBytes += size;
+        return bitrateSample;
+    }
+
+    /**
+     * Gets the acknowledged bitrate.
+     *
+     * @return the acknowledged bitrate in bps, or -1 if it is not known yet
+     */
+    long getBitrateBps()
+    {
+        return (bitrateEstimateKbps < 0) ? -1 : (long) (bitrateEstimateKbps * 1000);
+    }
+}
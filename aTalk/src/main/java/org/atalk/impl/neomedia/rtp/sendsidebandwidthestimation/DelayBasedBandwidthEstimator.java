@@ -0,0 +1,215 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+import org.atalk.impl.neomedia.rtp.remotebitrateestimator.*;
+import org.atalk.service.neomedia.rtp.RemoteBitrateEstimator;
+import org.atalk.util.logging.DiagnosticContext;
+import org.atalk.util.logging.TimeSeriesLogger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * The delay-based part of the send-side bandwidth estimation of GCC, driven by the transport-cc
+ * feedback of the remote end. The send and arrival times of the packets acknowledged are grouped
+ * by {@link InterArrival}, the delay variation of the groups feeds a {@link TrendlineEstimator},
+ * and its over-use hypothesis drives an {@link AimdRateControl} with the bitrate acknowledged by
+ * the remote end. A {@link ProbeController} ramps the estimate up quickly at the start.
+ *
+ * webrtc.org delay_based_bwe.cc, without the pacer and the probe clusters.
+ *
+ * @author Eng Chong Meng
+ */
+public class DelayBasedBandwidthEstimator
+{
+    /**
+     * The {@link TimeSeriesLogger} to be used by this instance to print time series.
+     */
+    private static final TimeSeriesLogger timeSeriesLogger
+            = TimeSeriesLogger.getTimeSeriesLogger(DelayBasedBandwidthEstimator.class);
+
+    /**
+     * The length of a group of packets; the send times are in milliseconds, so are the ticks of
+     * the {@link InterArrival}.
+     */
+    private static final int TIMESTAMP_GROUP_LENGTH_MS = 5;
+
+    /**
+     * The highest estimate the {@link ProbeController} ramps up to.
+     */
+    private static final long MAX_BITRATE_BPS = 30000000L;
+
+    private final DiagnosticContext diagnosticContext;
+
+    private final RemoteBitrateObserver observer;
+
+    private final InterArrival interArrival;
+
+    private final TrendlineEstimator trendline = new TrendlineEstimator();
+
+    private final AcknowledgedBitrateEstimator ackedBitrate = new AcknowledgedBitrateEstimator();
+
+    private final ProbeController probeController = new ProbeController(MAX_BITRATE_BPS);
+
+    private final AimdRateControl rateControl;
+
+    private final RateControlInput input = new RateControlInput(BandwidthUsage.kBwNormal, 0L, 0D);
+
+    private final long[] deltas = new long[3];
+
+    /**
+     * The SSRCs of the media the feedback is about.
+     */
+    private final Collection<Long> ssrcs = new ArrayList<>();
+
+    /**
+     * The over-use hypothesis after the previous feedback.
+     */
+    private BandwidthUsage prevState = BandwidthUsage.kBwNormal;
+
+    private long lastUpdateMs = -1;
+
+    private long lastEstimateBps = -1;
+
+    /**
+     * Initializes a new <tt>DelayBasedBandwidthEstimator</tt>.
+     *
+     * @param observer the <tt>RemoteBitrateObserver</tt> to notify of the estimates
+     * @param diagnosticContext the <tt>DiagnosticContext</tt> of this instance
+     */
+    public DelayBasedBandwidthEstimator(RemoteBitrateObserver observer,
+            @NotNull DiagnosticContext diagnosticContext)
+    {
+        this.observer = observer;
+        this.diagnosticContext = diagnosticContext;
+        interArrival = new InterArrival(TIMESTAMP_GROUP_LENGTH_MS, 1.0, true, diagnosticContext);
+        rateControl = new AimdRateControl(diagnosticContext);
+        rateControl.setMinBitrate(RemoteBitrateEstimator.kDefaultMinBitrateBps);
+    }
+
+    /**
+     * Accounts for a packet acknowledged by a transport-cc feedback. The packets of a feedback are
+     * to be given in the order of their transport-wide sequence numbers, followed by
+     * {@link #feedbackProcessed(long, long)}.
+     *
+     * @param sendTimeMs the local time at which the packet was sent
+     * @param arrivalTimeMs the time at which the packet arrived, in the local clock
+     * @param size the size of the packet in bytes
+     * @param nowMs the current time, in the clock of <tt>arrivalTimeMs</tt>
+     */
+    public synchronized void incomingPacketFeedback(long sendTimeMs, long arrivalTimeMs, int size,
+            long nowMs)
+    {
+        ackedBitrate.update(arrivalTimeMs, size);
+
+        if (interArrival.computeDeltas(
+                sendTimeMs & 0xFFFFFFFFL, arrivalTimeMs, size, deltas, nowMs)) {
+            trendline.update(deltas[1], deltas[0], arrivalTimeMs);
+        }
+    }
+
+    /**
+     * Updates the estimate once the packets of a transport-cc feedback have been accounted for,
+     * and notifies the observer if it has changed or if it is time for a periodic update.
+     *
+     * @param ssrc the SSRC of the media source of the feedback
+     * @param nowMs the current time
+     */
+    public void feedbackProcessed(long ssrc, long nowMs)
+    {
+        long estimateBps;
+        Collection<Long> ssrcs;
+
+        synchronized (this) {
+            if (!this.ssrcs.contains(ssrc))
+                this.ssrcs.add(ssrc);
+
+            BandwidthUsage state = trendline.getState();
+            long ackedBitrateBps = ackedBitrate.getBitrateBps();
+
+            // The first over-use should immediately trigger a new estimate, further ones only once
+            // the previous decrease has had a chance to take effect.
+            boolean updateEstimate = lastUpdateMs == -1
+                    || nowMs - lastUpdateMs > rateControl.getFeedBackInterval()
+                    || (state == BandwidthUsage.kBwOverusing
+                        && (prevState != BandwidthUsage.kBwOverusing
+                            || (ackedBitrateBps > 0
+                                && rateControl.isTimeToReduceFurther(nowMs, ackedBitrateBps))));
+            prevState = state;
+            if (!updateEstimate)
+                return;
+
+            // Start from the first acknowledged bitrate rather than wait for the initialization
+            // time of the rate control.
+            if (!rateControl.isValidEstimate() && ackedBitrateBps > 0)
+                rateControl.setEstimate(ackedBitrateBps, nowMs);
+
+            input.bwState = state;
+            input.incomingBitRate = Math.max(ackedBitrateBps, 0L);
+            input.noiseVar = 0D;
+            rateControl.update(input, nowMs);
+            estimateBps = rateControl.updateBandwidthEstimate(nowMs);
+            if (!rateControl.isValidEstimate())
+                return;
+
+            long probeBps = probeController.process(state, estimateBps, ackedBitrateBps, nowMs);
+            if (probeBps != -1) {
+                rateControl.setEstimate(probeBps, nowMs);
+                estimateBps = rateControl.getLatestEstimate();
+            }
+            lastUpdateMs = nowMs;
+
+            if (timeSeriesLogger.isTraceEnabled()) {
+                timeSeriesLogger.trace(diagnosticContext
+                        .makeTimeSeriesPoint("delay_based_bwe", nowMs)
+                        .addField("state", state)
+                        .addField("acked_bps", ackedBitrateBps)
+                        .addField("probe_bps", probeBps)
+                        .addField("estimate_bps", estimateBps));
+            }
+
+            if (estimateBps == lastEstimateBps)
+                return;
+            lastEstimateBps = estimateBps;
+            ssrcs = new ArrayList<>(this.ssrcs);
+        }
+
+        if (observer != null)
+            observer.onReceiveBitrateChanged(ssrcs, estimateBps);
+    }
+
+    /**
+     * Sets the round trip time used by the rate control.
+     *
+     * @param avgRttMs the average round trip time in milliseconds
+     */
+    public synchronized void onRttUpdate(long avgRttMs)
+    {
+        rateControl.setRtt(avgRttMs);
+    }
+
+    /**
+     * Gets the latest estimate.
+     *
+     * @return the latest estimate in bps, or -1 if there is no valid estimate yet
+     */
+    public synchronized long getLatestEstimate()
+    {
+        return rateControl.isValidEstimate() ? rateControl.getLatestEstimate() : -1;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+import org.atalk.impl.neomedia.rtp.remotebitrateestimator.BandwidthUsage;
+
+/**
+ * Decides when the delay-based estimate is to jump up instead of growing by the slow increase of
+ * the AIMD rate control. There is no pacer to send padding probes here, so the media itself is the
+ * probe: the estimate is raised, the encoder follows, and the trendline tells whether the path
+ * takes it.
+ *
+ * At the start of the stream the estimate doubles each time the acknowledged bitrate has caught up
+ * with it, until the first over-use. After a large drop, the estimate is brought back near the
+ * last one the acknowledged bitrate had reached, once the path is no longer over-used, in case the
+ * drop was transient.
+ *
+ * @author Eng Chong Meng
+ */
+class ProbeController
+{
+    /**
+     * The share of the estimate the acknowledged bitrate has to reach for the next doubling.
+     */
+    private static final double RAMP_UP_THRESHOLD = 0.9;
+
+    /**
+     * The shortest interval between two doublings of the estimate.
+     */
+    private static final long MIN_RAMP_UP_INTERVAL_MS = 500;
+
+    /**
+     * A drop of the estimate below this share of the confirmed one is a large drop.
+     */
+    private static final double LARGE_DROP_RATIO = 0.66;
+
+    /**
+     * The share of the confirmed estimate before a large drop to restore it to.
+     */
+    private static final double RECOVERY_RATIO = 0.85;
+
+    /**
+     * The time after a large drop during which the estimate may be restored.
+     */
+    private static final long RECOVERY_WINDOW_MS = 5000;
+
+    private final long maxBitrateBps;
+
+    /**
+     * Whether the estimate is still ramping up from the start of the stream.
+     */
+    private boolean rampingUp = true;
+
+    private long lastRampUpMs = -1;
+
+    /**
+     * The last estimate the acknowledged bitrate has reached, or -1. An estimate raised by a jump
+     * is not confirmed until then.
+     */
+    private long confirmedEstimateBps = -1;
+
+    /**
+     * The confirmed estimate before the last large drop, or -1.
+     */
+    private long estimateBeforeDropBps = -1;
+
+    private long timeOfDropMs = -1;
+
+    /**
+     * Initializes a new <tt>ProbeController</tt>.
+     *
+     * @param maxBitrateBps the highest estimate the controller jumps to
+     */
+    ProbeController(long maxBitrateBps)
+    {
+        this.maxBitrateBps = maxBitrateBps;
+    }
+
+    /**
+     * Gets the estimate to jump to after a feedback has been processed.
+     *
+     * @param state the over-use hypothesis of the trendline
+     * @param estimateBps the estimate of the AIMD rate control
+     * @param ackedBitrateBps the acknowledged bitrate, or -1 if not known yet
+     * @param nowMs the current time
+     * @return the estimate to jump to, or -1 to keep <tt>estimateBps</tt>
+     */
+    long process(BandwidthUsage state, long estimateBps, long ackedBitrateBps, long nowMs)
+    {
+        long targetBps = -1;
+
+        if (state == BandwidthUsage.kBwOverusing) {
+            rampingUp = false;
+            if (confirmedEstimateBps > 0 && estimateBps < LARGE_DROP_RATIO * confirmedEstimateBps) {
+                estimateBeforeDropBps = confirmedEstimateBps;
+                timeOfDropMs = nowMs;
+                confirmedEstimateBps = -1;
+            }
+        }
+        else if (state == BandwidthUsage.kBwNormal && ackedBitrateBps > 0) {
+            boolean reached = ackedBitrateBps >= RAMP_UP_THRESHOLD * estimateBps;
+            if (reached)
+                confirmedEstimateBps = estimateBps;
+
+            if (rampingUp) {
+                if (reached
+                        && (lastRampUpMs == -1 || nowMs - lastRampUpMs >= MIN_RAMP_UP_INTERVAL_MS)) {
+                    targetBps = Math.min(2 * estimateBps, maxBitrateBps);
+                    lastRampUpMs = nowMs;
+                    if (targetBps == maxBitrateBps)
+                        rampingUp = false;
+                }
+            }
+            else if (estimateBeforeDropBps != -1) {
+                if (nowMs - timeOfDropMs > RECOVERY_WINDOW_MS) {
+                    estimateBeforeDropBps = -1;
+                }
+                else if (reached) {
+                    long recoveryBps = (long) (RECOVERY_RATIO * estimateBeforeDropBps);
+                    if (recoveryBps > estimateBps)
+                        targetBps = Math.min(recoveryBps, maxBitrateBps);
+                    estimateBeforeDropBps = -1;
+                }
+            }
+        }
+
+        return (targetBps > estimateBps) ? targetBps : -1;
+    }
+}
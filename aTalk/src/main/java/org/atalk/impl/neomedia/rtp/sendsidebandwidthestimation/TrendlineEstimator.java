@@ -0,0 +1,223 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+import org.atalk.impl.neomedia.rtp.remotebitrateestimator.BandwidthUsage;
+
+/**
+ * Detects the over-use of the path from the trend of the one-way delay variation of packet
+ * groups. The accumulated delay variation is smoothed and the slope of its linear regression over
+ * the last {@link #WINDOW_SIZE} groups is compared against an adaptive threshold. Based on
+ * webrtc.org trendline_estimator.cc.
+ *
+ * @author Eng Chong Meng
+ */
+class TrendlineEstimator
+{
+    /**
+     * The number of packet groups the trend is computed over.
+     */
+    private static final int WINDOW_SIZE = 20;
+
+    /**
+     * The weight of the previous value in the smoothed accumulated delay.
+     */
+    private static final double SMOOTHING_COEF = 0.9;
+
+    /**
+     * The gain applied to the trend before it is compared to the threshold.
+     */
+    private static final double THRESHOLD_GAIN = 4.0;
+
+    /**
+     * The largest number of deltas the gain of the trend is scaled by.
+     */
+    private static final int DELTA_COUNTER_MAX = 1000;
+
+    private static final int MIN_NUM_DELTAS = 60;
+
+    private static final double OVER_USING_TIME_THRESHOLD_MS = 10;
+
+    private static final double MAX_ADAPT_OFFSET_MS = 15.0;
+
+    private static final double K_UP = 0.0087;
+
+    private static final double K_DOWN = 0.039;
+
+    /**
+     * The arrival times, relative to the first group, and the smoothed accumulated delays of
+     * the last {@link #WINDOW_SIZE} groups, as a ring.
+     */
+    private final double[] arrivalTimes = new double[WINDOW_SIZE];
+
+    private final double[] smoothedDelays = new double[WINDOW_SIZE];
+
+    private int windowStart = 0;
+
+    private int windowLength = 0;
+
+    private long firstArrivalTimeMs = -1;
+
+    private int numOfDeltas = 0;
+
+    private double accumulatedDelay = 0;
+
+    private double smoothedDelay = 0;
+
+    private double threshold = 12.5;
+
+    private long lastThresholdUpdateMs = -1;
+
+    private double prevTrend = 0;
+
+    private double timeOverUsing = -1;
+
+    private int overuseCounter = 0;
+
+    private BandwidthUsage hypothesis = BandwidthUsage.kBwNormal;
+
+    /**
+     * Updates the trend with the deltas of a packet group.
+     *
+     * @param recvDeltaMs the arrival time delta to the previous group
+     * @param sendDeltaMs the send time delta to the previous group
+     * @param arrivalTimeMs the arrival time of the group
+     */
+    void update(double recvDeltaMs, double sendDeltaMs, long arrivalTimeMs)
+    {
+        double deltaMs = recvDeltaMs - sendDeltaMs;
+        numOfDeltas = Math.min(numOfDeltas + 1, DELTA_COUNTER_MAX);
+        if (firstArrivalTimeMs == -1)
+            firstArrivalTimeMs = arrivalTimeMs;
+
+        accumulatedDelay += deltaMs;
+        smoothedDelay = SMOOTHING_COEF * smoothedDelay + (1 - SMOOTHING_COEF) * accumulatedDelay;
+
+        int i;
+        if (windowLength < WINDOW_SIZE) {
+            i = (windowStart + windowLength++) % WINDOW_SIZE;
+        }
+        else {
+            i = windowStart;
+            windowStart = (windowStart + 1) % WINDOW_SIZE;
+        }
+        arrivalTimes[i] = arrivalTimeMs - firstArrivalTimeMs;
+        smoothedDelays[i] = smoothedDelay;
+
+        double trend = prevTrend;
+        if (windowLength == WINDOW_SIZE) {
+            double slope = linearFitSlope();
+            if (!Double.isNaN(slope))
+                trend = slope;
+        }
+        detect(trend, sendDeltaMs, arrivalTimeMs);
+    }
+
+    /**
+     * Gets the current over-use hypothesis.
+     *
+     * @return the current <tt>BandwidthUsage</tt>
+     */
+    BandwidthUsage getState()
+    {
+        return hypothesis;
+    }
+
+    /**
+     * Computes the slope of the least squares fit of the smoothed delays against the arrival
+     * times of the window.
+     *
+     * @return the slope, or <tt>NaN</tt> if the arrival times are all the same
+     */
+    private double linearFitSlope()
+    {
+        double sumX = 0, sumY = 0;
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            sumX += arrivalTimes[i];
+            sumY += smoothedDelays[i];
+        }
+        double meanX = sumX / WINDOW_SIZE;
+        double meanY = sumY / WINDOW_SIZE;
+
+        double numerator = 0, denominator = 0;
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            double dx = arrivalTimes[i] - meanX;
+            numerator += dx * (smoothedDelays[i] - meanY);
+            denominator += dx * dx;
+        }
+        return (denominator == 0) ? Double.NaN : numerator / denominator;
+    }
+
+    private void detect(double trend, double tsDelta, long nowMs)
+    {
+        if (numOfDeltas < 2) {
+            hypothesis = BandwidthUsage.kBwNormal;
+            return;
+        }
+
+        double modifiedTrend = Math.min(numOfDeltas, MIN_NUM_DELTAS) * trend * THRESHOLD_GAIN;
+        if (modifiedTrend > threshold) {
+            if (timeOverUsing == -1) {
+                // Initialize the timer. Assume that we've been over-using half of the time since
+                // the previous sample.
+                timeOverUsing = tsDelta / 2;
+            }
+            else {
+                timeOverUsing += tsDelta;
+            }
+            overuseCounter++;
+            if (timeOverUsing > OVER_USING_TIME_THRESHOLD_MS && overuseCounter > 1
+                    && trend >= prevTrend) {
+                timeOverUsing = 0;
+                overuseCounter = 0;
+                hypothesis = BandwidthUsage.kBwOverusing;
+            }
+        }
+        else if (modifiedTrend < -threshold) {
+            timeOverUsing = -1;
+            overuseCounter = 0;
+            hypothesis = BandwidthUsage.kBwUnderusing;
+        }
+        else {
+            timeOverUsing = -1;
+            overuseCounter = 0;
+            hypothesis = BandwidthUsage.kBwNormal;
+        }
+        prevTrend = trend;
+        updateThreshold(modifiedTrend, nowMs);
+    }
+
+    private void updateThreshold(double modifiedTrend, long nowMs)
+    {
+        if (lastThresholdUpdateMs == -1)
+            lastThresholdUpdateMs = nowMs;
+
+        double absTrend = Math.abs(modifiedTrend);
+        if (absTrend > threshold + MAX_ADAPT_OFFSET_MS) {
+            // Avoid adapting the threshold to big latency spikes, caused e.g. by a sudden
+            // capacity drop.
+            lastThresholdUpdateMs = nowMs;
+            return;
+        }
+
+        double k = (absTrend < threshold) ? K_DOWN : K_UP;
+        long timeDeltaMs = Math.min(nowMs - lastThresholdUpdateMs, 100);
+        threshold += k * (absTrend - threshold) * timeDeltaMs;
+        threshold = Math.max(6, Math.min(threshold, 600));
+        lastThresholdUpdateMs = nowMs;
+    }
+}
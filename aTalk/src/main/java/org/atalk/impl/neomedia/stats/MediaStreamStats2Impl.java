@@ -1,13 +1,19 @@
 package org.atalk.impl.neomedia.stats;
 
 
+import org.atalk.impl.neomedia.AbstractRTPConnector;
 import org.atalk.impl.neomedia.MediaStreamImpl;
 import org.atalk.impl.neomedia.MediaStreamStatsImpl;
+import org.atalk.impl.neomedia.RTPConnectorInputStream;
 import org.atalk.service.neomedia.stats.*;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
@@ -43,12 +49,34 @@ public class MediaStreamStats2Impl extends MediaStreamStatsImpl
      */
     private final AggregateSendTrackStats sendStats = new AggregateSendTrackStats(INTERVAL, sendSsrcStats);
 
+    /**
+     * The stream whose receive queues are reported.
+     */
+    private final MediaStreamImpl mediaStream;
+
+    /**
+     * The number of RTP packets recovered by FEC.
+     */
+    private final AtomicLong fecPacketsRecovered = new AtomicLong();
+
+    /**
+     * The number of RTCP NACK packets sent.
+     */
+    private final AtomicLong nackPacketsSent = new AtomicLong();
+
+    /**
+     * The number of RTP packets which retransmission was requested by the NACK packets sent,
+     * counting a packet once per request.
+     */
+    private final AtomicLong nackPacketsRequested = new AtomicLong();
+
     /**
      * Initializes a new {@link MediaStreamStats2Impl} instance.
      */
     public MediaStreamStats2Impl(MediaStreamImpl mediaStream)
     {
         super(mediaStream);
+        this.mediaStream = mediaStream;
     }
 
     /**
@@ -56,12 +84,13 @@ public class MediaStreamStats2Impl extends MediaStreamStatsImpl
      *
      * @param ssrc the SSRC of the packet.
      * @param seq the RTP sequence number of the packet.
+     * @param timestamp the RTP timestamp of the packet.
      * @param length the length in bytes of the packet.
      */
-    public void rtpPacketReceived(long ssrc, int seq, int length)
+    public void rtpPacketReceived(long ssrc, int seq, long timestamp, int length)
     {
         synchronized (receiveStats) {
-            getReceiveStats(ssrc).rtpPacketReceived(seq, length);
+            getReceiveStats(ssrc).rtpPacketReceived(seq, timestamp, length);
             receiveStats.packetProcessed(length, System.currentTimeMillis(), true);
         }
     }
@@ -105,6 +134,53 @@ public class MediaStreamStats2Impl extends MediaStreamStatsImpl
         sendStats.rtpPacketCacheMiss();
     }
 
+    /**
+     * Notifies this instance that an RTP packet was recovered by FEC.
+     *
+     * @param ssrc the SSRC of the recovered packet.
+     */
+    public void rtpPacketRecovered(long ssrc)
+    {
+        getReceiveStats(ssrc).rtpPacketRecovered();
+        fecPacketsRecovered.incrementAndGet();
+    }
+
+    /**
+     * Notifies this instance that an RTCP NACK packet was sent.
+     *
+     * @param packetsRequested the number of RTP packets which retransmission it requests.
+     */
+    public void nackPacketSent(int packetsRequested)
+    {
+        nackPacketsSent.incrementAndGet();
+        nackPacketsRequested.addAndGet(packetsRequested);
+    }
+
+    /**
+     * @return the number of RTP packets recovered by FEC.
+     */
+    public long getFecPacketsRecovered()
+    {
+        return fecPacketsRecovered.get();
+    }
+
+    /**
+     * @return the number of RTCP NACK packets sent.
+     */
+    public long getNackPacketsSent()
+    {
+        return nackPacketsSent.get();
+    }
+
+    /**
+     * @return the number of RTP packets which retransmission was requested by
+     * the NACK packets sent.
+     */
+    public long getNackPacketsRequested()
+    {
+        return nackPacketsRequested.get();
+    }
+
     /**
      * Notifies this instance that an RTP packet with a particular SSRC,
      * sequence number and length was sent (or is about to be sent).
@@ -312,6 +388,57 @@ public class MediaStreamStats2Impl extends MediaStreamStatsImpl
         return receiveSsrcStats.values();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getReceiveQueueSize()
+    {
+        int size = 0;
+        for (RTPConnectorInputStream<?> stream : getInputStreams()) {
+            size += stream.getReceiveQueueSize();
+        }
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getReceiveQueueDrops()
+    {
+        long drops = 0;
+        for (RTPConnectorInputStream<?> stream : getInputStreams()) {
+            drops += stream.getNumberOfReceiveQueueDrops();
+        }
+        return drops;
+    }
+
+    /**
+     * Gets the RTP and the RTCP input streams of the stream, without creating them.
+     *
+     * @return the RTP and the RTCP input streams of the stream which exist
+     */
+    private List<RTPConnectorInputStream<?>> getInputStreams()
+    {
+        List<RTPConnectorInputStream<?>> streams = new ArrayList<>(2);
+        AbstractRTPConnector connector = mediaStream.getRTPConnector();
+
+        if (connector != null) {
+            try {
+                RTPConnectorInputStream<?> stream = connector.getDataInputStream(false);
+                if (stream != null)
+                    streams.add(stream);
+                stream = connector.getControlInputStream(false);
+                if (stream != null)
+                    streams.add(stream);
+            } catch (IOException ex) {
+                // We should not enter here because we are not creating stream.
+            }
+        }
+        return streams;
+    }
+
     /**
      * An {@link TrackStats} implementation which aggregates values for a collection of {@link TrackStats} instances.
      */
@@ -449,6 +576,19 @@ public class MediaStreamStats2Impl extends MediaStreamStatsImpl
             return packetsLost;
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getPacketsRecovered()
+        {
+            long recovered = 0;
+            for (ReceiveTrackStats child : children.values()) {
+                recovered += child.getPacketsRecovered();
+            }
+            return recovered;
+        }
+
         /**
          * {@inheritDoc}
          *
@@ -471,5 +611,35 @@ public class MediaStreamStats2Impl extends MediaStreamStatsImpl
             }
             return expected == 0 ? 0 : (lost / expected);
         }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @return the largest target delay of the children.
+         */
+        @Override
+        public int getJitterBufferTargetDelay()
+        {
+            int delay = -1;
+            for (ReceiveTrackStats child : children.values()) {
+                delay = Math.max(delay, child.getJitterBufferTargetDelay());
+            }
+            return delay;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @return the largest concealment ratio of the children.
+         */
+        @Override
+        public double getConcealmentRatio()
+        {
+            double ratio = 0;
+            for (ReceiveTrackStats child : children.values()) {
+                ratio = Math.max(ratio, child.getConcealmentRatio());
+            }
+            return ratio;
+        }
     }
 }
@@ -0,0 +1,573 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.stats;
+
+import org.atalk.impl.neomedia.MediaStreamImpl;
+import org.atalk.impl.neomedia.transform.srtp.SrtpErrorStatus;
+import org.atalk.service.configuration.ConfigurationService;
+import org.atalk.service.libjitsi.LibJitsi;
+import org.atalk.service.neomedia.stats.*;
+import org.atalk.util.MediaType;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import timber.log.Timber;
+
+/**
+ * The registry of the statistics of the media streams, which renders them in the OpenMetrics
+ * text format, for soak tests to scrape from a loopback HTTP endpoint or collect from a file.
+ *
+ * The metrics are per stream, from {@link MediaStreamStats2Impl}: FEC recoveries, NACKs sent and
+ * receive queue drops; per track (SSRC and direction) from its {@link TrackStats}: bytes,
+ * packets, bitrate, loss, FEC recoveries, jitter and RTT; per call, from the streams which have the
+ * {@link #CALL_ID_PROPERTY} property set; and process-wide, the SRTP/SRTCP failures by
+ * {@link SrtpErrorStatus}, as the transformers are not bound to a stream. The samples of a stream
+ * are labelled with its name, which several streams may share, and with an <tt>id</tt> unique to
+ * the process.
+ *
+ * The media service starts the file export and the HTTP server when the properties
+ * {@link #FILE_PNAME} and {@link #HTTP_PORT_PNAME} are set.
+ *
+ * @author Eng Chong Meng
+ */
+public class NeomediaMetrics
+{
+    /**
+     * The name of the <tt>MediaStream</tt> property with the ID of the call of the stream.
+     */
+    public static final String CALL_ID_PROPERTY = "neomedia.metrics.CALL_ID";
+
+    /**
+     * The name of the property with the path of the file to export the metrics to periodically.
+     * The metrics are not exported to a file if it is not set.
+     */
+    public static final String FILE_PNAME = "neomedia.metrics.FILE";
+
+    /**
+     * The name of the property with the period of the file export, in milliseconds.
+     */
+    public static final String FILE_INTERVAL_PNAME = "neomedia.metrics.FILE_INTERVAL";
+
+    /**
+     * The default period of the file export, in milliseconds.
+     */
+    public static final long FILE_INTERVAL_DEFAULT_VALUE = 10000;
+
+    /**
+     * The name of the property with the loopback port to serve the metrics over HTTP on, or 0 for
+     * any free port. The metrics are not served if it is not set or negative.
+     */
+    public static final String HTTP_PORT_PNAME = "neomedia.metrics.HTTP_PORT";
+
+    /**
+     * The content type of the OpenMetrics text format.
+     */
+    public static final String CONTENT_TYPE
+            = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    /**
+     * The streams registered, with their IDs; weakly referenced, in case one is not closed.
+     */
+    private static final Map<MediaStreamImpl, Integer> streams = new WeakHashMap<>();
+
+    /**
+     * The ID of the next stream registered.
+     */
+    private static int nextStreamId = 0;
+
+    private static final SrtpErrorStatus[] srtpStatuses = SrtpErrorStatus.values();
+
+    /**
+     * The number of SRTP failures, indexed by status ordinal, then of SRTCP failures.
+     */
+    private static final AtomicLongArray srtpFailures = new AtomicLongArray(2 * srtpStatuses.length);
+
+    private static ServerSocket httpServer;
+
+    private static Timer fileExportTimer;
+
+    /**
+     * Registers a stream, the statistics of which are to be exported.
+     *
+     * @param stream the <tt>MediaStreamImpl</tt> to register
+     */
+    public static void register(MediaStreamImpl stream)
+    {
+        synchronized (streams) {
+            if (!streams.containsKey(stream))
+                streams.put(stream, nextStreamId++);
+        }
+    }
+
+    /**
+     * Unregisters a stream, once it is closed.
+     *
+     * @param stream the <tt>MediaStreamImpl</tt> to unregister
+     */
+    public static void unregister(MediaStreamImpl stream)
+    {
+        synchronized (streams) {
+            streams.remove(stream);
+        }
+    }
+
+    /**
+     * Counts an SRTP or SRTCP packet which failed to be transformed.
+     *
+     * @param rtcp <tt>true</tt> for SRTCP, <tt>false</tt> for SRTP
+     * @param status the status of the failure
+     */
+    public static void srtpFailure(boolean rtcp, SrtpErrorStatus status)
+    {
+        srtpFailures.incrementAndGet((rtcp ? srtpStatuses.length : 0) + status.ordinal());
+    }
+
+    /**
+     * Renders the metrics in the OpenMetrics text format.
+     *
+     * @param out the writer to render the metrics to
+     * @throws IOException if writing to <tt>out</tt> fails
+     */
+    public static void render(Writer out)
+            throws IOException
+    {
+        List<Map.Entry<MediaStreamImpl, Integer>> streamList;
+        synchronized (streams) {
+            streamList = new ArrayList<>(streams.entrySet());
+        }
+
+        List<StreamSample> samples = new ArrayList<>(streamList.size());
+        for (Map.Entry<MediaStreamImpl, Integer> stream : streamList) {
+            MediaStreamStats2Impl stats = stream.getKey().getMediaStreamStats();
+            if (stats != null)
+                samples.add(new StreamSample(stream.getKey(), stream.getValue(), stats));
+        }
+
+        StringBuilder sb = new StringBuilder(1024);
+
+        family(sb, "atalk_srtp_failures", "counter", "SRTP/SRTCP packets which failed to be transformed.");
+        for (int i = 0; i < srtpFailures.length(); i++) {
+            SrtpErrorStatus status = srtpStatuses[i % srtpStatuses.length];
+            if (status != SrtpErrorStatus.OK) {
+                sb.append("atalk_srtp_failures_total{protocol=\"")
+                        .append(i < srtpStatuses.length ? "srtp" : "srtcp")
+                        .append("\",status=\"").append(status.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                        .append(srtpFailures.get(i)).append('\n');
+            }
+        }
+
+        family(sb, "atalk_stream_fec_recovered_packets", "counter", "RTP packets recovered by FEC.");
+        for (StreamSample s : samples)
+            sample(sb, "atalk_stream_fec_recovered_packets_total", s.labels, s.stats.getFecPacketsRecovered());
+
+        family(sb, "atalk_stream_nack_packets_sent", "counter", "RTCP NACK packets sent.");
+        for (StreamSample s : samples)
+            sample(sb, "atalk_stream_nack_packets_sent_total", s.labels, s.stats.getNackPacketsSent());
+
+        family(sb, "atalk_stream_nack_requested_packets", "counter",
+                "RTP packets which retransmission was requested by the NACK packets sent.");
+        for (StreamSample s : samples)
+            sample(sb, "atalk_stream_nack_requested_packets_total", s.labels, s.stats.getNackPacketsRequested());
+
+        family(sb, "atalk_stream_receive_queue_drops", "counter", "Packets dropped by the receive queues.");
+        for (StreamSample s : samples)
+            sample(sb, "atalk_stream_receive_queue_drops_total", s.labels, s.stats.getReceiveQueueDrops());
+
+        family(sb, "atalk_stream_receive_queue_size", "gauge", "Packets in the receive queues.");
+        for (StreamSample s : samples)
+            sample(sb, "atalk_stream_receive_queue_size", s.labels, s.stats.getReceiveQueueSize());
+
+        renderTracks(sb, samples);
+        renderCalls(sb, samples);
+
+        sb.append("# EOF\n");
+        out.write(sb.toString());
+        out.flush();
+    }
+
+    private static void renderTracks(StringBuilder sb, List<StreamSample> samples)
+    {
+        for (StreamSample s : samples)
+            s.collectTracks();
+
+        family(sb, "atalk_track_bytes", "counter", "Bytes of the RTP packets of a track.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++)
+                sample(sb, "atalk_track_bytes_total", s.trackLabels.get(i), s.tracks.get(i).getBytes());
+        }
+
+        family(sb, "atalk_track_packets", "counter", "RTP packets of a track.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++)
+                sample(sb, "atalk_track_packets_total", s.trackLabels.get(i), s.tracks.get(i).getPackets());
+        }
+
+        family(sb, "atalk_track_bitrate_bps", "gauge", "Bitrate of a track, in bits per second.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++)
+                sample(sb, "atalk_track_bitrate_bps", s.trackLabels.get(i), s.tracks.get(i).getBitrate());
+        }
+
+        family(sb, "atalk_track_packet_rate", "gauge", "Packet rate of a track, in packets per second.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++)
+                sample(sb, "atalk_track_packet_rate", s.trackLabels.get(i), s.tracks.get(i).getPacketRate());
+        }
+
+        family(sb, "atalk_track_loss_rate", "gauge", "Fraction of the RTP packets of a track lost.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++)
+                sample(sb, "atalk_track_loss_rate", s.trackLabels.get(i), s.tracks.get(i).getLossRate());
+        }
+
+        family(sb, "atalk_track_packets_lost", "counter", "RTP packets of a received track lost.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++) {
+                TrackStats track = s.tracks.get(i);
+                if (track instanceof ReceiveTrackStats) {
+                    sample(sb, "atalk_track_packets_lost_total", s.trackLabels.get(i),
+                            ((ReceiveTrackStats) track).getPacketsLost());
+                }
+            }
+        }
+
+        family(sb, "atalk_track_fec_recovered_packets", "counter",
+                "RTP packets of a received track recovered by FEC.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++) {
+                TrackStats track = s.tracks.get(i);
+                if (track instanceof ReceiveTrackStats) {
+                    sample(sb, "atalk_track_fec_recovered_packets_total", s.trackLabels.get(i),
+                            ((ReceiveTrackStats) track).getPacketsRecovered());
+                }
+            }
+        }
+
+        family(sb, "atalk_track_packets_retransmitted", "counter",
+                "RTP packets of a sent track retransmitted on NACK.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++) {
+                TrackStats track = s.tracks.get(i);
+                if (track instanceof SendTrackStats) {
+                    sample(sb, "atalk_track_packets_retransmitted_total", s.trackLabels.get(i),
+                            track.getPacketsRetransmitted());
+                }
+            }
+        }
+
+        family(sb, "atalk_track_jitter_ms", "gauge", "Jitter of a track, in milliseconds.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++) {
+                double jitter = s.tracks.get(i).getJitter();
+                if (jitter != TrackStats.JITTER_UNSET)
+                    sample(sb, "atalk_track_jitter_ms", s.trackLabels.get(i), jitter);
+            }
+        }
+
+        family(sb, "atalk_track_rtt_ms", "gauge", "Round trip time of a track, in milliseconds.");
+        for (StreamSample s : samples) {
+            for (int i = 0; i < s.tracks.size(); i++) {
+                long rtt = s.tracks.get(i).getRtt();
+                if (rtt >= 0)
+                    sample(sb, "atalk_track_rtt_ms", s.trackLabels.get(i), rtt);
+            }
+        }
+    }
+
+    private static void renderCalls(StringBuilder sb, List<StreamSample> samples)
+    {
+        // callId -> {streams, receive bitrate, send bitrate}
+        Map<String, long[]> calls = new TreeMap<>();
+        for (StreamSample s : samples) {
+            if (s.callId == null)
+                continue;
+
+            long[] call = calls.get(s.callId);
+            if (call == null) {
+                call = new long[3];
+                calls.put(s.callId, call);
+            }
+            call[0]++;
+            call[1] += s.stats.getReceiveStats().getBitrate();
+            call[2] += s.stats.getSendStats().getBitrate();
+        }
+
+        String[] names = {"atalk_call_streams", "atalk_call_receive_bitrate_bps", "atalk_call_send_bitrate_bps"};
+        String[] helps = {"Media streams of a call.", "Bitrate received by a call, in bits per second.",
+                "Bitrate sent by a call, in bits per second."};
+        for (int m = 0; m < names.length; m++) {
+            family(sb, names[m], "gauge", helps[m]);
+            for (Map.Entry<String, long[]> call : calls.entrySet()) {
+                String labels = "call=\"" + escape(call.getKey()) + "\"";
+                sample(sb, names[m], labels, call.getValue()[m]);
+            }
+        }
+    }
+
+    private static void family(StringBuilder sb, String name, String type, String help)
+    {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value)
+    {
+        sb.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value)
+    {
+        sb.append(name).append('{').append(labels).append("} ");
+        if (Double.isNaN(value))
+            sb.append("NaN");
+        else if (Double.isInfinite(value))
+            sb.append(value > 0 ? "+Inf" : "-Inf");
+        else
+            sb.append(value);
+        sb.append('\n');
+    }
+
+    /**
+     * Gets the labels of the samples of a stream.
+     *
+     * @param id the ID of the stream, unique to the process
+     * @param name the name of the stream, or <tt>null</tt>
+     * @param mediaType the media type of the stream, or <tt>null</tt>
+     * @param callId the ID of the call of the stream, or <tt>null</tt>
+     * @return the labels, escaped
+     */
+    static String streamLabels(int id, String name, MediaType mediaType, String callId)
+    {
+        return "stream=\"" + escape((name == null) ? "stream-" + id : name)
+                + "\",id=\"" + id
+                + "\",media=\"" + ((mediaType == null) ? "" : mediaType.toString())
+                + "\",call=\"" + ((callId == null) ? "" : escape(callId)) + "\"";
+    }
+
+    /**
+     * Escapes a label value: backslash, double quote and line feed.
+     */
+    private static String escape(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Starts the file export and the HTTP server which are enabled by the
+     * <tt>ConfigurationService</tt> properties {@link #FILE_PNAME} and {@link #HTTP_PORT_PNAME}.
+     */
+    public static void start()
+    {
+        ConfigurationService cfg = LibJitsi.getConfigurationService();
+        if (cfg == null)
+            return;
+
+        String path = cfg.getString(FILE_PNAME);
+        if (path != null && path.trim().length() != 0) {
+            long periodMs = cfg.getLong(FILE_INTERVAL_PNAME, FILE_INTERVAL_DEFAULT_VALUE);
+            if (periodMs <= 0)
+                periodMs = FILE_INTERVAL_DEFAULT_VALUE;
+            startFileExport(new File(path.trim()), periodMs);
+            Timber.i("Exporting the metrics to %s every %d ms", path.trim(), periodMs);
+        }
+
+        int port = cfg.getInt(HTTP_PORT_PNAME, -1);
+        if (port >= 0) {
+            try {
+                startHttpServer(port);
+            } catch (IOException e) {
+                Timber.w(e, "Failed to serve the metrics on port %d", port);
+            }
+        }
+    }
+
+    /**
+     * Stops the file export and the HTTP server, if they are running.
+     */
+    public static void stop()
+    {
+        stopFileExport();
+        stopHttpServer();
+    }
+
+    /**
+     * Writes the metrics to a file, replacing it once complete so that a reader never sees a
+     * partial export.
+     *
+     * @param file the file to write to
+     * @throws IOException if writing the file fails
+     */
+    public static void writeToFile(File file)
+            throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8")) {
+            render(out);
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Failed to rename " + tmp + " to " + file);
+    }
+
+    /**
+     * Starts writing the metrics to a file periodically, replacing any previous file export.
+     *
+     * @param file the file to write to
+     * @param periodMs the period of the export, in milliseconds
+     */
+    public static synchronized void startFileExport(final File file, long periodMs)
+    {
+        stopFileExport();
+        fileExportTimer = new Timer("NeomediaMetrics-file", true);
+        fileExportTimer.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    writeToFile(file);
+                } catch (IOException e) {
+                    Timber.w(e, "Failed to export the metrics to %s", file);
+                }
+            }
+        }, 0, periodMs);
+    }
+
+    /**
+     * Stops the periodic file export, if any.
+     */
+    public static synchronized void stopFileExport()
+    {
+        if (fileExportTimer != null) {
+            fileExportTimer.cancel();
+            fileExportTimer = null;
+        }
+    }
+
+    /**
+     * Starts serving the metrics over HTTP on the loopback interface, replacing any previous
+     * server. Every request, whatever its path, gets the metrics.
+     *
+     * @param port the port to listen on, or 0 for any free port
+     * @return the port listened on
+     * @throws IOException if the port cannot be bound
+     */
+    public static synchronized int startHttpServer(int port)
+            throws IOException
+    {
+        stopHttpServer();
+        final ServerSocket server = new ServerSocket(port, 4, InetAddress.getLoopbackAddress());
+        httpServer = server;
+
+        Thread thread = new Thread("NeomediaMetrics-http")
+        {
+            @Override
+            public void run()
+            {
+                while (!server.isClosed()) {
+                    try (Socket socket = server.accept()) {
+                        serve(socket);
+                    } catch (IOException e) {
+                        if (!server.isClosed())
+                            Timber.w(e, "Failed to serve the metrics");
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+
+        Timber.i("Serving the metrics on http://127.0.0.1:%d/metrics", server.getLocalPort());
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops serving the metrics over HTTP, if they are.
+     */
+    public static synchronized void stopHttpServer()
+    {
+        if (httpServer != null) {
+            try {
+                httpServer.close();
+            } catch (IOException e) {
+                Timber.w(e, "Failed to close the metrics server");
+            }
+            httpServer = null;
+        }
+    }
+
+    private static void serve(Socket socket)
+            throws IOException
+    {
+        socket.setSoTimeout(5000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        // Skip the request line and the headers.
+        String line;
+        do {
+            line = in.readLine();
+        } while (line != null && !line.isEmpty());
+
+        StringWriter body = new StringWriter();
+        render(body);
+        byte[] bytes = body.toString().getBytes("UTF-8");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.0 200 OK\r\nContent-Type: " + CONTENT_TYPE + "\r\nContent-Length: "
+                + bytes.length + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * The statistics of a stream, with its labels.
+     */
+    private static class StreamSample
+    {
+        private final MediaStreamStats2Impl stats;
+
+        private final String callId;
+
+        private final String labels;
+
+        private final List<TrackStats> tracks = new ArrayList<>();
+
+        private final List<String> trackLabels = new ArrayList<>();
+
+        private StreamSample(MediaStreamImpl stream, int id, MediaStreamStats2Impl stats)
+        {
+            this.stats = stats;
+
+            Object callId = stream.getProperty(CALL_ID_PROPERTY);
+            this.callId = (callId == null) ? null : callId.toString();
+            labels = streamLabels(id, stream.getName(), stream.getMediaType(), this.callId);
+        }
+
+        private void collectTracks()
+        {
+            for (ReceiveTrackStats track : stats.getAllReceiveStats()) {
+                tracks.add(track);
+                trackLabels.add(labels + ",ssrc=\"" + track.getSSRC() + "\",direction=\"receive\"");
+            }
+            for (SendTrackStats track : stats.getAllSendStats()) {
+                tracks.add(track);
+                trackLabels.add(labels + ",ssrc=\"" + track.getSSRC() + "\",direction=\"send\"");
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.atalk.impl.neomedia.stats;
 
+import org.atalk.impl.neomedia.jitterbuffer.*;
 import org.ice4j.util.*;
 import org.atalk.service.neomedia.stats.*;
 import org.atalk.util.*;
@@ -45,6 +46,32 @@ public class ReceiveTrackStatsImpl extends AbstractTrackStats
      */
     private AtomicLong packetsLost = new AtomicLong();
 
+    /**
+     * The total number of packets recovered by FEC.
+     */
+    private final AtomicLong packetsRecovered = new AtomicLong();
+
+    /**
+     * The estimator of the jitter buffer target delay from the arrival times
+     * of the packets.
+     */
+    private final DelayManager delayManager = new DelayManager();
+
+    /**
+     * Whether an adaptive jitter buffer plays out this stream.
+     */
+    private volatile boolean adaptiveJitterBuffer = false;
+
+    /**
+     * The number of samples played out.
+     */
+    private final AtomicLong samplesPlayed = new AtomicLong();
+
+    /**
+     * The number of samples played out which were synthesized by packet-loss
+     * concealment.
+     */
+    private final AtomicLong samplesConcealed = new AtomicLong();
 
     /**
      * Initializes a new instance.
@@ -66,20 +93,87 @@ public class ReceiveTrackStatsImpl extends AbstractTrackStats
         return packetsLost.get();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPacketsRecovered()
+    {
+        return packetsRecovered.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getJitterBufferTargetDelay()
+    {
+        return adaptiveJitterBuffer ? delayManager.getTargetDelayMs() : -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getConcealmentRatio()
+    {
+        long played = samplesPlayed.get();
+        return (played == 0) ? 0 : ((double) samplesConcealed.get() / played);
+    }
+
+    /**
+     * Gets the estimator of the jitter buffer target delay of this stream and
+     * notes that an adaptive jitter buffer plays out this stream.
+     *
+     * @return the <tt>DelayManager</tt> of this stream.
+     */
+    public DelayManager getDelayManager()
+    {
+        adaptiveJitterBuffer = true;
+        return delayManager;
+    }
+
+    /**
+     * Notifies this instance that samples of this stream were played out.
+     *
+     * @param samples the number of samples per channel.
+     * @param concealed whether the samples were synthesized by packet-loss
+     * concealment.
+     */
+    public void samplesPlayed(int samples, boolean concealed)
+    {
+        samplesPlayed.addAndGet(samples);
+        if (concealed)
+            samplesConcealed.addAndGet(samples);
+    }
+
+    /**
+     * Notifies this instance that an RTP packet of this stream was recovered
+     * by FEC.
+     */
+    public void rtpPacketRecovered()
+    {
+        packetsRecovered.incrementAndGet();
+    }
 
     /**
      * Notifies this instance that an RTP packet with a given length and
      * sequence number was received.
      * @param seq the RTP sequence number of the packet.
+     * @param timestamp the RTP timestamp of the packet.
      * @param length the length in bytes of the packet.
      */
-    public void rtpPacketReceived(int seq, int length)
+    public void rtpPacketReceived(int seq, long timestamp, int length)
     {
         long now = System.currentTimeMillis();
 
         // update the bit- and packet-rate
         super.packetProcessed(length, now, true);
 
+        if (adaptiveJitterBuffer)
+            delayManager.packetArrived(timestamp, now);
+
         if (highestSeq == -1)
         {
             highestSeq = seq;
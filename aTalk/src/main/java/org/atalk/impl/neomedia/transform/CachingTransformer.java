@@ -16,6 +16,7 @@ package org.atalk.impl.neomedia.transform;
 import org.atalk.impl.neomedia.MediaStreamImpl;
 import org.atalk.impl.neomedia.RTPPacketPredicate;
 import org.atalk.impl.neomedia.rtp.RawPacketCache;
+import org.atalk.impl.neomedia.stats.MediaStreamStats2Impl;
 import org.atalk.service.neomedia.RawPacket;
 import org.atalk.util.concurrent.RecurringRunnable;
 
@@ -34,7 +35,12 @@ public class CachingTransformer extends SinglePacketTransformerAdapter
      * The period of time between calls to {@link #run} will be requested if this
      * {@link CachingTransformer} is enabled.
      */
-    private static final int PROCESS_INTERVAL_MS = 10000;
+    private static final int PROCESS_INTERVAL_MS = 1000;
+
+    /**
+     * The owning stream, whose RTT the retention time of the caches follows.
+     */
+    private final MediaStreamImpl stream;
 
     /**
      * The outgoing packet cache.
@@ -70,6 +76,7 @@ public class CachingTransformer extends SinglePacketTransformerAdapter
     public CachingTransformer(MediaStreamImpl stream)
     {
         super(RTPPacketPredicate.INSTANCE);
+        this.stream = stream;
         this.outgoingRawPacketCache = new RawPacketCache(stream.hashCode());
         this.incomingRawPacketCache = new RawPacketCache(-1);
     }
@@ -155,6 +162,14 @@ public class CachingTransformer extends SinglePacketTransformerAdapter
     public void run()
     {
         lastUpdateTime = System.currentTimeMillis();
+
+        MediaStreamStats2Impl stats = stream.getMediaStreamStats();
+        if (stats != null) {
+            long rtt = stats.getSendStats().getRtt();
+            outgoingRawPacketCache.setRtt(rtt);
+            incomingRawPacketCache.setRtt(rtt);
+        }
+
         outgoingRawPacketCache.clean(lastUpdateTime);
         incomingRawPacketCache.clean(lastUpdateTime);
     }
@@ -17,12 +17,13 @@ package org.atalk.impl.neomedia.transform;
 
 import org.atalk.android.plugin.timberlog.TimberLog;
 import org.atalk.impl.neomedia.rtcp.NACKPacket;
+import org.atalk.impl.neomedia.stats.MediaStreamStats2Impl;
 import org.atalk.service.neomedia.*;
+import org.atalk.service.neomedia.stats.MediaStreamStats2;
 import org.atalk.util.*;
 import org.atalk.util.concurrent.RecurringRunnable;
 import org.atalk.util.concurrent.RecurringRunnableExecutor;
 import org.atalk.util.logging.Logger;
-import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.util.*;
@@ -33,6 +34,11 @@ import timber.log.Timber;
  * Detects lost RTP packets for a particular <tt>RtpChannel</tt> and requests
  * their retransmission by sending RTCP NACK packets.
  *
+ * The missing packets of each SSRC are kept as bits in a window of sequence
+ * numbers, from which the generic NACK FCI entries are written directly.
+ * Packets which arrive late, or which are recovered by FEC, are no longer
+ * requested.
+ *
  * @author Boris Grozev
  * @author George Politis
  * @author bbaldino
@@ -66,12 +72,35 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
      */
     public static final long WAKEUP_INTERVAL_MILLIS = 1000;
 
+    /**
+     * The number of sequence numbers, up to the highest received, in which
+     * missing packets are tracked; a power of two. A packet falling out of it
+     * is no longer requested.
+     */
+    private static final int WINDOW = 512;
+
+    /**
+     * The time after which the <tt>Requester</tt> of an SSRC which has not
+     * received any packet is removed.
+     */
+    private static final long REQUESTER_TIMEOUT_MILLIS = 10000;
+
     /**
      * Maps an SSRC to the <tt>Requester</tt> instance corresponding to it.
-     * TODO: purge these somehow (RTCP BYE? Timeout?)
      */
     private final Map<Long, Requester> requesters = new HashMap<>();
 
+    /**
+     * The <tt>Requester</tt> of the last packet received, which is most
+     * likely the one of the next packet.
+     */
+    private volatile Requester lastRequester;
+
+    /**
+     * The NACK packets created by a run, reused.
+     */
+    private final List<NACKPacket> nackPackets = new ArrayList<>();
+
     /**
      * The {@link MediaStream} that this instance belongs to.
      */
@@ -118,6 +147,24 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
         }
     }
 
+    /**
+     * Notify this requester that a packet has been recovered, e.g. by FEC, so
+     * that its retransmission is not requested.
+     *
+     * @param ssrc the SSRC of the packet.
+     * @param seqNum the RTP sequence number of the packet.
+     */
+    public void packetRecovered(long ssrc, int seqNum)
+    {
+        Requester requester;
+        synchronized (requesters) {
+            requester = requesters.get(ssrc);
+        }
+        if (requester != null) {
+            requester.recovered(seqNum);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -130,8 +177,8 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
             return WAKEUP_INTERVAL_MILLIS;
         }
         else {
-            Timber.log(TimberLog.FINER, hashCode() + "%s: Next nack is scheduled for ssrc %s at %s. (current time is %s)",
-                    nextDueRequester.ssrc, Math.max(nextDueRequester.nextRequestAt, 0), now);
+            Timber.log(TimberLog.FINER, "%s: Next nack is scheduled for ssrc %s at %s. (current time is %s)",
+                    hashCode(), nextDueRequester.ssrc, Math.max(nextDueRequester.nextRequestAt, 0), now);
             return Math.max(nextDueRequester.nextRequestAt - now, 0);
         }
     }
@@ -149,20 +196,37 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
     {
         long now = timeProvider.currentTimeMillis();
         Timber.log(TimberLog.FINER, "%s running at %s", hashCode(), now);
-        List<Requester> dueRequesters = getDueRequesters(now);
-        Timber.log(TimberLog.FINER, "%s has %s due requesters", hashCode(), dueRequesters.size());
-        if (!dueRequesters.isEmpty()) {
-            List<NACKPacket> nackPackets = createNackPackets(now, dueRequesters);
-            Timber.log(TimberLog.FINER, "%s injecting %s nack packets", hashCode(), nackPackets.size());
-            if (!nackPackets.isEmpty()) {
-                injectNackPackets(nackPackets);
+        synchronized (requesters) {
+            Iterator<Requester> iter = requesters.values().iterator();
+            while (iter.hasNext()) {
+                Requester requester = iter.next();
+                if (requester.lastReceivedAt + REQUESTER_TIMEOUT_MILLIS < now) {
+                    Timber.d("Removing Requester for SSRC %s", requester.ssrc);
+                    iter.remove();
+                    if (lastRequester == requester)
+                        lastRequester = null;
+                }
+                else if (requester.isDue(now)) {
+                    NACKPacket nackPacket = requester.createNackPacket(now);
+                    if (nackPacket != null)
+                        nackPackets.add(nackPacket);
+                }
             }
         }
+
+        Timber.log(TimberLog.FINER, "%s injecting %s nack packets", hashCode(), nackPackets.size());
+        if (!nackPackets.isEmpty()) {
+            injectNackPackets(nackPackets);
+            nackPackets.clear();
+        }
     }
 
     private Requester getOrCreateRequester(long ssrc)
     {
-        Requester requester;
+        Requester requester = lastRequester;
+        if (requester != null && requester.ssrc == ssrc)
+            return requester;
+
         synchronized (requesters) {
             requester = requesters.get(ssrc);
             if (requester == null) {
@@ -171,6 +235,7 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
                 requesters.put(ssrc, requester);
             }
         }
+        lastRequester = requester;
         return requester;
     }
 
@@ -188,30 +253,6 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
         return nextDueRequester;
     }
 
-    /**
-     * Get a list of the requesters (not necessarily in sorted order)
-     * which are due to request as of the given time
-     *
-     * @param currentTime the current time
-     * @return a list of the requesters (not necessarily in sorted order)
-     * which are due to request as of the given time
-     */
-    private List<Requester> getDueRequesters(long currentTime)
-    {
-        List<Requester> dueRequesters = new ArrayList<>();
-        synchronized (requesters) {
-            for (Requester requester : requesters.values()) {
-                if (requester.isDue(currentTime)) {
-                    Timber.log(TimberLog.FINER, hashCode() + "%s requester for ssrc %s has work due at %s(now = %s) and is missing packets: %s",
-                            requester.ssrc, requester.nextRequestAt, currentTime, requester.getMissingSeqNums());
-
-                    dueRequesters.add(requester);
-                }
-            }
-        }
-        return dueRequesters;
-    }
-
     /**
      * Inject the given nack packets into the outgoing stream
      *
@@ -231,42 +272,21 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
 
                 Timber.log(TimberLog.FINER, "Sending a NACK: %s", nackPacket);
                 stream.injectPacket(packet, /* data */ false, /* after */ null);
-            } catch (TransmissionFailedException e) {
-                Timber.w(e.getCause(), "Failed to inject packet in MediaStream.");
-            }
-        }
-    }
 
-    /**
-     * Gather the packets currently marked as missing and create
-     * NACKs for them
-     *
-     * @param dueRequesters the requesters which are due to have nack packets
-     * generated
-     */
-    protected List<NACKPacket> createNackPackets(long now, List<Requester> dueRequesters)
-    {
-        Map<Long, Set<Integer>> packetsToRequest = new HashMap<>();
-        for (Requester dueRequester : dueRequesters) {
-            synchronized (dueRequester) {
-                Set<Integer> missingPackets = dueRequester.getMissingSeqNums();
-                if (!missingPackets.isEmpty()) {
-                    Timber.log(TimberLog.FINER, "%S Sending nack with packets %S for ssrc %S",
-                            hashCode(), missingPackets, dueRequester.ssrc);
-                    packetsToRequest.put(dueRequester.ssrc, missingPackets);
-                    dueRequester.notifyNackCreated(now, missingPackets);
+                MediaStreamStats2 stats = stream.getMediaStreamStats();
+                if (stats instanceof MediaStreamStats2Impl) {
+                    // Each entry requests its PID and the packets of its BLP.
+                    byte[] fci = nackPacket.fci;
+                    int packetsRequested = 0;
+                    for (int i = 0; i + 3 < fci.length; i += 4) {
+                        packetsRequested += 1 + Integer.bitCount(((fci[i + 2] & 0xff) << 8) | (fci[i + 3] & 0xff));
+                    }
+                    ((MediaStreamStats2Impl) stats).nackPacketSent(packetsRequested);
                 }
+            } catch (TransmissionFailedException e) {
+                Timber.w(e.getCause(), "Failed to inject packet in MediaStream.");
             }
         }
-
-        List<NACKPacket> nackPackets = new ArrayList<>();
-        for (Map.Entry<Long, Set<Integer>> entry : packetsToRequest.entrySet()) {
-            long sourceSsrc = entry.getKey();
-            Set<Integer> missingPackets = entry.getValue();
-            NACKPacket nack = new NACKPacket(senderSsrc, sourceSsrc, missingPackets);
-            nackPackets.add(nack);
-        }
-        return nackPackets;
     }
 
     /**
@@ -287,13 +307,44 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
         /**
          * The time that the next request for this SSRC should be sent.
          */
-        private long nextRequestAt = -1;
+        private volatile long nextRequestAt = -1;
+
+        /**
+         * The time the last packet of this SSRC was received.
+         */
+        private volatile long lastReceivedAt;
+
+        /**
+         * The packets to request, as bits; the one for sequence number
+         * <tt>seq</tt> at bit <tt>seq % WINDOW</tt>.
+         */
+        private final long[] missing = new long[WINDOW / 64];
 
         /**
-         * The set of active requests for this SSRC. The keys are the sequence
-         * numbers.
+         * The number of bits set in {@link #missing}.
          */
-        private final Map<Integer, Request> requests = new HashMap<>();
+        private int missingCount = 0;
+
+        /**
+         * The number of times the retransmission of the packet at each bit has
+         * been requested.
+         */
+        private final byte[] timesRequested = new byte[WINDOW];
+
+        /**
+         * The time the retransmission of the packet at each bit was first
+         * requested, relative to {@link #epoch}, plus one; or 0 if it has not
+         * been requested yet.
+         */
+        private final int[] firstRequestSentAt = new int[WINDOW];
+
+        private final long epoch;
+
+        /**
+         * The FCI of the NACK packets, reused; large enough for an entry for
+         * each packet of the window.
+         */
+        private byte[] fci;
 
         /**
          * Initializes a new <tt>Requester</tt> instance for the given SSRC.
@@ -301,6 +352,7 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
         private Requester(long ssrc)
         {
             this.ssrc = ssrc;
+            epoch = lastReceivedAt = timeProvider.currentTimeMillis();
         }
 
         /**
@@ -315,6 +367,42 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
             return nextRequestAt != -1 && nextRequestAt <= currentTime;
         }
 
+        private boolean isMissing(int seq)
+        {
+            int bit = seq & (WINDOW - 1);
+            return (missing[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        private void setMissing(int seq)
+        {
+            int bit = seq & (WINDOW - 1);
+            missing[bit >>> 6] |= 1L << bit;
+            timesRequested[bit] = 0;
+            firstRequestSentAt[bit] = 0;
+            missingCount++;
+        }
+
+        /**
+         * Clears the bit of a sequence number, which is either satisfied or
+         * given up on.
+         *
+         * @return the time the retransmission of the packet was first
+         * requested, or -1 if it was not missing or not requested yet.
+         */
+        private long clearMissing(int seq)
+        {
+            int bit = seq & (WINDOW - 1);
+            long mask = 1L << bit;
+            if ((missing[bit >>> 6] & mask) == 0)
+                return -1;
+
+            missing[bit >>> 6] &= ~mask;
+            missingCount--;
+            if (missingCount == 0)
+                nextRequestAt = -1;
+            return (firstRequestSentAt[bit] == 0) ? -1 : epoch + firstRequestSentAt[bit] - 1;
+        }
+
         /**
          * Handles a received RTP packet with a specific sequence number.
          *
@@ -324,6 +412,7 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
          */
         synchronized private boolean received(int seq)
         {
+            lastReceivedAt = timeProvider.currentTimeMillis();
             if (lastReceivedSeq == -1) {
                 lastReceivedSeq = seq;
                 return false;
@@ -332,128 +421,131 @@ public class RetransmissionRequesterDelegate implements RecurringRunnable
             int diff = RTPUtils.getSequenceNumberDelta(seq, lastReceivedSeq);
             if (diff <= 0) {
                 // An older packet, possibly already requested.
-                Request r = requests.remove(seq);
-                if (requests.isEmpty()) {
-                    nextRequestAt = -1;
-                }
+                if (diff <= -WINDOW)
+                    return false;
 
-                if (r != null) {
+                long firstRequestSentAt = clearMissing(seq);
+                if (firstRequestSentAt != -1) {
                     long rtt = stream.getMediaStreamStats().getSendStats().getRtt();
                     if (rtt > 0) {
-
-                        // firstRequestSentAt is if we created a Request, but
-                        // haven't yet sent a NACK. Assume a delta of 0 in that
-                        // case.
-                        long firstRequestSentAt = r.firstRequestSentAt;
-                        long delta = firstRequestSentAt > 0
-                                ? timeProvider.currentTimeMillis() - r.firstRequestSentAt : 0;
+                        long delta = lastReceivedAt - firstRequestSentAt;
 
                         Timber.d("%s retr_received,stream = %d; delay = %d; rtt = %d",
                                 Logger.Category.STATISTICS, stream.hashCode(), delta, rtt);
                     }
                 }
             }
-            else if (diff == 1) {
-                // The very next packet, as expected.
-                lastReceivedSeq = seq;
-            }
             else if (diff <= MAX_MISSING) {
-                for (int missing = (lastReceivedSeq + 1) % (1 << 16);
+                // The packets between the last received and this one are
+                // missing. Their bits were last used a window earlier, by
+                // packets which are given up on.
+                for (int missing = (lastReceivedSeq + 1) & 0xffff;
                      missing != seq;
-                     missing = (missing + 1) % (1 << 16)) {
-                    Request request = new Request(missing);
-                    requests.put(missing, request);
+                     missing = (missing + 1) & 0xffff) {
+                    clearMissing(missing);
+                    setMissing(missing);
                 }
+                clearMissing(seq);
 
                 lastReceivedSeq = seq;
-                nextRequestAt = 0;
-
-                return true;
+                if (diff > 1) {
+                    nextRequestAt = 0;
+                    return true;
+                }
             }
             else // if (diff > MAX_MISSING)
             {
                 // Too many packets missing. Reset.
-                lastReceivedSeq = seq;
                 Timber.d("Resetting retransmission requester state. SSRC: %S, last received: %S, current: %S. Removing %S unsatisfied requests.",
-                        ssrc, lastReceivedSeq, seq, requests.size());
-                requests.clear();
+                        ssrc, lastReceivedSeq, seq, missingCount);
+                lastReceivedSeq = seq;
+                Arrays.fill(missing, 0);
+                missingCount = 0;
                 nextRequestAt = -1;
             }
             return false;
         }
 
         /**
-         * Returns a set of RTP sequence numbers which are considered still MIA,
-         * and for which a retransmission request needs to be sent.
-         * Assumes that the returned set of sequence numbers will be requested
-         * immediately and updates the state accordingly (i.e. increments the
-         * timesRequested counters and sets the time of next request).
+         * Handles a packet with a specific sequence number recovered other
+         * than by retransmission.
          *
-         * @return a set of RTP sequence numbers which are considered still MIA,
-         * and for which a retransmission request needs to be sent.
+         * @param seq the RTP sequence number of the recovered packet.
          */
-        synchronized private @NotNull
-        Set<Integer> getMissingSeqNums()
+        synchronized private void recovered(int seq)
         {
-            return new HashSet<>(requests.keySet());
+            if (lastReceivedSeq != -1) {
+                int diff = RTPUtils.getSequenceNumberDelta(seq, lastReceivedSeq);
+                if (diff <= 0 && diff > -WINDOW)
+                    clearMissing(seq);
+            }
         }
 
         /**
-         * Notify this requester that a nack was sent at the given time
+         * Creates a NACK packet for the packets which are still missing, and
+         * updates the state accordingly (i.e. increments the times requested
+         * and sets the time of next request).
          *
-         * @param time the time at which the nack was sent
+         * @param now the time at which the NACK is sent.
+         * @return the NACK packet, or <tt>null</tt> if there is no packet to
+         * request.
          */
-        public synchronized void notifyNackCreated(long time, Collection<Integer> sequenceNumbers)
+        synchronized private NACKPacket createNackPacket(long now)
         {
-            for (Integer seqNum : sequenceNumbers) {
-                Request request = requests.get(seqNum);
-                request.timesRequested++;
-                if (request.timesRequested == MAX_REQUESTS) {
-                    Timber.d("Generated the last NACK for SSRC = %S seq = %S. Time since the first request: %S",
-                            ssrc, request.seq, (time - request.firstRequestSentAt));
-                    requests.remove(seqNum);
+            if (missingCount == 0) {
+                nextRequestAt = -1;
+                return null;
+            }
+            if (fci == null)
+                fci = new byte[WINDOW * 4];
+
+            // Go through the window from the oldest sequence number, so that
+            // each entry covers the packet ID and the 16 following it.
+            int len = 0;
+            int pid = -1;
+            int oldest = (lastReceivedSeq - WINDOW + 1) & 0xffff;
+            for (int i = 0; i < WINDOW; i++) {
+                int seq = (oldest + i) & 0xffff;
+                int bit = seq & (WINDOW - 1);
+                long word = missing[bit >>> 6];
+                if (word == 0) {
+                    // Skip to the next word.
+                    i += 63 - (bit & 63);
                     continue;
                 }
-                if (request.timesRequested == 1) {
-                    request.firstRequestSentAt = time;
-                }
-            }
-            nextRequestAt = (requests.size() > 0) ? time + RE_REQUEST_AFTER_MILLIS : -1;
-        }
-
-    }
-
-    /**
-     * Represents a request for the retransmission of a specific RTP packet.
-     */
-    private static class Request
-    {
-        /**
-         * The RTP sequence number.
-         */
-        final int seq;
+                if ((word & (1L << bit)) == 0)
+                    continue;
 
-        /**
-         * The system time at the moment a retransmission request for this
-         * packet was first sent.
-         */
-        long firstRequestSentAt = -1;
+                int diff = (pid == -1) ? -1 : RTPUtils.getSequenceNumberDelta(seq, pid);
+                if (diff < 1 || diff > 16) {
+                    pid = seq;
+                    fci[len] = (byte) (seq >>> 8);
+                    fci[len + 1] = (byte) seq;
+                    fci[len + 2] = 0;
+                    fci[len + 3] = 0;
+                    len += 4;
+                }
+                else if (diff <= 8) {
+                    fci[len - 1] |= (byte) (1 << (diff - 1));
+                }
+                else {
+                    fci[len - 2] |= (byte) (1 << (diff - 8 - 1));
+                }
 
-        /**
-         * The number of times that a retransmission request for this packet
-         * has been sent.
-         */
-        int timesRequested = 0;
+                if (++timesRequested[bit] == 1) {
+                    firstRequestSentAt[bit] = (int) (now - epoch) + 1;
+                }
+                else if (timesRequested[bit] == MAX_REQUESTS) {
+                    Timber.d("Generated the last NACK for SSRC = %S seq = %S. Time since the first request: %S",
+                            ssrc, seq, now - (epoch + firstRequestSentAt[bit] - 1));
+                    clearMissing(seq);
+                }
+            }
+            nextRequestAt = (missingCount > 0) ? now + RE_REQUEST_AFTER_MILLIS : -1;
 
-        /**
-         * Initializes a new <tt>Request</tt> instance with the given RTP
-         * sequence number.
-         *
-         * @param seq the RTP sequence number.
-         */
-        Request(int seq)
-        {
-            this.seq = seq;
+            Timber.log(TimberLog.FINER, "%s Sending nack with %s entries for ssrc %s", hashCode(), len / 4, ssrc);
+            // RTCPFBPacket writes the whole of its FCI, hence the copy of the exact length.
+            return new NACKPacket(senderSsrc, ssrc, Arrays.copyOf(fci, len));
         }
     }
 
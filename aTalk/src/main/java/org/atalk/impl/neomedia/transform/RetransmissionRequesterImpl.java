@@ -169,4 +169,15 @@ public class RetransmissionRequesterImpl extends SinglePacketTransformerAdapter
     {
         this.retransmissionRequesterDelegate.setSenderSsrc(ssrc);
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void packetRecovered(long ssrc, int seq)
+    {
+        if (enabled && !closed) {
+            retransmissionRequesterDelegate.packetRecovered(ssrc, seq);
+        }
+    }
 }
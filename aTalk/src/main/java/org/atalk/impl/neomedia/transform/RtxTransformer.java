@@ -26,6 +26,7 @@ import org.atalk.service.neomedia.*;
 import org.atalk.service.neomedia.codec.Constants;
 import org.atalk.service.neomedia.format.MediaFormat;
 import org.atalk.util.ByteArrayBuffer;
+import org.atalk.util.ByteArrayPool;
 import org.atalk.util.logging.Logger;
 
 import java.util.*;
@@ -298,7 +299,7 @@ public class RtxTransformer implements TransformEngine
         int len = pkt.getLength();
         int off = pkt.getOffset();
 
-        byte[] newBuf = new byte[len + 2];
+        byte[] newBuf = ByteArrayPool.getBuffer(len + 2);
         RawPacket rtxPkt = new RawPacket(newBuf, 0, len + 2);
 
         int osn = pkt.getSequenceNumber();
@@ -326,8 +327,14 @@ public class RtxTransformer implements TransformEngine
             } catch (TransmissionFailedException tfe) {
                 Timber.w("Failed to transmit an RTX packet.");
                 return false;
+            } finally {
+                // injectPacket copies the packet data; newBuf is no longer used.
+                ByteArrayPool.returnBuffer(newBuf);
             }
         }
+        else {
+            ByteArrayPool.returnBuffer(newBuf);
+        }
         return true;
     }
 
@@ -141,12 +141,13 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
      * The <tt>SRTPProtectionProfile</tt>s supported by <tt>DtlsControlImpl</tt>.
      */
     static final int[] SRTP_PROTECTION_PROFILES = {
+            // RFC 7714 AEAD profiles are preferred; one cipher pass both encrypts and authenticates
+            SRTPProtectionProfile.SRTP_AEAD_AES_128_GCM,
+            SRTPProtectionProfile.SRTP_AEAD_AES_256_GCM,
             SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_80,
             SRTPProtectionProfile.SRTP_AES128_CM_HMAC_SHA1_32,
 //            SRTPProtectionProfile.SRTP_NULL_HMAC_SHA1_80,
 //            SRTPProtectionProfile.SRTP_NULL_HMAC_SHA1_32,
-//            SRTPProtectionProfile.SRTP_AEAD_AES_128_GCM,
-//            SRTPProtectionProfile.SRTP_AEAD_AES_256_GCM
     };
 
     /**
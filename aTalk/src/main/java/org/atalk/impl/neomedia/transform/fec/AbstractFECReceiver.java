@@ -15,14 +15,15 @@
  */
 package org.atalk.impl.neomedia.transform.fec;
 
+import org.atalk.impl.neomedia.stats.MediaStreamStats2Impl;
 import org.atalk.impl.neomedia.transform.PacketTransformer;
 import org.atalk.service.configuration.ConfigurationService;
 import org.atalk.service.libjitsi.LibJitsi;
+import org.atalk.service.neomedia.MediaStream;
 import org.atalk.service.neomedia.RawPacket;
-import org.atalk.util.RTPUtils;
-
-import java.util.SortedMap;
-import java.util.TreeMap;
+import org.atalk.service.neomedia.RetransmissionRequester;
+import org.atalk.service.neomedia.stats.MediaStreamStats2;
+import org.atalk.util.ByteArrayPool;
 
 import timber.log.Timber;
 
@@ -53,6 +54,13 @@ public abstract class AbstractFECReceiver implements PacketTransformer
      */
     protected boolean handleFec = true;
 
+    /**
+     * The {@link MediaStream} of the recovered packets, if any. Its
+     * {@link RetransmissionRequester} is notified of them so that their
+     * retransmission is not requested, and its statistics count them.
+     */
+    private MediaStream mediaStream;
+
     /**
      * The number of media packets to keep.
      */
@@ -96,41 +104,19 @@ public abstract class AbstractFECReceiver implements PacketTransformer
     /**
      * Buffer which keeps (copies of) received media packets.
      *
-     * We keep them ordered by their RTP sequence numbers, so that
-     * we can easily select the oldest one to discard when the buffer is
-     * full (when the map has more than <tt>MEDIA_BUFF_SIZE</tt> entries).
-     *
-     * We keep them in a <tt>Map</tt> so that we can easily search for a
-     * packet with a specific sequence number.
-     *
-     * Note: This might turn out to be inefficient, especially with increased
-     * buffer sizes. In the vast majority of cases (e.g. on every received
-     * packet) we do an insert at one end and a delete from the other -- this
-     * can be optimized. We very rarely (when we receive a packet out of order)
-     * need to insert at an arbitrary location.
+     * The packets are indexed by their RTP sequence numbers in a ring of the
+     * (power of two rounded) <tt>MEDIA_BUF_SIZE</tt>, so that a received
+     * packet displaces the one a window length older and its copy re-uses
+     * the displaced packet.
      * FIXME: Look at using the existing packet cache instead of our own here
      */
-    protected final SortedMap<Integer, RawPacket> mediaPackets = new TreeMap<Integer, RawPacket>(RTPUtils.sequenceNumberComparator);
+    protected final PacketRing mediaPackets = new PacketRing(MEDIA_BUF_SIZE);
 
     /**
-     * Buffer which keeps (copies of) received fec packets.
-     *
-     * We keep them ordered by their RTP sequence numbers, so that
-     * we can easily select the oldest one to discard when the buffer is
-     * full (when the map has more than <tt>FEC_BUFF_SIZE</tt> entries.
-     *
-     * We keep them in a <tt>Map</tt> so that we can easily search for a
-     * packet with a specific sequence number.
-     *
-     * Note: This might turn out to be inefficient, especially with increased
-     * buffer sizes. In the vast majority of cases (e.g. on every received
-     * packet) we do an insert at one end and a delete from the other -- this
-     * can be optimized. We very rarely (when we receive a packet out of order)
-     * need to insert at an arbitrary location.
-     * FIXME: Look at using the existing packet cache instead of our own here
+     * Buffer which keeps received fec packets, indexed by their RTP sequence
+     * numbers in a ring of the (power of two rounded) <tt>FEC_BUFF_SIZE</tt>.
      */
-    protected final SortedMap<Integer, RawPacket> fecPackets = new TreeMap<Integer, RawPacket>(RTPUtils.sequenceNumberComparator);
-
+    protected final PacketRing fecPackets = new PacketRing(FEC_BUF_SIZE);
 
     /**
      * Initialize the FEC receiver
@@ -145,49 +131,87 @@ public abstract class AbstractFECReceiver implements PacketTransformer
     }
 
     /**
-     * Saves <tt>p</tt> into <tt>fecPackets</tt>. If the size of
-     * <tt>fecPackets</tt> has reached <tt>FEC_BUFF_SIZE</tt> discards the
-     * oldest packet from it.
+     * Sets the {@link MediaStream} of the recovered packets.
+     *
+     * @param mediaStream the <tt>MediaStream</tt>, or <tt>null</tt>.
+     */
+    void setMediaStream(MediaStream mediaStream)
+    {
+        this.mediaStream = mediaStream;
+    }
+
+    /**
+     * Accounts for a media packet recovered from fec: saves it, counts it, and
+     * tells the <tt>RetransmissionRequester</tt> not to request it anymore.
+     *
+     * @param recovered the recovered packet.
+     */
+    protected void packetRecovered(RawPacket recovered)
+    {
+        statistics.numRecoveredPackets++;
+        saveMedia(recovered);
+
+        MediaStream stream = mediaStream;
+        if (stream != null) {
+            long ssrc = recovered.getSSRCAsLong();
+            RetransmissionRequester requester = stream.getRetransmissionRequester();
+            if (requester != null)
+                requester.packetRecovered(ssrc, recovered.getSequenceNumber());
+
+            MediaStreamStats2 stats = stream.getMediaStreamStats();
+            if (stats instanceof MediaStreamStats2Impl)
+                ((MediaStreamStats2Impl) stats).rtpPacketRecovered(ssrc);
+        }
+    }
+
+    /**
+     * Saves <tt>p</tt> into <tt>fecPackets</tt>, displacing the packet a
+     * window length older. <tt>p</tt> is dropped if it is older than the
+     * window.
      *
      * @param p the packet to save.
      */
     private void saveFec(RawPacket p)
     {
-        if (fecPackets.size() >= FEC_BUF_SIZE)
-            fecPackets.remove(fecPackets.firstKey());
+        RawPacket displaced = fecPackets.put(p);
 
-        fecPackets.put(p.getSequenceNumber(), p);
+        // This receiver owns the fec packets, which are not forwarded; the
+        // displaced one (or p itself if it is too old) is not needed anymore.
+        if (displaced != null)
+            ByteArrayPool.returnBuffer(displaced.getBuffer());
     }
 
     /**
-     * Makes a copy of <tt>p</tt> into <tt>mediaPackets</tt>. If the size of
-     * <tt>mediaPackets</tt> has reached <tt>MEDIA_BUFF_SIZE</tt> discards
-     * the oldest packet from it and reuses it.
+     * Makes a copy of <tt>p</tt> into <tt>mediaPackets</tt>, re-using the
+     * packet a window length older which it displaces. <tt>p</tt> is not
+     * copied if it is older than the window.
      *
      * @param p the packet to copy.
      */
     protected void saveMedia(RawPacket p)
     {
-        RawPacket newMedia;
-        if (mediaPackets.size() < MEDIA_BUF_SIZE) {
+        int seq = p.getSequenceNumber();
+        if (mediaPackets.isTooOld(seq))
+            return;
+
+        RawPacket newMedia = mediaPackets.removeSlotOf(seq);
+        if (newMedia == null) {
             newMedia = new RawPacket();
-            newMedia.setBuffer(new byte[FECTransformEngine.INITIAL_BUFFER_SIZE]);
+            newMedia.setBuffer(ByteArrayPool.getBuffer(FECTransformEngine.INITIAL_BUFFER_SIZE));
             newMedia.setOffset(0);
         }
-        else {
-            newMedia = mediaPackets.remove(mediaPackets.firstKey());
-        }
 
         int pLen = p.getLength();
         if (pLen > newMedia.getBuffer().length) {
-            newMedia.setBuffer(new byte[pLen]);
+            ByteArrayPool.returnBuffer(newMedia.getBuffer());
+            newMedia.setBuffer(ByteArrayPool.getBuffer(pLen));
         }
 
         System.arraycopy(p.getBuffer(), p.getOffset(), newMedia.getBuffer(), 0, pLen);
         newMedia.setLength(pLen);
         newMedia.setOffset(0);
 
-        mediaPackets.put(newMedia.getSequenceNumber(), newMedia);
+        mediaPackets.put(newMedia);
     }
 
     /**
@@ -246,8 +270,14 @@ public abstract class AbstractFECReceiver implements PacketTransformer
      * {@inheritDoc}
      */
     @Override
-    public void close()
+    public synchronized void close()
     {
+        for (int i = 0; i < mediaPackets.capacity(); i++) {
+            RawPacket p = mediaPackets.removeAt(i);
+            if (p != null)
+                ByteArrayPool.returnBuffer(p.getBuffer());
+        }
+
         Timber.i("Closing FEC-Receiver for SSRC: %d. Received %d FEC packets, recovered %s media packets. Recovery failed %d times",
                 ssrc, statistics.numRxFecPackets, statistics.numRecoveredPackets, statistics.failedRecoveries);
     }
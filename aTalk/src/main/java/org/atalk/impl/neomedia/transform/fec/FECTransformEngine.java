@@ -7,10 +7,13 @@ package org.atalk.impl.neomedia.transform.fec;
 
 import org.atalk.impl.neomedia.rtp.MediaStreamTrackReceiver;
 import org.atalk.impl.neomedia.rtp.RTPEncodingDesc;
+import org.atalk.impl.neomedia.rtp.StreamRTPManager;
 import org.atalk.impl.neomedia.transform.PacketTransformer;
 import org.atalk.impl.neomedia.transform.TransformEngine;
 import org.atalk.service.neomedia.MediaStream;
 import org.atalk.service.neomedia.RawPacket;
+import org.atalk.service.neomedia.RTPTranslator;
+import org.atalk.service.neomedia.codec.Constants;
 
 import java.util.*;
 
@@ -73,6 +76,28 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer
      */
     private final Map<Long, FECSender> fecSenders = new HashMap<>();
 
+    /**
+     * Maps an SSRC to a <tt>FlexFec03Sender</tt> to be used for packets with that SSRC.
+     */
+    private final Map<Long, FlexFec03Sender> flexFecSenders = new HashMap<>();
+
+    /**
+     * The interval in milliseconds at which the FlexFEC-03 SSRC of a media SSRC is looked up
+     * again while none is signaled; the source-groups may be signaled after the media starts.
+     */
+    private static final long FLEXFEC_SSRC_LOOKUP_INTERVAL = 1000;
+
+    /**
+     * Maps an SSRC for which no FlexFEC-03 SSRC is signaled (yet) to the time of the last lookup.
+     */
+    private final Map<Long, Long> flexFecLookups = new HashMap<>();
+
+    /**
+     * The policy which chooses the protection of the outgoing FlexFEC-03 packets from the loss
+     * pattern reported by the remote endpoint.
+     */
+    private final FlexFec03ProtectionPolicy flexFecPolicy = new FlexFec03ProtectionPolicy();
+
     private final MediaStream mediaStream;
 
     /**
@@ -141,17 +166,44 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer
                     Timber.e("Unknown fec type set: %s", fecType);
                     return pkts;
                 }
+                fecReceiver.setMediaStream(mediaStream);
                 fecReceivers.put(primarySsrc, fecReceiver);
             }
         }
         return fecReceiver.reverseTransform(pkts);
     }
 
+    /**
+     * Finds the SSRC of the FlexFEC-03 stream which protects the media of a specific SSRC,
+     * from the source-groups of the encoding of the media, like the RTX SSRC.
+     *
+     * @param ssrc the SSRC of the media
+     * @return the SSRC of the FlexFEC-03 stream, or -1 if none is signaled
+     */
+    private long getFlexFecSsrc(long ssrc)
+    {
+        MediaStreamTrackReceiver receiver = null;
+        RTPTranslator translator = mediaStream.getRTPTranslator();
+        if (translator != null) {
+            // Media which is translated from another stream, as described by that stream.
+            StreamRTPManager receiveRTPManager = translator.findStreamRTPManagerByReceiveSSRC((int) ssrc);
+            if ((receiveRTPManager != null) && (receiveRTPManager.getMediaStream() != null))
+                receiver = receiveRTPManager.getMediaStream().getMediaStreamTrackReceiver();
+        }
+        if (receiver == null)
+            receiver = mediaStream.getMediaStreamTrackReceiver();
+        if (receiver == null)
+            return -1;
+
+        RTPEncodingDesc encoding = receiver.findRTPEncodingDesc(ssrc);
+        return (encoding == null) ? -1 : encoding.getSecondarySsrc(Constants.FLEXFEC_03);
+    }
+
     /**
      * {@inheritDoc}
      *
      * Adds ulpfec packets to the stream (one ulpfec packet after every <tt>fecRate</tt> media
-     * packets.
+     * packets), or FlexFEC-03 packets as chosen by the loss pattern of the link.
      */
     @Override
     public RawPacket[] transform(RawPacket[] pkts)
@@ -163,6 +215,9 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer
         if (ssrc == null)
             return pkts;
 
+        if (fecType == FecType.FLEXFEC_03)
+            return transformFlexFec(ssrc, pkts);
+
         FECSender fpt;
         synchronized (fecSenders) {
             fpt = fecSenders.get(ssrc);
@@ -174,6 +229,40 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer
         return fpt.transform(pkts);
     }
 
+    /**
+     * Adds FlexFEC-03 packets to the stream, if a FlexFEC-03 SSRC is signaled for <tt>ssrc</tt>.
+     *
+     * @param ssrc the SSRC of <tt>pkts</tt>
+     * @param pkts the media packets to protect
+     * @return <tt>pkts</tt> and the FlexFEC-03 packets added
+     */
+    private RawPacket[] transformFlexFec(long ssrc, RawPacket[] pkts)
+    {
+        FlexFec03Sender sender;
+        synchronized (flexFecSenders) {
+            sender = flexFecSenders.get(ssrc);
+            if (sender == null) {
+                long now = System.currentTimeMillis();
+                Long lastLookup = flexFecLookups.get(ssrc);
+                if ((lastLookup != null) && (now - lastLookup < FLEXFEC_SSRC_LOOKUP_INTERVAL))
+                    return pkts;
+
+                long fecSsrc = getFlexFecSsrc(ssrc);
+                if (fecSsrc == -1) {
+                    if (lastLookup == null)
+                        Timber.i("No FlexFEC-03 ssrc signaled for ssrc %d; not protecting it yet.", ssrc);
+                    flexFecLookups.put(ssrc, now);
+                    return pkts;
+                }
+                flexFecLookups.remove(ssrc);
+                flexFecPolicy.start(mediaStream.getMediaStreamStats());
+                sender = new FlexFec03Sender(ssrc, fecSsrc, outgoingPT, flexFecPolicy);
+                flexFecSenders.put(ssrc, sender);
+            }
+        }
+        return sender.transform(pkts);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -182,20 +271,29 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer
     {
         Collection<AbstractFECReceiver> receivers;
         Collection<FECSender> senders;
+        Collection<FlexFec03Sender> flexSenders;
 
         synchronized (fecReceivers) {
-            receivers = fecReceivers.values();
+            receivers = new ArrayList<>(fecReceivers.values());
             fecReceivers.clear();
         }
         synchronized (fecSenders) {
-            senders = fecSenders.values();
+            senders = new ArrayList<>(fecSenders.values());
             fecSenders.clear();
         }
+        synchronized (flexFecSenders) {
+            flexSenders = new ArrayList<>(flexFecSenders.values());
+            flexFecSenders.clear();
+            flexFecLookups.clear();
+        }
+        flexFecPolicy.stop();
 
         for (AbstractFECReceiver fecReceiver : receivers)
             fecReceiver.close();
         for (FECSender fecSender : senders)
             fecSender.close();
+        for (FlexFec03Sender flexFecSender : flexSenders)
+            flexFecSender.close();
     }
 
     /**
@@ -245,6 +343,12 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer
             for (FECSender f : fecSenders.values())
                 f.setUlpfecPT(outgoingPT);
         }
+        synchronized (flexFecSenders) {
+            for (FlexFec03Sender f : flexFecSenders.values()) {
+                if (f != null)
+                    f.setPayloadType(outgoingPT);
+            }
+        }
         Timber.d("Setting payload type for outgoing ulpfec: %s", outgoingPT);
     }
 
@@ -0,0 +1,287 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.fec;
+
+import net.sf.fmj.media.rtp.RTCPFeedback;
+import net.sf.fmj.media.rtp.RTCPReport;
+
+import org.atalk.impl.neomedia.rtcp.RTCPTCCPacket;
+import org.atalk.impl.neomedia.rtp.RTCPPacketListenerAdapter;
+import org.atalk.service.neomedia.MediaStreamStats;
+import org.atalk.service.neomedia.rtp.RTCPReportAdapter;
+import org.atalk.service.neomedia.rtp.RTCPReportListener;
+import org.atalk.util.RTPUtils;
+
+import java.util.Map;
+
+/**
+ * Chooses the FlexFEC-03 protection of the outgoing media from the loss pattern of the link.
+ *
+ * The loss rate is learnt from the fraction lost of the RTCP receiver reports and from the
+ * transport-cc feedback; the mean length of the loss bursts from the gaps in the transport-cc
+ * feedback. On a clean link no fec is sent. Random losses are protected by rows, i.e. one fec
+ * packet per <tt>L</tt> consecutive media packets; bursts by columns, i.e. one fec packet per
+ * <tt>D</tt> media packets <tt>L</tt> apart, so that a burst of up to <tt>L</tt> packets loses
+ * at most one packet per column. Heavy losses are protected by both rows and columns.
+ *
+ * @author Eng Chong Meng
+ */
+class FlexFec03ProtectionPolicy
+        extends RTCPPacketListenerAdapter
+{
+    /**
+     * The loss rate below which no fec is sent.
+     */
+    private static final double MIN_LOSS_RATE = 0.005;
+
+    /**
+     * The loss rate from which both rows and columns are protected.
+     */
+    private static final double HIGH_LOSS_RATE = 0.1;
+
+    /**
+     * The mean burst length from which the losses are protected by columns.
+     */
+    private static final double BURSTY_MEAN_BURST = 1.5;
+
+    /**
+     * The expected number of lost packets per protected group the group size aims at; a row or
+     * a column only recovers a single loss.
+     */
+    private static final double TARGET_GROUP_LOSS = 0.2;
+
+    /**
+     * The largest number of media packets protected by a single fec packet.
+     */
+    private static final int MAX_GROUP_SIZE = 16;
+
+    /**
+     * The largest distance between the media packets protected by a fec packet which the
+     * FlexFEC-03 mask can express.
+     */
+    private static final int MAX_MASK_DELTA = 108;
+
+    /**
+     * The weight of a new report in the filtered loss rate and mean burst length.
+     */
+    private static final double FILTER_WEIGHT = 0.25;
+
+    /**
+     * The protection which sends no fec.
+     */
+    static final Protection NONE = new Protection(0, 0, false, false);
+
+    /**
+     * The filtered loss rate.
+     */
+    private double lossRate = 0;
+
+    /**
+     * The filtered mean length of the loss bursts; 1 until transport-cc feedback tells otherwise.
+     */
+    private double meanBurst = 1;
+
+    /**
+     * The <tt>MediaStreamStats</tt> this instance listens to, or <tt>null</tt>.
+     */
+    private MediaStreamStats stats;
+
+    /**
+     * The listener to the RTCP receiver reports.
+     */
+    private final RTCPReportListener reportListener = new RTCPReportAdapter()
+    {
+        @Override
+        public void rtcpReportReceived(RTCPReport report)
+        {
+            FlexFec03ProtectionPolicy.this.rtcpReportReceived(report);
+        }
+    };
+
+    /**
+     * Starts listening to the RTCP receiver reports and transport-cc feedback of a stream.
+     *
+     * @param stats the <tt>MediaStreamStats</tt> of the stream which sends the protected media
+     */
+    synchronized void start(MediaStreamStats stats)
+    {
+        if (this.stats != null || stats == null)
+            return;
+
+        this.stats = stats;
+        stats.addRTCPPacketListener(this);
+        stats.getRTCPReports().addRTCPReportListener(reportListener);
+    }
+
+    /**
+     * Stops listening to the stream given to {@link #start(MediaStreamStats)}.
+     */
+    synchronized void stop()
+    {
+        if (stats != null) {
+            stats.removeRTCPPacketListener(this);
+            stats.getRTCPReports().removeRTCPReportListener(reportListener);
+            stats = null;
+        }
+    }
+
+    /**
+     * Updates the loss rate with the fraction lost of the report blocks of a receiver report.
+     *
+     * @param report the received <tt>RTCPReport</tt>
+     */
+    private void rtcpReportReceived(RTCPReport report)
+    {
+        if (report == null || report.getFeedbackReports() == null
+                || report.getFeedbackReports().isEmpty()) {
+            return;
+        }
+
+        int fractionLost = 0;
+        for (RTCPFeedback feedback : report.getFeedbackReports())
+            fractionLost = Math.max(fractionLost, feedback.getFractionLost());
+
+        synchronized (this) {
+            lossRate += FILTER_WEIGHT * (fractionLost / 256D - lossRate);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Updates the loss rate and the mean burst length with the gaps of the transport-wide
+     * sequence numbers acknowledged by <tt>tccPacket</tt>.
+     */
+    @Override
+    public void tccReceived(RTCPTCCPacket tccPacket)
+    {
+        int received = 0, lost = 0, bursts = 0;
+        int previousSeq = -1;
+
+        for (Map.Entry<Integer, Long> entry : tccPacket.getPackets().entrySet()) {
+            if (entry.getValue() == -1)
+                continue;
+
+            int seq = entry.getKey();
+            if (previousSeq != -1) {
+                int gap = RTPUtils.getSequenceNumberDelta(seq, previousSeq) - 1;
+                if (gap > 0) {
+                    lost += gap;
+                    bursts++;
+                }
+            }
+            previousSeq = seq;
+            received++;
+        }
+
+        if (received + lost < 2)
+            return;
+
+        synchronized (this) {
+            lossRate += FILTER_WEIGHT * ((double) lost / (received + lost) - lossRate);
+            if (bursts > 0)
+                meanBurst += FILTER_WEIGHT * ((double) lost / bursts - meanBurst);
+        }
+    }
+
+    /**
+     * Gets the protection for the current loss pattern.
+     *
+     * @return the <tt>Protection</tt> to apply to the next block of media packets
+     */
+    synchronized Protection getProtection()
+    {
+        if (lossRate < MIN_LOSS_RATE)
+            return NONE;
+
+        int groupSize = clamp((int) (TARGET_GROUP_LOSS / lossRate), 2, MAX_GROUP_SIZE);
+        boolean heavy = lossRate >= HIGH_LOSS_RATE;
+
+        if (meanBurst < BURSTY_MEAN_BURST) {
+            // Random losses: consecutive packets in rows, columns of the same size if heavy.
+            int rows = heavy ? clamp(groupSize, 2, MAX_MASK_DELTA / groupSize + 1) : 1;
+            return new Protection(groupSize, rows, true, heavy);
+        }
+
+        // Bursty losses: columns at least twice as wide as the mean burst.
+        int columns = clamp((int) Math.ceil(2 * meanBurst), 2, MAX_GROUP_SIZE);
+        int rows = clamp(groupSize, 2, MAX_MASK_DELTA / columns + 1);
+        return new Protection(columns, rows, heavy, true);
+    }
+
+    private static int clamp(int value, int min, int max)
+    {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    /**
+     * A block of <tt>columns</tt> x <tt>rows</tt> consecutive media packets, laid out row by row,
+     * and which of its rows and columns are protected by a fec packet.
+     */
+    static class Protection
+    {
+        final int columns;
+
+        final int rows;
+
+        final boolean protectRows;
+
+        final boolean protectColumns;
+
+        Protection(int columns, int rows, boolean protectRows, boolean protectColumns)
+        {
+            this.columns = columns;
+            this.rows = rows;
+            this.protectRows = protectRows;
+            this.protectColumns = protectColumns;
+        }
+
+        /**
+         * Gets the number of media packets in a block.
+         *
+         * @return the number of media packets in a block
+         */
+        int blockSize()
+        {
+            return columns * rows;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Protection))
+                return false;
+
+            Protection p = (Protection) o;
+            return columns == p.columns && rows == p.rows
+                    && protectRows == p.protectRows && protectColumns == p.protectColumns;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ((columns * 31 + rows) * 2 + (protectRows ? 1 : 0)) * 2 + (protectColumns ? 1 : 0);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "columns=" + columns + " rows=" + rows
+                    + " protectRows=" + protectRows + " protectColumns=" + protectColumns;
+        }
+    }
+}
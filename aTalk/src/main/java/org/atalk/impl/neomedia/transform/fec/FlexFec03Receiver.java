@@ -18,7 +18,7 @@ package org.atalk.impl.neomedia.transform.fec;
 import org.atalk.service.neomedia.RawPacket;
 import org.atalk.util.*;
 
-import java.util.*;
+import java.util.Arrays;
 
 import timber.log.Timber;
 
@@ -48,26 +48,37 @@ public class FlexFec03Receiver
     @Override
     protected synchronized RawPacket[] doReverseTransform(RawPacket[] pkts)
     {
-        Set<Integer> flexFecPacketsToRemove = new HashSet<>();
         // Try to recover any missing media packets
-        for (Map.Entry<Integer, RawPacket> entry : fecPackets.entrySet()) {
-            FlexFec03Packet flexFecPacket = FlexFec03Packet.create(entry.getValue());
-            if (flexFecPacket == null) {
+        for (int i = 0; i < fecPackets.capacity(); i++) {
+            RawPacket fecPacket = fecPackets.getAt(i);
+            if (fecPacket == null) {
                 continue;
             }
+
+            FlexFec03Packet flexFecPacket;
+            if (fecPacket instanceof FlexFec03Packet) {
+                flexFecPacket = (FlexFec03Packet) fecPacket;
+            }
+            else {
+                // Parse the header only once; the parsed packet shares the buffer.
+                flexFecPacket = FlexFec03Packet.create(fecPacket);
+                if (flexFecPacket == null) {
+                    continue;
+                }
+                fecPackets.put(flexFecPacket);
+            }
+
             reconstructor.setFecPacket(flexFecPacket);
             if (reconstructor.complete()) {
-                flexFecPacketsToRemove.add(flexFecPacket.getSequenceNumber());
+                removeFec(i);
                 continue;
             }
             if (reconstructor.canRecover()) {
                 Timber.d("Attempting recovery of missing sequence number %s", reconstructor.missingSequenceNumber);
-                flexFecPacketsToRemove.add(flexFecPacket.getSequenceNumber());
                 RawPacket recovered = reconstructor.recover();
                 if (recovered != null) {
                     Timber.i("Recovered packet %s", recovered.getSequenceNumber());
-                    statistics.numRecoveredPackets++;
-                    saveMedia(recovered);
+                    packetRecovered(recovered);
                     pkts = ArrayUtils.insert(recovered, pkts, RawPacket.class);
                 }
                 else {
@@ -75,21 +86,31 @@ public class FlexFec03Receiver
                             reconstructor.missingSequenceNumber);
                     statistics.failedRecoveries++;
                 }
+                removeFec(i);
             }
         }
-
-        for (Integer flexFecSeqNum : flexFecPacketsToRemove) {
-            fecPackets.remove(flexFecSeqNum);
-        }
         return pkts;
     }
 
+    /**
+     * Removes the fec packet in a specific slot of <tt>fecPackets</tt> and
+     * releases its buffer.
+     *
+     * @param index the index of the slot
+     */
+    private void removeFec(int index)
+    {
+        RawPacket fecPacket = fecPackets.removeAt(index);
+        if (fecPacket != null)
+            ByteArrayPool.returnBuffer(fecPacket.getBuffer());
+    }
+
     private static class Reconstructor
     {
         /**
          * All available media packets.
          */
-        private Map<Integer, RawPacket> mediaPackets;
+        private final PacketRing mediaPackets;
 
         /**
          * The FlexFEC packet to be used for recovery.
@@ -112,10 +133,10 @@ public class FlexFec03Receiver
          * Initializes a new instance.
          *
          * @param mediaPackets the currently available media packets. Note that
-         * this is a reference so it will remain up to date as the map is
+         * this is a reference so it will remain up to date as the ring is
          * filled out by the caller.
          */
-        Reconstructor(Map<Integer, RawPacket> mediaPackets)
+        Reconstructor(PacketRing mediaPackets)
         {
             this.mediaPackets = mediaPackets;
         }
@@ -149,9 +170,9 @@ public class FlexFec03Receiver
             Timber.d("Reconstructor checking if recovery is possible: fec packet %s protects packets:\n%s",
                     p.getSequenceNumber(), p.getProtectedSequenceNumbers());
 
-            for (Integer protectedSeqNum : fecPacket.getProtectedSequenceNumbers()) {
+            for (int protectedSeqNum : fecPacket.getProtectedSequenceNumbers()) {
                 Timber.d("Checking if we've received media packet %s", protectedSeqNum);
-                if (!mediaPackets.containsKey(protectedSeqNum)) {
+                if (mediaPackets.get(protectedSeqNum) == null) {
                     Timber.d("We haven't, mark as missing");
                     numMissing++;
                     missingSequenceNumber = protectedSeqNum;
@@ -291,13 +312,17 @@ public class FlexFec03Receiver
                 return null;
             }
 
-            //TODO: use a pool?
-            byte[] buf = new byte[1500];
-            RawPacket recoveredPacket = new RawPacket(buf, 0, 1500);
+            // The buffer travels downstream with the recovered packet, which
+            // hands it back to the pool once it has been read.
+            byte[] buf = ByteArrayPool.getBuffer(FECTransformEngine.INITIAL_BUFFER_SIZE);
+            RawPacket recoveredPacket = new RawPacket(buf, 0, buf.length);
             if (!startPacketRecovery(this.fecPacket, recoveredPacket)) {
+                ByteArrayPool.returnBuffer(buf);
                 return null;
             }
-            for (Integer protectedSeqNum : fecPacket.getProtectedSequenceNumbers()) {
+            // A pooled buffer is not zeroed; clear what follows the fec payload.
+            Arrays.fill(buf, RawPacket.FIXED_HEADER_SIZE + fecPacket.getFlexFecPayloadLength(), buf.length, (byte) 0);
+            for (int protectedSeqNum : fecPacket.getProtectedSequenceNumbers()) {
                 if (protectedSeqNum != missingSequenceNumber) {
                     RawPacket mediaPacket = mediaPackets.get(protectedSeqNum);
                     xorHeaders(mediaPacket, recoveredPacket);
@@ -310,6 +335,7 @@ public class FlexFec03Receiver
                 }
             }
             if (!finishPacketRecovery(fecPacket, recoveredPacket)) {
+                ByteArrayPool.returnBuffer(buf);
                 return null;
             }
             return recoveredPacket;
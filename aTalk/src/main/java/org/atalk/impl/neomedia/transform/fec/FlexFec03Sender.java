@@ -0,0 +1,451 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.fec;
+
+import net.sf.fmj.media.rtp.RTPHeader;
+
+import org.atalk.impl.neomedia.transform.PacketTransformer;
+import org.atalk.service.neomedia.RawPacket;
+import org.atalk.util.*;
+
+import java.util.*;
+
+import timber.log.Timber;
+
+/**
+ * <tt>PacketTransformer</tt> which adds FlexFEC-03 packets, sent with their own SSRC, to the
+ * media of a specific SSRC.
+ *
+ * The media packets are laid out in blocks of <tt>columns</tt> x <tt>rows</tt> consecutive
+ * sequence numbers, row by row. Depending on the {@link FlexFec03ProtectionPolicy.Protection} in
+ * effect for the block, a fec packet is sent after each complete row (1D non-interleaved), after
+ * each complete column (1D interleaved), or both (2D). The protection is reconsidered at every
+ * block boundary, so the overhead follows the loss pattern of the link.
+ *
+ * @author Eng Chong Meng
+ */
+class FlexFec03Sender implements PacketTransformer
+{
+    /**
+     * The number of sequence numbers before the current block within which a media packet is
+     * late rather than a discontinuity; <tt>MAX_MISORDER</tt> of RFC 3550 appendix A.1.
+     */
+    private static final int MAX_MISORDER = 100;
+
+    /**
+     * The SSRC of the protected media.
+     */
+    private final long ssrc;
+
+    /**
+     * The SSRC of the fec packets.
+     */
+    private final long fecSsrc;
+
+    /**
+     * The payload type of the fec packets.
+     */
+    private byte payloadType;
+
+    /**
+     * The policy which chooses the protection of each block.
+     */
+    private final FlexFec03ProtectionPolicy policy;
+
+    /**
+     * The protection of the current block.
+     */
+    private FlexFec03ProtectionPolicy.Protection protection = FlexFec03ProtectionPolicy.NONE;
+
+    /**
+     * The sequence number of the first media packet of the current block, or -1.
+     */
+    private int blockBase = -1;
+
+    /**
+     * Whether the media packet at each index of the current block was added, so that a
+     * duplicate is not XORed twice; grown on demand.
+     */
+    private boolean[] added = new boolean[0];
+
+    /**
+     * The fec packet of the current row.
+     */
+    private final Encoder rowEncoder = new Encoder();
+
+    /**
+     * The fec packets of the columns of the current block, grown on demand.
+     */
+    private Encoder[] columnEncoders = new Encoder[0];
+
+    /**
+     * The sequence number of the next fec packet.
+     */
+    private int fecSeq = new Random().nextInt(0x10000);
+
+    /**
+     * Number of fec packets added.
+     */
+    private int nbFec = 0;
+
+    /**
+     * Creates a new <tt>FlexFec03Sender</tt> instance.
+     *
+     * @param ssrc the SSRC of the media to protect
+     * @param fecSsrc the SSRC of the fec packets, associated with <tt>ssrc</tt> in signaling
+     * @param payloadType the payload type of the fec packets
+     * @param policy the policy which chooses the protection
+     */
+    FlexFec03Sender(long ssrc, long fecSsrc, byte payloadType, FlexFec03ProtectionPolicy policy)
+    {
+        this.ssrc = ssrc;
+        this.fecSsrc = fecSsrc;
+        this.payloadType = payloadType;
+        this.policy = policy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public RawPacket[] reverseTransform(RawPacket[] pkts)
+    {
+        return pkts;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized RawPacket[] transform(RawPacket[] pkts)
+    {
+        RawPacket pkt = null;
+        for (RawPacket p : pkts) {
+            if (p != null && p.getVersion() == RTPHeader.VERSION) {
+                pkt = p;
+                break;
+            }
+        }
+        if (pkt == null)
+            return pkts;
+
+        return transformSingle(pkt, pkts);
+    }
+
+    /**
+     * Adds <tt>pkt</tt> to the fec packets of its row and column, and adds those which are
+     * complete to <tt>pkts</tt>.
+     *
+     * @param pkt media packet to process.
+     * @param pkts array to try to use for output.
+     * @return an array that contains <tt>pkt</tt> and the fec packets completed by it.
+     */
+    private RawPacket[] transformSingle(RawPacket pkt, RawPacket[] pkts)
+    {
+        int seq = pkt.getSequenceNumber();
+        int index = (blockBase == -1) ? -1 : RTPUtils.getSequenceNumberDelta(seq, blockBase);
+
+        if (blockBase != -1 && index < 0 && index >= -Math.max(MAX_MISORDER, protection.blockSize())) {
+            // A late packet of a previous block, whose fec packets are already sent.
+            return pkts;
+        }
+        if (index < 0 || index >= protection.blockSize()) {
+            // A new block, or a discontinuity: flush what the previous block protects so far.
+            pkts = flush(pkts);
+            FlexFec03ProtectionPolicy.Protection newProtection = policy.getProtection();
+            if (!newProtection.equals(protection)) {
+                Timber.d("FlexFEC protection for ssrc %d: %s", ssrc, newProtection);
+                protection = newProtection;
+            }
+            blockBase = seq;
+            index = 0;
+
+            if (protection.blockSize() == 0) {
+                // No protection: reconsider with the next packet.
+                blockBase = -1;
+                return pkts;
+            }
+            if (columnEncoders.length < protection.columns) {
+                Encoder[] newColumnEncoders = Arrays.copyOf(columnEncoders, protection.columns);
+                for (int i = columnEncoders.length; i < newColumnEncoders.length; i++)
+                    newColumnEncoders[i] = new Encoder();
+                columnEncoders = newColumnEncoders;
+            }
+            if (added.length < protection.blockSize())
+                added = new boolean[protection.blockSize()];
+            else
+                Arrays.fill(added, 0, protection.blockSize(), false);
+        }
+
+        if (added[index])
+            return pkts;
+        added[index] = true;
+
+        int column = index % protection.columns;
+        int row = index / protection.columns;
+
+        if (protection.protectRows) {
+            rowEncoder.addMedia(pkt);
+            if (column == protection.columns - 1)
+                pkts = add(pkts, rowEncoder.finish());
+        }
+        if (protection.protectColumns) {
+            Encoder columnEncoder = columnEncoders[column];
+            columnEncoder.addMedia(pkt);
+            if (row == protection.rows - 1)
+                pkts = add(pkts, columnEncoder.finish());
+        }
+        return pkts;
+    }
+
+    /**
+     * Finishes the fec packets of the incomplete row and columns of the current block, if any.
+     *
+     * @param pkts array to try to use for output.
+     * @return an array that contains <tt>pkts</tt> and the finished fec packets.
+     */
+    private RawPacket[] flush(RawPacket[] pkts)
+    {
+        pkts = add(pkts, rowEncoder.finish());
+        for (Encoder columnEncoder : columnEncoders)
+            pkts = add(pkts, columnEncoder.finish());
+        return pkts;
+    }
+
+    /**
+     * Adds a fec packet to <tt>pkts</tt> using a free slot, if any.
+     *
+     * @param pkts array to try to use for output.
+     * @param fecPacket the fec packet to add, or <tt>null</tt>
+     * @return an array that contains <tt>pkts</tt> and <tt>fecPacket</tt>.
+     */
+    private RawPacket[] add(RawPacket[] pkts, RawPacket fecPacket)
+    {
+        if (fecPacket == null)
+            return pkts;
+
+        nbFec++;
+        for (int i = 0; i < pkts.length; i++) {
+            if (pkts[i] == null) {
+                pkts[i] = fecPacket;
+                return pkts;
+            }
+        }
+
+        RawPacket[] pkts2 = new RawPacket[pkts.length + 1];
+        System.arraycopy(pkts, 0, pkts2, 0, pkts.length);
+        pkts2[pkts.length] = fecPacket;
+        return pkts2;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close()
+    {
+        rowEncoder.reset();
+        for (Encoder columnEncoder : columnEncoders)
+            columnEncoder.reset();
+        Timber.i("Closing FlexFEC-Sender for ssrc: %d. Added %d flexfec packets.", ssrc, nbFec);
+    }
+
+    /**
+     * Sets the payload type of the fec packets.
+     *
+     * @param payloadType the payload type.
+     */
+    public synchronized void setPayloadType(byte payloadType)
+    {
+        this.payloadType = payloadType;
+    }
+
+    /**
+     * Accumulates the XOR of the media packets protected by a single FlexFEC-03 packet.
+     *
+     * The payload (everything after the fixed RTP header of a media packet) is accumulated at
+     * {@link #MAX_HEADERS_LENGTH} in the buffer, and the header fields to recover in fields; the
+     * headers are written in front of the payload once the size of the mask is known. See
+     * {@link FlexFec03HeaderReader} for the format of the FlexFEC-03 header.
+     */
+    private class Encoder
+    {
+        /**
+         * The length of the FlexFEC-03 header up to the mask, for a single SSRC.
+         */
+        private static final int FLEXFEC_HEADER_LENGTH = 18;
+
+        /**
+         * The length of the largest FlexFEC-03 mask.
+         */
+        private static final int MAX_MASK_LENGTH = 14;
+
+        /**
+         * The length of the RTP and FlexFEC-03 headers of a fec packet with the largest mask.
+         */
+        private static final int MAX_HEADERS_LENGTH
+                = RawPacket.FIXED_HEADER_SIZE + FLEXFEC_HEADER_LENGTH + MAX_MASK_LENGTH;
+
+        /**
+         * The sequence numbers of the media packets added; as many as a mask can express.
+         */
+        private final int[] protectedSeqs = new int[109];
+
+        /**
+         * The number of media packets added.
+         */
+        private int numProtected = 0;
+
+        /**
+         * The buffer of the fec packet, or <tt>null</tt> before the first media packet.
+         */
+        private byte[] buf;
+
+        /**
+         * The length of the longest payload added, i.e. of the fec payload.
+         */
+        private int payloadLength;
+
+        /**
+         * The XOR of the first two bytes (V, P, X, CC, M, PT) of the media packets added.
+         */
+        private int firstBytesRecovery;
+
+        /**
+         * The XOR of the payload lengths of the media packets added.
+         */
+        private int lengthRecovery;
+
+        /**
+         * The XOR of the timestamps of the media packets added.
+         */
+        private int tsRecovery;
+
+        /**
+         * The RTP timestamp of the last media packet added.
+         */
+        private long lastTimestamp;
+
+        /**
+         * Adds a media packet to be protected by this fec packet.
+         *
+         * @param media the media packet to add.
+         */
+        void addMedia(RawPacket media)
+        {
+            byte[] mediaBuf = media.getBuffer();
+            int mediaOff = media.getOffset();
+            int mediaPayloadLength = media.getLength() - RawPacket.FIXED_HEADER_SIZE;
+
+            if (numProtected == protectedSeqs.length || mediaPayloadLength < 0)
+                return;
+
+            if (buf == null || buf.length < MAX_HEADERS_LENGTH + mediaPayloadLength) {
+                byte[] newBuf = ByteArrayPool.getBuffer(
+                        MAX_HEADERS_LENGTH + Math.max(mediaPayloadLength, FECTransformEngine.INITIAL_BUFFER_SIZE));
+                if (buf != null) {
+                    System.arraycopy(buf, MAX_HEADERS_LENGTH, newBuf, MAX_HEADERS_LENGTH, payloadLength);
+                    ByteArrayPool.returnBuffer(buf);
+                }
+                buf = newBuf;
+            }
+            if (mediaPayloadLength > payloadLength) {
+                // A pooled buffer is not zeroed; the XOR extends into this region.
+                Arrays.fill(buf, MAX_HEADERS_LENGTH + payloadLength, MAX_HEADERS_LENGTH + mediaPayloadLength, (byte) 0);
+                payloadLength = mediaPayloadLength;
+            }
+
+            firstBytesRecovery ^= RTPUtils.readUint16AsInt(mediaBuf, mediaOff);
+            lengthRecovery ^= mediaPayloadLength;
+            tsRecovery ^= (int) RTPUtils.readUint32AsLong(mediaBuf, mediaOff + 4);
+            for (int i = 0; i < mediaPayloadLength; i++)
+                buf[MAX_HEADERS_LENGTH + i] ^= mediaBuf[mediaOff + RawPacket.FIXED_HEADER_SIZE + i];
+
+            protectedSeqs[numProtected++] = media.getSequenceNumber();
+            lastTimestamp = media.getTimestamp();
+        }
+
+        /**
+         * Writes the headers of the fec packet, and resets this instance for the next one.
+         *
+         * @return the fec packet, or <tt>null</tt> if no media packets were added.
+         */
+        RawPacket finish()
+        {
+            if (numProtected == 0)
+                return null;
+
+            List<Integer> seqs = new ArrayList<>(numProtected);
+            for (int i = 0; i < numProtected; i++)
+                seqs.add(protectedSeqs[i]);
+
+            FlexFec03Mask mask;
+            try {
+                mask = new FlexFec03Mask(protectedSeqs[0], seqs);
+            } catch (FlexFec03Mask.MalformedMaskException e) {
+                Timber.w("Failed to create the FlexFEC mask for %s", seqs);
+                reset();
+                return null;
+            }
+            byte[] maskBytes = mask.getMaskWithKBits().toByteArray();
+
+            int headersLength = RawPacket.FIXED_HEADER_SIZE + FLEXFEC_HEADER_LENGTH + maskBytes.length;
+            int off = MAX_HEADERS_LENGTH - headersLength;
+            RawPacket fecPacket = new RawPacket(buf, off, headersLength + payloadLength);
+
+            // RTP header: no Padding, no Extension, no CSRCs
+            buf[off] = (byte) 0x80;
+            buf[off + 1] = 0;
+            fecPacket.setPayloadType(payloadType);
+            fecPacket.setSequenceNumber(fecSeq);
+            fecPacket.setTimestamp(lastTimestamp);
+            fecPacket.setSSRC((int) fecSsrc);
+            fecSeq = (fecSeq + 1) & 0xffff;
+
+            // FlexFEC header; R and F are 0 i.e. no retransmission and a flexible mask
+            int fec = off + RawPacket.FIXED_HEADER_SIZE;
+            RTPUtils.writeShort(buf, fec, (short) (firstBytesRecovery & 0x3fff));
+            RTPUtils.writeShort(buf, fec + 2, (short) lengthRecovery);
+            RTPUtils.writeInt(buf, fec + 4, tsRecovery);
+            RTPUtils.writeInt(buf, fec + 8, 1 << 24); // SSRCCount 1, reserved
+            RTPUtils.writeInt(buf, fec + 12, (int) ssrc);
+            RTPUtils.writeShort(buf, fec + 16, (short) protectedSeqs[0]);
+            System.arraycopy(maskBytes, 0, buf, fec + FLEXFEC_HEADER_LENGTH, maskBytes.length);
+
+            // The buffer now belongs to the fec packet.
+            buf = null;
+            reset();
+            return fecPacket;
+        }
+
+        /**
+         * Forgets the media packets added, and releases the buffer, if any.
+         */
+        void reset()
+        {
+            if (buf != null) {
+                ByteArrayPool.returnBuffer(buf);
+                buf = null;
+            }
+            numProtected = 0;
+            payloadLength = 0;
+            firstBytesRecovery = 0;
+            lengthRecovery = 0;
+            tsRecovery = 0;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.fec;
+
+import org.atalk.service.neomedia.RawPacket;
+import org.atalk.util.RTPUtils;
+
+/**
+ * A window of <tt>RawPacket</tt>s indexed by their RTP sequence numbers, without boxing.
+ *
+ * The packet with sequence number <tt>seq</tt> lives in slot <tt>seq & mask</tt> of an array of a
+ * power of two length, so a packet displaces the one a window length older. A packet older than
+ * the one occupying its slot is outside of the window and is not kept. Not thread-safe.
+ *
+ * @author Eng Chong Meng
+ */
+class PacketRing
+{
+    /**
+     * The packets; the one with sequence number <tt>seq</tt> at index <tt>seq & mask</tt>.
+     */
+    private final RawPacket[] packets;
+
+    private final int mask;
+
+    /**
+     * The number of packets in {@link #packets}.
+     */
+    private int size = 0;
+
+    /**
+     * Initializes a new <tt>PacketRing</tt>.
+     *
+     * @param window the number of consecutive sequence numbers to keep; rounded up to a power of two
+     */
+    PacketRing(int window)
+    {
+        int length = Integer.highestOneBit(Math.max(window, 1) - 1) << 1;
+        if (length == 0)
+            length = 1;
+        packets = new RawPacket[length];
+        mask = length - 1;
+    }
+
+    /**
+     * Gets the packet with a specific sequence number.
+     *
+     * @param seq the RTP sequence number
+     * @return the packet with sequence number <tt>seq</tt> or <tt>null</tt>
+     */
+    RawPacket get(int seq)
+    {
+        RawPacket p = packets[seq & mask];
+        return ((p != null) && (p.getSequenceNumber() == seq)) ? p : null;
+    }
+
+    /**
+     * Determines whether a packet with a specific sequence number is outside of the window i.e.
+     * its slot holds a newer packet.
+     *
+     * @param seq the RTP sequence number
+     * @return <tt>true</tt> if a packet with sequence number <tt>seq</tt> is not to be kept
+     */
+    boolean isTooOld(int seq)
+    {
+        RawPacket p = packets[seq & mask];
+        return (p != null) && RTPUtils.isOlderSequenceNumberThan(seq, p.getSequenceNumber());
+    }
+
+    /**
+     * Puts a packet into its slot, unless it is outside of the window.
+     *
+     * @param p the packet to put
+     * @return the packet displaced from the slot of <tt>p</tt> (the one a window length older or a
+     * duplicate), <tt>null</tt> if the slot was free, or <tt>p</tt> itself if it was not put
+     */
+    RawPacket put(RawPacket p)
+    {
+        int seq = p.getSequenceNumber();
+        if (isTooOld(seq))
+            return p;
+
+        int i = seq & mask;
+        RawPacket displaced = packets[i];
+        packets[i] = p;
+        if (displaced == null)
+            size++;
+        return displaced;
+    }
+
+    /**
+     * Removes whatever packet occupies the slot of a specific sequence number.
+     *
+     * @param seq the RTP sequence number
+     * @return the removed packet or <tt>null</tt>
+     */
+    RawPacket removeSlotOf(int seq)
+    {
+        return removeAt(seq & mask);
+    }
+
+    /**
+     * Removes the packet with a specific sequence number.
+     *
+     * @param seq the RTP sequence number
+     * @return the removed packet or <tt>null</tt> if there is no packet with sequence number <tt>seq</tt>
+     */
+    RawPacket remove(int seq)
+    {
+        return (get(seq) == null) ? null : removeAt(seq & mask);
+    }
+
+    /**
+     * Gets the number of slots, for iteration with {@link #getAt(int)}.
+     *
+     * @return the number of slots
+     */
+    int capacity()
+    {
+        return packets.length;
+    }
+
+    /**
+     * Gets the packet in a specific slot.
+     *
+     * @param index the index of the slot
+     * @return the packet in slot <tt>index</tt> or <tt>null</tt>
+     */
+    RawPacket getAt(int index)
+    {
+        return packets[index];
+    }
+
+    /**
+     * Removes the packet in a specific slot; safe during an iteration with {@link #getAt(int)}.
+     *
+     * @param index the index of the slot
+     * @return the removed packet or <tt>null</tt>
+     */
+    RawPacket removeAt(int index)
+    {
+        RawPacket p = packets[index];
+        if (p != null) {
+            packets[index] = null;
+            size--;
+        }
+        return p;
+    }
+
+    /**
+     * Gets the number of packets kept.
+     *
+     * @return the number of packets kept
+     */
+    int size()
+    {
+        return size;
+    }
+}
@@ -16,10 +16,9 @@
 package org.atalk.impl.neomedia.transform.fec;
 
 import org.atalk.service.neomedia.RawPacket;
+import org.atalk.util.ByteArrayPool;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
 import timber.log.Timber;
 
@@ -32,13 +31,6 @@ import timber.log.Timber;
  */
 public class ULPFECReceiver extends AbstractFECReceiver
 {
-    /**
-     * A <tt>Set</tt> of packets which will be reused every time a
-     * packet is recovered. Defined here to avoid recreating it on every call
-     * to <tt>reverseTransform</tt>.
-     */
-    private final Set<RawPacket> packetsToRemove = new HashSet<RawPacket>();
-
     private Reconstructor reconstructor;
 
     public ULPFECReceiver(long ssrc, byte payloadType)
@@ -53,27 +45,28 @@ public class ULPFECReceiver extends AbstractFECReceiver
         // we could recover
         if (handleFec) {
             // go over our saved fec packets and see if any of them can be
-            // used to recover a media packet. Add packets which aren't
-            // needed anymore to packetsToRemove
-            packetsToRemove.clear();
-            for (Map.Entry<Integer, RawPacket> entry : fecPackets.entrySet()) {
-                RawPacket fecPacket = entry.getValue();
+            // used to recover a media packet. Remove packets which aren't
+            // needed anymore.
+            for (int j = 0; j < fecPackets.capacity(); j++) {
+                RawPacket fecPacket = fecPackets.getAt(j);
+                if (fecPacket == null)
+                    continue;
+
                 reconstructor.setFecPacket(fecPacket);
                 if (reconstructor.numMissing == 0) {
                     // We already have all media packets for this fec packet,
                     // no need to keep it and keep checking.
-                    packetsToRemove.add(fecPacket);
+                    removeFec(j);
                     continue;
                 }
 
                 if (reconstructor.canRecover()) {
-                    packetsToRemove.add(fecPacket);
                     RawPacket recovered = reconstructor.recover();
+                    removeFec(j);
 
                     // save it
                     if (recovered != null) {
-                        statistics.numRecoveredPackets++;
-                        saveMedia(recovered);
+                        packetRecovered(recovered);
 
                         // search for an empty spot in pkts where to place
                         // recovered
@@ -95,14 +88,24 @@ public class ULPFECReceiver extends AbstractFECReceiver
                     }
                 }
             }
-
-            for (RawPacket p : packetsToRemove)
-                fecPackets.remove(p.getSequenceNumber());
         }
         return pkts;
 
     }
 
+    /**
+     * Removes the fec packet in a specific slot of <tt>fecPackets</tt> and
+     * releases its buffer.
+     *
+     * @param index the index of the slot
+     */
+    private void removeFec(int index)
+    {
+        RawPacket fecPacket = fecPackets.removeAt(index);
+        if (fecPacket != null)
+            ByteArrayPool.returnBuffer(fecPacket.getBuffer());
+    }
+
     /**
      * A class that allows the recovery of a <tt>RawPacket</tt> given a set
      * of media packets and an ulpfec packet.
@@ -117,9 +120,15 @@ public class ULPFECReceiver extends AbstractFECReceiver
     {
         /**
          * Subset of the media packets which is needed for recovery, given a
-         * specific value of <tt>fecPacket</tt>.
+         * specific value of <tt>fecPacket</tt>; the first
+         * <tt>numNeededPackets</tt> elements. A long mask protects at most 48.
+         */
+        private final RawPacket[] neededPackets = new RawPacket[48];
+
+        /**
+         * The number of packets in <tt>neededPackets</tt>.
          */
-        private Set<RawPacket> neededPackets = new HashSet<RawPacket>();
+        private int numNeededPackets = 0;
 
         /**
          * The ulpfec packet to be used for recovery.
@@ -148,7 +157,7 @@ public class ULPFECReceiver extends AbstractFECReceiver
         /**
          * All available media packets.
          */
-        private Map<Integer, RawPacket> mediaPackets;
+        private final PacketRing mediaPackets;
 
         /**
          * Initializes a new instance.
@@ -158,7 +167,7 @@ public class ULPFECReceiver extends AbstractFECReceiver
          * @param ssrc
          *         the ssrc to use
          */
-        Reconstructor(Map<Integer, RawPacket> mediaPackets, long ssrc)
+        Reconstructor(PacketRing mediaPackets, long ssrc)
         {
             this.mediaPackets = mediaPackets;
             this.ssrc = ssrc;
@@ -189,7 +198,8 @@ public class ULPFECReceiver extends AbstractFECReceiver
         private void setFecPacket(RawPacket p)
         {
             // reset all fields specific to fecPacket
-            neededPackets.clear();
+            Arrays.fill(neededPackets, 0, numNeededPackets, null);
+            numNeededPackets = 0;
             numMissing = 0;
             sequenceNumber = -1;
             fecPacket = p;
@@ -209,12 +219,13 @@ public class ULPFECReceiver extends AbstractFECReceiver
                 for (int j = 0; j < 8; j++) {
                     if ((buf[idx + i] & (1 << (7 - j) & 0xff)) != 0) {
                         //j-th bit in i-th byte in the mask is set
-                        pkt = mediaPackets.get(base + i * 8 + j);
+                        int seq = (base + i * 8 + j) & 0xffff;
+                        pkt = mediaPackets.get(seq);
                         if (pkt != null) {
-                            neededPackets.add(pkt);
+                            neededPackets[numNeededPackets++] = pkt;
                         }
                         else {
-                            sequenceNumber = base + i * 8 + j;
+                            sequenceNumber = seq;
                             numMissing++;
                         }
                     }
@@ -242,15 +253,18 @@ public class ULPFECReceiver extends AbstractFECReceiver
 
             int lengthRecovery = (fecBuf[idx + 8] & 0xff) << 8 |
                     (fecBuf[idx + 9] & 0xff);
-            for (RawPacket p : neededPackets)
-                lengthRecovery ^= p.getLength() - 12;
+            for (int i = 0; i < numNeededPackets; i++)
+                lengthRecovery ^= neededPackets[i].getLength() - 12;
             lengthRecovery &= 0xffff;
 
-            byte[] recoveredBuf = new byte[lengthRecovery + 12]; //include RTP header
+            // include RTP header; every byte is overwritten below, so the
+            // pooled buffer needs no clearing.
+            byte[] recoveredBuf = ByteArrayPool.getBuffer(lengthRecovery + 12);
 
             // restore the first 8 bytes of the header
             System.arraycopy(fecBuf, idx, recoveredBuf, 0, 8);
-            for (RawPacket p : neededPackets) {
+            for (int n = 0; n < numNeededPackets; n++) {
+                RawPacket p = neededPackets[n];
                 int pOffset = p.getOffset();
                 byte[] pBuf = p.getBuffer();
                 for (int i = 0; i < 8; i++)
@@ -272,6 +286,7 @@ public class ULPFECReceiver extends AbstractFECReceiver
                 // The FEC Level 0 payload only covers part of the media
                 // packet, which isn't useful for us.
                 Timber.w("Recovered only a partial RTP packet. Discarding.");
+                ByteArrayPool.returnBuffer(recoveredBuf);
                 return null;
             }
 
@@ -283,7 +298,8 @@ public class ULPFECReceiver extends AbstractFECReceiver
             System.arraycopy(fecBuf, idx, recoveredBuf, 12, lengthRecovery);
 
             // restore payload from media packets
-            for (RawPacket p : neededPackets) {
+            for (int n = 0; n < numNeededPackets; n++) {
+                RawPacket p = neededPackets[n];
                 byte[] pBuf = p.getBuffer();
                 int pLen = p.getLength();
                 int pOff = p.getOffset();
@@ -0,0 +1,270 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.rtcp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters of the RTCP reports sent by a {@link StatisticsEngine}, per SSRC. The records are
+ * kept in an open-addressing table keyed by the primitive SSRC, so that updating them from the
+ * packet path neither boxes the SSRC nor takes a lock; only the insertion of a new SSRC does.
+ * Records are never removed, a stream only sees a handful of SSRCs.
+ *
+ * @author Eng Chong Meng
+ */
+public class SSRCCounters
+{
+    /**
+     * The initial capacity of the table, a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * The table of the records, probed linearly. It is replaced by a larger copy when it gets
+     * half full, so that lookups always find an empty slot.
+     */
+    private volatile Counters[] table = new Counters[INITIAL_CAPACITY];
+
+    /**
+     * The number of records in {@link #table}.
+     */
+    private int size = 0;
+
+    /**
+     * Gets the record of an SSRC, creating it if there is none yet.
+     *
+     * @param ssrc the SSRC
+     * @return the <tt>Counters</tt> of <tt>ssrc</tt>
+     */
+    public Counters get(long ssrc)
+    {
+        Counters counters = find(table, ssrc);
+        if (counters != null)
+            return counters;
+
+        synchronized (this) {
+            Counters[] t = table;
+            counters = find(t, ssrc);
+            if (counters == null) {
+                counters = new Counters(ssrc);
+                if (2 * (size + 1) > t.length) {
+                    Counters[] grown = new Counters[2 * t.length];
+                    for (Counters c : t) {
+                        if (c != null)
+                            grown[slot(grown, c.ssrc)] = c;
+                    }
+                    grown[slot(grown, ssrc)] = counters;
+                    table = grown;
+                }
+                else {
+                    t[slot(t, ssrc)] = counters;
+                }
+                size++;
+            }
+            return counters;
+        }
+    }
+
+    /**
+     * Gets the record of an SSRC.
+     *
+     * @param ssrc the SSRC
+     * @return the <tt>Counters</tt> of <tt>ssrc</tt>, or <tt>null</tt> if there is none
+     */
+    public Counters find(long ssrc)
+    {
+        return find(table, ssrc);
+    }
+
+    /**
+     * Takes a snapshot of the counters of all the SSRCs, without blocking their updates. The
+     * counters of a record are read one after the other, so a snapshot taken while a report is
+     * counted may include only part of it.
+     *
+     * @return the <tt>Snapshot</tt>
+     */
+    public Snapshot snapshot()
+    {
+        Counters[] t = table;
+        int count = 0;
+        for (Counters c : t) {
+            if (c != null)
+                count++;
+        }
+
+        Snapshot snapshot = new Snapshot(count);
+        int i = 0;
+        for (Counters c : t) {
+            if (c != null && i < count) {
+                snapshot.ssrcs[i] = c.ssrc;
+                snapshot.rtcpReports[i] = c.rtcpReports.get();
+                snapshot.jitterSums[i] = c.jitterSum.get();
+                snapshot.totalRTCPReports += snapshot.rtcpReports[i];
+                snapshot.totalJitterSum += snapshot.jitterSums[i];
+                i++;
+            }
+        }
+        return snapshot;
+    }
+
+    private static Counters find(Counters[] t, long ssrc)
+    {
+        int mask = t.length - 1;
+        for (int i = hash(ssrc) & mask; ; i = (i + 1) & mask) {
+            Counters c = t[i];
+            if (c == null || c.ssrc == ssrc)
+                return c;
+        }
+    }
+
+    /**
+     * Gets the empty slot of a table to insert an SSRC into.
+     */
+    private static int slot(Counters[] t, long ssrc)
+    {
+        int mask = t.length - 1;
+        int i = hash(ssrc) & mask;
+        while (t[i] != null)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private static int hash(long ssrc)
+    {
+        // SSRCs are random, mixing keeps the adjacent ones of tests apart.
+        int h = (int) (ssrc ^ (ssrc >>> 32));
+        return (h ^ (h >>> 16)) * 0x45d9f3b;
+    }
+
+    /**
+     * The counters of an SSRC.
+     */
+    public static class Counters
+    {
+        private final long ssrc;
+
+        /**
+         * The number of RTCP sender reports (SR) and/or receiver reports (RR) sent.
+         */
+        private final AtomicLong rtcpReports = new AtomicLong();
+
+        /**
+         * The sum of the jitter values reported in RTCP reports, in RTP timestamp units.
+         */
+        private final AtomicLong jitterSum = new AtomicLong();
+
+        private Counters(long ssrc)
+        {
+            this.ssrc = ssrc;
+        }
+
+        /**
+         * Counts an RTCP report sent.
+         *
+         * @param jitter the jitter reported, in RTP timestamp units
+         * @return the number of RTCP reports sent, including this one
+         */
+        public long rtcpReportSent(long jitter)
+        {
+            jitterSum.addAndGet(jitter);
+            return rtcpReports.incrementAndGet();
+        }
+
+        public long getSSRC()
+        {
+            return ssrc;
+        }
+
+        public long getRTCPReports()
+        {
+            return rtcpReports.get();
+        }
+
+        public long getJitterSum()
+        {
+            return jitterSum.get();
+        }
+    }
+
+    /**
+     * The values of the counters of all the SSRCs at some point in time.
+     */
+    public static class Snapshot
+    {
+        private final long[] ssrcs;
+
+        private final long[] rtcpReports;
+
+        private final long[] jitterSums;
+
+        private long totalRTCPReports = 0;
+
+        private long totalJitterSum = 0;
+
+        private Snapshot(int size)
+        {
+            ssrcs = new long[size];
+            rtcpReports = new long[size];
+            jitterSums = new long[size];
+        }
+
+        /**
+         * Gets the number of SSRCs in this snapshot.
+         *
+         * @return the number of SSRCs in this snapshot
+         */
+        public int size()
+        {
+            return ssrcs.length;
+        }
+
+        public long getSSRC(int i)
+        {
+            return ssrcs[i];
+        }
+
+        public long getRTCPReports(int i)
+        {
+            return rtcpReports[i];
+        }
+
+        public long getJitterSum(int i)
+        {
+            return jitterSums[i];
+        }
+
+        public long getTotalRTCPReports()
+        {
+            return totalRTCPReports;
+        }
+
+        public long getTotalJitterSum()
+        {
+            return totalJitterSum;
+        }
+
+        /**
+         * Gets the average jitter reported over all the SSRCs.
+         *
+         * @return the average jitter reported, in RTP timestamp units, or 0 if no report was sent
+         */
+        public double getAvgJitter()
+        {
+            return (totalRTCPReports == 0) ? 0 : ((double) totalJitterSum) / totalRTCPReports;
+        }
+    }
+}
@@ -87,7 +87,7 @@ public class StatisticsEngine extends SinglePacketTransformer implements Transfo
     /**
      * The minimum inter arrival jitter value we have reported, in RTP timestamp units.
      */
-    private long maxInterArrivalJitter = 0;
+    private volatile long maxInterArrivalJitter = 0;
 
     /**
      * The stream created us.
@@ -102,17 +102,13 @@ public class StatisticsEngine extends SinglePacketTransformer implements Transfo
     /**
      * The minimum inter arrival jitter value we have reported, in RTP timestamp units.
      */
-    private long minInterArrivalJitter = -1;
+    private volatile long minInterArrivalJitter = -1;
 
     /**
-     * The number of RTCP sender reports (SR) and/or receiver reports (RR) sent. Mapped per ssrc.
+     * The number of RTCP sender reports (SR) and/or receiver reports (RR) sent, and the sum of
+     * the jitter values we have reported in them, in RTP timestamp units. Mapped per ssrc.
      */
-    private final Map<Long, Long> numberOfRTCPReportsMap = new HashMap<>();
-
-    /**
-     * The sum of the jitter values we have reported in RTCP reports, in RTP timestamp units.
-     */
-    private final Map<Long, Long> jitterSumMap = new HashMap<>();
+    private final SSRCCounters ssrcCounters = new SSRCCounters();
 
     /**
      * The {@link RTCPPacketParserEx} which this instance will use to parse RTCP packets.
@@ -612,10 +608,18 @@ public class StatisticsEngine extends SinglePacketTransformer implements Transfo
      */
     public double getAvgInterArrivalJitter()
     {
-        long numberOfRTCPReports = getCumulativeValue(numberOfRTCPReportsMap);
-        long jitterSum = getCumulativeValue(jitterSumMap);
+        return ssrcCounters.snapshot().getAvgJitter();
+    }
 
-        return numberOfRTCPReports == 0 ? 0 : ((double) jitterSum) / numberOfRTCPReports;
+    /**
+     * Gets a snapshot of the counters of the RTCP reports sent, per SSRC. Taking it does not block
+     * the packet path.
+     *
+     * @return the <tt>SSRCCounters.Snapshot</tt>
+     */
+    public SSRCCounters.Snapshot getSSRCCountersSnapshot()
+    {
+        return ssrcCounters.snapshot();
     }
 
     /**
@@ -888,7 +892,7 @@ public class StatisticsEngine extends SinglePacketTransformer implements Transfo
                 long ssrc = feedback.getSSRC();
                 long jitter = feedback.getJitter();
 
-                incrementSSRCCounter(numberOfRTCPReportsMap, ssrc, 1);
+                long numberOfRTCPReports = ssrcCounters.get(ssrc).rtcpReportSent(jitter);
 
                 if (jitter < getMinInterArrivalJitter()
                         || getMinInterArrivalJitter() == -1) {
@@ -897,10 +901,7 @@ public class StatisticsEngine extends SinglePacketTransformer implements Transfo
                 if (getMaxInterArrivalJitter() < jitter)
                     maxInterArrivalJitter = jitter;
 
-                incrementSSRCCounter(jitterSumMap, ssrc, jitter);
-
                 if (TimberLog.isTraceEnable) {
-                    long numberOfRTCPReports = getMapValue(numberOfRTCPReportsMap, ssrc);
                     // As sender reports are sent on every 5 seconds, print
                     // every 4th packet, on every 20 seconds.
                     if (numberOfRTCPReports % 4 == 1) {
@@ -932,60 +933,6 @@ public class StatisticsEngine extends SinglePacketTransformer implements Transfo
         }
     }
 
-    /**
-     * Computes the sum of the values of a specific {@code Map} with {@code Long} values.
-     *
-     * @param map the {@code Map} with {@code Long} values to sum up. Note that
-     * we synchronize on this object!
-     * @return the sum of the values of the specified {@code map}
-     */
-    private static long getCumulativeValue(Map<?, Long> map)
-    {
-        long cumulativeValue = 0;
-
-        synchronized (map) {
-            for (Long value : map.values()) {
-                if (value == null)
-                    continue;
-                cumulativeValue += value;
-            }
-        }
-        return cumulativeValue;
-    }
-
-    /**
-     * Utility method to return a value from a map and perform unboxing only if
-     * the result value is not null.
-     *
-     * @param map the map to get the value. Note that we synchronize on that object!
-     * @param ssrc the key
-     * @return the result value or 0 if nothing is found.
-     */
-    private static long getMapValue(Map<?, Long> map, long ssrc)
-    {
-        synchronized (map) {
-            // there can be no entry, or the value can be null
-            Long res = map.get(ssrc);
-            return res == null ? 0 : res;
-        }
-    }
-
-    /**
-     * Utility method to increment map value with specified step. If entry is missing add it.
-     *
-     * @param map the map holding the values. Note that we synchronize on that
-     * object!
-     * @param ssrc the key of the value to increment
-     * @param step increment step value
-     */
-    private static void incrementSSRCCounter(Map<Long, Long> map, long ssrc, long step)
-    {
-        synchronized (map) {
-            Long count = map.get(ssrc);
-            map.put(ssrc, (count == null) ? step : (count + step));
-        }
-    }
-
     private class RTPPacketTransformer extends SinglePacketTransformerAdapter
     {
         private RTPPacketTransformer()
@@ -1003,7 +950,8 @@ public class StatisticsEngine extends SinglePacketTransformer implements Transfo
         @Override
         public RawPacket reverseTransform(RawPacket pkt)
         {
-            mediaStreamStats.rtpPacketReceived(pkt.getSSRCAsLong(), pkt.getSequenceNumber(), pkt.getLength());
+            mediaStreamStats.rtpPacketReceived(pkt.getSSRCAsLong(), pkt.getSequenceNumber(),
+                    pkt.getTimestamp(), pkt.getLength());
             return pkt;
         }
     }
@@ -68,6 +68,11 @@ public class BaseSrtpCryptoContext
      */
     protected final SrtpCipherF8 cipherF8;
 
+    /**
+     * AEAD AES-GCM cipher according to RFC 7714; it both encrypts and authenticates.
+     */
+    protected final SrtpCipherGcm cipherGcm;
+
     /**
      * Temp store.
      */
@@ -120,6 +125,7 @@ public class BaseSrtpCryptoContext
 
         cipherCtr = null;
         cipherF8 = null;
+        cipherGcm = null;
         mac = null;
         policy = null;
         saltKey = null;
@@ -159,6 +165,7 @@ public class BaseSrtpCryptoContext
 
         SrtpCipherCtr cipherCtr = null;
         SrtpCipherF8 cipherF8 = null;
+        SrtpCipherGcm cipherGcm = null;
         byte[] saltKey = null;
 
         switch (policy.getEncType()) {
@@ -189,9 +196,21 @@ public class BaseSrtpCryptoContext
                 cipherCtr = new SrtpCipherCtrJava(new TwofishEngine());
                 saltKey = new byte[saltKeyLength];
                 break;
+
+            case SrtpPolicy.AESGCM_ENCRYPTION:
+                // use OpenSSL if available, it uses the AES-NI / ARMv8 crypto extensions
+                if (OpenSslWrapperLoader.isLoaded()) {
+                    cipherGcm = new SrtpCipherGcmOpenSsl();
+                }
+                else {
+                    cipherGcm = new SrtpCipherGcmJava();
+                }
+                saltKey = new byte[saltKeyLength];
+                break;
         }
         this.cipherCtr = cipherCtr;
         this.cipherF8 = cipherF8;
+        this.cipherGcm = cipherGcm;
         this.saltKey = saltKey;
 
         Mac mac;
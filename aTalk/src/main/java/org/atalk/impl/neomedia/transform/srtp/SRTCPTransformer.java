@@ -5,10 +5,12 @@
  */
 package org.atalk.impl.neomedia.transform.srtp;
 
+import org.atalk.impl.neomedia.stats.NeomediaMetrics;
 import org.atalk.impl.neomedia.transform.SinglePacketTransformer;
 import org.atalk.service.neomedia.RawPacket;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * SRTCPTransformer implements PacketTransformer. It encapsulate the encryption / decryption logic
@@ -20,13 +22,24 @@ import java.util.*;
  */
 public class SRTCPTransformer extends SinglePacketTransformer
 {
-    private SrtpContextFactory forwardFactory;
-    private SrtpContextFactory reverseFactory;
+    private volatile SrtpContextFactory forwardFactory;
+    private volatile SrtpContextFactory reverseFactory;
 
     /**
-     * All the known SSRC's corresponding SRTCPCryptoContexts
+     * All the known SSRC's corresponding SRTCPCryptoContexts for the forward transformations;
+     * the two directions never share a context.
      */
-    private final Map<Integer, SrtcpCryptoContext> contexts;
+    private final Map<Integer, SrtcpCryptoContext> forwardContexts = new ConcurrentHashMap<>();
+
+    /**
+     * All the known SSRC's corresponding SRTCPCryptoContexts for the reverse transformations.
+     */
+    private final Map<Integer, SrtcpCryptoContext> reverseContexts = new ConcurrentHashMap<>();
+
+    /**
+     * Synchronizes the replacement and the closing of the context factories.
+     */
+    private final Object factorySyncRoot = new Object();
 
     /**
      * Constructs an <tt>SRTCPTransformer</tt>, sharing its <tt>SRTPContextFactory</tt> instances
@@ -60,7 +73,6 @@ public class SRTCPTransformer extends SinglePacketTransformer
     {
         this.forwardFactory = forwardFactory;
         this.reverseFactory = reverseFactory;
-        this.contexts = new HashMap<>();
     }
 
     /**
@@ -72,7 +84,7 @@ public class SRTCPTransformer extends SinglePacketTransformer
      */
     public void updateFactory(SrtpContextFactory factory, boolean forward)
     {
-        synchronized (contexts) {
+        synchronized (factorySyncRoot) {
             if (forward) {
                 if (this.forwardFactory != null && this.forwardFactory != factory) {
                     this.forwardFactory.close();
@@ -95,31 +107,44 @@ public class SRTCPTransformer extends SinglePacketTransformer
      */
     public void close()
     {
-        synchronized (contexts) {
+        synchronized (factorySyncRoot) {
             forwardFactory.close();
             if (reverseFactory != forwardFactory)
                 reverseFactory.close();
 
-            for (Iterator<SrtcpCryptoContext> i = contexts.values().iterator(); i.hasNext(); ) {
-                SrtcpCryptoContext context = i.next();
+            closeContexts(forwardContexts);
+            closeContexts(reverseContexts);
+        }
+    }
+
+    private static void closeContexts(Map<Integer, SrtcpCryptoContext> contexts)
+    {
+        for (Iterator<SrtcpCryptoContext> i = contexts.values().iterator(); i.hasNext(); ) {
+            SrtcpCryptoContext context = i.next();
 
-                i.remove();
-                if (context != null)
-                    context.close();
-            }
+            i.remove();
+            if (context != null)
+                context.close();
         }
     }
 
-    private SrtcpCryptoContext getContext(RawPacket pkt, SrtpContextFactory engine)
+    /**
+     * Gets the context of the packet sender SSRC for one direction, deriving it on first use.
+     * The lookup is lock free; a context derived concurrently by another thread wins.
+     */
+    private SrtcpCryptoContext getContext(RawPacket pkt, SrtpContextFactory engine,
+            Map<Integer, SrtcpCryptoContext> contexts)
     {
         int ssrc = (int) pkt.getRTCPSSRC();
-        SrtcpCryptoContext context;
+        SrtcpCryptoContext context = contexts.get(ssrc);
+
+        if (context == null && engine != null) {
+            context = engine.deriveControlContext(ssrc);
 
-        synchronized (contexts) {
-            context = contexts.get(ssrc);
-            if (context == null && engine != null) {
-                context = engine.deriveControlContext(ssrc);
-                contexts.put(ssrc, context);
+            SrtcpCryptoContext existing = contexts.putIfAbsent(ssrc, context);
+            if (existing != null) {
+                context.close();
+                context = existing;
             }
         }
         return context;
@@ -134,12 +159,17 @@ public class SRTCPTransformer extends SinglePacketTransformer
     @Override
     public RawPacket reverseTransform(RawPacket pkt)
     {
-        SrtcpCryptoContext context = getContext(pkt, reverseFactory);
+        SrtcpCryptoContext context = getContext(pkt, reverseFactory, reverseContexts);
         if (context == null) {
             return null;
         }
 
-        return (context.reverseTransformPacket(pkt) == SrtpErrorStatus.OK) ? pkt : null;
+        SrtpErrorStatus status = context.reverseTransformPacket(pkt);
+        if (status != SrtpErrorStatus.OK) {
+            NeomediaMetrics.srtpFailure(true, status);
+            return null;
+        }
+        return pkt;
     }
 
     /**
@@ -151,7 +181,7 @@ public class SRTCPTransformer extends SinglePacketTransformer
     @Override
     public RawPacket transform(RawPacket pkt)
     {
-        SrtcpCryptoContext context = getContext(pkt, forwardFactory);
+        SrtcpCryptoContext context = getContext(pkt, forwardFactory, forwardContexts);
 
         if (context != null) {
             context.transformPacket(pkt);
@@ -24,10 +24,12 @@
 */
 package org.atalk.impl.neomedia.transform.srtp;
 
+import org.atalk.impl.neomedia.stats.NeomediaMetrics;
 import org.atalk.impl.neomedia.transform.SinglePacketTransformer;
 import org.atalk.service.neomedia.RawPacket;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.media.Buffer;
 
@@ -43,13 +45,30 @@ import javax.media.Buffer;
  */
 public class SRTPTransformer extends SinglePacketTransformer
 {
-    SrtpContextFactory forwardFactory;
-    SrtpContextFactory reverseFactory;
+    volatile SrtpContextFactory forwardFactory;
+    volatile SrtpContextFactory reverseFactory;
 
     /**
-     * All the known SSRC's corresponding SrtpCryptoContext
+     * All the known SSRC's corresponding SrtpCryptoContext for the forward transformations. The
+     * two directions never share a context, so the sending and the receiving threads do not
+     * contend on a context (or on a map lock) for every packet.
      */
-    private final Map<Integer, SrtpCryptoContext> contexts;
+    private final Map<Integer, SrtpCryptoContext> forwardContexts = new ConcurrentHashMap<>();
+
+    /**
+     * All the known SSRC's corresponding SrtpCryptoContext for the reverse transformations.
+     */
+    private final Map<Integer, SrtpCryptoContext> reverseContexts = new ConcurrentHashMap<>();
+
+    /**
+     * Synchronizes the replacement and the closing of the context factories.
+     */
+    private final Object factorySyncRoot = new Object();
+
+    /**
+     * Set by {@link #close()}; a context derived after it is closed instead of being kept.
+     */
+    private volatile boolean closed = false;
 
     /**
      * Initializes a new <tt>SRTPTransformer</tt> instance.
@@ -71,7 +90,6 @@ public class SRTPTransformer extends SinglePacketTransformer
     {
         this.forwardFactory = forwardFactory;
         this.reverseFactory = reverseFactory;
-        this.contexts = new HashMap<>();
     }
 
     /**
@@ -83,7 +101,7 @@ public class SRTPTransformer extends SinglePacketTransformer
      */
     public void setContextFactory(SrtpContextFactory factory, boolean forward)
     {
-        synchronized (contexts) {
+        synchronized (factorySyncRoot) {
             if (forward) {
                 if (this.forwardFactory != null && this.forwardFactory != factory) {
                     this.forwardFactory.close();
@@ -105,29 +123,50 @@ public class SRTPTransformer extends SinglePacketTransformer
      */
     public void close()
     {
-        synchronized (contexts) {
+        synchronized (factorySyncRoot) {
+            closed = true;
             forwardFactory.close();
             if (reverseFactory != forwardFactory)
                 reverseFactory.close();
 
-            for (Iterator<SrtpCryptoContext> i = contexts.values().iterator(); i.hasNext(); ) {
-                SrtpCryptoContext context = i.next();
-                i.remove();
-                if (context != null)
-                    context.close();
-            }
+            closeContexts(forwardContexts);
+            closeContexts(reverseContexts);
+        }
+    }
+
+    private static void closeContexts(Map<Integer, SrtpCryptoContext> contexts)
+    {
+        for (Iterator<SrtpCryptoContext> i = contexts.values().iterator(); i.hasNext(); ) {
+            SrtpCryptoContext context = i.next();
+            i.remove();
+            if (context != null)
+                context.close();
         }
     }
 
-    private SrtpCryptoContext getContext(int ssrc, SrtpContextFactory engine, int deriveSrtpKeysIndex)
+    /**
+     * Gets the context of an SSRC for one direction, deriving it on first use. The lookup is
+     * lock free; a context derived concurrently by another thread wins and ours is discarded.
+     * A context put while {@link #close()} runs may be missed by it, so once put, the context is
+     * closed here if this transformer has been closed meanwhile.
+     */
+    private SrtpCryptoContext getContext(int ssrc, SrtpContextFactory engine,
+            Map<Integer, SrtpCryptoContext> contexts)
     {
-        SrtpCryptoContext context;
+        SrtpCryptoContext context = contexts.get(ssrc);
+
+        if (context == null && engine != null) {
+            context = engine.deriveContext(ssrc, 0);
 
-        synchronized (contexts) {
-            context = contexts.get(ssrc);
-            if (context == null) {
-                context = engine.deriveContext(ssrc, 0);
-                contexts.put(ssrc, context);
+            SrtpCryptoContext existing = contexts.putIfAbsent(ssrc, context);
+            if (existing != null) {
+                context.close();
+                context = existing;
+            }
+            else if (closed) {
+                contexts.remove(ssrc, context);
+                context.close();
+                return null;
             }
         }
         return context;
@@ -147,14 +186,19 @@ public class SRTPTransformer extends SinglePacketTransformer
         if ((pkt.readByte(0) & 0xC0) != 0x80)
             return null;
 
-        SrtpCryptoContext context = getContext(pkt.getSSRC(), reverseFactory, pkt.getSequenceNumber());
+        SrtpCryptoContext context = getContext(pkt.getSSRC(), reverseFactory, reverseContexts);
 
         boolean skipDecryption = (pkt.getFlags() & (Buffer.FLAG_DISCARD | Buffer.FLAG_SILENCE)) != 0;
 
         if (context == null) {
             return null;
         }
-        return (context.reverseTransformPacket(pkt, skipDecryption) == SrtpErrorStatus.OK) ? pkt : null;
+        SrtpErrorStatus status = context.reverseTransformPacket(pkt, skipDecryption);
+        if (status != SrtpErrorStatus.OK) {
+            NeomediaMetrics.srtpFailure(false, status);
+            return null;
+        }
+        return pkt;
     }
 
     /**
@@ -166,11 +210,16 @@ public class SRTPTransformer extends SinglePacketTransformer
     @Override
     public RawPacket transform(RawPacket pkt)
     {
-        SrtpCryptoContext context = getContext(pkt.getSSRC(), forwardFactory, 0);
+        SrtpCryptoContext context = getContext(pkt.getSSRC(), forwardFactory, forwardContexts);
 
         if (context == null) {
             return null;
         }
-        return (context.transformPacket(pkt) == SrtpErrorStatus.OK) ? pkt : null;
+        SrtpErrorStatus status = context.transformPacket(pkt);
+        if (status != SrtpErrorStatus.OK) {
+            NeomediaMetrics.srtpFailure(false, status);
+            return null;
+        }
+        return pkt;
     }
 }
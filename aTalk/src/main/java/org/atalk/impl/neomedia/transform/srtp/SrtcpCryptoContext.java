@@ -23,6 +23,7 @@
  */
 package org.atalk.impl.neomedia.transform.srtp;
 
+import org.atalk.impl.neomedia.transform.srtp.crypto.SrtpCipherGcm;
 import org.atalk.impl.neomedia.transform.srtp.utils.SrtcpPacketUtils;
 import org.atalk.impl.neomedia.transform.srtp.utils.SrtpPacketUtils;
 import org.atalk.util.ByteArrayBuffer;
@@ -53,6 +54,9 @@ import timber.log.Timber;
  * automatically using some key management protocol, such as MIKEY (RFC3830),
  * SDES (RFC4568) or Phil Zimmermann's ZRTP protocol (RFC6189).
  *
+ * A context is used for one direction only (see {@link SRTCPTransformer}); the sent index and
+ * the replay window of the received indexes are thus never updated by two threads.
+ *
  * @author Bing SU (nova.su@gmail.com)
  * @author Lyubomir Marinov
  * @author Eng Chong Meng
@@ -132,14 +136,19 @@ public class SrtcpCryptoContext extends BaseSrtpCryptoContext
         kdf.deriveSessionKey(saltKey, SrtpKdf.LABEL_RTCP_SALT);
 
         // compute the session encryption key
-        if (cipherCtr != null) {
+        if (cipherCtr != null || cipherGcm != null) {
             byte[] encKey = new byte[policy.getEncKeyLength()];
             kdf.deriveSessionKey(encKey, SrtpKdf.LABEL_RTCP_ENCRYPTION);
 
             if (cipherF8 != null) {
                 cipherF8.init(encKey, saltKey);
             }
-            cipherCtr.init(encKey);
+            if (cipherCtr != null) {
+                cipherCtr.init(encKey);
+            }
+            if (cipherGcm != null) {
+                cipherGcm.init(encKey);
+            }
             Arrays.fill(encKey, (byte) 0);
         }
 
@@ -233,6 +242,94 @@ public class SrtcpCryptoContext extends BaseSrtpCryptoContext
         cipherF8.process(pkt.getBuffer(), pkt.getOffset() + payloadOffset, payloadLength, ivStore);
     }
 
+    /**
+     * Performs AEAD AES-GCM encryption/decryption according to RFC 7714 section 9. The SRTCP
+     * packet is laid out as: RTCP header (8 bytes) | ciphertext | tag | E-flag and index;
+     * the header and the E-flag and index are the additional authenticated data.
+     *
+     * On encryption the tag and the E-flag and index are appended to pkt; on decryption pkt must
+     * already be shrunk by the trailing E-flag and index, and the tag is verified and removed.
+     *
+     * @param pkt the RTCP packet to be encrypted/decrypted
+     * @param indexEflag the SRTCP index with the E-flag
+     * @param encrypt <tt>true</tt> to encrypt, <tt>false</tt> to authenticate and decrypt
+     * @return <tt>false</tt> if the packet failed authentication, <tt>true</tt> otherwise
+     */
+    private boolean processPacketAesGcm(ByteArrayBuffer pkt, int indexEflag, boolean encrypt)
+    {
+        int ssrc = SrtcpPacketUtils.getSenderSsrc(pkt);
+        int index = indexEflag & ~0x80000000;
+
+        /*
+         * Compute the GCM IV (refer to chapter 9.1 in RFC 7714):
+         *
+         * 00 00 || SSRC || 00 00 || 0 + SRTCP index XOR salt
+         */
+        ivStore[0] = saltKey[0];
+        ivStore[1] = saltKey[1];
+
+        ivStore[2] = (byte) (((ssrc >> 24) & 0xff) ^ saltKey[2]);
+        ivStore[3] = (byte) (((ssrc >> 16) & 0xff) ^ saltKey[3]);
+        ivStore[4] = (byte) (((ssrc >> 8) & 0xff) ^ saltKey[4]);
+        ivStore[5] = (byte) ((ssrc & 0xff) ^ saltKey[5]);
+
+        ivStore[6] = saltKey[6];
+        ivStore[7] = saltKey[7];
+
+        ivStore[8] = (byte) (((index >> 24) & 0xff) ^ saltKey[8]);
+        ivStore[9] = (byte) (((index >> 16) & 0xff) ^ saltKey[9]);
+        ivStore[10] = (byte) (((index >> 8) & 0xff) ^ saltKey[10]);
+        ivStore[11] = (byte) ((index & 0xff) ^ saltKey[11]);
+
+        rbStore[0] = (byte) (indexEflag >> 24);
+        rbStore[1] = (byte) (indexEflag >> 16);
+        rbStore[2] = (byte) (indexEflag >> 8);
+        rbStore[3] = (byte) indexEflag;
+
+        // Encrypted part excludes fixed header (8 bytes)
+        int payloadOffset = 8;
+
+        if (encrypt) {
+            // Grow packet storage in one step
+            pkt.grow(SrtpCipherGcm.TAG_LENGTH + 4);
+
+            int length = pkt.getLength();
+            pkt.readRegionToBuff(0, payloadOffset, tempStore);
+            System.arraycopy(rbStore, 0, tempStore, payloadOffset, 4);
+
+            cipherGcm.encrypt(pkt.getBuffer(), pkt.getOffset() + payloadOffset, length - payloadOffset,
+                    ivStore, tempStore, 0, payloadOffset + 4);
+            pkt.setLength(length + SrtpCipherGcm.TAG_LENGTH);
+            pkt.append(rbStore, 4);
+            return true;
+        }
+
+        int length = pkt.getLength();
+        boolean authenticated;
+
+        if ((indexEflag & 0x80000000) != 0) {
+            pkt.readRegionToBuff(0, payloadOffset, tempStore);
+            System.arraycopy(rbStore, 0, tempStore, payloadOffset, 4);
+
+            authenticated = cipherGcm.decrypt(pkt.getBuffer(), pkt.getOffset() + payloadOffset,
+                    length - payloadOffset, ivStore, tempStore, 0, payloadOffset + 4);
+        }
+        else {
+            // Unencrypted SRTCP: the whole RTCP packet and the index are authenticated only
+            // (RFC 7714 section 9.2). We never send these, so the rare receipt allocates.
+            int rtcpLength = length - SrtpCipherGcm.TAG_LENGTH;
+            byte[] aad = new byte[rtcpLength + 4];
+
+            pkt.readRegionToBuff(0, rtcpLength, aad);
+            System.arraycopy(rbStore, 0, aad, rtcpLength, 4);
+            authenticated = cipherGcm.decrypt(pkt.getBuffer(), pkt.getOffset() + rtcpLength,
+                    SrtpCipherGcm.TAG_LENGTH, ivStore, aad, 0, aad.length);
+        }
+        if (authenticated)
+            pkt.shrink(SrtpCipherGcm.TAG_LENGTH);
+        return authenticated;
+    }
+
     /**
      * Transform a SRTCP packet into a RTCP packet. The method is called when an
      * SRTCP packet was received. Operations done by the method include:
@@ -257,7 +354,8 @@ public class SrtcpCryptoContext extends BaseSrtpCryptoContext
             /* Too short to be a valid SRTCP packet */
             return SrtpErrorStatus.INVALID_PACKET;
 
-        int indexEflag = SrtcpPacketUtils.getIndex(pkt, tagLength);
+        // With AEAD the E-flag and index trail the authentication tag
+        int indexEflag = SrtcpPacketUtils.getIndex(pkt, (cipherGcm != null) ? 0 : tagLength);
 
         if ((indexEflag & 0x80000000) == 0x80000000)
             decrypt = true;
@@ -271,6 +369,16 @@ public class SrtcpCryptoContext extends BaseSrtpCryptoContext
             return err;
         }
 
+        /* Authenticate and decrypt the packet using AEAD AES-GCM */
+        if (cipherGcm != null) {
+            pkt.shrink(4);
+            if (!processPacketAesGcm(pkt, indexEflag, false))
+                return SrtpErrorStatus.AUTH_FAIL;
+
+            update(index);
+            return SrtpErrorStatus.OK;
+        }
+
         /* Authenticate the packet */
         if (policy.getAuthType() != SrtpPolicy.NULL_AUTHENTICATION) {
             // get original authentication data and store in tempStore
@@ -323,6 +431,14 @@ public class SrtcpCryptoContext extends BaseSrtpCryptoContext
      */
     synchronized public SrtpErrorStatus transformPacket(ByteArrayBuffer pkt)
     {
+        /* Encrypt and authenticate the packet using AEAD AES-GCM */
+        if (cipherGcm != null) {
+            processPacketAesGcm(pkt, sentIndex | 0x80000000, true);
+            sentIndex++;
+            sentIndex &= ~0x80000000; // clear possible overflow
+            return SrtpErrorStatus.OK;
+        }
+
         boolean encrypt = false;
         /* Encrypt the packet using Counter Mode encryption */
         if (policy.getEncType() == SrtpPolicy.AESCM_ENCRYPTION
@@ -34,6 +34,7 @@
  */
 package org.atalk.impl.neomedia.transform.srtp;
 
+import org.atalk.impl.neomedia.transform.srtp.crypto.SrtpCipherGcm;
 import org.atalk.impl.neomedia.transform.srtp.utils.SrtpPacketUtils;
 import org.atalk.util.ByteArrayBuffer;
 import org.bouncycastle.crypto.params.KeyParameter;
@@ -59,6 +60,10 @@ import timber.log.Timber;
  * assigned manually, or can be assigned automatically using some key management protocol, such as
  * MIKEY (RFC3830), SDES (RFC4568) or Phil Zimmermann's ZRTP protocol (RFC6189).
  *
+ * A context is used for one direction only, i.e. the sending and the receiving threads each own
+ * their context of an SSRC (see {@link SRTPTransformer}); the synchronized transform methods only
+ * serialize the packets of the same direction, and so are not contended by the other direction.
+ *
  * @author Bing SU (nova.su@gmail.com)
  * @author Lyubomir Marinov
  * @author Eng Chong Meng
@@ -221,14 +226,19 @@ public class SrtpCryptoContext extends BaseSrtpCryptoContext
         kdf.deriveSessionKey(saltKey, SrtpKdf.LABEL_RTP_SALT);
 
         // compute the session encryption key
-        if (cipherCtr != null) {
+        if (cipherCtr != null || cipherGcm != null) {
             byte[] encKey = new byte[policy.getEncKeyLength()];
             kdf.deriveSessionKey(encKey, SrtpKdf.LABEL_RTP_ENCRYPTION);
 
             if (cipherF8 != null) {
                 cipherF8.init(encKey, saltKey);
             }
-            cipherCtr.init(encKey);
+            if (cipherCtr != null) {
+                cipherCtr.init(encKey);
+            }
+            if (cipherGcm != null) {
+                cipherGcm.init(encKey);
+            }
             Arrays.fill(encKey, (byte) 0);
         }
 
@@ -331,6 +341,60 @@ public class SrtpCryptoContext extends BaseSrtpCryptoContext
                 ivStore);
     }
 
+    /**
+     * Performs AEAD AES-GCM encryption/decryption according to RFC 7714; the RTP header is the
+     * additional authenticated data. Encryption appends the authentication tag; decryption
+     * verifies and removes it.
+     *
+     * @param pkt the RTP packet to be encrypted/decrypted
+     * @param encrypt <tt>true</tt> to encrypt, <tt>false</tt> to authenticate and decrypt
+     * @return <tt>false</tt> if the packet failed authentication, <tt>true</tt> otherwise
+     */
+    private boolean processPacketAesGcm(ByteArrayBuffer pkt, boolean encrypt)
+    {
+        int ssrc = SrtpPacketUtils.getSsrc(pkt);
+        int seqNo = SrtpPacketUtils.getSequenceNumber(pkt);
+        int roc = guessedROC;
+
+        // IV = (0x0000 || SSRC || ROC || SEQ) XOR salt; RFC 7714 section 8.1
+        ivStore[0] = saltKey[0];
+        ivStore[1] = saltKey[1];
+
+        int i;
+        for (i = 2; i < 6; i++) {
+            ivStore[i] = (byte) ((0xFF & (ssrc >> ((5 - i) * 8))) ^ saltKey[i]);
+        }
+        for (i = 6; i < 10; i++) {
+            ivStore[i] = (byte) ((0xFF & (roc >> ((9 - i) * 8))) ^ saltKey[i]);
+        }
+        ivStore[10] = (byte) ((0xFF & (seqNo >> 8)) ^ saltKey[10]);
+        ivStore[11] = (byte) ((0xFF & seqNo) ^ saltKey[11]);
+
+        int rtpHeaderLength = SrtpPacketUtils.getTotalHeaderLength(pkt);
+
+        if (encrypt) {
+            // make room for the tag; this may move the packet into a new buffer
+            pkt.grow(SrtpCipherGcm.TAG_LENGTH);
+            byte[] buf = pkt.getBuffer();
+            int off = pkt.getOffset();
+
+            cipherGcm.encrypt(buf, off + rtpHeaderLength, pkt.getLength() - rtpHeaderLength,
+                    ivStore, buf, off, rtpHeaderLength);
+            pkt.setLength(pkt.getLength() + SrtpCipherGcm.TAG_LENGTH);
+            return true;
+        }
+        else {
+            byte[] buf = pkt.getBuffer();
+            int off = pkt.getOffset();
+
+            if (!cipherGcm.decrypt(buf, off + rtpHeaderLength, pkt.getLength() - rtpHeaderLength,
+                    ivStore, buf, off, rtpHeaderLength))
+                return false;
+            pkt.shrink(SrtpCipherGcm.TAG_LENGTH);
+            return true;
+        }
+    }
+
     /**
      * Transforms an SRTP packet into an RTP packet. The method is called when
      * an SRTP packet is received. Operations done by the this operation
@@ -345,6 +409,7 @@ public class SrtpCryptoContext extends BaseSrtpCryptoContext
      * @param pkt the RTP packet that is just received
      * @param skipDecryption if {@code true}, the decryption of the packet will not be performed (so as not to waste
      * resources when it is not needed). The packet will still be authenticated and the ROC updated.
+     * An AEAD packet is always decrypted, as its authentication is part of the decryption.
      * @return {@link SrtpErrorStatus#OK} if the packet can be accepted; an error status if
      * the packet failed authentication or failed replay check
      */
@@ -375,8 +440,14 @@ public class SrtpCryptoContext extends BaseSrtpCryptoContext
 
         // Replay control
         if (policy.isReceiveReplayDisabled() || ((err = checkReplay(seqNo, guessedIndex)) == SrtpErrorStatus.OK)) {
-            // Authenticate the packet.
-            if ((err = authenticatePacket(pkt)) == SrtpErrorStatus.OK) {
+            // Authenticate the packet; AEAD authenticates and decrypts in one pass.
+            if (cipherGcm != null) {
+                err = processPacketAesGcm(pkt, false) ? SrtpErrorStatus.OK : SrtpErrorStatus.AUTH_FAIL;
+            }
+            else {
+                err = authenticatePacket(pkt);
+            }
+            if (err == SrtpErrorStatus.OK) {
                 if (!skipDecryption) {
                     switch (policy.getEncType()) {
                         // Decrypt the packet using Counter Mode encryption.
@@ -463,6 +534,11 @@ public class SrtpCryptoContext extends BaseSrtpCryptoContext
             case SrtpPolicy.TWOFISHF8_ENCRYPTION:
                 processPacketAesF8(pkt);
                 break;
+
+            // Encrypt and authenticate the packet using AEAD AES-GCM.
+            case SrtpPolicy.AESGCM_ENCRYPTION:
+                processPacketAesGcm(pkt, true);
+                break;
         }
 
         /* Authenticate the packet. */
@@ -85,6 +85,7 @@ class SrtpKdf
         switch (policy.getEncType()) {
             case SrtpPolicy.AESF8_ENCRYPTION:
             case SrtpPolicy.AESCM_ENCRYPTION:
+            case SrtpPolicy.AESGCM_ENCRYPTION:
                 // use OpenSSL if available and AES128 is in use
                 if (OpenSslWrapperLoader.isLoaded() && encKeyLength == 16) {
                     cipherCtr = new SrtpCipherCtrOpenSsl();
@@ -110,7 +111,8 @@ class SrtpKdf
         }
 
         int saltKeyLength = policy.getSaltKeyLength();
-        masterSalt = new byte[saltKeyLength];
+        // The 96 bits AEAD master salt is zero padded to the 112 bits of the AES-CM PRF; RFC 7714 section 11.
+        masterSalt = new byte[Math.max(saltKeyLength, (saltKeyLength == 0) ? 0 : 14)];
         if (saltKeyLength != 0) {
             System.arraycopy(masterS, 0, masterSalt, 0, saltKeyLength);
         }
@@ -36,6 +36,14 @@ public class SrtpPolicy
      * F8 Mode TwoFish Cipher
      */
     public final static int TWOFISHF8_ENCRYPTION = 4;
+
+    /**
+     * Galois/Counter Mode AES Cipher (AEAD_AES_128_GCM / AEAD_AES_256_GCM), defined in RFC 7714.
+     * The AEAD authentication tag replaces the SRTP authentication; so the policy authentication
+     * type is {@link #NULL_AUTHENTICATION} and its authentication tag length is the AEAD tag length.
+     */
+    public final static int AESGCM_ENCRYPTION = 5;
+
     /**
      * Null Authentication, no authentication
      */
@@ -72,7 +80,7 @@ public class SrtpPolicy
     private int authKeyLength;
 
     /**
-     * SRTP authentication tag length
+     * SRTP authentication tag length; or the AEAD authentication tag length for AEAD ciphers
      */
     private int authTagLength;
 
@@ -0,0 +1,93 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.srtp.crypto;
+
+/**
+ * SrtpCipherGcm implementations implement the AEAD_AES_128_GCM and AEAD_AES_256_GCM algorithms
+ * for SRTP and SRTCP, as defined in RFC 7714.
+ *
+ * The AEAD algorithm both encrypts the payload and authenticates the payload together with the
+ * additional authenticated data (AAD); the 16 bytes authentication tag is appended to the
+ * ciphertext and replaces the SRTP HMAC authentication tag.
+ *
+ * @author Eng Chong Meng
+ */
+public abstract class SrtpCipherGcm
+{
+    /**
+     * The length of the AEAD authentication tag, RFC 7714 section 14.
+     */
+    public static final int TAG_LENGTH = 16;
+
+    /**
+     * The length of the AEAD initialization vector, RFC 7714 section 8.1.
+     */
+    public static final int IV_LENGTH = 12;
+
+    /**
+     * (Re)Initialize the cipher with key
+     *
+     * @param key the session encryption key; 16 or 32 bytes
+     */
+    public abstract void init(byte[] key);
+
+    /**
+     * Encrypts len bytes of data at off in place, and writes the authentication tag of
+     * {@link #TAG_LENGTH} bytes directly after the ciphertext, i.e. at off + len.
+     *
+     * @param data byte array to be encrypted; must have room for the tag
+     * @param off the offset of the plaintext
+     * @param len the length of the plaintext
+     * @param iv the initialization vector; only the first {@link #IV_LENGTH} bytes are used
+     * @param aad the additional authenticated data; may be data
+     * @param aadOff the offset of the additional authenticated data
+     * @param aadLen the length of the additional authenticated data
+     */
+    public abstract void encrypt(byte[] data, int off, int len, byte[] iv,
+            byte[] aad, int aadOff, int aadLen);
+
+    /**
+     * Authenticates and decrypts len bytes of data at off in place; the last {@link #TAG_LENGTH}
+     * bytes are the authentication tag. The content of data is undefined if the authentication fails.
+     *
+     * @param data byte array to be decrypted
+     * @param off the offset of the ciphertext
+     * @param len the length of the ciphertext including the authentication tag
+     * @param iv the initialization vector; only the first {@link #IV_LENGTH} bytes are used
+     * @param aad the additional authenticated data; may be data
+     * @param aadOff the offset of the additional authenticated data
+     * @param aadLen the length of the additional authenticated data
+     * @return <tt>true</tt> if the authentication tag is valid, <tt>false</tt> otherwise
+     */
+    public abstract boolean decrypt(byte[] data, int off, int len, byte[] iv,
+            byte[] aad, int aadOff, int aadLen);
+
+    /**
+     * Check the validity of encrypt/decrypt function arguments
+     */
+    protected static void checkProcessArgs(byte[] data, int off, int len, byte[] iv)
+    {
+        if (iv.length < IV_LENGTH)
+            throw new IllegalArgumentException("iv.length < IV_LENGTH");
+        if (off < 0)
+            throw new IllegalArgumentException("off < 0");
+        if (len < 0)
+            throw new IllegalArgumentException("len < 0");
+        if (off + len > data.length)
+            throw new IllegalArgumentException("off + len > data.length");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.srtp.crypto;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * @see SrtpCipherGcm
+ * SrtpCipherGcm implementation using the JCE <tt>AES/GCM/NoPadding</tt> transformation.
+ *
+ * @author Eng Chong Meng
+ */
+public class SrtpCipherGcmJava extends SrtpCipherGcm
+{
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final Cipher cipher;
+
+    private SecretKeySpec key;
+
+    public SrtpCipherGcmJava()
+    {
+        try {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(TRANSFORMATION, e);
+        }
+    }
+
+    /**
+     * Determines whether the JCE provides the <tt>AES/GCM/NoPadding</tt> transformation.
+     *
+     * @return <tt>true</tt> if AES-GCM is available, <tt>false</tt> otherwise
+     */
+    public static boolean isAvailable()
+    {
+        try {
+            Cipher.getInstance(TRANSFORMATION);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(byte[] key)
+    {
+        if (key.length != 16 && key.length != 32)
+            throw new IllegalArgumentException("Only AES128 and AES256 is supported");
+
+        this.key = new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void encrypt(byte[] data, int off, int len, byte[] iv,
+            byte[] aad, int aadOff, int aadLen)
+    {
+        checkProcessArgs(data, off, len, iv);
+
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv, 0, IV_LENGTH));
+            cipher.updateAAD(aad, aadOff, aadLen);
+            // In place; the output is the ciphertext followed by the tag.
+            cipher.doFinal(data, off, len, data, off);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("AES-GCM encrypt", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean decrypt(byte[] data, int off, int len, byte[] iv,
+            byte[] aad, int aadOff, int aadLen)
+    {
+        checkProcessArgs(data, off, len, iv);
+        if (len < TAG_LENGTH)
+            return false;
+
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv, 0, IV_LENGTH));
+            cipher.updateAAD(aad, aadOff, aadLen);
+            cipher.doFinal(data, off, len, data, off);
+            return true;
+        } catch (AEADBadTagException e) {
+            return false;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("AES-GCM decrypt", e);
+        }
+    }
+}
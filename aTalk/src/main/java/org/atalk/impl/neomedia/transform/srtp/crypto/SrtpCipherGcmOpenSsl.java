@@ -0,0 +1,104 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.srtp.crypto;
+
+/**
+ * @see SrtpCipherGcm
+ * SrtpCipherGcm implementation using OpenSSL via JNI.
+ *
+ * @author Eng Chong Meng
+ */
+public class SrtpCipherGcmOpenSsl extends SrtpCipherGcm
+{
+    private static native long AESGCM_CTX_create();
+
+    private static native void AESGCM_CTX_destroy(long ctx);
+
+    private static native boolean AESGCM_CTX_init(long ctx, byte[] key, int keyLen);
+
+    private static native boolean AESGCM_CTX_process(long ctx, boolean encrypt, byte[] iv,
+            byte[] inOut, int offset, int len, byte[] aad, int aadOffset, int aadLen);
+
+    /**
+     * the OpenSSL AES128GCM / AES256GCM context
+     */
+    private long ctx = 0;
+
+    public SrtpCipherGcmOpenSsl()
+    {
+        if (!OpenSslWrapperLoader.isLoaded())
+            throw new RuntimeException("OpenSSL wrapper not loaded");
+
+        ctx = AESGCM_CTX_create();
+        if (ctx == 0)
+            throw new RuntimeException("CIPHER_CTX_create");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init(byte[] key)
+    {
+        if (key.length != 16 && key.length != 32)
+            throw new IllegalArgumentException("Only AES128 and AES256 is supported");
+
+        if (!AESGCM_CTX_init(ctx, key, key.length))
+            throw new RuntimeException("AESGCM_CTX_init");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void finalize()
+            throws Throwable
+    {
+        try {
+            if (ctx != 0) {
+                AESGCM_CTX_destroy(ctx);
+                ctx = 0;
+            }
+        } finally {
+            super.finalize();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void encrypt(byte[] data, int off, int len, byte[] iv,
+            byte[] aad, int aadOff, int aadLen)
+    {
+        checkProcessArgs(data, off, len + TAG_LENGTH, iv);
+
+        if (!AESGCM_CTX_process(ctx, true, iv, data, off, len, aad, aadOff, aadLen))
+            throw new RuntimeException("AESGCM_CTX_process");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean decrypt(byte[] data, int off, int len, byte[] iv,
+            byte[] aad, int aadOff, int aadLen)
+    {
+        checkProcessArgs(data, off, len, iv);
+        if (len < TAG_LENGTH)
+            return false;
+
+        return AESGCM_CTX_process(ctx, false, iv, data, off, len, aad, aadOff, aadLen);
+    }
+}
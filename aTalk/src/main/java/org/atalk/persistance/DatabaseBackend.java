@@ -27,6 +27,7 @@ import android.text.TextUtils;
 import android.util.Base64;
 
 import net.java.sip.communicator.impl.configuration.SQLiteConfigurationStore;
+import net.java.sip.communicator.impl.msghistory.MessageSearchIndex;
 import net.java.sip.communicator.impl.msghistory.MessageSourceService;
 import net.java.sip.communicator.service.callhistory.CallHistoryService;
 import net.java.sip.communicator.service.contactlist.MetaContactGroup;
@@ -67,7 +68,7 @@ public class DatabaseBackend extends SQLiteOpenHelper
      * Increment DATABASE_VERSION when there is a change in database records
      */
     public static final String DATABASE_NAME = "dbRecords.db";
-    private static final int DATABASE_VERSION = 5;
+    private static final int DATABASE_VERSION = 7;
     private static DatabaseBackend instance = null;
     private ProtocolProviderService mProvider;
 
@@ -130,9 +131,45 @@ public class DatabaseBackend extends SQLiteOpenHelper
             + SQLiteOmemoStore.BARE_JID + ", " + SQLiteOmemoStore.DEVICE_ID
             + ") ON CONFLICT REPLACE);";
 
+    /*
+     * Secondary indexes for the actual query shapes used by MessageHistoryServiceImpl,
+     * CallHistoryServiceImpl, MessageSourceService and the ChatSession table users.
+     */
+    public static final String[] CREATE_INDEXES_STATEMENTS = {
+            // messages: sessionUuid [+ timeStamp range] ORDER BY timeStamp; receipt update by serverMsgId
+            "CREATE INDEX IF NOT EXISTS messages_session_time ON " + ChatMessage.TABLE_NAME + "("
+                    + ChatMessage.SESSION_UUID + ", " + ChatMessage.TIME_STAMP + ");",
+            "CREATE INDEX IF NOT EXISTS messages_server_msg_id ON " + ChatMessage.TABLE_NAME + "("
+                    + ChatMessage.SERVER_MSG_ID + ");",
+
+            // chatSessions: accountUid + mode ORDER BY entityJid; accountUid + entityJid; mode only
+            "CREATE INDEX IF NOT EXISTS chatSessions_account_mode ON " + ChatSession.TABLE_NAME + "("
+                    + ChatSession.ACCOUNT_UID + ", " + ChatSession.MODE + ", " + ChatSession.ENTITY_JID + ");",
+            "CREATE INDEX IF NOT EXISTS chatSessions_account_entity ON " + ChatSession.TABLE_NAME + "("
+                    + ChatSession.ACCOUNT_UID + ", " + ChatSession.ENTITY_JID + ");",
+            "CREATE INDEX IF NOT EXISTS chatSessions_mode ON " + ChatSession.TABLE_NAME + "("
+                    + ChatSession.MODE + ");",
+
+            // callHistory: entityJid or accountUid + callStart range ORDER BY callStart; callStart only
+            "CREATE INDEX IF NOT EXISTS callHistory_entity_start ON " + CallHistoryService.TABLE_NAME + "("
+                    + CallHistoryService.ENTITY_JID + ", " + CallHistoryService.CALL_START + ");",
+            "CREATE INDEX IF NOT EXISTS callHistory_account_start ON " + CallHistoryService.TABLE_NAME + "("
+                    + CallHistoryService.ACCOUNT_UID + ", " + CallHistoryService.CALL_START + ");",
+            "CREATE INDEX IF NOT EXISTS callHistory_start ON " + CallHistoryService.TABLE_NAME + "("
+                    + CallHistoryService.CALL_START + ");",
+
+            // recentMessages: accountUid [+ timeStamp] returning entityJid (covering); purge by timeStamp
+            "CREATE INDEX IF NOT EXISTS recentMessages_account_time ON " + MessageSourceService.TABLE_NAME + "("
+                    + MessageSourceService.ACCOUNT_UID + ", " + MessageSourceService.TIME_STAMP + ", "
+                    + MessageSourceService.ENTITY_JID + ");",
+            "CREATE INDEX IF NOT EXISTS recentMessages_time ON " + MessageSourceService.TABLE_NAME + "("
+                    + MessageSourceService.TIME_STAMP + ");"
+    };
+
     private DatabaseBackend(Context context)
     {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // Debug build: check the query plan of every query for full table scans
+        super(context, DATABASE_NAME, BuildConfig.DEBUG ? new QueryPlanChecker() : null, DATABASE_VERSION);
     }
 
     /**
@@ -190,7 +227,7 @@ public class DatabaseBackend extends SQLiteOpenHelper
      * c. Group Tables: metaContactGroup & childContacts
      * d. contacts
      * e. chatSessions
-     * f. chatMessages
+     * f. chatMessages and its full-text search index
      * g. callHistory
      * f. recentMessages
      * i. Axolotl tables: identities, sessions, preKeys, signed_preKeys
@@ -327,6 +364,9 @@ public class DatabaseBackend extends SQLiteOpenHelper
                 + ") ON DELETE CASCADE, UNIQUE(" + ChatMessage.UUID
                 + ") ON CONFLICT REPLACE);");
 
+        // chat message full-text search index, maintained by triggers on the message table
+        MessageSearchIndex.createIndex(db);
+
         // Call history table
         db.execSQL("CREATE TABLE " + CallHistoryService.TABLE_NAME + " ("
                 + CallHistoryService.UUID + " TEXT PRIMARY KEY, "
@@ -357,6 +397,11 @@ public class DatabaseBackend extends SQLiteOpenHelper
                 + AccountID.TABLE_NAME + "(" + AccountID.ACCOUNT_UID
                 + ") ON DELETE CASCADE);");
 
+        // Create the secondary indexes for the chat, call history and recent message tables
+        for (String statement : CREATE_INDEXES_STATEMENTS) {
+            db.execSQL(statement);
+        }
+
         // Create all relevant tables for OMEMO support
         db.execSQL(CREATE_OMEMO_DEVICES_STATEMENT);
         db.execSQL(CREATE_PREKEYS_STATEMENT);
@@ -0,0 +1,124 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.persistance;
+
+import android.database.Cursor;
+import android.database.sqlite.*;
+
+import net.java.sip.communicator.impl.msghistory.MessageSourceService;
+import net.java.sip.communicator.service.callhistory.CallHistoryService;
+
+import org.atalk.android.gui.chat.ChatMessage;
+import org.atalk.android.gui.chat.ChatSession;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+import timber.log.Timber;
+
+/**
+ * Debug-time <tt>CursorFactory</tt> that runs EXPLAIN QUERY PLAN once for every distinct query on
+ * the chat message, chat session, call history and recent message tables; and flags any query
+ * that does a full table scan i.e. without the use of an index.
+ *
+ * Query parameters are not available to the factory; the plan is computed with the parameters
+ * unbound, which does not change the index selection of the SQLite query planner.
+ *
+ * @author Eng Chong Meng
+ */
+public class QueryPlanChecker implements SQLiteDatabase.CursorFactory
+{
+    /**
+     * The tables of which the query plans are checked.
+     */
+    private static final String[] WATCHED_TABLES = {ChatMessage.TABLE_NAME, ChatSession.TABLE_NAME,
+            CallHistoryService.TABLE_NAME, MessageSourceService.TABLE_NAME};
+
+    private static final String EXPLAIN = "EXPLAIN QUERY PLAN ";
+
+    /**
+     * Full table scan detail in the query plan: "SCAN TABLE xxx" (old) or "SCAN xxx" (SQLite 3.36+),
+     * but not a scan of a (covering) index nor of a virtual table e.g. the FTS index.
+     */
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?(\\w+)(?!.*\\b(USING|VIRTUAL)\\b).*$");
+
+    /**
+     * The distinct queries that have been checked.
+     */
+    private final Set<String> checkedQueries = Collections.synchronizedSet(new HashSet<>());
+
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query)
+    {
+        // SQLiteQuery#toString() returns "SQLiteQuery: " + sql
+        String sql = query.toString();
+        int idx = sql.indexOf(": ");
+        if (idx >= 0)
+            sql = sql.substring(idx + 2);
+
+        if (!sql.startsWith(EXPLAIN) && isWatched(sql) && checkedQueries.add(sql)) {
+            checkQueryPlan(db, sql);
+        }
+        return new SQLiteCursor(masterQuery, editTable, query);
+    }
+
+    /**
+     * Check if the sql query refers to any of the watched tables.
+     *
+     * @param sql the sql query
+     * @return true if the query is to be checked
+     */
+    private boolean isWatched(String sql)
+    {
+        for (String table : WATCHED_TABLES) {
+            if (sql.contains(" " + table))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Run EXPLAIN QUERY PLAN on the sql query, and warn on any full table scan.
+     *
+     * @param db SQLite database
+     * @param sql the sql query
+     */
+    private void checkQueryPlan(SQLiteDatabase db, String sql)
+    {
+        StringBuilder plan = new StringBuilder();
+        boolean fullScan = false;
+
+        try (Cursor cursor = db.rawQuery(EXPLAIN + sql, null)) {
+            int detailIdx = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIdx);
+                plan.append("\n  ").append(detail);
+                if (detail != null && FULL_SCAN.matcher(detail).matches()) {
+                    fullScan = true;
+                }
+            }
+        } catch (SQLiteException e) {
+            Timber.w("Query plan check failed for: %s; %s", sql, e.getMessage());
+            return;
+        }
+
+        if (fullScan)
+            Timber.w("Full table scan in query: %s%s", sql, plan);
+        else
+            Timber.d("Query plan: %s%s", sql, plan);
+    }
+}
@@ -0,0 +1,18 @@
+package org.atalk.persistance.migrations;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import net.java.sip.communicator.impl.msghistory.MessageSearchIndex;
+
+import timber.log.Timber;
+
+public class MigrationTo6
+{
+    // Create the chat message full-text search index; existing messages are indexed in the background
+    public static void createMessageSearchIndex(SQLiteDatabase db)
+    {
+        MessageSearchIndex.createIndex(db);
+        MessageSearchIndex.startBackfill(db);
+        Timber.d("Created message search index; back-fill started");
+    }
+}
@@ -0,0 +1,20 @@
+package org.atalk.persistance.migrations;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import timber.log.Timber;
+
+import static org.atalk.persistance.DatabaseBackend.CREATE_INDEXES_STATEMENTS;
+
+public class MigrationTo7
+{
+    // Create the secondary indexes for the chat, call history and recent message tables
+    public static void createSecondaryIndexes(SQLiteDatabase db)
+    {
+        for (String statement : CREATE_INDEXES_STATEMENTS) {
+            db.execSQL(statement);
+        }
+        db.execSQL("ANALYZE");
+        Timber.d("Created secondary indexes successfully!");
+    }
+}
@@ -30,6 +30,10 @@ public class Migrations {
                 MigrationTo4.updateOmemoIdentitiesTable(db);
             case 4:
                 MigrationTo5.updateOmemoDevicesTable(db);
+            case 5:
+                MigrationTo6.createMessageSearchIndex(db);
+            case 6:
+                MigrationTo7.createSecondaryIndexes(db);
         }
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.service.neomedia;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * A <tt>DefaultStreamConnector</tt> whose data and control sockets are backed by non-blocking NIO
+ * <tt>DatagramChannel</tt>s. The streams of such sockets send through the channel from a direct
+ * <tt>ByteBuffer</tt>, and receive on a selector thread shared by all streams instead of a
+ * blocking receive thread per socket.
+ *
+ * The returned <tt>DatagramSocket</tt>s are the channels' socket adaptors and are only to be
+ * used for their addresses and options; their <tt>send</tt> and <tt>receive</tt> methods throw
+ * <tt>IllegalBlockingModeException</tt>.
+ *
+ * The media UDP sockets of calls are backed by such channels when the property
+ * {@link #ENABLED_PNAME} is <tt>true</tt>.
+ *
+ * @author Eng Chong Meng
+ */
+public class DatagramChannelStreamConnector extends DefaultStreamConnector
+{
+    /**
+     * The name of the <tt>ConfigurationService</tt> property which specifies whether the media
+     * UDP sockets of calls are to be backed by non-blocking <tt>DatagramChannel</tt>s. Disabled
+     * by default.
+     */
+    public static final String ENABLED_PNAME = "neomedia.DATAGRAM_CHANNELS_ENABLED";
+
+    /**
+     * Initializes a new <tt>DatagramChannelStreamConnector</tt> instance which is to bind its
+     * channels on demand to a specific local <tt>InetAddress</tt> in the port range of
+     * <tt>DefaultStreamConnector</tt>.
+     *
+     * @param bindAddr the local <tt>InetAddress</tt> the new instance is to attempt to bind to
+     */
+    public DatagramChannelStreamConnector(InetAddress bindAddr)
+    {
+        super(bindAddr);
+    }
+
+    /**
+     * Opens a new non-blocking <tt>DatagramChannel</tt> bound to a specific local address and port.
+     *
+     * @param bindAddr the local <tt>InetAddress</tt> to bind to or <tt>null</tt> for the wildcard address
+     * @param port the local port to bind to
+     * @return the socket adaptor of the new <tt>DatagramChannel</tt>
+     * @throws IOException if the channel cannot be opened or bound
+     */
+    @Override
+    protected DatagramSocket bindDatagramSocket(InetAddress bindAddr, int port)
+            throws IOException
+    {
+        return bindDatagramChannel(bindAddr, port);
+    }
+
+    /**
+     * Opens a new non-blocking <tt>DatagramChannel</tt> bound to a specific local address and port.
+     *
+     * @param bindAddr the local <tt>InetAddress</tt> to bind to or <tt>null</tt> for the wildcard address
+     * @param port the local port to bind to
+     * @return the socket adaptor of the new <tt>DatagramChannel</tt>
+     * @throws IOException if the channel cannot be opened or bound
+     */
+    public static DatagramSocket bindDatagramChannel(InetAddress bindAddr, int port)
+            throws IOException
+    {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.socket().bind(new InetSocketAddress(bindAddr, port));
+            channel.configureBlocking(false);
+        } catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+        return channel.socket();
+    }
+}
@@ -8,6 +8,7 @@ package org.atalk.service.neomedia;
 import org.atalk.service.configuration.ConfigurationService;
 import org.atalk.service.libjitsi.LibJitsi;
 
+import java.io.IOException;
 import java.net.*;
 
 import timber.log.Timber;
@@ -65,7 +66,21 @@ public class DefaultStreamConnector implements StreamConnector
      * @param bindAddr the local <tt>InetAddress</tt> the new <tt>DatagramSocket</tt> is to bind to
      * @return a new <tt>DatagramSocket</tt> instance bound to the specified local <tt>InetAddress</tt>
      */
-    private static synchronized DatagramSocket createDatagramSocket(InetAddress bindAddr)
+    private DatagramSocket createDatagramSocket(InetAddress bindAddr)
+    {
+        synchronized (DefaultStreamConnector.class) {
+            return createDatagramSocketInPortRange(bindAddr);
+        }
+    }
+
+    /**
+     * Implements {@link #createDatagramSocket(InetAddress)}; must be invoked while synchronized on
+     * the class because {@link #minPort} and {@link #maxPort} are shared by all instances.
+     *
+     * @param bindAddr the local <tt>InetAddress</tt> the new <tt>DatagramSocket</tt> is to bind to
+     * @return a new <tt>DatagramSocket</tt> instance bound to the specified local <tt>InetAddress</tt>
+     */
+    private DatagramSocket createDatagramSocketInPortRange(InetAddress bindAddr)
     {
         ConfigurationService cfg = LibJitsi.getConfigurationService();
         int bindRetries = BIND_RETRIES_DEFAULT_VALUE;
@@ -89,14 +104,30 @@ public class DefaultStreamConnector implements StreamConnector
             int port = minPort++;
 
             try {
-                return (bindAddr == null) ? new DatagramSocket(port) : new DatagramSocket(port, bindAddr);
-            } catch (SocketException se) {
-                Timber.w(se, "Retrying a bind because of a failure to bind to address %s and port %d", bindAddr, port);
+                return bindDatagramSocket(bindAddr, port);
+            } catch (IOException ioe) {
+                Timber.w(ioe, "Retrying a bind because of a failure to bind to address %s and port %d", bindAddr, port);
             }
         }
         return null;
     }
 
+    /**
+     * Creates a new <tt>DatagramSocket</tt> bound to a specific local <tt>InetAddress</tt> and port.
+     * Allows extenders to provide a different <tt>DatagramSocket</tt> implementation for the sockets
+     * created on demand.
+     *
+     * @param bindAddr the local <tt>InetAddress</tt> to bind to or <tt>null</tt> for the wildcard address
+     * @param port the local port to bind to
+     * @return a new <tt>DatagramSocket</tt> bound to <tt>bindAddr</tt> and <tt>port</tt>
+     * @throws IOException if the binding fails
+     */
+    protected DatagramSocket bindDatagramSocket(InetAddress bindAddr, int port)
+            throws IOException
+    {
+        return (bindAddr == null) ? new DatagramSocket(port) : new DatagramSocket(port, bindAddr);
+    }
+
     /**
      * The local <tt>InetAddress</tt> this <tt>StreamConnector</tt> attempts to bind to on demand.
      */
@@ -18,6 +18,7 @@ package org.atalk.service.neomedia;
 import net.sf.fmj.media.rtp.RTPHeader;
 
 import org.atalk.util.ByteArrayBuffer;
+import org.atalk.util.ByteArrayPool;
 import org.atalk.util.RTPUtils;
 import org.jetbrains.annotations.NotNull;
 
@@ -410,7 +411,7 @@ public class RawPacket implements ByteArrayBuffer
         }
         else {
             // We need a new buffer. We will place the payload to the very right.
-            newBuffer = new byte[maxRequiredLength];
+            newBuffer = ByteArrayPool.getBuffer(maxRequiredLength);
             newPayloadOffset = newBuffer.length - payloadLength;
             System.arraycopy(buffer, getPayloadOffset(),
                     newBuffer, newPayloadOffset,
@@ -1416,7 +1417,7 @@ public class RawPacket implements ByteArrayBuffer
         int newLength = length + howMuch;
 
         if (newLength > buffer.length - offset) {
-            byte[] newBuffer = new byte[newLength];
+            byte[] newBuffer = ByteArrayPool.getBuffer(newLength);
 
             System.arraycopy(buffer, offset, newBuffer, 0, length);
             offset = 0;
@@ -1595,7 +1596,7 @@ public class RawPacket implements ByteArrayBuffer
         //accommodate the list of CSRC IDs (unless there were more of them
         //previously than after setting the new list).
         byte[] newBuffer
-                = new byte[length + offset + csrcBuff.length - oldCsrcCount * 4];
+                = ByteArrayPool.getBuffer(length + offset + csrcBuff.length - oldCsrcCount * 4);
 
         //copy the part up to the CSRC list
         System.arraycopy(oldBuffer, 0, newBuffer, 0, offset + FIXED_HEADER_SIZE);
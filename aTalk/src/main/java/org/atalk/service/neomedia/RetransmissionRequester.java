@@ -35,4 +35,13 @@ public interface RetransmissionRequester
      * @param ssrc the SSRC to use as "packet sender SSRC".
      */
     public void setSenderSsrc(long ssrc);
+
+    /**
+     * Notifies this {@link RetransmissionRequester} that a packet has been
+     * recovered other than by retransmission (e.g. by FEC), so that its
+     * retransmission is no longer requested.
+     * @param ssrc the SSRC of the recovered packet.
+     * @param seq the RTP sequence number of the recovered packet.
+     */
+    public void packetRecovered(long ssrc, int seq);
 }
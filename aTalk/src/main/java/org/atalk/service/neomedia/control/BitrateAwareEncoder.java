@@ -0,0 +1,24 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ * 
+ * Distributable under LGPL license. See terms of license at gnu.org.
+ */
+package org.atalk.service.neomedia.control;
+
+import javax.media.*;
+
+/**
+ * An interface used to notify encoders about the bitrate which the bandwidth estimation allows.
+ *
+ * @author Eng Chong Meng
+ */
+public interface BitrateAwareEncoder extends Control
+{
+	/**
+	 * Tells the encoder to target <tt>bitrateBps</tt>. The encoder does not exceed its own
+	 * configured bitrate.
+	 *
+	 * @param bitrateBps the bitrate to target, in bits per second
+	 */
+	public void setTargetBitrate(long bitrateBps);
+}
@@ -67,4 +67,16 @@ public interface MediaStreamStats2 extends MediaStreamStats
 	 * @return all per-SSRC statistics for the receive direction.
 	 */
 	Collection<? extends ReceiveTrackStats> getAllReceiveStats();
+
+	/**
+	 * @return the number of received RTP and RTCP packets of the associated
+	 * {@link MediaStream} which are queued for reading.
+	 */
+	int getReceiveQueueSize();
+
+	/**
+	 * @return the number of received RTP and RTCP packets of the associated
+	 * {@link MediaStream} which were dropped because the receive queue was full.
+	 */
+	long getReceiveQueueDrops();
 }
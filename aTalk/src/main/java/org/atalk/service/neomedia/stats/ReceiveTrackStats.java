@@ -33,4 +33,21 @@ public interface ReceiveTrackStats
      * @return the number of packets lost in the last interval.
      */
     long getCurrentPacketsLost();
+
+    /**
+     * @return the total number of packets recovered by FEC.
+     */
+    long getPacketsRecovered();
+
+    /**
+     * @return the delay in milliseconds which the adaptive jitter buffer
+     * currently targets, or -1 if the stream has no adaptive jitter buffer.
+     */
+    int getJitterBufferTargetDelay();
+
+    /**
+     * @return the fraction of the played out samples which were synthesized
+     * by packet-loss concealment.
+     */
+    double getConcealmentRatio();
 }
@@ -0,0 +1,211 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.util;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe pool of <tt>byte[]</tt> for the packet buffers of <tt>RawPacket</tt>s, in power of
+ * two size classes from {@link #MIN_BUFFER_SIZE} to {@link #MAX_BUFFER_SIZE} bytes.
+ *
+ * {@link #getBuffer(int)} acquires a buffer from the smallest size class which fits the requested
+ * length; {@link #returnBuffer(byte[])} releases it back to the largest size class which it fits.
+ * A buffer must only be returned by its owner, and once; it must not be used after its return.
+ * Requests larger than {@link #MAX_BUFFER_SIZE} are allocated and never pooled.
+ *
+ * The allocation counters allow to verify that the media packet path runs without per-packet garbage.
+ *
+ * @author Eng Chong Meng
+ */
+public class ByteArrayPool
+{
+    /**
+     * The smallest pooled buffer size; i.e. of size class 0.
+     */
+    public static final int MIN_BUFFER_SIZE = 1 << 6;
+
+    /**
+     * The largest pooled buffer size.
+     */
+    public static final int MAX_BUFFER_SIZE = 1 << 14;
+
+    /**
+     * The maximum number of buffers retained in each size class.
+     */
+    private static final int POOL_CAPACITY = 128;
+
+    private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+    /**
+     * The free buffers of each size class; the buffers of class i are (MIN_BUFFER_SIZE << i) bytes long.
+     */
+    private static final Queue<byte[]>[] pools;
+
+    static {
+        int numClasses = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SIZE_SHIFT + 1;
+
+        @SuppressWarnings("unchecked")
+        Queue<byte[]>[] queues = new Queue[numClasses];
+        for (int i = 0; i < numClasses; i++)
+            queues[i] = new ArrayBlockingQueue<>(POOL_CAPACITY);
+        pools = queues;
+    }
+
+    /**
+     * The number of buffer requests.
+     */
+    private static final AtomicLong numRequests = new AtomicLong();
+
+    /**
+     * The number of buffers newly allocated; i.e. the requests which could not be served from the pool.
+     */
+    private static final AtomicLong numAllocations = new AtomicLong();
+
+    /**
+     * The total number of bytes newly allocated.
+     */
+    private static final AtomicLong numAllocatedBytes = new AtomicLong();
+
+    /**
+     * The number of buffers returned to the pool.
+     */
+    private static final AtomicLong numReturns = new AtomicLong();
+
+    /**
+     * The number of returned buffers which were discarded i.e. too small, too large or the size class is full.
+     */
+    private static final AtomicLong numDiscards = new AtomicLong();
+
+    /**
+     * Gets the size class of the smallest buffers which can hold <tt>length</tt> bytes.
+     *
+     * @param length the requested buffer length
+     * @return the size class index, or -1 if <tt>length</tt> is larger than {@link #MAX_BUFFER_SIZE}
+     */
+    private static int ceilSizeClass(int length)
+    {
+        if (length <= MIN_BUFFER_SIZE)
+            return 0;
+        if (length > MAX_BUFFER_SIZE)
+            return -1;
+        // the exponent of the next power of two >= length
+        return (32 - Integer.numberOfLeadingZeros(length - 1)) - MIN_SIZE_SHIFT;
+    }
+
+    /**
+     * Gets a buffer with a length of at least <tt>length</tt> bytes; from the pool if available.
+     *
+     * @param length the minimum length of the buffer
+     * @return a <tt>byte[]</tt> of at least <tt>length</tt> bytes; its content is undefined
+     */
+    public static byte[] getBuffer(int length)
+    {
+        numRequests.incrementAndGet();
+
+        int sizeClass = ceilSizeClass(length);
+        if (sizeClass >= 0) {
+            byte[] buf = pools[sizeClass].poll();
+            if (buf != null)
+                return buf;
+            length = MIN_BUFFER_SIZE << sizeClass;
+        }
+
+        numAllocations.incrementAndGet();
+        numAllocatedBytes.addAndGet(length);
+        return new byte[length];
+    }
+
+    /**
+     * Returns a buffer to the pool for re-use by later {@link #getBuffer(int)}. The caller must
+     * own the buffer and must not use it afterwards.
+     *
+     * @param buf the buffer to return; <tt>null</tt> is ignored
+     */
+    public static void returnBuffer(byte[] buf)
+    {
+        if (buf == null)
+            return;
+
+        int length = buf.length;
+        if ((length >= MIN_BUFFER_SIZE) && (length <= 2 * MAX_BUFFER_SIZE - 1)) {
+            // the largest size class that the buffer can serve
+            int sizeClass = Math.min(31 - Integer.numberOfLeadingZeros(length) - MIN_SIZE_SHIFT,
+                    pools.length - 1);
+            if (pools[sizeClass].offer(buf)) {
+                numReturns.incrementAndGet();
+                return;
+            }
+        }
+        numDiscards.incrementAndGet();
+    }
+
+    /**
+     * @return the number of buffer requests
+     */
+    public static long getNumRequests()
+    {
+        return numRequests.get();
+    }
+
+    /**
+     * @return the number of buffers newly allocated
+     */
+    public static long getNumAllocations()
+    {
+        return numAllocations.get();
+    }
+
+    /**
+     * @return the total number of bytes newly allocated
+     */
+    public static long getNumAllocatedBytes()
+    {
+        return numAllocatedBytes.get();
+    }
+
+    /**
+     * @return the number of buffers returned to the pool
+     */
+    public static long getNumReturns()
+    {
+        return numReturns.get();
+    }
+
+    /**
+     * @return the number of returned buffers which were discarded
+     */
+    public static long getNumDiscards()
+    {
+        return numDiscards.get();
+    }
+
+    /**
+     * Gets a summary of the pool counters, for logging.
+     *
+     * @return the pool counters
+     */
+    public static String getStatistics()
+    {
+        return "requests=" + numRequests.get()
+                + " allocations=" + numAllocations.get()
+                + " allocatedBytes=" + numAllocatedBytes.get()
+                + " returns=" + numReturns.get()
+                + " discards=" + numDiscards.get();
+    }
+}
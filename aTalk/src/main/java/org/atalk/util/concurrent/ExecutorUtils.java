@@ -42,7 +42,7 @@ public class ExecutorUtils
      * or <tt>null</tt> to leave them with their default names
      * @return the newly created thread factory
      */
-    private static ThreadFactory newThreadFactory(final boolean daemon, final String baseName)
+    static ThreadFactory newThreadFactory(final boolean daemon, final String baseName)
     {
         return new ThreadFactory()
         {
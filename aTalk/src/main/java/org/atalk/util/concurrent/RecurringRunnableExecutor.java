@@ -16,15 +16,23 @@
 package org.atalk.util.concurrent;
 
 import java.util.*;
-import java.util.concurrent.Executor;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.*;
 
 import timber.log.Timber;
 
 /**
- * Implements a single-threaded {@link Executor} of {@link RecurringRunnable}s i.e. asynchronous
- * tasks which determine by themselves the intervals (the lengths of which may vary) at which
- * they are to be invoked.
+ * Implements an {@link Executor} of {@link RecurringRunnable}s i.e. asynchronous tasks which
+ * determine by themselves the intervals (the lengths of which may vary) at which they are to be
+ * invoked.
+ * <p>
+ * All instances share a small scheduler pool whose delay queue orders the registered runnables by
+ * their next deadline; each runnable is scheduled exactly at its
+ * {@link RecurringRunnable#getTimeUntilNextRun()} and re-evaluated only after it has run, so an
+ * instance costs neither a thread nor wake-ups while its runnables are idle. A runnable is never
+ * invoked concurrently with itself, though different runnables may run in different threads of the pool.
+ * <p>
+ * A runnable whose next run moves earlier than it last reported (e.g. when new work arrives) must
+ * have {@link #startOrNotifyThread()} called for the new deadline to take effect.
  * <p>
  * webrtc/modules/utility/interface/process_thread.h
  * webrtc/modules/utility/source/process_thread_impl.cc
@@ -37,27 +45,34 @@ import timber.log.Timber;
 public class RecurringRunnableExecutor implements Executor
 {
     /**
-     * The {@code RecurringRunnable}s registered with this instance which are
-     * to be invoked in {@link #thread}.
+     * The number of threads of {@link #scheduler}.
+     */
+    private static final int SCHEDULER_POOL_SIZE = 2;
+
+    /**
+     * The delay in milliseconds after which a runnable is re-evaluated if its
+     * {@link RecurringRunnable#getTimeUntilNextRun()} threw an exception.
      */
-    private final List<RecurringRunnable> recurringRunnables = new LinkedList<>();
+    private static final long RETRY_INTERVAL_MS = 100L;
 
     /**
-     * The (background) {@code Thread} which invokes {@link RecurringRunnable#run()} on
-     * {@link #recurringRunnables} (in accord with their respective
-     * {@link RecurringRunnable#getTimeUntilNextRun()}).
+     * The scheduler which is shared by all instances and invokes the registered {@code RecurringRunnable}s.
      */
-    private Thread thread;
+    private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
 
     /**
-     * A {@code String} which will be added to the name of {@link #thread}.
-     * Meant to facilitate debugging.
+     * The {@code RecurringRunnable}s registered with this instance, mapped to their scheduled tasks.
+     */
+    private final Map<RecurringRunnable, Task> tasks = new HashMap<>();
+
+    /**
+     * A {@code String} which identifies this instance in the logs. Meant to facilitate debugging.
      */
     private final String name;
 
     /**
-     * Whether this {@link RecurringRunnableExecutor} is closed. When it is
-     * closed, it should stop its thread(s).
+     * Whether this {@link RecurringRunnableExecutor} is closed. When it is closed, none of its
+     * runnables is invoked anymore.
      */
     private boolean closed = false;
 
@@ -72,13 +87,28 @@ public class RecurringRunnableExecutor implements Executor
     /**
      * Initializes a new {@link RecurringRunnableExecutor} instance.
      *
-     * @param name a string to be added to the name of the thread which this instance will start.
+     * @param name a string which identifies the new instance in the logs.
      */
     public RecurringRunnableExecutor(String name)
     {
         this.name = name;
     }
 
+    /**
+     * Creates the scheduler shared by all instances. {@link #startOrNotifyThread()} cancels and
+     * re-schedules the pending invocations, possibly for every packet; the cancelled ones are
+     * removed from the delay queue at once instead of piling up in it until their deadline.
+     *
+     * @return the new scheduler
+     */
+    private static ScheduledThreadPoolExecutor createScheduler()
+    {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(SCHEDULER_POOL_SIZE,
+                ExecutorUtils.newThreadFactory(true, RecurringRunnableExecutor.class.getSimpleName()));
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
     /**
      * De-registers a {@code RecurringRunnable} from this {@code Executor} so
      * that its {@link RecurringRunnable#run()} is no longer invoked (by this instance).
@@ -94,12 +124,15 @@ public class RecurringRunnableExecutor implements Executor
             return false;
         }
         else {
-            synchronized (recurringRunnables) {
-                boolean removed = recurringRunnables.remove(recurringRunnable);
-                if (removed)
-                    startOrNotifyThread();
-                return removed;
+            Task task;
+            synchronized (tasks) {
+                task = tasks.remove(recurringRunnable);
             }
+            if (task == null)
+                return false;
+
+            task.cancel();
+            return true;
         }
     }
 
@@ -118,72 +151,6 @@ public class RecurringRunnableExecutor implements Executor
         registerRecurringRunnable((RecurringRunnable) command);
     }
 
-    /**
-     * Executes an iteration of the loop implemented by {@link #runInThread()}.
-     * Invokes {@link RecurringRunnable#run()} on all {@link #recurringRunnables} which are at or
-     * after the time at which they want the method in question called.
-     *
-     * @return {@code true} to continue with the next iteration of the loop
-     * implemented by {@link #runInThread()} or {@code false} to break (out of) the loop
-     */
-    private boolean run()
-    {
-        if (closed || !Thread.currentThread().equals(thread)) {
-            return false;
-        }
-        // Wait for the recurringRunnable that should be called next, but don't block thread longer than 100 ms.
-        long minTimeToNext = 100L;
-
-        synchronized (recurringRunnables) {
-            if (recurringRunnables.isEmpty()) {
-                return false;
-            }
-            for (RecurringRunnable recurringRunnable : recurringRunnables) {
-                long timeToNext = recurringRunnable.getTimeUntilNextRun();
-
-                if (minTimeToNext > timeToNext)
-                    minTimeToNext = timeToNext;
-            }
-        }
-
-        if (minTimeToNext > 0L) {
-            synchronized (recurringRunnables) {
-                if (recurringRunnables.isEmpty()) {
-                    return false;
-                }
-                try {
-                    recurringRunnables.wait(minTimeToNext);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                }
-                return true;
-            }
-        }
-        synchronized (recurringRunnables) {
-            for (RecurringRunnable recurringRunnable : recurringRunnables) {
-                long timeToNext = recurringRunnable.getTimeUntilNextRun();
-
-                if (timeToNext < 1L) {
-                    try {
-                        recurringRunnable.run();
-                    } catch (Throwable t) {
-                        if (t instanceof InterruptedException) {
-                            Thread.currentThread().interrupt();
-                        }
-                        else if (t instanceof ThreadDeath) {
-                            throw (ThreadDeath) t;
-                        }
-                        else {
-                            Timber.e(t, "The invocation of the method %s.run() threw an exception.",
-                                    recurringRunnable.getClass().getName());
-                        }
-                    }
-                }
-            }
-        }
-        return true;
-    }
-
     /**
      * Registers a {@code RecurringRunnable} with this {@code Executor} so
      * that its {@link RecurringRunnable#run()} is invoked (by this instance).
@@ -196,93 +163,174 @@ public class RecurringRunnableExecutor implements Executor
     {
         Objects.requireNonNull(recurringRunnable, "recurringRunnable");
 
-        synchronized (recurringRunnables) {
+        synchronized (tasks) {
             if (closed) {
                 return false;
             }
 
             // Only allow recurringRunnable to be registered once.
-            if (recurringRunnables.contains(recurringRunnable)) {
+            if (tasks.containsKey(recurringRunnable)) {
                 return false;
             }
             else {
-                recurringRunnables.add(0, recurringRunnable);
+                Task task = new Task(recurringRunnable);
+                tasks.put(recurringRunnable, task);
 
-                // Wake the thread calling run() to update the waiting time. The waiting time for the just
-                // registered recurringRunnable may be shorter than all other registered recurringRunnable.
-                startOrNotifyThread();
+                // The first evaluation of getTimeUntilNextRun() happens in the scheduler.
+                task.notifyTask();
                 return true;
             }
         }
     }
 
     /**
-     * Runs in {@link #thread}.
+     * Has the registered {@code RecurringRunnable}s re-evaluate their
+     * {@link RecurringRunnable#getTimeUntilNextRun()} (in the scheduler) so that an earlier
+     * deadline takes effect. The name is kept from the time each instance had its own thread.
      */
-    private void runInThread()
+    public void startOrNotifyThread()
     {
-        try {
-            while (run()) {
-                ;
-            }
-        } finally {
-            synchronized (recurringRunnables) {
-                if (!closed && Thread.currentThread().equals(thread)) {
-                    thread = null;
-                    // If the (current) thread dies unexpectedly, make sure a new thread will replace it if necessary.
-                    startOrNotifyThread();
-                }
+        synchronized (tasks) {
+            if (closed)
+                return;
+
+            for (Task task : tasks.values()) {
+                task.notifyTask();
             }
         }
     }
 
     /**
-     * Starts or notifies {@link #thread} depending on and in accord with the state of this instance.
+     * Closes this {@link RecurringRunnableExecutor}, cancelling and de-registering all registered runnables.
      */
-    public void startOrNotifyThread()
+    public void close()
     {
-        synchronized (recurringRunnables) {
-            if (!closed && this.thread == null) {
-                if (!recurringRunnables.isEmpty()) {
-                    Thread thread = new Thread()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            RecurringRunnableExecutor.this.runInThread();
-                        }
-                    };
-
-                    thread.setDaemon(true);
-                    thread.setName(RecurringRunnableExecutor.class.getName() + ".thread-" + name);
-
-                    boolean started = false;
-                    this.thread = thread;
-                    try {
-                        thread.start();
-                        started = true;
-                    } finally {
-                        if (!started && thread.equals(this.thread))
-                            this.thread = null;
-                    }
-                }
-            }
-            else {
-                recurringRunnables.notifyAll();
+        synchronized (tasks) {
+            closed = true;
+            for (Task task : tasks.values()) {
+                task.cancel();
             }
+            tasks.clear();
         }
     }
 
     /**
-     * Closes this {@link RecurringRunnableExecutor}, signalling its thread to stop and
-     * de-registering all registered runnable.
+     * The scheduled invocation of a registered {@code RecurringRunnable}. At most one invocation
+     * of a task is pending or running at any time.
      */
-    public void close()
+    private class Task implements Runnable
     {
-        synchronized (recurringRunnables) {
-            closed = true;
-            thread = null;
-            recurringRunnables.notifyAll();
+        private final RecurringRunnable recurringRunnable;
+
+        /**
+         * The pending invocation of this task in {@link #scheduler}, or {@code null} while it runs.
+         */
+        private ScheduledFuture<?> future;
+
+        /**
+         * Whether this task is being executed in {@link #scheduler}.
+         */
+        private boolean running = false;
+
+        /**
+         * Whether {@link #notifyTask()} was called while this task was running.
+         */
+        private boolean notified = false;
+
+        /**
+         * Whether this task was de-registered.
+         */
+        private boolean cancelled = false;
+
+        Task(RecurringRunnable recurringRunnable)
+        {
+            this.recurringRunnable = recurringRunnable;
+        }
+
+        /**
+         * Cancels the pending invocation of this task, if any; a running invocation completes.
+         */
+        synchronized void cancel()
+        {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+
+        /**
+         * Moves the next invocation of this task to now, for {@link #run()} to re-evaluate the
+         * time until the next run of the {@code RecurringRunnable}.
+         */
+        synchronized void notifyTask()
+        {
+            if (cancelled)
+                return;
+
+            if (running) {
+                notified = true;
+            }
+            else if (future == null || future.cancel(false)) {
+                future = scheduler.schedule(this, 0L, TimeUnit.MILLISECONDS);
+            }
+            // else the pending invocation is starting and will re-evaluate anyway.
+        }
+
+        /**
+         * Invokes the {@code RecurringRunnable} if it is due, then schedules this task at the
+         * next deadline of the {@code RecurringRunnable}.
+         */
+        @Override
+        public void run()
+        {
+            synchronized (this) {
+                if (cancelled || running)
+                    return;
+                running = true;
+                notified = false;
+                future = null;
+            }
+
+            long delay = RETRY_INTERVAL_MS;
+            try {
+                if (recurringRunnable.getTimeUntilNextRun() < 1L) {
+                    invoke();
+                }
+                delay = Math.max(recurringRunnable.getTimeUntilNextRun(), 0L);
+            } catch (Throwable t) {
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+                Timber.e(t, "%s: the method %s.getTimeUntilNextRun() threw an exception.",
+                        name, recurringRunnable.getClass().getName());
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    if (!cancelled) {
+                        if (notified)
+                            delay = 0L;
+                        future = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }
+
+        private void invoke()
+        {
+            try {
+                recurringRunnable.run();
+            } catch (Throwable t) {
+                if (t instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                else if (t instanceof ThreadDeath) {
+                    throw (ThreadDeath) t;
+                }
+                else {
+                    Timber.e(t, "The invocation of the method %s.run() threw an exception.",
+                            recurringRunnable.getClass().getName());
+                }
+            }
         }
     }
 }
@@ -0,0 +1,143 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.util.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free ring buffer for handing elements over from a single producer thread to a
+ * consumer thread.
+ *
+ * Only one thread may {@link #offer(Object)}. Elements are claimed by {@link #poll()} with a
+ * compare-and-set of the head, so the producer may also poll in order to evict the oldest
+ * element when the ring is full (i.e. a drop-oldest policy); an element is returned by exactly
+ * one of the concurrent {@link #poll()} invocations.
+ *
+ * @param <T> the type of the elements
+ * @author Eng Chong Meng
+ */
+public class SpscRingBuffer<T>
+{
+    private final AtomicReferenceArray<T> slots;
+
+    /**
+     * The index mask of {@link #slots}; its length is a power of two.
+     */
+    private final int mask;
+
+    /**
+     * The maximum number of elements in this ring.
+     */
+    private final int capacity;
+
+    /**
+     * The sequence of the next element to poll.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The sequence of the next element to offer; only written by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Initializes a new <tt>SpscRingBuffer</tt>.
+     *
+     * @param capacity the maximum number of elements in the ring; at least 1
+     */
+    public SpscRingBuffer(int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity " + capacity);
+
+        int length = Integer.highestOneBit(capacity);
+        if (length < capacity)
+            length <<= 1;
+
+        this.capacity = capacity;
+        slots = new AtomicReferenceArray<>(length);
+        mask = length - 1;
+    }
+
+    /**
+     * Adds an element at the tail of this ring; must be called by the producer thread only.
+     *
+     * @param element the element to add, not <tt>null</tt>
+     * @return <tt>true</tt> if the element was added; <tt>false</tt> if the ring is full
+     */
+    public boolean offer(T element)
+    {
+        if (element == null)
+            throw new NullPointerException("element");
+
+        long t = tail.get();
+        if (t - head.get() >= capacity)
+            return false;
+
+        slots.set((int) t & mask, element);
+        // publishes the element to the consumer
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Removes the element at the head of this ring.
+     *
+     * @return the oldest element, or <tt>null</tt> if the ring is empty
+     */
+    public T poll()
+    {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get())
+                return null;
+
+            T element = slots.get((int) h & mask);
+            // The slot is not overwritten before head moves past it, so a successful claim
+            // returns the element which was offered with sequence h.
+            if (head.compareAndSet(h, h + 1))
+                return element;
+        }
+    }
+
+    /**
+     * @return the number of elements in this ring; a snapshot if other threads modify it
+     */
+    public int size()
+    {
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(t - h, capacity));
+    }
+
+    /**
+     * @return <tt>true</tt> if this ring has no elements
+     */
+    public boolean isEmpty()
+    {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * @return the maximum number of elements in this ring
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.util.logging;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.*;
+
+import timber.log.Timber;
+
+/**
+ * Records time series points as primitives into an in-memory ring, for the hot code paths where
+ * the maps of {@link DiagnosticContext.TimeSeriesPoint} and their JSON formatting by
+ * {@link TimeSeriesLogger} would distort the timing being measured.
+ *
+ * A time series is registered once, with its typed fields, as a {@link Series}. Recording a point
+ * then writes the time and the values into the next slot of the ring, overwriting the oldest
+ * point, without any allocation or lock; when the recorder is stopped it costs a volatile read.
+ * The ring can be dumped at any time as binary with {@link #writeBinary(OutputStream)}, or as CSV
+ * with {@link #writeCsv(Writer)}.
+ *
+ * The recorder is started with {@link #start(int)}, or at class load if the system property
+ * {@link #CAPACITY_PNAME} is set to a positive number of points.
+ *
+ * @author Eng Chong Meng
+ */
+public class TimeSeriesRecorder
+{
+    /**
+     * The name of the system property with the number of points the ring is to hold when the
+     * recorder is to be started at class load.
+     */
+    public static final String CAPACITY_PNAME = "org.atalk.util.logging.TimeSeriesRecorder.CAPACITY";
+
+    /**
+     * The largest number of fields of a time series.
+     */
+    public static final int MAX_FIELDS = 6;
+
+    /**
+     * The magic number at the start of the binary dump, "TSR1".
+     */
+    public static final int BINARY_MAGIC = 0x54535231;
+
+    /**
+     * The number of longs a point takes in the ring: the series id, the time and the values.
+     */
+    private static final int STRIDE = 2 + MAX_FIELDS;
+
+    /**
+     * The series registered, indexed by their id.
+     */
+    private static final List<Series> series = new CopyOnWriteArrayList<>();
+
+    /**
+     * The ring the points are recorded into, or <tt>null</tt> if the recorder is stopped.
+     */
+    private static volatile Ring ring;
+
+    static {
+        int capacity = Integer.getInteger(CAPACITY_PNAME, 0);
+        if (capacity > 0)
+            start(capacity);
+    }
+
+    /**
+     * Registers a time series.
+     *
+     * @param name the name of the series
+     * @return a <tt>Series.Builder</tt> to declare the fields of the series with
+     */
+    public static Series.Builder series(String name)
+    {
+        return new Series.Builder(name);
+    }
+
+    /**
+     * Starts recording into a new ring, dropping the points recorded so far.
+     *
+     * @param capacity the number of points to keep, rounded up to a power of two
+     */
+    public static void start(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        ring = new Ring(size);
+        Timber.i("Recording time series, %d points", size);
+    }
+
+    /**
+     * Stops recording. The points recorded so far are dropped.
+     */
+    public static void stop()
+    {
+        ring = null;
+    }
+
+    /**
+     * Checks if points are being recorded.
+     *
+     * @return <tt>true</tt> if points are being recorded
+     */
+    public static boolean isEnabled()
+    {
+        return ring != null;
+    }
+
+    /**
+     * Writes the series registered and the points in the ring, the oldest first, to a stream.
+     * All numbers are big endian. The dump starts with {@link #BINARY_MAGIC} and the number of
+     * series (int), followed for each series by its id (short), name (UTF), number of fields
+     * (byte), and for each field its name (UTF) and whether it is a double (boolean). Then come
+     * the number of points (int), each made of the series id (short), the time (long) and a long
+     * per field of the series, which holds the bits of the value of a double field.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing to <tt>out</tt> fails
+     */
+    public static void writeBinary(OutputStream out)
+            throws IOException
+    {
+        long[] points = snapshot();
+        int count = points.length / STRIDE;
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+
+        dos.writeInt(BINARY_MAGIC);
+        dos.writeInt(series.size());
+        for (Series s : series) {
+            dos.writeShort(s.id);
+            dos.writeUTF(s.name);
+            dos.writeByte(s.fieldNames.length);
+            for (int i = 0; i < s.fieldNames.length; i++) {
+                dos.writeUTF(s.fieldNames[i]);
+                dos.writeBoolean(s.doubleFields[i]);
+            }
+        }
+
+        dos.writeInt(count);
+        for (int p = 0; p < count; p++) {
+            int base = p * STRIDE;
+            Series s = series.get((int) points[base]);
+            dos.writeShort(s.id);
+            dos.writeLong(points[base + 1]);
+            for (int i = 0; i < s.fieldNames.length; i++)
+                dos.writeLong(points[base + 2 + i]);
+        }
+        dos.flush();
+    }
+
+    /**
+     * Writes the points in the ring, the oldest first, as CSV. Each row is made of the name of the
+     * series, the time and the values of the fields; it is preceded by a comment line with the
+     * column names when the series differs from the one of the previous row.
+     *
+     * @param out the writer to write to
+     * @throws IOException if writing to <tt>out</tt> fails
+     */
+    public static void writeCsv(Writer out)
+            throws IOException
+    {
+        long[] points = snapshot();
+        int count = points.length / STRIDE;
+        BufferedWriter writer = new BufferedWriter(out);
+        Series previous = null;
+
+        for (int p = 0; p < count; p++) {
+            int base = p * STRIDE;
+            Series s = series.get((int) points[base]);
+            if (s != previous) {
+                writer.write("# series,time");
+                for (String fieldName : s.fieldNames) {
+                    writer.write(',');
+                    writer.write(fieldName);
+                }
+                writer.newLine();
+                previous = s;
+            }
+
+            writer.write(s.name);
+            writer.write(',');
+            writer.write(Long.toString(points[base + 1]));
+            for (int i = 0; i < s.fieldNames.length; i++) {
+                long value = points[base + 2 + i];
+                writer.write(',');
+                writer.write(s.doubleFields[i]
+                        ? Double.toString(Double.longBitsToDouble(value)) : Long.toString(value));
+            }
+            writer.newLine();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Copies the points in the ring, the oldest first. A point which is being overwritten while
+     * it is copied is left out.
+     *
+     * @return the points, {@link #STRIDE} longs each
+     */
+    private static long[] snapshot()
+    {
+        Ring r = ring;
+        if (r == null)
+            return new long[0];
+
+        long end = r.cursor.get();
+        long start = Math.max(0, end - r.sequences.length());
+        long[] points = new long[(int) (end - start) * STRIDE];
+        int count = 0;
+
+        for (long n = start; n < end; n++) {
+            int slot = (int) (n & r.mask);
+            if (r.sequences.get(slot) != n + 1)
+                continue;
+
+            // Volatile reads: they are not reordered after the check of the sequence below.
+            int base = slot * STRIDE;
+            for (int i = 0; i < STRIDE; i++)
+                points[count * STRIDE + i] = r.data.get(base + i);
+            if (r.sequences.get(slot) == n + 1)
+                count++;
+        }
+        return (count * STRIDE == points.length) ? points : Arrays.copyOf(points, count * STRIDE);
+    }
+
+    /**
+     * The ring of points. A slot is claimed by incrementing the cursor; its sequence is cleared
+     * while the point is written, then set to the number of the point plus one.
+     *
+     * The point fields are written with ordered (release) stores after the sequence is cleared,
+     * and read with volatile loads between two reads of the sequence, so that a reader which sees
+     * any field of a newer point also sees the cleared sequence. Plain array accesses could be
+     * reordered across the sequence accesses.
+     */
+    private static class Ring
+    {
+        private final AtomicLongArray data;
+
+        private final AtomicLongArray sequences;
+
+        private final AtomicLong cursor = new AtomicLong();
+
+        private final int mask;
+
+        private Ring(int size)
+        {
+            data = new AtomicLongArray(size * STRIDE);
+            sequences = new AtomicLongArray(size);
+            mask = size - 1;
+        }
+
+        /**
+         * Claims the slot of the next point and writes its header.
+         *
+         * @return the number of the point
+         */
+        private long begin(int seriesId, long timeMs)
+        {
+            long n = cursor.getAndIncrement();
+            int slot = (int) (n & mask);
+            sequences.set(slot, 0);
+
+            int base = slot * STRIDE;
+            data.lazySet(base, seriesId);
+            data.lazySet(base + 1, timeMs);
+            return n;
+        }
+
+        private void end(long n)
+        {
+            sequences.lazySet((int) (n & mask), n + 1);
+        }
+    }
+
+    /**
+     * A registered time series, the fields of which are either longs or doubles. The
+     * <tt>record</tt> methods take the values of the fields in the order they were declared in;
+     * values for fields beyond those declared are ignored, missing ones are recorded as 0.
+     */
+    public static class Series
+    {
+        private final int id;
+
+        private final String name;
+
+        private final String[] fieldNames;
+
+        private final boolean[] doubleFields;
+
+        private Series(int id, String name, String[] fieldNames, boolean[] doubleFields)
+        {
+            this.id = id;
+            this.name = name;
+            this.fieldNames = fieldNames;
+            this.doubleFields = doubleFields;
+        }
+
+        /**
+         * Gets the name of the series.
+         *
+         * @return the name of the series
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Checks if points are being recorded, for the callers which have to compute the values.
+         *
+         * @return <tt>true</tt> if points are being recorded
+         */
+        public boolean isEnabled()
+        {
+            return ring != null;
+        }
+
+        public void record(long timeMs, long v0)
+        {
+            record(timeMs, v0, 0L, 0L, 0L, 0L, 0L);
+        }
+
+        public void record(long timeMs, long v0, long v1)
+        {
+            record(timeMs, v0, v1, 0L, 0L, 0L, 0L);
+        }
+
+        public void record(long timeMs, long v0, long v1, long v2)
+        {
+            record(timeMs, v0, v1, v2, 0L, 0L, 0L);
+        }
+
+        public void record(long timeMs, long v0, long v1, long v2, long v3)
+        {
+            record(timeMs, v0, v1, v2, v3, 0L, 0L);
+        }
+
+        public void record(long timeMs, long v0, long v1, long v2, long v3, long v4)
+        {
+            record(timeMs, v0, v1, v2, v3, v4, 0L);
+        }
+
+        public void record(long timeMs, long v0, long v1, long v2, long v3, long v4, long v5)
+        {
+            Ring r = ring;
+            if (r == null)
+                return;
+
+            long n = r.begin(id, timeMs);
+            int base = (int) (n & r.mask) * STRIDE + 2;
+            AtomicLongArray data = r.data;
+            data.lazySet(base, value(0, v0));
+            data.lazySet(base + 1, value(1, v1));
+            data.lazySet(base + 2, value(2, v2));
+            data.lazySet(base + 3, value(3, v3));
+            data.lazySet(base + 4, value(4, v4));
+            data.lazySet(base + 5, value(5, v5));
+            r.end(n);
+        }
+
+        public void record(long timeMs, double v0)
+        {
+            record(timeMs, v0, 0D, 0D, 0D, 0D, 0D);
+        }
+
+        public void record(long timeMs, double v0, double v1)
+        {
+            record(timeMs, v0, v1, 0D, 0D, 0D, 0D);
+        }
+
+        public void record(long timeMs, double v0, double v1, double v2)
+        {
+            record(timeMs, v0, v1, v2, 0D, 0D, 0D);
+        }
+
+        public void record(long timeMs, double v0, double v1, double v2, double v3)
+        {
+            record(timeMs, v0, v1, v2, v3, 0D, 0D);
+        }
+
+        public void record(long timeMs, double v0, double v1, double v2, double v3, double v4)
+        {
+            record(timeMs, v0, v1, v2, v3, v4, 0D);
+        }
+
+        public void record(long timeMs, double v0, double v1, double v2, double v3, double v4,
+                double v5)
+        {
+            Ring r = ring;
+            if (r == null)
+                return;
+
+            long n = r.begin(id, timeMs);
+            int base = (int) (n & r.mask) * STRIDE + 2;
+            AtomicLongArray data = r.data;
+            data.lazySet(base, value(0, v0));
+            data.lazySet(base + 1, value(1, v1));
+            data.lazySet(base + 2, value(2, v2));
+            data.lazySet(base + 3, value(3, v3));
+            data.lazySet(base + 4, value(4, v4));
+            data.lazySet(base + 5, value(5, v5));
+            r.end(n);
+        }
+
+        private long value(int field, long v)
+        {
+            return (field < doubleFields.length && doubleFields[field])
+                    ? Double.doubleToRawLongBits(v) : v;
+        }
+
+        private long value(int field, double v)
+        {
+            return (field < doubleFields.length && doubleFields[field])
+                    ? Double.doubleToRawLongBits(v) : (long) v;
+        }
+
+        /**
+         * Declares the fields of a time series, and registers it.
+         */
+        public static class Builder
+        {
+            private final String name;
+
+            private final List<String> fieldNames = new ArrayList<>();
+
+            private final List<Boolean> doubleFields = new ArrayList<>();
+
+            private Builder(String name)
+            {
+                this.name = name;
+            }
+
+            /**
+             * Declares a field which holds a long.
+             *
+             * @param fieldName the name of the field
+             * @return this builder
+             */
+            public Builder addLong(String fieldName)
+            {
+                return addField(fieldName, false);
+            }
+
+            /**
+             * Declares a field which holds a double.
+             *
+             * @param fieldName the name of the field
+             * @return this builder
+             */
+            public Builder addDouble(String fieldName)
+            {
+                return addField(fieldName, true);
+            }
+
+            private Builder addField(String fieldName, boolean isDouble)
+            {
+                if (fieldNames.size() == MAX_FIELDS)
+                    throw new IllegalStateException("More than " + MAX_FIELDS + " fields: " + name);
+
+                fieldNames.add(fieldName);
+                doubleFields.add(isDouble);
+                return this;
+            }
+
+            /**
+             * Registers the series.
+             *
+             * @return the <tt>Series</tt> registered
+             */
+            public Series build()
+            {
+                boolean[] doubles = new boolean[doubleFields.size()];
+                for (int i = 0; i < doubles.length; i++)
+                    doubles[i] = doubleFields.get(i);
+
+                synchronized (series) {
+                    Series s = new Series(series.size(), name,
+                            fieldNames.toArray(new String[0]), doubles);
+                    series.add(s);
+                    return s;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia;
+
+import org.atalk.impl.neomedia.benchmark.BenchmarkPackets;
+import org.atalk.service.neomedia.DatagramChannelStreamConnector;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.*;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.protocol.PushSourceStream;
+import javax.media.protocol.SourceTransferHandler;
+
+/**
+ * Measures the UDP media transport over the loopback interface: packets are sent through an
+ * {@link RTPConnectorUDPOutputStream} and received by an {@link RTPConnectorUDPInputStream},
+ * either on plain <tt>DatagramSocket</tt>s (a blocking receive thread per socket) or on the
+ * non-blocking <tt>DatagramChannel</tt>s of {@link DatagramChannelStreamConnector} (the shared
+ * {@link DatagramChannelReceiver}).
+ *
+ * The score is the packets sent per second. The auxiliary counters are the packets received
+ * per second, and the CPU time in ns per second of the sending and the receiving threads; the
+ * latter divided by the former is the CPU time per packet.
+ *
+ * @author Eng Chong Meng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackTransportBenchmark
+{
+    /**
+     * The counters reported per second along with the packets sent.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters
+    {
+        public long receivedPackets;
+
+        public long cpuNanos;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            receivedPackets = 0;
+            cpuNanos = 0;
+        }
+    }
+
+    /**
+     * The number of packets received between two readings of the receive thread CPU time.
+     */
+    private static final int CPU_TIME_INTERVAL = 256;
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    @Param({"socket", "channel"})
+    public String transport;
+
+    @Param({"160", "1200"})
+    public int payloadLength;
+
+    private BenchmarkPackets packets;
+
+    private DatagramSocket sendSocket;
+
+    private DatagramSocket receiveSocket;
+
+    private RTPConnectorUDPOutputStream outputStream;
+
+    private RTPConnectorUDPInputStream inputStream;
+
+    private InetSocketAddress target;
+
+    /**
+     * The packets read out of <tt>inputStream</tt>; only written by the receiving thread.
+     */
+    private volatile long received = 0;
+
+    /**
+     * The CPU time of the receiving thread, as of its last reading.
+     */
+    private volatile long receiveCpuNanos = 0;
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        packets = new BenchmarkPackets(BenchmarkPackets.SYNTHETIC, BenchmarkPackets.BATCH, payloadLength);
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        sendSocket = bind(loopback);
+        receiveSocket = bind(loopback);
+        target = new InetSocketAddress(loopback, receiveSocket.getLocalPort());
+
+        outputStream = new RTPConnectorUDPOutputStream(sendSocket);
+        inputStream = new RTPConnectorUDPInputStream(receiveSocket);
+        inputStream.setTransferHandler(new SourceTransferHandler()
+        {
+            private final byte[] buf = new byte[RTPConnectorInputStream.PACKET_RECEIVE_BUFFER_LENGTH];
+
+            private long cpuNanos = -1;
+
+            private int sinceCpuReading = 0;
+
+            @Override
+            public void transferData(PushSourceStream stream)
+            {
+                int count = 0;
+                try {
+                    while (stream.read(buf, 0, buf.length) > 0)
+                        count++;
+                } catch (IOException e) {
+                    return;
+                }
+                received += count;
+
+                sinceCpuReading += count;
+                if ((cpuNanos == -1) || (sinceCpuReading >= CPU_TIME_INTERVAL)) {
+                    long now = threadMXBean.getCurrentThreadCpuTime();
+                    if (cpuNanos != -1)
+                        receiveCpuNanos += now - cpuNanos;
+                    cpuNanos = now;
+                    sinceCpuReading = 0;
+                }
+            }
+        });
+    }
+
+    private DatagramSocket bind(InetAddress loopback)
+            throws IOException
+    {
+        return "channel".equals(transport)
+                ? DatagramChannelStreamConnector.bindDatagramChannel(loopback, 0)
+                : new DatagramSocket(0, loopback);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        inputStream.close();
+        sendSocket.close();
+        receiveSocket.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public void send(Counters counters)
+            throws IOException
+    {
+        long cpuNanos = threadMXBean.getCurrentThreadCpuTime();
+        long received = this.received;
+        long receiveCpuNanos = this.receiveCpuNanos;
+
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++)
+            outputStream.sendToTarget(packets.reset(i), target);
+
+        counters.cpuNanos += threadMXBean.getCurrentThreadCpuTime() - cpuNanos
+                + this.receiveCpuNanos - receiveCpuNanos;
+        counters.receivedPackets += this.received - received;
+    }
+}
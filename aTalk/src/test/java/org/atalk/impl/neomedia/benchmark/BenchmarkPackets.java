@@ -0,0 +1,249 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.benchmark;
+
+import org.atalk.impl.neomedia.jmfext.media.protocol.rtpdumpfile.RtpdumpFileReader;
+import org.atalk.impl.neomedia.transform.PacketTransformer;
+import org.atalk.service.configuration.ConfigurationService;
+import org.atalk.service.libjitsi.LibJitsi;
+import org.atalk.service.neomedia.RawPacket;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The RTP packets fed to the neomedia benchmarks: either synthetic, or the RTP packets of an
+ * rtpdump capture (e.g. <tt>rtpdump -F dump -o call.rtpdump</tt>) restamped to a single SSRC
+ * with consecutive sequence numbers, so that the benchmarks run on the payload sizes of a real
+ * call.
+ *
+ * A batch is copied from its templates into preallocated packets before each run, as the
+ * transformers work in place; the copy does not allocate.
+ *
+ * @author Eng Chong Meng
+ */
+public class BenchmarkPackets
+{
+    /**
+     * The source which generates the packets instead of reading them from an rtpdump file.
+     */
+    public static final String SYNTHETIC = "synthetic";
+
+    /**
+     * The number of packets processed by a benchmark invocation; the results are reported per
+     * packet with <tt>@OperationsPerInvocation(BATCH)</tt>.
+     */
+    public static final int BATCH = 256;
+
+    /**
+     * The room left after each packet, for the SRTP authentication tag and the RED header.
+     */
+    private static final int HEADROOM = 64;
+
+    /**
+     * The SSRC of the benchmark packets.
+     */
+    public static final int SSRC = 0x0badcafe;
+
+    /**
+     * The payload type of the benchmark packets.
+     */
+    public static final byte PAYLOAD_TYPE = 100;
+
+    static {
+        // Run without a configuration service unless one is given: the components then fall
+        // back to their defaults.
+        if (System.getProperty(ConfigurationService.class.getName()) == null)
+            System.setProperty(ConfigurationService.class.getName(), Object.class.getName());
+        LibJitsi.start();
+    }
+
+    /**
+     * The packets as generated or read, without headroom.
+     */
+    private final byte[][] templates;
+
+    /**
+     * The packets handed out by {@link #reset()}.
+     */
+    private final RawPacket[] packets;
+
+    /**
+     * Creates the packets of a benchmark.
+     *
+     * @param source {@link #SYNTHETIC}, or the path of an rtpdump file
+     * @param count the number of packets
+     * @param payloadLength the payload length of the synthetic packets
+     * @throws IOException if the rtpdump file cannot be read
+     */
+    public BenchmarkPackets(String source, int count, int payloadLength)
+            throws IOException
+    {
+        this(SYNTHETIC.equals(source) ? synthetic(count, payloadLength) : rtpdump(source, count));
+    }
+
+    /**
+     * Creates the packets a transformer makes of the packets of another benchmark, e.g. the
+     * packets to reverse transform.
+     *
+     * @param packets the packets to transform
+     * @param transformer the transformer
+     */
+    public BenchmarkPackets(BenchmarkPackets packets, PacketTransformer transformer)
+    {
+        this(transform(packets, transformer));
+    }
+
+    private BenchmarkPackets(byte[][] templates)
+    {
+        this.templates = templates;
+        packets = new RawPacket[templates.length];
+        for (int i = 0; i < templates.length; i++) {
+            byte[] buf = new byte[templates[i].length + HEADROOM];
+            packets[i] = new RawPacket(buf, 0, templates[i].length);
+        }
+    }
+
+    /**
+     * @return the number of packets
+     */
+    public int size()
+    {
+        return packets.length;
+    }
+
+    /**
+     * Gets a copy of a packet, in a buffer of its own.
+     *
+     * @param i the index of the packet
+     * @return a new <tt>RawPacket</tt> with the content of the packet <tt>i</tt>
+     */
+    public RawPacket copy(int i)
+    {
+        byte[] buf = Arrays.copyOf(templates[i], templates[i].length + HEADROOM);
+        return new RawPacket(buf, 0, templates[i].length);
+    }
+
+    /**
+     * Restores the packets to their initial content.
+     *
+     * @return the restored packets
+     */
+    public RawPacket[] reset()
+    {
+        for (int i = 0; i < packets.length; i++)
+            reset(i);
+        return packets;
+    }
+
+    /**
+     * Restores a packet to its initial content.
+     *
+     * @param i the index of the packet
+     * @return the restored packet
+     */
+    public RawPacket reset(int i)
+    {
+        RawPacket pkt = packets[i];
+        byte[] template = templates[i];
+        byte[] buf = pkt.getBuffer();
+
+        if (buf.length < template.length) {
+            buf = new byte[template.length + HEADROOM];
+            pkt.setBuffer(buf);
+        }
+        System.arraycopy(template, 0, buf, 0, template.length);
+        pkt.setOffset(0);
+        pkt.setLength(template.length);
+        return pkt;
+    }
+
+    private static byte[][] transform(BenchmarkPackets packets, PacketTransformer transformer)
+    {
+        byte[][] pkts = new byte[packets.size()][];
+
+        for (int i = 0; i < pkts.length; i++) {
+            RawPacket pkt = transformer.transform(new RawPacket[]{packets.copy(i)})[0];
+            pkts[i] = Arrays.copyOfRange(pkt.getBuffer(), pkt.getOffset(),
+                    pkt.getOffset() + pkt.getLength());
+        }
+        return pkts;
+    }
+
+    /**
+     * Generates packets with consecutive sequence numbers and 20 ms of 48 kHz timestamps apart.
+     */
+    private static byte[][] synthetic(int count, int payloadLength)
+    {
+        Random random = new Random(count);
+        byte[][] pkts = new byte[count][];
+
+        for (int i = 0; i < count; i++) {
+            byte[] buf = new byte[RawPacket.FIXED_HEADER_SIZE + payloadLength];
+            random.nextBytes(buf);
+            buf[0] = 0;
+            pkts[i] = restamp(buf, i);
+        }
+        return pkts;
+    }
+
+    /**
+     * Reads the first <tt>count</tt> RTP packets of an rtpdump file, looping over it if it holds
+     * fewer; RTCP packets are skipped.
+     */
+    private static byte[][] rtpdump(String path, int count)
+            throws IOException
+    {
+        if (!new File(path).isFile())
+            throw new IOException("No rtpdump file: " + path);
+
+        RtpdumpFileReader reader = new RtpdumpFileReader(path);
+        byte[][] pkts = new byte[count][];
+
+        for (int i = 0, read = 0; i < count; read++) {
+            if (read > 16 * count && i == 0)
+                throw new IOException("No RTP packets in " + path);
+
+            RawPacket pkt = reader.getNextPacket(true);
+            int pt = pkt.getLength() < 2 ? -1 : (pkt.getBuffer()[pkt.getOffset() + 1] & 0xff);
+            if (pkt.getLength() < RawPacket.FIXED_HEADER_SIZE || pkt.getVersion() != 2
+                    || (pt >= 200 && pt <= 204))
+                continue;
+
+            pkts[i] = restamp(Arrays.copyOfRange(pkt.getBuffer(), pkt.getOffset(),
+                    pkt.getOffset() + pkt.getLength()), i);
+            i++;
+        }
+        return pkts;
+    }
+
+    /**
+     * Rewrites the RTP header of a packet as the <tt>i</tt>th packet of the benchmark stream;
+     * the extension and CSRC fields of a captured packet are kept, its padding and marker bits are cleared.
+     */
+    private static byte[] restamp(byte[] buf, int i)
+    {
+        RawPacket pkt = new RawPacket(buf, 0, buf.length);
+        buf[0] = (byte) ((buf[0] & 0x1f) | 0x80);
+        buf[1] = PAYLOAD_TYPE;
+        pkt.setSequenceNumber(i & 0xffff);
+        pkt.setTimestamp(960L * i);
+        pkt.setSSRC(SSRC);
+        return buf;
+    }
+}
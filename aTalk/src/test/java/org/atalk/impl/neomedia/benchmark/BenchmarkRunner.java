@@ -0,0 +1,53 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the neomedia JMH benchmarks on the unit test classpath of the host JVM, e.g.
+ * <pre>
+ * java -cp &lt;test classpath&gt; org.atalk.impl.neomedia.benchmark.BenchmarkRunner \
+ *     [benchmark regexp] [rtpdump file]
+ * </pre>
+ * The benchmarks report the average time per packet in ns; the GC profiler adds the bytes
+ * allocated per packet as <tt>gc.alloc.rate.norm</tt>. With an rtpdump file, the benchmarks
+ * run on both the synthetic packets and the packets of the capture.
+ *
+ * @author Eng Chong Meng
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "org\\.atalk\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(3)
+                .measurementIterations(5);
+
+        if (args.length > 1)
+            options.param("source", BenchmarkPackets.SYNTHETIC, args[1]);
+
+        new Runner(options.build()).run();
+    }
+}
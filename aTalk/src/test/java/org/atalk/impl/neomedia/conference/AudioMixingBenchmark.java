@@ -0,0 +1,108 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.conference;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.Buffer;
+import javax.media.Format;
+import javax.media.format.AudioFormat;
+
+/**
+ * Measures the audio mixing of a conference of <tt>participants</tt>, each of whom receives the
+ * mix of all the others through its own {@link AudioMixingPushBufferStream}, as
+ * {@link AudioMixerPushBufferStream} pushes it. The audio is 48 kHz mono 16-bit, in frames of
+ * 20 ms; the samples are loud enough for the larger conferences to be soft clipped.
+ *
+ * The score is the time to mix one frame for every participant; run with <tt>-prof gc</tt> to
+ * check that the mixing does not allocate.
+ *
+ * @author Eng Chong Meng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioMixingBenchmark
+{
+    private static final double SAMPLE_RATE = 48000;
+
+    /**
+     * The number of samples of a 20 ms frame.
+     */
+    private static final int FRAME_SAMPLE_COUNT = 960;
+
+    @Param({"2", "4", "8", "16", "32"})
+    public int participants;
+
+    private AudioMixingPushBufferStream[] outStreams;
+
+    /**
+     * The samples mixed for each participant: those of all the others.
+     */
+    private short[][][] inSamples;
+
+    private final Buffer buffer = new Buffer();
+
+    private long timeStamp = 0;
+
+    @Setup
+    public void setUp()
+    {
+        AudioFormat format = new AudioFormat(AudioFormat.LINEAR, SAMPLE_RATE, 16, 1,
+                AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED, Format.NOT_SPECIFIED,
+                Format.NOT_SPECIFIED, Format.byteArray);
+        AudioMixerPushBufferStream audioMixerStream = new AudioMixerPushBufferStream(null, format);
+
+        Random random = new Random(participants);
+        short[][] frames = new short[participants][FRAME_SAMPLE_COUNT];
+        for (short[] frame : frames) {
+            for (int i = 0; i < frame.length; i++)
+                frame[i] = (short) (random.nextGaussian() * 4000);
+        }
+
+        outStreams = new AudioMixingPushBufferStream[participants];
+        inSamples = new short[participants][participants - 1][];
+        for (int p = 0; p < participants; p++) {
+            outStreams[p] = new AudioMixingPushBufferStream(audioMixerStream, null);
+            for (int q = 0, i = 0; q < participants; q++) {
+                if (q != p)
+                    inSamples[p][i++] = frames[q];
+            }
+        }
+        buffer.setData(new byte[FRAME_SAMPLE_COUNT * 2]);
+    }
+
+    @Benchmark
+    public Buffer mix()
+            throws IOException
+    {
+        timeStamp += 20000000;
+        for (int p = 0; p < participants; p++) {
+            AudioMixingPushBufferStream outStream = outStreams[p];
+            outStream.setInSamples(inSamples[p], FRAME_SAMPLE_COUNT, timeStamp);
+            outStream.read(buffer);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+import org.atalk.impl.neomedia.rtp.remotebitrateestimator.RemoteBitrateObserver;
+import org.atalk.util.logging.DiagnosticContext;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link DelayBasedBandwidthEstimator} against a simulated bottleneck link: the sender paces
+ * its packets at the latest estimate, and the link delivers them in order at its capacity after
+ * a propagation delay, queueing those which arrive faster.
+ *
+ * @author Eng Chong Meng
+ */
+public class DelayBasedBandwidthEstimatorTest
+{
+    private static final long SSRC = 1;
+
+    /**
+     * The interval of the transport-cc feedbacks, in milliseconds.
+     */
+    private static final int FEEDBACK_INTERVAL_MS = 100;
+
+    /**
+     * A sender and a bottleneck link, driven by a simulated clock in milliseconds.
+     */
+    private static class Simulation
+            implements RemoteBitrateObserver
+    {
+        private static final int PACKET_SIZE = 1200;
+
+        private static final int PROPAGATION_DELAY_MS = 40;
+
+        private final DelayBasedBandwidthEstimator estimator
+                = new DelayBasedBandwidthEstimator(this, new DiagnosticContext());
+
+        /**
+         * The send and arrival times of the packets not yet reported.
+         */
+        private final ArrayDeque<double[]> inFlight = new ArrayDeque<>();
+
+        private double capacityBps;
+
+        private double sendRateBps = 300000;
+
+        private double nextSendMs = 0;
+
+        private double linkFreeMs = 0;
+
+        private long nowMs = 0;
+
+        private long observedBps = -1;
+
+        Simulation(double capacityBps)
+        {
+            this.capacityBps = capacityBps;
+        }
+
+        @Override
+        public void onReceiveBitrateChanged(Collection<Long> ssrcs, long bitrate)
+        {
+            assertTrue(ssrcs.contains(SSRC));
+            observedBps = bitrate;
+        }
+
+        /**
+         * Advances the simulation until a specific time.
+         */
+        void runUntil(long endMs)
+        {
+            for (; nowMs < endMs; nowMs++) {
+                while (nextSendMs <= nowMs) {
+                    double arrivalMs = Math.max(nextSendMs + PROPAGATION_DELAY_MS, linkFreeMs)
+                            + PACKET_SIZE * 8000D / capacityBps;
+                    linkFreeMs = arrivalMs;
+                    inFlight.add(new double[]{nextSendMs, arrivalMs});
+                    nextSendMs += PACKET_SIZE * 8000D / sendRateBps;
+                }
+
+                if (nowMs % FEEDBACK_INTERVAL_MS == 0) {
+                    while (!inFlight.isEmpty() && inFlight.peek()[1] <= nowMs) {
+                        double[] packet = inFlight.poll();
+                        estimator.incomingPacketFeedback((long) packet[0], (long) packet[1],
+                                PACKET_SIZE, nowMs);
+                    }
+                    estimator.feedbackProcessed(SSRC, nowMs);
+
+                    long estimateBps = estimator.getLatestEstimate();
+                    if (estimateBps > 0)
+                        sendRateBps = estimateBps;
+                }
+            }
+        }
+
+        /**
+         * @return the queueing delay of the link, in milliseconds
+         */
+        double getQueueingDelayMs()
+        {
+            return Math.max(0, linkFreeMs - nowMs - PROPAGATION_DELAY_MS);
+        }
+    }
+
+    @Test
+    public void testConvergesToCapacity()
+    {
+        Simulation sim = new Simulation(2000000);
+        sim.runUntil(10000);
+
+        long estimateBps = sim.estimator.getLatestEstimate();
+        assertTrue("estimate " + estimateBps, estimateBps > 1000000 && estimateBps < 2600000);
+        assertEquals(estimateBps, sim.observedBps);
+
+        // Tracking the capacity must not build up a standing queue.
+        for (long t = 10000; t < 30000; t += 1000) {
+            sim.runUntil(t);
+            assertTrue("queueing delay " + sim.getQueueingDelayMs() + " at " + t, sim.getQueueingDelayMs() < 200);
+            assertTrue("estimate " + sim.estimator.getLatestEstimate() + " at " + t,
+                    sim.estimator.getLatestEstimate() < 3000000);
+        }
+    }
+
+    @Test
+    public void testBacksOffOnCapacityDrop()
+    {
+        Simulation sim = new Simulation(2000000);
+        sim.runUntil(20000);
+        assertTrue(sim.estimator.getLatestEstimate() > 1000000);
+
+        sim.capacityBps = 500000;
+        sim.runUntil(23000);
+        long estimateBps = sim.estimator.getLatestEstimate();
+        assertTrue("estimate " + estimateBps, estimateBps < 600000);
+
+        // The queue built up by the drop drains, and the estimate follows the new capacity.
+        sim.runUntil(35000);
+        estimateBps = sim.estimator.getLatestEstimate();
+        assertTrue("queueing delay " + sim.getQueueingDelayMs(), sim.getQueueingDelayMs() < 200);
+        assertTrue("estimate " + estimateBps, estimateBps > 250000 && estimateBps < 750000);
+    }
+
+    @Test
+    public void testNoEstimateWithoutFeedback()
+    {
+        DelayBasedBandwidthEstimator estimator = new DelayBasedBandwidthEstimator(null, new DiagnosticContext());
+        assertEquals(-1, estimator.getLatestEstimate());
+        estimator.feedbackProcessed(SSRC, 0);
+        assertEquals(-1, estimator.getLatestEstimate());
+    }
+}
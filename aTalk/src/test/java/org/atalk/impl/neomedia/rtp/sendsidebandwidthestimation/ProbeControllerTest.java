@@ -0,0 +1,106 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+import org.atalk.impl.neomedia.rtp.remotebitrateestimator.BandwidthUsage;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the ramp-up and the fast recovery probes of {@link ProbeController}.
+ *
+ * @author Eng Chong Meng
+ */
+public class ProbeControllerTest
+{
+    private static final long MAX_BITRATE_BPS = 10000000L;
+
+    @Test
+    public void testRampUpDoublesWhileEstimateIsReached()
+    {
+        ProbeController probe = new ProbeController(MAX_BITRATE_BPS);
+
+        assertEquals(600000, probe.process(BandwidthUsage.kBwNormal, 300000, 290000, 0));
+        // Not again before MIN_RAMP_UP_INTERVAL_MS.
+        assertEquals(-1, probe.process(BandwidthUsage.kBwNormal, 600000, 590000, 100));
+        assertEquals(1200000, probe.process(BandwidthUsage.kBwNormal, 600000, 590000, 600));
+    }
+
+    @Test
+    public void testNoRampUpWhileEstimateIsNotReached()
+    {
+        ProbeController probe = new ProbeController(MAX_BITRATE_BPS);
+
+        assertEquals(-1, probe.process(BandwidthUsage.kBwNormal, 1000000, 500000, 0));
+        assertEquals(-1, probe.process(BandwidthUsage.kBwNormal, 1000000, -1, 1000));
+    }
+
+    @Test
+    public void testRampUpIsCappedAndStops()
+    {
+        ProbeController probe = new ProbeController(MAX_BITRATE_BPS);
+
+        assertEquals(MAX_BITRATE_BPS, probe.process(BandwidthUsage.kBwNormal, 8000000, 8000000, 0));
+        assertEquals(-1, probe.process(BandwidthUsage.kBwNormal, 5000000, 5000000, 1000));
+    }
+
+    @Test
+    public void testRampUpStopsOnOveruse()
+    {
+        ProbeController probe = new ProbeController(MAX_BITRATE_BPS);
+
+        assertEquals(600000, probe.process(BandwidthUsage.kBwNormal, 300000, 300000, 0));
+        assertEquals(-1, probe.process(BandwidthUsage.kBwOverusing, 550000, 500000, 1000));
+        assertEquals(-1, probe.process(BandwidthUsage.kBwNormal, 500000, 500000, 2000));
+    }
+
+    @Test
+    public void testRecoveryAfterLargeDrop()
+    {
+        ProbeController probe = new ProbeController(MAX_BITRATE_BPS);
+
+        // 2 Mbps confirmed, then a drop to 1 Mbps on over-use.
+        probe.process(BandwidthUsage.kBwNormal, 2000000, 1900000, 0);
+        assertEquals(-1, probe.process(BandwidthUsage.kBwOverusing, 1000000, 1900000, 100));
+
+        // Once the lower estimate is reached, probe back to RECOVERY_RATIO of the estimate before the drop, once.
+        assertEquals(-1, probe.process(BandwidthUsage.kBwNormal, 1000000, 500000, 500));
+        assertEquals(1700000, probe.process(BandwidthUsage.kBwNormal, 1000000, 950000, 1000));
+        assertEquals(-1, probe.process(BandwidthUsage.kBwNormal, 1000000, 950000, 1500));
+    }
+
+    @Test
+    public void testNoRecoveryAfterWindow()
+    {
+        ProbeController probe = new ProbeController(MAX_BITRATE_BPS);
+
+        probe.process(BandwidthUsage.kBwNormal, 2000000, 1900000, 0);
+        probe.process(BandwidthUsage.kBwOverusing, 1000000, 1900000, 100);
+        assertEquals(-1, probe.process(BandwidthUsage.kBwNormal, 1000000, 950000, 6000));
+    }
+
+    @Test
+    public void testNoRecoveryAfterSmallDrop()
+    {
+        ProbeController probe = new ProbeController(MAX_BITRATE_BPS);
+
+        probe.process(BandwidthUsage.kBwNormal, 2000000, 1900000, 0);
+        probe.process(BandwidthUsage.kBwOverusing, 1700000, 1900000, 100);
+        assertEquals(-1, probe.process(BandwidthUsage.kBwNormal, 1700000, 1650000, 1000));
+    }
+}
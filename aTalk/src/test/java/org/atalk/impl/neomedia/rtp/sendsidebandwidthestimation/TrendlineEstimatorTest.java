@@ -0,0 +1,104 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+import org.atalk.impl.neomedia.rtp.remotebitrateestimator.BandwidthUsage;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the over-use detection of {@link TrendlineEstimator} on synthetic packet group deltas.
+ *
+ * @author Eng Chong Meng
+ */
+public class TrendlineEstimatorTest
+{
+    /**
+     * The send time delta of the packet groups, in milliseconds.
+     */
+    private static final double SEND_DELTA_MS = 10;
+
+    /**
+     * Feeds groups whose receive delta exceeds their send delta by <tt>queueingMs</tt>.
+     *
+     * @return the arrival time of the last group
+     */
+    private static long feed(TrendlineEstimator trendline, int groups, double queueingMs, long arrivalTimeMs)
+    {
+        for (int i = 0; i < groups; i++) {
+            arrivalTimeMs += (long) (SEND_DELTA_MS + queueingMs);
+            trendline.update(SEND_DELTA_MS + queueingMs, SEND_DELTA_MS, arrivalTimeMs);
+        }
+        return arrivalTimeMs;
+    }
+
+    @Test
+    public void testConstantDelayIsNormal()
+    {
+        TrendlineEstimator trendline = new TrendlineEstimator();
+        long now = 1000;
+        for (int i = 0; i < 500; i++) {
+            now = feed(trendline, 1, 0, now);
+            assertEquals(BandwidthUsage.kBwNormal, trendline.getState());
+        }
+    }
+
+    @Test
+    public void testJitterWithoutTrendIsNormal()
+    {
+        TrendlineEstimator trendline = new TrendlineEstimator();
+        long now = 1000;
+        for (int i = 0; i < 500; i++) {
+            // Alternating early and late groups: no queue builds up.
+            now = feed(trendline, 1, (i % 2 == 0) ? 3 : -3, now);
+        }
+        assertEquals(BandwidthUsage.kBwNormal, trendline.getState());
+    }
+
+    @Test
+    public void testGrowingDelayIsOverusing()
+    {
+        TrendlineEstimator trendline = new TrendlineEstimator();
+        long now = feed(trendline, 100, 0, 1000);
+        assertEquals(BandwidthUsage.kBwNormal, trendline.getState());
+
+        // The queue grows by 2 ms per group.
+        boolean overusing = false;
+        for (int i = 0; i < 50 && !overusing; i++) {
+            now = feed(trendline, 1, 2, now);
+            overusing = (trendline.getState() == BandwidthUsage.kBwOverusing);
+        }
+        assertTrue("over-use not detected", overusing);
+    }
+
+    @Test
+    public void testDrainingDelayIsUnderusing()
+    {
+        TrendlineEstimator trendline = new TrendlineEstimator();
+        long now = feed(trendline, 100, 0, 1000);
+        now = feed(trendline, 40, 4, now);
+
+        // The queue drains by 4 ms per group.
+        boolean underusing = false;
+        for (int i = 0; i < 40 && !underusing; i++) {
+            now = feed(trendline, 1, -4, now);
+            underusing = (trendline.getState() == BandwidthUsage.kBwUnderusing);
+        }
+        assertTrue("under-use not detected", underusing);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.stats;
+
+import org.atalk.impl.neomedia.transform.srtp.SrtpErrorStatus;
+import org.atalk.util.MediaType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the OpenMetrics text rendered by {@link NeomediaMetrics}.
+ *
+ * @author Eng Chong Meng
+ */
+public class NeomediaMetricsTest
+{
+    private static String render()
+            throws IOException
+    {
+        StringWriter out = new StringWriter();
+        NeomediaMetrics.render(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testCountersEndInTotal()
+            throws IOException
+    {
+        String text = render();
+        assertTrue(text.endsWith("\n# EOF\n"));
+        assertEquals(text.indexOf("# EOF"), text.lastIndexOf("# EOF"));
+
+        // The samples of a counter family are named after it with the _total suffix.
+        Set<String> counters = new HashSet<>();
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# TYPE ") && line.endsWith(" counter")) {
+                String family = line.substring("# TYPE ".length(), line.length() - " counter".length());
+                assertFalse(family, family.endsWith("_total"));
+                counters.add(family);
+            }
+            else if (!line.startsWith("#")) {
+                String name = line.substring(0, line.indexOf('{'));
+                if (name.endsWith("_total"))
+                    assertTrue(name, counters.contains(name.substring(0, name.length() - "_total".length())));
+                else
+                    assertFalse(name, counters.contains(name));
+            }
+        }
+        assertTrue(counters.contains("atalk_srtp_failures"));
+    }
+
+    @Test
+    public void testSrtpStatusLabelsIgnoreLocale()
+            throws IOException
+    {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            NeomediaMetrics.srtpFailure(false, SrtpErrorStatus.FAIL);
+            NeomediaMetrics.srtpFailure(true, SrtpErrorStatus.INVALID_PACKET);
+
+            String text = render();
+            assertTrue(text, text.contains("atalk_srtp_failures_total{protocol=\"srtp\",status=\"fail\"} "));
+            assertTrue(text, text.contains(
+                    "atalk_srtp_failures_total{protocol=\"srtcp\",status=\"invalid_packet\"} "));
+            assertFalse(text, text.contains("status=\"ok\""));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void testStreamLabels()
+    {
+        assertEquals("stream=\"a\\\"b\\\\c\\nd\",id=\"1\",media=\"audio\",call=\"call\\\"1\"",
+                NeomediaMetrics.streamLabels(1, "a\"b\\c\nd", MediaType.AUDIO, "call\"1"));
+        assertEquals("stream=\"stream-2\",id=\"2\",media=\"\",call=\"\"",
+                NeomediaMetrics.streamLabels(2, null, null, null));
+
+        // Streams which have the same name are told apart by their IDs.
+        assertNotEquals(NeomediaMetrics.streamLabels(3, "video", MediaType.VIDEO, "c"),
+                NeomediaMetrics.streamLabels(4, "video", MediaType.VIDEO, "c"));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform;
+
+import org.atalk.impl.neomedia.benchmark.BenchmarkPackets;
+import org.atalk.service.neomedia.RawPacket;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the RED (RFC2198) encapsulation of {@link REDTransformEngine}, and the
+ * decapsulation of its output.
+ *
+ * @author Eng Chong Meng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class REDTransformEngineBenchmark
+{
+    private static final byte RED_PAYLOAD_TYPE = 116;
+
+    @Param({BenchmarkPackets.SYNTHETIC})
+    public String source;
+
+    @Param({"160", "1200"})
+    public int payloadLength;
+
+    private BenchmarkPackets packets;
+
+    /**
+     * The RED packets, as <tt>transform</tt> made them.
+     */
+    private BenchmarkPackets redPackets;
+
+    private REDTransformEngine red;
+
+    private final RawPacket[] pkts = new RawPacket[1];
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        packets = new BenchmarkPackets(source, BenchmarkPackets.BATCH, payloadLength);
+        red = new REDTransformEngine(RED_PAYLOAD_TYPE, RED_PAYLOAD_TYPE);
+        redPackets = new BenchmarkPackets(packets, red);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public void transform(Blackhole bh)
+    {
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++) {
+            pkts[0] = packets.reset(i);
+            bh.consume(red.transform(pkts));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public void reverseTransform(Blackhole bh)
+    {
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++) {
+            pkts[0] = redPackets.reset(i);
+            bh.consume(red.reverseTransform(pkts));
+        }
+    }
+}
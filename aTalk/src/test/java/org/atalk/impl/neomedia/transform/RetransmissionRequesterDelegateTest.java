@@ -0,0 +1,200 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform;
+
+import org.atalk.impl.neomedia.rtcp.NACKPacket;
+import org.atalk.impl.neomedia.rtcp.RTCPFBPacket;
+import org.atalk.service.neomedia.*;
+import org.atalk.util.ByteArrayBuffer;
+import org.atalk.util.TimeProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the NACK packets which {@link RetransmissionRequesterDelegate} sends for the packets
+ * missing from a stream, driven by a simulated clock.
+ *
+ * @author Eng Chong Meng
+ */
+public class RetransmissionRequesterDelegateTest
+{
+    private static final long SSRC = 0x0badcafeL;
+
+    /**
+     * The NACK packets injected into the stream.
+     */
+    private final List<RawPacket> injected = new ArrayList<>();
+
+    private long nowMs = 1000;
+
+    private RetransmissionRequesterDelegate delegate;
+
+    @Before
+    public void setUp()
+    {
+        // Only injectPacket is used; the stream has no statistics.
+        MediaStream stream = (MediaStream) Proxy.newProxyInstance(
+                MediaStream.class.getClassLoader(), new Class<?>[]{MediaStream.class},
+                new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if ("injectPacket".equals(method.getName()))
+                            injected.add((RawPacket) args[0]);
+                        return null;
+                    }
+                });
+        delegate = new RetransmissionRequesterDelegate(stream, new TimeProvider()
+        {
+            @Override
+            public long currentTimeMillis()
+            {
+                return nowMs;
+            }
+        });
+    }
+
+    private void receive(int... seqs)
+    {
+        for (int seq : seqs)
+            delegate.packetReceived(SSRC, seq);
+    }
+
+    /**
+     * Runs the delegate, and gets the FCI of the single NACK packet it sends, if any.
+     *
+     * @return the FCI, or <tt>null</tt> if no NACK packet is sent
+     */
+    private byte[] runAndGetFci()
+    {
+        injected.clear();
+        delegate.run();
+        if (injected.isEmpty())
+            return null;
+
+        assertEquals(1, injected.size());
+        ByteArrayBuffer fci = RTCPFBPacket.getFCI(injected.get(0));
+        assertNotNull(fci);
+        return Arrays.copyOfRange(fci.getBuffer(), fci.getOffset(), fci.getOffset() + fci.getLength());
+    }
+
+    private static List<Integer> getLostPackets(byte[] fci)
+    {
+        return new ArrayList<>(NACKPacket.getLostPacketsFci(new RawPacket(fci, 0, fci.length)));
+    }
+
+    private static List<Integer> range(int first, int count)
+    {
+        List<Integer> seqs = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            seqs.add((first + i) & 0xffff);
+        return seqs;
+    }
+
+    @Test
+    public void testNackAcrossWrap()
+    {
+        receive(65530, 3);
+        assertEquals(0, delegate.getTimeUntilNextRun());
+
+        // A single entry: PID 65531, and the BLP bits 0..6 for 65532..65535 and 0..2.
+        byte[] fci = runAndGetFci();
+        assertArrayEquals(new byte[]{(byte) 0xff, (byte) 0xfb, 0x00, 0x7f}, fci);
+        assertEquals(range(65531, 8), getLostPackets(fci));
+    }
+
+    @Test
+    public void testNackEntriesSpanBlp()
+    {
+        // 18 missing packets: an entry covers its PID and the 16 following.
+        receive(65520, 3);
+
+        byte[] fci = runAndGetFci();
+        assertArrayEquals(new byte[]{(byte) 0xff, (byte) 0xf1, (byte) 0xff, (byte) 0xff,
+                (byte) 0x00, (byte) 0x02, 0x00, 0x00}, fci);
+        Set<Integer> lost = new TreeSet<>(getLostPackets(fci));
+        assertEquals(new TreeSet<>(range(65521, 18)), lost);
+    }
+
+    @Test
+    public void testGapCappedAtMaxMissing()
+    {
+        int max = RetransmissionRequesterDelegate.MAX_MISSING;
+
+        receive(1000, 1000 + max);
+        byte[] fci = runAndGetFci();
+        assertNotNull(fci);
+        assertEquals(new TreeSet<>(range(1001, max - 1)), new TreeSet<>(getLostPackets(fci)));
+
+        // One more packet lost than MAX_MISSING resets the state instead.
+        receive(1000 + 2 * max + 1);
+        nowMs += RetransmissionRequesterDelegate.RE_REQUEST_AFTER_MILLIS;
+        assertNull(runAndGetFci());
+        assertEquals(RetransmissionRequesterDelegate.WAKEUP_INTERVAL_MILLIS, delegate.getTimeUntilNextRun());
+    }
+
+    @Test
+    public void testRecoveredPacketNotRequested()
+    {
+        receive(10, 14);
+        delegate.packetRecovered(SSRC, 12);
+        assertEquals(Arrays.asList(11, 13), getLostPackets(runAndGetFci()));
+
+        // Recovered after the first request: the next one is not sent.
+        delegate.packetRecovered(SSRC, 11);
+        delegate.packetRecovered(SSRC, 13);
+        assertEquals(RetransmissionRequesterDelegate.WAKEUP_INTERVAL_MILLIS, delegate.getTimeUntilNextRun());
+        nowMs += RetransmissionRequesterDelegate.RE_REQUEST_AFTER_MILLIS;
+        assertNull(runAndGetFci());
+    }
+
+    @Test
+    public void testRequestRepeatedThenGivenUp()
+    {
+        receive(10, 12);
+        for (int i = 0; i < RetransmissionRequesterDelegate.MAX_REQUESTS; i++) {
+            assertEquals(Collections.singletonList(11), getLostPackets(runAndGetFci()));
+            nowMs += RetransmissionRequesterDelegate.RE_REQUEST_AFTER_MILLIS;
+        }
+        assertNull(runAndGetFci());
+    }
+
+    @Test
+    public void testIdleRequesterRemoved()
+    {
+        receive(10, 14);
+        assertEquals(0, delegate.getTimeUntilNextRun());
+
+        // No packet for over 10 seconds: the requester is dropped without a request.
+        nowMs += 10001;
+        assertNull(runAndGetFci());
+        assertEquals(RetransmissionRequesterDelegate.WAKEUP_INTERVAL_MILLIS, delegate.getTimeUntilNextRun());
+
+        // Recovering a packet of the dropped requester has no effect, and a new one starts afresh.
+        delegate.packetRecovered(SSRC, 11);
+        receive(20);
+        assertNull(runAndGetFci());
+        receive(22);
+        assertEquals(Collections.singletonList(21), getLostPackets(runAndGetFci()));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.fec;
+
+import org.atalk.impl.neomedia.benchmark.BenchmarkPackets;
+import org.atalk.service.neomedia.RawPacket;
+import org.atalk.util.ByteArrayPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the recovery of the lost media packets by {@link ULPFECReceiver} and
+ * {@link FlexFec03Receiver}, for a stream generated by {@link FECSender} (one ulpfec packet
+ * every {@link #ULPFEC_RATE} media packets) or by {@link FlexFec03Sender} (a 2D protection).
+ *
+ * The score is the packets received (media or fec) per second; the auxiliary counter is the
+ * media packets recovered per second. Run with <tt>-prof gc</tt> for the allocation rate.
+ *
+ * @author Eng Chong Meng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FECRecoveryBenchmark
+{
+    /**
+     * The counters reported per second along with the packets received.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters
+    {
+        public long recoveredPackets;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            recoveredPackets = 0;
+        }
+    }
+
+    /**
+     * The number of media packets protected by an ulpfec packet. The ulpfec packets take their
+     * sequence numbers from the media stream, so that a stream of 3/4 of a cycle of media
+     * sequence numbers loops seamlessly.
+     */
+    private static final int ULPFEC_RATE = 3;
+
+    private static final byte FEC_PAYLOAD_TYPE = 110;
+
+    @Param({BenchmarkPackets.SYNTHETIC})
+    public String source;
+
+    @Param({"ulpfec", "flexfec"})
+    public String fec;
+
+    @Param({"10", "30"})
+    public int lossPercent;
+
+    /**
+     * The packets as they arrive, media and fec; the packets lost are excluded.
+     */
+    private RawPacket[] wire;
+
+    private AbstractFECReceiver receiver;
+
+    /**
+     * The media packet handed to the receiver, which copies it.
+     */
+    private final RawPacket media = new RawPacket(new byte[1500], 0, 0);
+
+    private final RawPacket[] pkts = new RawPacket[1];
+
+    private int next = 0;
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        long ssrc = BenchmarkPackets.SSRC & 0xffffffffL;
+        if ("ulpfec".equals(fec)) {
+            wire = createUlpfecStream(source, FEC_PAYLOAD_TYPE, lossPercent);
+            receiver = new ULPFECReceiver(ssrc, FEC_PAYLOAD_TYPE);
+        }
+        else {
+            wire = FlexFec03ReceiverBenchmark.createStream(source, FEC_PAYLOAD_TYPE, lossPercent,
+                    new FlexFec03ProtectionPolicy.Protection(5, 5, true, true));
+            receiver = new FlexFec03Receiver(ssrc, FEC_PAYLOAD_TYPE);
+        }
+    }
+
+    /**
+     * Generates the packets of an ULPFEC protected stream, and drops some of them at random.
+     *
+     * @param source {@link BenchmarkPackets#SYNTHETIC}, or the path of an rtpdump file
+     * @param fecPayloadType the payload type of the ulpfec packets
+     * @param lossPercent the percentage of packets lost
+     * @return the packets received
+     */
+    private static RawPacket[] createUlpfecStream(String source, byte fecPayloadType,
+            int lossPercent)
+            throws IOException
+    {
+        int mediaLength = FlexFec03ReceiverBenchmark.STREAM_LENGTH / (ULPFEC_RATE + 1) * ULPFEC_RATE;
+        BenchmarkPackets packets = new BenchmarkPackets(source, mediaLength, 160);
+        FECSender sender = new FECSender(BenchmarkPackets.SSRC & 0xffffffffL, ULPFEC_RATE,
+                fecPayloadType);
+
+        Random random = new Random(lossPercent);
+        List<RawPacket> wire = new ArrayList<>();
+        for (int i = 0; i < packets.size(); i++) {
+            for (RawPacket pkt : sender.transform(new RawPacket[]{packets.copy(i)})) {
+                if (pkt != null && random.nextInt(100) >= lossPercent)
+                    wire.add(pkt);
+            }
+        }
+        return wire.toArray(new RawPacket[0]);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        receiver.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public RawPacket[] reverseTransform(Counters counters)
+    {
+        int recovered = receiver.statistics.numRecoveredPackets;
+        RawPacket[] out = null;
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++) {
+            RawPacket pkt = wire[next];
+            next = (next + 1) % wire.length;
+
+            // The receiver keeps the fec packets, in buffers of the pool; it copies the media.
+            RawPacket received;
+            if (pkt.getPayloadType() == FEC_PAYLOAD_TYPE) {
+                byte[] buf = ByteArrayPool.getBuffer(pkt.getLength());
+                received = new RawPacket(buf, 0, pkt.getLength());
+            }
+            else {
+                received = media;
+                received.setOffset(0);
+                received.setLength(pkt.getLength());
+            }
+            System.arraycopy(pkt.getBuffer(), pkt.getOffset(), received.getBuffer(), 0,
+                    pkt.getLength());
+
+            pkts[0] = received;
+            out = receiver.reverseTransform(pkts);
+        }
+        counters.recoveredPackets += receiver.statistics.numRecoveredPackets - recovered;
+        return out;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.fec;
+
+import org.atalk.impl.neomedia.benchmark.BenchmarkPackets;
+import org.atalk.service.neomedia.RawPacket;
+import org.atalk.util.ByteArrayPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the receive path of {@link FlexFec03Receiver}, per packet received (media or fec),
+ * including the recovery of the media packets lost. The stream is generated by a
+ * {@link FlexFec03Sender} with a 2D protection, over a whole cycle of sequence numbers so that
+ * it loops seamlessly.
+ *
+ * @author Eng Chong Meng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlexFec03ReceiverBenchmark
+{
+    /**
+     * The number of media packets of the stream; a whole cycle of sequence numbers.
+     */
+    static final int STREAM_LENGTH = 0x10000;
+
+    private static final byte FEC_PAYLOAD_TYPE = 110;
+
+    @Param({BenchmarkPackets.SYNTHETIC})
+    public String source;
+
+    @Param({"0", "10"})
+    public int lossPercent;
+
+    /**
+     * The packets as they arrive, media and fec; the packets lost are excluded.
+     */
+    private RawPacket[] wire;
+
+    private FlexFec03Receiver receiver;
+
+    /**
+     * The media packet handed to the receiver, which copies it.
+     */
+    private final RawPacket media = new RawPacket(new byte[1500], 0, 0);
+
+    private final RawPacket[] pkts = new RawPacket[1];
+
+    private int next = 0;
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        wire = createStream(source, FEC_PAYLOAD_TYPE, lossPercent,
+                new FlexFec03ProtectionPolicy.Protection(5, 5, true, true));
+        receiver = new FlexFec03Receiver(BenchmarkPackets.SSRC & 0xffffffffL, FEC_PAYLOAD_TYPE);
+    }
+
+    /**
+     * Generates the packets of a FlexFEC protected stream, and drops some of them at random.
+     *
+     * @param source {@link BenchmarkPackets#SYNTHETIC}, or the path of an rtpdump file
+     * @param fecPayloadType the payload type of the fec packets
+     * @param lossPercent the percentage of packets lost
+     * @param protection the protection of the stream
+     * @return the packets received
+     */
+    static RawPacket[] createStream(String source, byte fecPayloadType, int lossPercent,
+            final FlexFec03ProtectionPolicy.Protection protection)
+            throws IOException
+    {
+        BenchmarkPackets packets = new BenchmarkPackets(source, STREAM_LENGTH, 160);
+        FlexFec03Sender sender = new FlexFec03Sender(BenchmarkPackets.SSRC & 0xffffffffL,
+                0x0feccafeL, fecPayloadType, new FlexFec03ProtectionPolicy()
+        {
+            @Override
+            synchronized Protection getProtection()
+            {
+                return protection;
+            }
+        });
+
+        Random random = new Random(lossPercent);
+        List<RawPacket> wire = new ArrayList<>();
+        for (int i = 0; i < packets.size(); i++) {
+            for (RawPacket pkt : sender.transform(new RawPacket[]{packets.copy(i)})) {
+                if (pkt != null && random.nextInt(100) >= lossPercent)
+                    wire.add(pkt);
+            }
+        }
+        return wire.toArray(new RawPacket[0]);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        receiver.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public RawPacket[] reverseTransform()
+    {
+        RawPacket[] out = null;
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++) {
+            RawPacket pkt = wire[next];
+            next = (next + 1) % wire.length;
+
+            // The receiver keeps the fec packets, in buffers of the pool; it copies the media.
+            RawPacket received;
+            if (pkt.getPayloadType() == FEC_PAYLOAD_TYPE) {
+                byte[] buf = ByteArrayPool.getBuffer(pkt.getLength());
+                received = new RawPacket(buf, 0, pkt.getLength());
+            }
+            else {
+                received = media;
+                received.setOffset(0);
+                received.setLength(pkt.getLength());
+            }
+            System.arraycopy(pkt.getBuffer(), pkt.getOffset(), received.getBuffer(), 0,
+                    pkt.getLength());
+
+            pkts[0] = received;
+            out = receiver.reverseTransform(pkts);
+        }
+        return out;
+    }
+}
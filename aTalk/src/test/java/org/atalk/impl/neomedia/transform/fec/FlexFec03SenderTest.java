@@ -0,0 +1,128 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.fec;
+
+import org.atalk.service.neomedia.RawPacket;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that {@link FlexFec03Sender} protects each media packet of a block once, whatever
+ * duplicates and late packets the stream has.
+ *
+ * @author Eng Chong Meng
+ */
+public class FlexFec03SenderTest
+{
+    private static final long SSRC = 0x0badcafeL;
+
+    private static final byte PAYLOAD_TYPE = 100;
+
+    private static final byte FEC_PAYLOAD_TYPE = 110;
+
+    /**
+     * A row of 4 media packets per block, protected by a single fec packet.
+     */
+    private static final FlexFec03ProtectionPolicy.Protection PROTECTION
+            = new FlexFec03ProtectionPolicy.Protection(4, 1, true, false);
+
+    private static FlexFec03Sender createSender()
+    {
+        return new FlexFec03Sender(SSRC, 0x0feccafeL, FEC_PAYLOAD_TYPE,
+                new FlexFec03ProtectionPolicy()
+                {
+                    @Override
+                    synchronized Protection getProtection()
+                    {
+                        return PROTECTION;
+                    }
+                });
+    }
+
+    private static RawPacket createPacket(int seq)
+    {
+        byte[] buf = new byte[RawPacket.FIXED_HEADER_SIZE + 160];
+        new Random(seq).nextBytes(buf);
+        buf[0] = (byte) 0x80;
+        RawPacket pkt = new RawPacket(buf, 0, buf.length);
+        pkt.setPayloadType(PAYLOAD_TYPE);
+        pkt.setSequenceNumber(seq);
+        pkt.setTimestamp(960L * seq);
+        pkt.setSSRC((int) SSRC);
+        return pkt;
+    }
+
+    /**
+     * Sends media packets, and collects the fec packets added.
+     *
+     * @param sender the sender
+     * @param seqs the sequence numbers of the media packets, in the order sent
+     * @return the FlexFEC headers and payloads of the fec packets, in the order added
+     */
+    private static List<byte[]> send(FlexFec03Sender sender, int... seqs)
+    {
+        List<byte[]> fecPackets = new ArrayList<>();
+        for (int seq : seqs) {
+            for (RawPacket pkt : sender.transform(new RawPacket[]{createPacket(seq)})) {
+                if (pkt != null && pkt.getPayloadType() == FEC_PAYLOAD_TYPE) {
+                    fecPackets.add(Arrays.copyOfRange(pkt.getBuffer(),
+                            pkt.getOffset() + RawPacket.FIXED_HEADER_SIZE,
+                            pkt.getOffset() + pkt.getLength()));
+                }
+            }
+        }
+        return fecPackets;
+    }
+
+    private static void assertSameFecPackets(List<byte[]> expected, List<byte[]> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertArrayEquals("fec packet " + i, expected.get(i), actual.get(i));
+    }
+
+    @Test
+    public void testDuplicateNotProtectedTwice()
+    {
+        List<byte[]> expected = send(createSender(), 0, 1, 2, 3, 4, 5, 6, 7);
+        assertEquals(2, expected.size());
+
+        assertSameFecPackets(expected, send(createSender(), 0, 1, 2, 2, 3, 4, 4, 5, 6, 7, 7));
+    }
+
+    @Test
+    public void testLatePacketSkipped()
+    {
+        List<byte[]> expected = send(createSender(), 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11);
+        assertEquals(3, expected.size());
+
+        // A packet of the previous block neither restarts the block nor is protected again.
+        assertSameFecPackets(expected, send(createSender(), 0, 1, 2, 3, 4, 5, 1, 6, 7, 8, 3, 9, 10, 11));
+    }
+
+    @Test
+    public void testDuplicateAcrossWrap()
+    {
+        List<byte[]> expected = send(createSender(), 0xfffe, 0xffff, 0, 1);
+        assertEquals(1, expected.size());
+
+        assertSameFecPackets(expected, send(createSender(), 0xfffe, 0xffff, 0xffff, 0, 0xfffe, 1));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.fec;
+
+import org.atalk.impl.neomedia.benchmark.BenchmarkPackets;
+import org.atalk.service.neomedia.RawPacket;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link PacketRing} of the fec receivers as they use it: a packet is put for every
+ * sequence number, displacing the one a window older, and the packets within the window are
+ * looked up. The packets span a whole cycle of sequence numbers, so that the wrap is included.
+ *
+ * @author Eng Chong Meng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketRingBenchmark
+{
+    /**
+     * The windows of the media and of the fec packets of <tt>AbstractFECReceiver</tt>.
+     */
+    @Param({"32", "64"})
+    public int window;
+
+    private RawPacket[] packets;
+
+    private PacketRing ring;
+
+    private int next = 0;
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        BenchmarkPackets source = new BenchmarkPackets(BenchmarkPackets.SYNTHETIC,
+                FlexFec03ReceiverBenchmark.STREAM_LENGTH, 0);
+        packets = source.reset();
+        ring = new PacketRing(window);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public void putGet(Blackhole bh)
+    {
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++) {
+            RawPacket pkt = packets[next];
+            next = (next + 1) & 0xffff;
+
+            int seq = pkt.getSequenceNumber();
+            bh.consume(ring.put(pkt));
+            bh.consume(ring.get((seq - window / 2) & 0xffff));
+            bh.consume(ring.isTooOld((seq - window) & 0xffff));
+        }
+    }
+}
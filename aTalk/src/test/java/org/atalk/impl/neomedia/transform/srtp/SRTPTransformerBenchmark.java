@@ -0,0 +1,125 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.srtp;
+
+import org.atalk.impl.neomedia.benchmark.BenchmarkPackets;
+import org.atalk.service.neomedia.RawPacket;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the SRTP protection and unprotection of {@link SRTPTransformer}. The same batch of
+ * SRTP packets is unprotected over and over, so the receive-side replay protection is disabled.
+ *
+ * @author Eng Chong Meng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SRTPTransformerBenchmark
+{
+    @Param({BenchmarkPackets.SYNTHETIC})
+    public String source;
+
+    @Param({"160", "1200"})
+    public int payloadLength;
+
+    private BenchmarkPackets packets;
+
+    /**
+     * The SRTP packets of <tt>packets</tt>.
+     */
+    private BenchmarkPackets srtpPackets;
+
+    private SRTPTransformer transformer;
+
+    /**
+     * The sequence number of the next packet to protect; the sender rejects replayed packets.
+     */
+    private int seq = 0;
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        packets = new BenchmarkPackets(source, BenchmarkPackets.BATCH, payloadLength);
+        transformer = createTransformer();
+
+        SRTPTransformer peer = createTransformer();
+        srtpPackets = new BenchmarkPackets(packets, peer);
+        peer.close();
+        if (transformer.reverseTransform(srtpPackets.reset(0)) == null)
+            throw new IllegalStateException("SRTP packets failed to unprotect");
+    }
+
+    /**
+     * Creates an <tt>SRTPTransformer</tt> which reverses the output of any other it creates,
+     * without receive-side replay protection.
+     *
+     * @return the new <tt>SRTPTransformer</tt>
+     */
+    static SRTPTransformer createTransformer()
+    {
+        Random random = new Random(1);
+        byte[] masterKey = new byte[16];
+        byte[] masterSalt = new byte[14];
+        random.nextBytes(masterKey);
+        random.nextBytes(masterSalt);
+        SrtpPolicy policy = new SrtpPolicy(SrtpPolicy.AESCM_ENCRYPTION, 16,
+                SrtpPolicy.HMACSHA1_AUTHENTICATION, 20, 10, 14);
+        SrtpPolicy receivePolicy = new SrtpPolicy(SrtpPolicy.AESCM_ENCRYPTION, 16,
+                SrtpPolicy.HMACSHA1_AUTHENTICATION, 20, 10, 14);
+        receivePolicy.setReceiveReplayEnabled(false);
+
+        return new SRTPTransformer(
+                new SrtpContextFactory(true, masterKey, masterSalt, policy, policy),
+                new SrtpContextFactory(false, masterKey, masterSalt, receivePolicy, receivePolicy));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        transformer.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public void transform(Blackhole bh)
+    {
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++) {
+            RawPacket pkt = packets.reset(i);
+            pkt.setSequenceNumber(seq);
+            seq = (seq + 1) & 0xffff;
+            bh.consume(transformer.transform(pkt));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public void reverseTransform(Blackhole bh)
+    {
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++)
+            bh.consume(transformer.reverseTransform(srtpPackets.reset(i)));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.srtp;
+
+import org.atalk.impl.neomedia.benchmark.BenchmarkPackets;
+import org.atalk.service.neomedia.RawPacket;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the packets per second of one {@link SRTPTransformer} protecting on one thread while
+ * it unprotects on another, for the same SSRC, as the send and receive threads of a stream do.
+ * Each direction has its own context, so neither should slow down the other; compare with the
+ * single threaded {@link SRTPTransformerBenchmark}.
+ *
+ * @author Eng Chong Meng
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SRTPTransformerConcurrentBenchmark
+{
+    /**
+     * The transformer shared by the send and receive threads.
+     */
+    @State(Scope.Group)
+    public static class Transformer
+    {
+        SRTPTransformer transformer;
+
+        @Setup
+        public void setUp()
+        {
+            transformer = SRTPTransformerBenchmark.createTransformer();
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            transformer.close();
+        }
+    }
+
+    /**
+     * The packets of the send thread.
+     */
+    @State(Scope.Thread)
+    public static class SendPackets
+    {
+        @Param({BenchmarkPackets.SYNTHETIC})
+        public String source;
+
+        @Param({"160", "1200"})
+        public int payloadLength;
+
+        BenchmarkPackets packets;
+
+        /**
+         * The sequence number of the next packet; the sender rejects replayed packets.
+         */
+        int seq = 0;
+
+        @Setup
+        public void setUp()
+                throws IOException
+        {
+            packets = new BenchmarkPackets(source, BenchmarkPackets.BATCH, payloadLength);
+        }
+    }
+
+    /**
+     * The SRTP packets of the receive thread, unprotected over and over.
+     */
+    @State(Scope.Thread)
+    public static class ReceivePackets
+    {
+        @Param({BenchmarkPackets.SYNTHETIC})
+        public String source;
+
+        @Param({"160", "1200"})
+        public int payloadLength;
+
+        BenchmarkPackets srtpPackets;
+
+        @Setup
+        public void setUp()
+                throws IOException
+        {
+            SRTPTransformer peer = SRTPTransformerBenchmark.createTransformer();
+            srtpPackets = new BenchmarkPackets(
+                    new BenchmarkPackets(source, BenchmarkPackets.BATCH, payloadLength), peer);
+            peer.close();
+        }
+    }
+
+    @Benchmark
+    @Group("sendReceive")
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public void transform(Transformer t, SendPackets s, Blackhole bh)
+    {
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++) {
+            RawPacket pkt = s.packets.reset(i);
+            pkt.setSequenceNumber(s.seq);
+            s.seq = (s.seq + 1) & 0xffff;
+            bh.consume(t.transformer.transform(pkt));
+        }
+    }
+
+    @Benchmark
+    @Group("sendReceive")
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public void reverseTransform(Transformer t, ReceivePackets r, Blackhole bh)
+    {
+        for (int i = 0; i < BenchmarkPackets.BATCH; i++) {
+            if (t.transformer.reverseTransform(r.srtpPackets.reset(i)) == null)
+                throw new IllegalStateException("SRTP packet failed to unprotect");
+            bh.consume(r.srtpPackets);
+        }
+    }
+}
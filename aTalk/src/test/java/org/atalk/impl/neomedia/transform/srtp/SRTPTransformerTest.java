@@ -0,0 +1,143 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.srtp;
+
+import org.atalk.service.neomedia.RawPacket;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SRTPTransformer} with its send and receive threads working on the same SSRC at
+ * once, the two directions of which must not share any state.
+ *
+ * @author Eng Chong Meng
+ */
+public class SRTPTransformerTest
+{
+    private static final int SSRC = 0x0badcafe;
+
+    private static final int PAYLOAD_LENGTH = 160;
+
+    private SRTPTransformer transformer;
+
+    @Before
+    public void setUp()
+    {
+        Random random = new Random(7);
+        byte[] masterKey = new byte[16];
+        byte[] masterSalt = new byte[14];
+        random.nextBytes(masterKey);
+        random.nextBytes(masterSalt);
+        SrtpPolicy policy = new SrtpPolicy(SrtpPolicy.AESCM_ENCRYPTION, 16,
+                SrtpPolicy.HMACSHA1_AUTHENTICATION, 20, 10, 14);
+
+        // The same keys both ways, so that the transformer can reverse its own output.
+        transformer = new SRTPTransformer(
+                new SrtpContextFactory(true, masterKey, masterSalt, policy, policy),
+                new SrtpContextFactory(false, masterKey, masterSalt, policy, policy));
+    }
+
+    private static RawPacket createPacket(int seq)
+    {
+        byte[] buf = new byte[12 + PAYLOAD_LENGTH];
+        buf[0] = (byte) 0x80;
+        buf[1] = 96;
+        RawPacket.setSequenceNumber(buf, 0, seq);
+        buf[8] = (byte) (SSRC >>> 24);
+        buf[9] = (byte) (SSRC >>> 16);
+        buf[10] = (byte) (SSRC >>> 8);
+        buf[11] = (byte) SSRC;
+        for (int i = 12; i < buf.length; i++)
+            buf[i] = (byte) (seq * 31 + i);
+        return new RawPacket(buf, 0, buf.length);
+    }
+
+    /**
+     * One thread protects packets while another unprotects them, each with its own context of
+     * the same SSRC: every packet must come back as it was sent.
+     */
+    @Test
+    public void testConcurrentTransformAndReverseTransform()
+            throws Exception
+    {
+        final int count = 20000;
+        final BlockingQueue<byte[]> wire = new ArrayBlockingQueue<>(256);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<?> sender = executor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                        throws Exception
+                {
+                    for (int seq = 0; seq < count; seq++) {
+                        RawPacket pkt = transformer.transform(createPacket(seq));
+                        assertNotNull("transform " + seq, pkt);
+                        wire.put(Arrays.copyOfRange(pkt.getBuffer(), pkt.getOffset(),
+                                pkt.getOffset() + pkt.getLength()));
+                    }
+                    return null;
+                }
+            });
+
+            Future<?> receiver = executor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                        throws Exception
+                {
+                    for (int seq = 0; seq < count; seq++) {
+                        byte[] srtp = wire.poll(30, TimeUnit.SECONDS);
+                        assertNotNull("packet " + seq + " not received", srtp);
+                        RawPacket pkt = transformer.reverseTransform(new RawPacket(srtp, 0, srtp.length));
+                        assertNotNull("reverseTransform " + seq, pkt);
+
+                        RawPacket expected = createPacket(seq);
+                        assertEquals(expected.getLength(), pkt.getLength());
+                        assertArrayEquals("packet " + seq,
+                                Arrays.copyOfRange(expected.getBuffer(), 0, expected.getLength()),
+                                Arrays.copyOfRange(pkt.getBuffer(), pkt.getOffset(),
+                                        pkt.getOffset() + pkt.getLength()));
+                    }
+                    return null;
+                }
+            });
+
+            sender.get(60, TimeUnit.SECONDS);
+            receiver.get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * No context is kept, nor a packet transformed, once the transformer is closed.
+     */
+    @Test
+    public void testNoContextAfterClose()
+    {
+        assertNotNull(transformer.transform(createPacket(1)));
+        transformer.close();
+        assertNull(transformer.transform(createPacket(2)));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.srtp;
+
+import org.atalk.service.neomedia.RawPacket;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the replay protection of {@link SrtpCryptoContext}, in particular when the packets of a
+ * receive context are processed by several threads at once.
+ *
+ * @author Eng Chong Meng
+ */
+public class SrtpCryptoContextTest
+{
+    private static final int SSRC = 0x12345678;
+
+    private static final int THREADS = 8;
+
+    private final byte[] masterKey = new byte[16];
+
+    private final byte[] masterSalt = new byte[14];
+
+    private SrtpPolicy policy;
+
+    @Before
+    public void setUp()
+    {
+        Random random = new Random(5);
+        random.nextBytes(masterKey);
+        random.nextBytes(masterSalt);
+        policy = new SrtpPolicy(SrtpPolicy.AESCM_ENCRYPTION, 16,
+                SrtpPolicy.HMACSHA1_AUTHENTICATION, 20, 10, 14);
+    }
+
+    /**
+     * Protects the packets with the given sequence numbers using a sender context.
+     *
+     * @return the SRTP packets, indexed like <tt>seqNos</tt>
+     */
+    private byte[][] protect(int... seqNos)
+    {
+        SrtpCryptoContext sender = new SrtpCryptoContext(true, SSRC, 0, masterKey, masterSalt, policy);
+        byte[][] packets = new byte[seqNos.length][];
+        for (int i = 0; i < seqNos.length; i++) {
+            byte[] buf = new byte[12 + 20];
+            buf[0] = (byte) 0x80;
+            buf[1] = 96;
+            RawPacket.setSequenceNumber(buf, 0, seqNos[i]);
+            buf[8] = (byte) (SSRC >>> 24);
+            buf[9] = (byte) (SSRC >>> 16);
+            buf[10] = (byte) (SSRC >>> 8);
+            buf[11] = (byte) SSRC;
+            buf[12] = (byte) i;
+
+            RawPacket pkt = new RawPacket(buf, 0, buf.length);
+            assertEquals(SrtpErrorStatus.OK, sender.transformPacket(pkt));
+            packets[i] = Arrays.copyOfRange(pkt.getBuffer(), pkt.getOffset(), pkt.getOffset() + pkt.getLength());
+        }
+        return packets;
+    }
+
+    private static SrtpErrorStatus unprotect(SrtpCryptoContext receiver, byte[] packet)
+    {
+        byte[] copy = packet.clone();
+        return receiver.reverseTransformPacket(new RawPacket(copy, 0, copy.length), false);
+    }
+
+    @Test
+    public void testReplayedPacketsAreRejected()
+    {
+        int[] seqNos = new int[100];
+        for (int i = 0; i < seqNos.length; i++)
+            seqNos[i] = 1000 + i;
+        byte[][] packets = protect(seqNos);
+
+        SrtpCryptoContext receiver = new SrtpCryptoContext(false, SSRC, 0, masterKey, masterSalt, policy);
+        assertEquals(SrtpErrorStatus.OK, unprotect(receiver, packets[0]));
+        assertEquals(SrtpErrorStatus.REPLAY_FAIL, unprotect(receiver, packets[0]));
+
+        // Out of order within the replay window is accepted once
+        assertEquals(SrtpErrorStatus.OK, unprotect(receiver, packets[10]));
+        assertEquals(SrtpErrorStatus.OK, unprotect(receiver, packets[5]));
+        assertEquals(SrtpErrorStatus.REPLAY_FAIL, unprotect(receiver, packets[5]));
+        assertEquals(SrtpErrorStatus.REPLAY_FAIL, unprotect(receiver, packets[10]));
+
+        // Older than the replay window
+        assertEquals(SrtpErrorStatus.OK, unprotect(receiver, packets[99]));
+        assertEquals(SrtpErrorStatus.REPLAY_OLD, unprotect(receiver, packets[1]));
+    }
+
+    @Test
+    public void testTamperedPacketDoesNotUpdateReplayWindow()
+    {
+        byte[][] packets = protect(7);
+        byte[] tampered = packets[0].clone();
+        tampered[12] ^= 1;
+
+        SrtpCryptoContext receiver = new SrtpCryptoContext(false, SSRC, 0, masterKey, masterSalt, policy);
+        assertEquals(SrtpErrorStatus.AUTH_FAIL, unprotect(receiver, tampered));
+        assertEquals(SrtpErrorStatus.OK, unprotect(receiver, packets[0]));
+    }
+
+    /**
+     * Several threads deliver all the packets of a window, each in its own order, to the same
+     * receive context: every packet must be accepted exactly once.
+     */
+    @Test
+    public void testConcurrentReplayWindow()
+            throws Exception
+    {
+        // All the packets fit in the replay window, so none is ever too old.
+        int count = (int) BaseSrtpCryptoContext.REPLAY_WINDOW_SIZE;
+        int[] seqNos = new int[count];
+        for (int i = 0; i < count; i++)
+            seqNos[i] = 30000 + i;
+        final byte[][] packets = protect(seqNos);
+
+        for (int round = 0; round < 20; round++) {
+            final SrtpCryptoContext receiver
+                    = new SrtpCryptoContext(false, SSRC, 0, masterKey, masterSalt, policy);
+            final AtomicIntegerArray accepted = new AtomicIntegerArray(count);
+            final CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            List<Future<Integer>> rejected = new ArrayList<>();
+
+            for (int t = 0; t < THREADS; t++) {
+                final List<Integer> order = new ArrayList<>();
+                for (int i = 0; i < count; i++)
+                    order.add(i);
+                Collections.shuffle(order, new Random(31 * round + t));
+
+                rejected.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call()
+                            throws Exception
+                    {
+                        start.await();
+                        int replays = 0;
+                        for (int i : order) {
+                            SrtpErrorStatus status = unprotect(receiver, packets[i]);
+                            if (status == SrtpErrorStatus.OK)
+                                accepted.incrementAndGet(i);
+                            else if (status == SrtpErrorStatus.REPLAY_FAIL)
+                                replays++;
+                            else
+                                fail("Unexpected status " + status + " for packet " + i);
+                        }
+                        return replays;
+                    }
+                }));
+            }
+            start.countDown();
+
+            int replays = 0;
+            try {
+                for (Future<Integer> f : rejected)
+                    replays += f.get(30, TimeUnit.SECONDS);
+            } finally {
+                executor.shutdownNow();
+            }
+
+            for (int i = 0; i < count; i++)
+                assertEquals("packet " + i + " in round " + round, 1, accepted.get(i));
+            assertEquals((THREADS - 1) * count, replays);
+        }
+    }
+}
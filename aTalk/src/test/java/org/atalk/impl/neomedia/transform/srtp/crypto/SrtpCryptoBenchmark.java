@@ -0,0 +1,102 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.impl.neomedia.transform.srtp.crypto;
+
+import org.atalk.impl.neomedia.benchmark.BenchmarkPackets;
+import org.atalk.service.neomedia.RawPacket;
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the SRTP primitives on the packet payloads: the AES counter mode encryption of
+ * {@link SrtpCipherCtrJava}, and the HMAC-SHA1 authentication of {@link HmacSha1} over the
+ * whole packet.
+ *
+ * @author Eng Chong Meng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SrtpCryptoBenchmark
+{
+    @Param({BenchmarkPackets.SYNTHETIC})
+    public String source;
+
+    @Param({"160", "1200"})
+    public int payloadLength;
+
+    private RawPacket[] pkts;
+
+    private SrtpCipherCtr cipher;
+
+    private final byte[] iv = new byte[16];
+
+    private Mac mac;
+
+    private final byte[] tag = new byte[20];
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        pkts = new BenchmarkPackets(source, BenchmarkPackets.BATCH, payloadLength).reset();
+
+        Random random = new Random(1);
+        byte[] encKey = new byte[16];
+        byte[] authKey = new byte[20];
+        random.nextBytes(encKey);
+        random.nextBytes(authKey);
+        random.nextBytes(iv);
+
+        cipher = new SrtpCipherCtrJava(Aes.createBlockCipher(encKey.length));
+        cipher.init(encKey);
+        mac = HmacSha1.createMac();
+        mac.init(new KeyParameter(authKey));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public byte[] cipherCtr()
+    {
+        // The payload is encrypted in place, over and over; its content does not matter.
+        for (RawPacket pkt : pkts) {
+            int headerLength = pkt.getHeaderLength();
+            cipher.process(pkt.getBuffer(), pkt.getOffset() + headerLength,
+                    pkt.getLength() - headerLength, iv);
+        }
+        return iv;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public byte[] hmacSha1()
+    {
+        for (RawPacket pkt : pkts) {
+            mac.update(pkt.getBuffer(), pkt.getOffset(), pkt.getLength());
+            mac.doFinal(tag, 0);
+        }
+        return tag;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * aTalk, android VoIP and Instant Messaging client
+ * Copyright 2014 Eng Chong Meng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.atalk.service.neomedia;
+
+import org.atalk.impl.neomedia.benchmark.BenchmarkPackets;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of the RFC5285 one-byte RTP header extensions of {@link RawPacket}: the
+ * iteration over all of them, and the lookup of one by its ID. Each packet carries an audio
+ * level (ID 1), an abs-send-time (ID 3) and a transport-cc (ID 5) extension, in addition to
+ * those of a captured packet.
+ *
+ * @author Eng Chong Meng
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RawPacketBenchmark
+{
+    @Param({BenchmarkPackets.SYNTHETIC})
+    public String source;
+
+    private RawPacket[] pkts;
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        BenchmarkPackets packets = new BenchmarkPackets(source, BenchmarkPackets.BATCH, 160);
+
+        pkts = new RawPacket[packets.size()];
+        for (int i = 0; i < pkts.length; i++) {
+            pkts[i] = packets.copy(i);
+            pkts[i].addExtension((byte) 1, new byte[]{(byte) 0x80});
+            pkts[i].addExtension((byte) 3, new byte[]{0x12, 0x34, 0x56});
+            pkts[i].addExtension((byte) 5, new byte[]{0, (byte) i});
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public int getHeaderExtensions()
+    {
+        int sum = 0;
+        for (RawPacket pkt : pkts) {
+            RawPacket.HeaderExtensions hes = pkt.getHeaderExtensions();
+            while (hes.hasNext()) {
+                RawPacket.HeaderExtension he = hes.next();
+                sum += he.getExtId() + he.getExtLength();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkPackets.BATCH)
+    public int getHeaderExtension()
+    {
+        int sum = 0;
+        for (RawPacket pkt : pkts) {
+            RawPacket.HeaderExtension he = pkt.getHeaderExtension((byte) 5);
+            if (he != null)
+                sum += he.getBuffer()[he.getOffset() + 2];
+        }
+        return sum;
+    }
+}